@@ -0,0 +1,101 @@
+package org.soprasteria.avans.lockercloud.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Deflates chunks of a stream on a pool of workers, so one large entry keeps all
+ * cores busy. Every chunk is compressed on its own into raw deflate data that
+ * ends on a byte boundary (a sync flush); the chunks of an entry concatenated in
+ * order form one valid deflate stream, the last one closing it. A chunk is primed
+ * with the tail of the chunk before it as dictionary, so splitting costs almost
+ * no compression ratio.
+ */
+public class ParallelDeflater implements AutoCloseable {
+
+    /** Deflate looks back at most this far, so more dictionary than this is useless. */
+    static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private final ThreadPoolExecutor pool;
+    private final int parallelism;
+    private final int level;
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param concurrency number of workers; 0 or less uses the number of cores
+     * @param level       deflate level, or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public ParallelDeflater(int concurrency, int level) {
+        this.parallelism = concurrency > 0 ? concurrency : Runtime.getRuntime().availableProcessors();
+        this.level = level;
+        AtomicInteger threads = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(parallelism, parallelism, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "zip-deflate-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    public int parallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Deflates {@code length} bytes of {@code chunk} in the background. The arrays
+     * must not be changed until the result is in.
+     *
+     * @param previous the chunk before this one in the same entry, or null for the first
+     * @param last     true to end the deflate stream after this chunk
+     */
+    public Future<byte[]> deflate(byte[] chunk, int length, byte[] previous, int previousLength, boolean last) {
+        return pool.submit(() -> {
+            Deflater deflater = deflaters.poll();
+            if (deflater == null) {
+                deflater = new Deflater(level, true);
+            }
+            try {
+                if (previous != null && previousLength > 0) {
+                    int dictionary = Math.min(DICTIONARY_SIZE, previousLength);
+                    deflater.setDictionary(previous, previousLength - dictionary, dictionary);
+                }
+                deflater.setInput(chunk, 0, length);
+                ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+                byte[] buffer = new byte[16 * 1024];
+                if (last) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        out.write(buffer, 0, deflater.deflate(buffer));
+                    }
+                } else {
+                    // Zolang de buffer volloopt is er nog uitvoer over
+                    int n;
+                    do {
+                        n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                        out.write(buffer, 0, n);
+                    } while (n == buffer.length || !deflater.needsInput());
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.reset();
+                deflaters.offer(deflater);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+        Deflater deflater;
+        while ((deflater = deflaters.poll()) != null) {
+            deflater.end();
+        }
+    }
+}
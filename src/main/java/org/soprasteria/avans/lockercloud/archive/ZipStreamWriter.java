@@ -0,0 +1,366 @@
+package org.soprasteria.avans.lockercloud.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * Writes a ZIP archive straight to a stream while the entries are still being
+ * read, so neither the archive nor a whole entry is ever held in memory.
+ * <p>
+ * Deflated entries are cut into chunks that are compressed in parallel by a
+ * {@link ParallelDeflater}; the results are written in order as they come in,
+ * with a bounded number of chunks in flight, also across entries. Their CRC and
+ * sizes follow in a data descriptor. Stored entries need the CRC and size up
+ * front, which the caller passes in, typically from cached metadata; their bytes
+ * are copied to the output as they are read.
+ * <p>
+ * ZIP64 records are added only where a size, offset or the entry count does not
+ * fit the classic format, so small archives stay readable by any tool.
+ */
+public class ZipStreamWriter {
+
+    public static final int DEFAULT_CHUNK_SIZE = 128 * 1024;
+
+    /** Extensions of formats that are compressed already; deflating them again only costs CPU. */
+    private static final Set<String> COMPRESSED_FORMATS = Set.of(
+            "zip", "gz", "tgz", "bz2", "xz", "zst", "7z", "rar", "jar", "war",
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "mp3", "aac", "ogg", "flac", "m4a",
+            "mp4", "m4v", "mkv", "mov", "avi", "webm", "pdf", "docx", "xlsx", "pptx", "odt");
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int ZIP64_END = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int END = 0x06054b50;
+    private static final long MAX_32 = 0xFFFFFFFFL;
+    private static final int MAX_16 = 0xFFFF;
+    private static final int FLAG_DESCRIPTOR = 1 << 3;
+    private static final int FLAG_UTF8 = 1 << 11;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final int VERSION = 20;
+    private static final int VERSION_ZIP64 = 45;
+
+    private final CountingOutputStream out;
+    private final ParallelDeflater deflater;
+    private final int chunkSize;
+    private final int window;
+    private final List<Entry> entries = new ArrayList<>();
+    private final Deque<Step> pending = new ArrayDeque<>();
+    private int inFlight;
+    private boolean finished;
+
+    public ZipStreamWriter(OutputStream out, ParallelDeflater deflater) {
+        this(out, deflater, DEFAULT_CHUNK_SIZE);
+    }
+
+    public ZipStreamWriter(OutputStream out, ParallelDeflater deflater, int chunkSize) {
+        this.out = new CountingOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        this.deflater = deflater;
+        this.chunkSize = chunkSize;
+        this.window = 2 * deflater.parallelism();
+    }
+
+    /** True if the name has the extension of a format that is compressed already. */
+    public static boolean isCompressedFormat(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && COMPRESSED_FORMATS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Adds an entry that is copied without compression.
+     *
+     * @param crc  CRC-32 of the content
+     * @param size exact length of the content
+     * @throws IOException if the content does not have the given length
+     */
+    public void addStored(String name, long lastModified, long size, long crc, InputStream content) throws IOException {
+        drain(0);
+        Entry entry = new Entry(name, lastModified, STORED);
+        entry.crc = crc;
+        entry.size = size;
+        entry.compressedSize = size;
+        entry.offset = out.count();
+        entries.add(entry);
+        writeLocalHeader(entry, true);
+        long copied = content.transferTo(out);
+        if (copied != size) {
+            throw new IOException("Entry " + name + " changed while archiving: expected " + size
+                    + " bytes, read " + copied);
+        }
+    }
+
+    /** Adds an entry that is deflated in parallel chunks while it is read. */
+    public void addDeflated(String name, long lastModified, InputStream content) throws IOException {
+        Entry entry = new Entry(name, lastModified, DEFLATED);
+        entries.add(entry);
+        pending.add(() -> {
+            entry.offset = out.count();
+            writeLocalHeader(entry, false);
+        });
+        CRC32 crc = new CRC32();
+        byte[] previous = null;
+        int previousLength = 0;
+        byte[] chunk = new byte[chunkSize];
+        int length = content.readNBytes(chunk, 0, chunkSize);
+        while (true) {
+            crc.update(chunk, 0, length);
+            entry.size += length;
+            byte[] next = null;
+            int nextLength = 0;
+            if (length == chunkSize) {
+                next = new byte[chunkSize];
+                nextLength = content.readNBytes(next, 0, chunkSize);
+            }
+            boolean last = nextLength == 0;
+            Future<byte[]> result = deflater.deflate(chunk, length, previous, previousLength, last);
+            inFlight++;
+            pending.add(() -> {
+                byte[] data = await(result);
+                inFlight--;
+                out.write(data);
+                entry.compressedSize += data.length;
+            });
+            drain(window);
+            if (last) {
+                break;
+            }
+            previous = chunk;
+            previousLength = length;
+            chunk = next;
+            length = nextLength;
+        }
+        entry.crc = crc.getValue();
+        pending.add(() -> writeDataDescriptor(entry));
+    }
+
+    /**
+     * Writes everything that is still pending and the central directory. The
+     * stream is not closed. Not called after a failure, so a broken archive is
+     * never made to look complete.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        drain(0);
+        finished = true;
+        long directoryOffset = out.count();
+        for (Entry entry : entries) {
+            writeCentralHeader(entry);
+        }
+        long directorySize = out.count() - directoryOffset;
+        if (entries.size() >= MAX_16 || directoryOffset >= MAX_32 || directorySize >= MAX_32) {
+            long zip64End = out.count();
+            writeInt(ZIP64_END);
+            writeLong(44);
+            writeShort(VERSION_ZIP64);
+            writeShort(VERSION_ZIP64);
+            writeInt(0);
+            writeInt(0);
+            writeLong(entries.size());
+            writeLong(entries.size());
+            writeLong(directorySize);
+            writeLong(directoryOffset);
+            writeInt(ZIP64_LOCATOR);
+            writeInt(0);
+            writeLong(zip64End);
+            writeInt(1);
+        }
+        writeInt(END);
+        writeShort(0);
+        writeShort(0);
+        writeShort(Math.min(entries.size(), MAX_16));
+        writeShort(Math.min(entries.size(), MAX_16));
+        writeInt(Math.min(directorySize, MAX_32));
+        writeInt(Math.min(directoryOffset, MAX_32));
+        writeShort(0);
+        out.flush();
+    }
+
+    /** Writes pending steps in order until at most {@code maxInFlight} chunks are still being deflated. */
+    private void drain(int maxInFlight) throws IOException {
+        while (!pending.isEmpty() && (inFlight > maxInFlight || maxInFlight == 0)) {
+            pending.poll().run();
+        }
+    }
+
+    private static byte[] await(Future<byte[]> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Compression failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private void writeLocalHeader(Entry entry, boolean sizesKnown) throws IOException {
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        boolean zip64 = sizesKnown && entry.size >= MAX_32;
+        writeInt(LOCAL_HEADER);
+        writeShort(zip64 ? VERSION_ZIP64 : VERSION);
+        writeShort(FLAG_UTF8 | (sizesKnown ? 0 : FLAG_DESCRIPTOR));
+        writeShort(entry.method);
+        writeInt(entry.dosTime);
+        writeInt(sizesKnown ? entry.crc : 0);
+        writeInt(zip64 ? MAX_32 : sizesKnown ? entry.compressedSize : 0);
+        writeInt(zip64 ? MAX_32 : sizesKnown ? entry.size : 0);
+        writeShort(name.length);
+        writeShort(zip64 ? 20 : 0);
+        out.write(name);
+        if (zip64) {
+            writeShort(1);
+            writeShort(16);
+            writeLong(entry.size);
+            writeLong(entry.compressedSize);
+        }
+    }
+
+    // Readers kiezen 8-byte groottes in de descriptor zodra een grootte niet in 32 bits past
+    private void writeDataDescriptor(Entry entry) throws IOException {
+        writeInt(DATA_DESCRIPTOR);
+        writeInt(entry.crc);
+        if (entry.size >= MAX_32 || entry.compressedSize >= MAX_32) {
+            writeLong(entry.compressedSize);
+            writeLong(entry.size);
+        } else {
+            writeInt(entry.compressedSize);
+            writeInt(entry.size);
+        }
+    }
+
+    private void writeCentralHeader(Entry entry) throws IOException {
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        boolean bigSize = entry.size >= MAX_32;
+        boolean bigCompressed = entry.compressedSize >= MAX_32;
+        boolean bigOffset = entry.offset >= MAX_32;
+        int extra = (bigSize ? 8 : 0) + (bigCompressed ? 8 : 0) + (bigOffset ? 8 : 0);
+        boolean zip64 = extra > 0;
+        writeInt(CENTRAL_HEADER);
+        writeShort(VERSION_ZIP64);
+        writeShort(zip64 ? VERSION_ZIP64 : VERSION);
+        writeShort(FLAG_UTF8 | (entry.method == DEFLATED ? FLAG_DESCRIPTOR : 0));
+        writeShort(entry.method);
+        writeInt(entry.dosTime);
+        writeInt(entry.crc);
+        writeInt(bigCompressed ? MAX_32 : entry.compressedSize);
+        writeInt(bigSize ? MAX_32 : entry.size);
+        writeShort(name.length);
+        writeShort(zip64 ? extra + 4 : 0);
+        writeShort(0);
+        writeShort(0);
+        writeShort(0);
+        writeInt(0);
+        writeInt(bigOffset ? MAX_32 : entry.offset);
+        out.write(name);
+        if (zip64) {
+            // Volgorde ligt vast: grootte, gecomprimeerde grootte, offset; alleen de velden die niet passen
+            writeShort(1);
+            writeShort(extra);
+            if (bigSize) {
+                writeLong(entry.size);
+            }
+            if (bigCompressed) {
+                writeLong(entry.compressedSize);
+            }
+            if (bigOffset) {
+                writeLong(entry.offset);
+            }
+        }
+    }
+
+    private void writeShort(int v) throws IOException {
+        out.write(v);
+        out.write(v >>> 8);
+    }
+
+    private void writeInt(long v) throws IOException {
+        writeShort((int) (v & MAX_16));
+        writeShort((int) ((v >>> 16) & MAX_16));
+    }
+
+    private void writeLong(long v) throws IOException {
+        writeInt(v & MAX_32);
+        writeInt(v >>> 32);
+    }
+
+    @FunctionalInterface
+    private interface Step {
+        void run() throws IOException;
+    }
+
+    private static final class Entry {
+        final String name;
+        final long dosTime;
+        final int method;
+        long crc;
+        long size;
+        long compressedSize;
+        long offset;
+
+        Entry(String name, long lastModified, int method) {
+            this.name = name;
+            this.dosTime = dosTime(lastModified);
+            this.method = method;
+        }
+
+        private static long dosTime(long millis) {
+            LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+            if (t.getYear() < 1980) {
+                return (1 << 21) | (1 << 16); // 1980-01-01, het vroegste dat DOS kent
+            }
+            return ((long) (t.getYear() - 1980) << 25) | ((long) t.getMonthValue() << 21)
+                    | ((long) t.getDayOfMonth() << 16) | ((long) t.getHour() << 11)
+                    | ((long) t.getMinute() << 5) | (t.getSecond() >> 1);
+        }
+    }
+
+    /** Keeps track of the archive offset, which the central directory needs for every entry. */
+    private static final class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        long count() {
+            return count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
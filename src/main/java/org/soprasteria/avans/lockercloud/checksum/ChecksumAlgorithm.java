@@ -0,0 +1,14 @@
+package org.soprasteria.avans.lockercloud.checksum;
+
+/**
+ * A checksum algorithm that clients can select with the {@code Checksum-Algorithm}
+ * header. Additional algorithms can be plugged in by listing an implementation in
+ * {@code META-INF/services/org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithm}.
+ */
+public interface ChecksumAlgorithm {
+
+    /** Protocol name of the algorithm, matched case-insensitively. */
+    String name();
+
+    ChecksumHasher newHasher();
+}
@@ -0,0 +1,96 @@
+package org.soprasteria.avans.lockercloud.checksum;
+
+import org.soprasteria.avans.lockercloud.exception.FileStorageException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+
+/**
+ * Registry of the supported checksum algorithms and the one shared place where
+ * files, streams and byte arrays are hashed.
+ * <p>
+ * {@link #MD5} is the default so clients that do not send a
+ * {@code Checksum-Algorithm} header keep working unchanged.
+ */
+public final class ChecksumAlgorithms {
+
+    public static final ChecksumAlgorithm MD5 = new MessageDigestAlgorithm("MD5", "MD5");
+    public static final ChecksumAlgorithm CRC32C = new CrcAlgorithm("CRC32C", CRC32C::new);
+    public static final ChecksumAlgorithm CRC32 = new CrcAlgorithm("CRC32", CRC32::new);
+    public static final ChecksumAlgorithm XXH64 = new XxHash64Algorithm();
+    public static final ChecksumAlgorithm SHA256_TREE = new Sha256TreeHashAlgorithm();
+    public static final ChecksumAlgorithm DEFAULT = MD5;
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final Map<String, ChecksumAlgorithm> ALGORITHMS = new LinkedHashMap<>();
+
+    static {
+        for (ChecksumAlgorithm algorithm : List.of(MD5, CRC32C, CRC32, XXH64, SHA256_TREE)) {
+            ALGORITHMS.put(algorithm.name().toUpperCase(Locale.ROOT), algorithm);
+        }
+        for (ChecksumAlgorithm algorithm : ServiceLoader.load(ChecksumAlgorithm.class)) {
+            ALGORITHMS.putIfAbsent(algorithm.name().toUpperCase(Locale.ROOT), algorithm);
+        }
+    }
+
+    private ChecksumAlgorithms() {
+    }
+
+    /**
+     * Resolves a {@code Checksum-Algorithm} header value. A missing or blank value
+     * selects {@link #DEFAULT}.
+     *
+     * @throws FileStorageException if the algorithm is not supported
+     */
+    public static ChecksumAlgorithm forName(String name) {
+        if (name == null || name.isBlank()) {
+            return DEFAULT;
+        }
+        ChecksumAlgorithm algorithm = ALGORITHMS.get(name.trim().toUpperCase(Locale.ROOT));
+        if (algorithm == null) {
+            throw new FileStorageException("Unsupported checksum algorithm: " + name
+                    + " (supported: " + String.join(", ", names()) + ")");
+        }
+        return algorithm;
+    }
+
+    public static Set<String> names() {
+        return Collections.unmodifiableSet(ALGORITHMS.keySet());
+    }
+
+    public static String hash(ChecksumAlgorithm algorithm, byte[] data) {
+        ChecksumHasher hasher = algorithm.newHasher();
+        hasher.update(data);
+        return hasher.hexDigest();
+    }
+
+    public static String hash(ChecksumAlgorithm algorithm, Path file) throws IOException {
+        ChecksumHasher hasher = algorithm.newHasher();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (channel.read(buffer) != -1) {
+                hasher.update(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+        }
+        return hasher.hexDigest();
+    }
+
+    /** Hashes the remainder of a stream; the stream is not closed. */
+    public static String hash(ChecksumAlgorithm algorithm, InputStream in) throws IOException {
+        ChecksumHasher hasher = algorithm.newHasher();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            hasher.update(buffer, 0, n);
+        }
+        return hasher.hexDigest();
+    }
+}
@@ -0,0 +1,22 @@
+package org.soprasteria.avans.lockercloud.checksum;
+
+/**
+ * Incremental checksum computation. A hasher is fed with {@link #update} and
+ * produces its result once; it is not thread-safe.
+ */
+public interface ChecksumHasher {
+
+    void update(byte[] data, int offset, int length);
+
+    default void update(byte[] data) {
+        update(data, 0, data.length);
+    }
+
+    /** Finishes the computation and returns the raw checksum bytes. */
+    byte[] digest();
+
+    /** Finishes the computation and returns the checksum as lowercase hex. */
+    default String hexDigest() {
+        return Hex.encode(digest());
+    }
+}
@@ -0,0 +1,44 @@
+package org.soprasteria.avans.lockercloud.checksum;
+
+import java.util.function.Supplier;
+import java.util.zip.Checksum;
+
+/**
+ * CRC checksums from {@code java.util.zip}. CRC-32C (Castagnoli) is a HotSpot
+ * intrinsic that uses the SSE4.2 / ARMv8 CRC instructions, which makes it by far
+ * the cheapest option for detecting transfer corruption. Plain CRC-32 is the one
+ * ZIP archives carry, so caching it lets an archive entry be written without
+ * reading the file twice.
+ */
+final class CrcAlgorithm implements ChecksumAlgorithm {
+
+    private final String name;
+    private final Supplier<Checksum> factory;
+
+    CrcAlgorithm(String name, Supplier<Checksum> factory) {
+        this.name = name;
+        this.factory = factory;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public ChecksumHasher newHasher() {
+        Checksum crc = factory.get();
+        return new ChecksumHasher() {
+            @Override
+            public void update(byte[] data, int offset, int length) {
+                crc.update(data, offset, length);
+            }
+
+            @Override
+            public byte[] digest() {
+                int v = (int) crc.getValue();
+                return new byte[]{(byte) (v >>> 24), (byte) (v >>> 16), (byte) (v >>> 8), (byte) v};
+            }
+        };
+    }
+}
@@ -0,0 +1,23 @@
+package org.soprasteria.avans.lockercloud.checksum;
+
+/**
+ * Lowercase hex encoding through a lookup table. Only the result is allocated;
+ * there is no per-byte formatting or intermediate builder.
+ */
+public final class Hex {
+
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    private Hex() {
+    }
+
+    public static String encode(byte[] data) {
+        char[] out = new char[data.length * 2];
+        for (int i = 0, j = 0; i < data.length; i++) {
+            int v = data[i] & 0xff;
+            out[j++] = DIGITS[v >>> 4];
+            out[j++] = DIGITS[v & 0x0f];
+        }
+        return new String(out);
+    }
+}
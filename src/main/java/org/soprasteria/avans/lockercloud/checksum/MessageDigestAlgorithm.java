@@ -0,0 +1,45 @@
+package org.soprasteria.avans.lockercloud.checksum;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/** Adapts a JCA {@link MessageDigest} such as MD5 to the checksum SPI. */
+final class MessageDigestAlgorithm implements ChecksumAlgorithm {
+
+    private final String name;
+    private final String jcaName;
+
+    MessageDigestAlgorithm(String name, String jcaName) {
+        this.name = name;
+        this.jcaName = jcaName;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public ChecksumHasher newHasher() {
+        MessageDigest md = newDigest(jcaName);
+        return new ChecksumHasher() {
+            @Override
+            public void update(byte[] data, int offset, int length) {
+                md.update(data, offset, length);
+            }
+
+            @Override
+            public byte[] digest() {
+                return md.digest();
+            }
+        };
+    }
+
+    static MessageDigest newDigest(String jcaName) {
+        try {
+            return MessageDigest.getInstance(jcaName);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(jcaName + " algorithm not found", e);
+        }
+    }
+}
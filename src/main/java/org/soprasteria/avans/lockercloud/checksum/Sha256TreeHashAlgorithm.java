@@ -0,0 +1,86 @@
+package org.soprasteria.avans.lockercloud.checksum;
+
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * SHA-256 tree hash: the data is split into 1 MiB leaves, each leaf is hashed
+ * with SHA-256 and adjacent hashes are combined pairwise up to a single root
+ * (an odd hash is carried to the next level), the same construction as the
+ * Amazon Glacier tree hash. It is a strong checksum whose leaves can be hashed
+ * and verified independently.
+ * <p>
+ * Completed subtrees are merged as soon as they have a sibling, so memory use is
+ * logarithmic in the file size.
+ */
+final class Sha256TreeHashAlgorithm implements ChecksumAlgorithm {
+
+    static final int LEAF_SIZE = 1024 * 1024;
+
+    @Override
+    public String name() {
+        return "SHA256-TREE";
+    }
+
+    @Override
+    public ChecksumHasher newHasher() {
+        return new Hasher();
+    }
+
+    private static final class Hasher implements ChecksumHasher {
+        private final MessageDigest leaf = MessageDigestAlgorithm.newDigest("SHA-256");
+        private final Deque<Node> stack = new ArrayDeque<>();
+        private int leafLength;
+        private boolean empty = true;
+
+        @Override
+        public void update(byte[] data, int offset, int length) {
+            while (length > 0) {
+                int n = Math.min(length, LEAF_SIZE - leafLength);
+                leaf.update(data, offset, n);
+                leafLength += n;
+                offset += n;
+                length -= n;
+                empty = false;
+                if (leafLength == LEAF_SIZE) {
+                    push(leaf.digest());
+                    leafLength = 0;
+                }
+            }
+        }
+
+        private void push(byte[] hash) {
+            Node node = new Node(hash, 0);
+            while (!stack.isEmpty() && stack.peek().level == node.level) {
+                Node left = stack.pop();
+                node = new Node(combine(left.hash, node.hash), node.level + 1);
+            }
+            stack.push(node);
+        }
+
+        @Override
+        public byte[] digest() {
+            if (leafLength > 0 || empty) {
+                push(leaf.digest());
+                leafLength = 0;
+            }
+            // Resterende subtrees van rechts naar links samenvoegen
+            byte[] root = stack.pop().hash;
+            while (!stack.isEmpty()) {
+                root = combine(stack.pop().hash, root);
+            }
+            return root;
+        }
+
+        private static byte[] combine(byte[] left, byte[] right) {
+            MessageDigest md = MessageDigestAlgorithm.newDigest("SHA-256");
+            md.update(left);
+            md.update(right);
+            return md.digest();
+        }
+    }
+
+    private record Node(byte[] hash, int level) {
+    }
+}
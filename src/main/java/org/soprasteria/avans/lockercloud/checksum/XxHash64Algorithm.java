@@ -0,0 +1,132 @@
+package org.soprasteria.avans.lockercloud.checksum;
+
+/**
+ * XXH64 with seed 0, a fast non-cryptographic 64-bit hash. The result is
+ * rendered in canonical (big-endian) form, matching {@code xxhsum}.
+ */
+final class XxHash64Algorithm implements ChecksumAlgorithm {
+
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    @Override
+    public String name() {
+        return "XXH64";
+    }
+
+    @Override
+    public ChecksumHasher newHasher() {
+        return new Hasher();
+    }
+
+    private static final class Hasher implements ChecksumHasher {
+        private long v1 = P1 + P2;
+        private long v2 = P2;
+        private long v3 = 0;
+        private long v4 = -P1;
+        private long total;
+        // Onvolledige 32-byte stripe tussen twee update() aanroepen
+        private final byte[] pending = new byte[32];
+        private int pendingLength;
+
+        @Override
+        public void update(byte[] data, int offset, int length) {
+            total += length;
+            int end = offset + length;
+            if (pendingLength > 0) {
+                int fill = Math.min(32 - pendingLength, length);
+                System.arraycopy(data, offset, pending, pendingLength, fill);
+                pendingLength += fill;
+                offset += fill;
+                if (pendingLength < 32) {
+                    return;
+                }
+                stripe(pending, 0);
+                pendingLength = 0;
+            }
+            for (; offset + 32 <= end; offset += 32) {
+                stripe(data, offset);
+            }
+            if (offset < end) {
+                System.arraycopy(data, offset, pending, 0, end - offset);
+                pendingLength = end - offset;
+            }
+        }
+
+        private void stripe(byte[] b, int off) {
+            v1 = round(v1, readLong(b, off));
+            v2 = round(v2, readLong(b, off + 8));
+            v3 = round(v3, readLong(b, off + 16));
+            v4 = round(v4, readLong(b, off + 24));
+        }
+
+        @Override
+        public byte[] digest() {
+            long h;
+            if (total >= 32) {
+                h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+                h = merge(h, v1);
+                h = merge(h, v2);
+                h = merge(h, v3);
+                h = merge(h, v4);
+            } else {
+                h = P5;
+            }
+            h += total;
+            int p = 0;
+            for (; p + 8 <= pendingLength; p += 8) {
+                h ^= round(0, readLong(pending, p));
+                h = Long.rotateLeft(h, 27) * P1 + P4;
+            }
+            if (p + 4 <= pendingLength) {
+                h ^= (readInt(pending, p) & 0xFFFFFFFFL) * P1;
+                h = Long.rotateLeft(h, 23) * P2 + P3;
+                p += 4;
+            }
+            for (; p < pendingLength; p++) {
+                h ^= (pending[p] & 0xFFL) * P5;
+                h = Long.rotateLeft(h, 11) * P1;
+            }
+            h ^= h >>> 33;
+            h *= P2;
+            h ^= h >>> 29;
+            h *= P3;
+            h ^= h >>> 32;
+            byte[] out = new byte[8];
+            for (int i = 7; i >= 0; i--) {
+                out[i] = (byte) h;
+                h >>>= 8;
+            }
+            return out;
+        }
+
+        private static long round(long acc, long input) {
+            acc += input * P2;
+            acc = Long.rotateLeft(acc, 31);
+            return acc * P1;
+        }
+
+        private static long merge(long acc, long v) {
+            acc ^= round(0, v);
+            return acc * P1 + P4;
+        }
+
+        private static long readLong(byte[] b, int i) {
+            return (b[i] & 0xFFL)
+                    | (b[i + 1] & 0xFFL) << 8
+                    | (b[i + 2] & 0xFFL) << 16
+                    | (b[i + 3] & 0xFFL) << 24
+                    | (b[i + 4] & 0xFFL) << 32
+                    | (b[i + 5] & 0xFFL) << 40
+                    | (b[i + 6] & 0xFFL) << 48
+                    | (b[i + 7] & 0xFFL) << 56;
+        }
+
+        private static int readInt(byte[] b, int i) {
+            return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+        }
+    }
+}
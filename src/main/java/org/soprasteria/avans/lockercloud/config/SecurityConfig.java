@@ -19,7 +19,7 @@ public class SecurityConfig {
                         // Open toegang tot Thymeleaf pagina en andere statische resources
                         .requestMatchers("/", "/index", "/css/**", "/js/**", "/images/**", "/showCloudDirectory").permitAll()
                         // Endpoints uit het synchronisatieprotocol zijn publiek toegankelijk
-                        .requestMatchers("/uploadForm", "/upload", "/download**", "/listFiles", "/delete", "/sync", "/syncLocal", "/downloadAll").permitAll()
+                        .requestMatchers("/uploadForm", "/upload", "/uploads/**", "/download**", "/listFiles", "/delete", "/sync", "/sync/**", "/syncLocal", "/syncLocal/status", "/downloadAll").permitAll()
                         // Alle andere requests vereisen authenticatie
 //                        .anyRequest().authenticated()
                 )
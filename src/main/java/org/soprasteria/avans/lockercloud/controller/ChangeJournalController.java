@@ -0,0 +1,35 @@
+package org.soprasteria.avans.lockercloud.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.soprasteria.avans.lockercloud.service.FileManagerService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/sync")
+@Tag(name = "Change Journal", description = "Incremental sync from a cursor instead of comparing every file")
+public class ChangeJournalController {
+
+    private final FileManagerService fileManagerService;
+
+    public ChangeJournalController(FileManagerService fileManagerService) {
+        this.fileManagerService = fileManagerService;
+    }
+
+    @Operation(summary = "Changes since a cursor", description = "Returns the files written or deleted after the given cursor, oldest first, "
+            + "and the cursor for the next call. Without a cursor all files are returned. "
+            + "When resyncRequired is set the client has to do a full /sync and continue from the returned cursor.")
+    @ApiResponse(responseCode = "200", description = "Changes returned")
+    @ApiResponse(responseCode = "400", description = "Invalid request")
+    @GetMapping("/changes")
+    public ResponseEntity<?> changes(@RequestParam(value = "cursor", required = false) String cursor,
+                                     @RequestParam(value = "limit", defaultValue = "1000") int limit) {
+        try {
+            return ResponseEntity.ok(fileManagerService.getChangesSince(cursor, limit));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Error reading changes: " + e.getMessage());
+        }
+    }
+}
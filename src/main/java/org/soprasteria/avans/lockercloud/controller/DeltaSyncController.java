@@ -0,0 +1,68 @@
+package org.soprasteria.avans.lockercloud.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithm;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithms;
+import org.soprasteria.avans.lockercloud.exception.FileStorageException;
+import org.soprasteria.avans.lockercloud.service.FileManagerService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.InputStream;
+
+@RestController
+@RequestMapping("/sync")
+@Tag(name = "Delta Sync", description = "Send only the changed blocks of a modified file")
+public class DeltaSyncController {
+
+    private final FileManagerService fileManagerService;
+
+    public DeltaSyncController(FileManagerService fileManagerService) {
+        this.fileManagerService = fileManagerService;
+    }
+
+    @Operation(summary = "Block signatures of a file", description = "Returns a rolling checksum and a strong hash for every block of the server's copy. "
+            + "blockSize is chosen from the file size when omitted.")
+    @ApiResponse(responseCode = "200", description = "Signature returned")
+    @ApiResponse(responseCode = "404", description = "File not found")
+    @GetMapping("/signature")
+    public ResponseEntity<?> signature(@RequestParam("file") String fileName,
+                                       @RequestParam(value = "blockSize", defaultValue = "0") int blockSize) {
+        try {
+            return ResponseEntity.ok(fileManagerService.getFileSignature(fileName, blockSize));
+        } catch (FileStorageException e) {
+            HttpStatus status = e.getMessage().startsWith("File not found") ? HttpStatus.NOT_FOUND : HttpStatus.BAD_REQUEST;
+            return ResponseEntity.status(status).body("Error reading signature: " + e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Error reading signature: " + e.getMessage());
+        }
+    }
+
+    @Operation(summary = "Apply a delta", description = "Rebuilds the file from the delta in the request body and the server's copy, "
+            + "then commits it atomically. Basis-Checksum is the checksum from the signature; File-Checksum validates the result.")
+    @ApiResponse(responseCode = "200", description = "File rebuilt and committed")
+    @ApiResponse(responseCode = "409", description = "The server's copy changed, or the result does not match File-Checksum")
+    @PostMapping(value = "/delta", consumes = "application/octet-stream")
+    public ResponseEntity<?> applyDelta(@RequestParam("file") String fileName,
+                                        @RequestHeader(value = "Basis-Checksum", required = false) String basisChecksum,
+                                        @RequestHeader(value = "File-Checksum", required = false) String fileChecksum,
+                                        @RequestHeader(value = FileController.CHECKSUM_ALGORITHM, required = false) String checksumAlgorithm,
+                                        InputStream body) {
+        ChecksumAlgorithm algorithm;
+        try {
+            algorithm = ChecksumAlgorithms.forName(checksumAlgorithm);
+        } catch (FileStorageException e) {
+            return ResponseEntity.badRequest().body("Error applying delta: " + e.getMessage());
+        }
+        try {
+            return ResponseEntity.ok(fileManagerService.applyDelta(fileName, body, basisChecksum, fileChecksum, algorithm));
+        } catch (FileStorageException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("Error applying delta: " + e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Error applying delta: " + e.getMessage());
+        }
+    }
+}
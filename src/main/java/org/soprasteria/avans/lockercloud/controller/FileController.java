@@ -3,30 +3,36 @@ package org.soprasteria.avans.lockercloud.controller;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithm;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithms;
 import org.soprasteria.avans.lockercloud.dto.SyncResult;
+import org.soprasteria.avans.lockercloud.dto.TransferStatus;
 import org.soprasteria.avans.lockercloud.exception.FileStorageException;
 import org.soprasteria.avans.lockercloud.model.FileMetadata;
 import org.soprasteria.avans.lockercloud.service.FileManagerService;
+import org.soprasteria.avans.lockercloud.storage.StoredFileResource;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,6 +42,8 @@ import org.slf4j.LoggerFactory;
 @Tag(name = "File Operations", description = "Endpoints for file upload, download, deletion, listing and synchronization")
 public class FileController {
 
+    static final String CHECKSUM_ALGORITHM = "Checksum-Algorithm";
+
     private final FileManagerService fileManagerService;
     private static final Logger logger = LoggerFactory.getLogger(FileController.class);
 
@@ -60,14 +68,16 @@ public class FileController {
             @RequestHeader(value = "Chunk-Index", required = false) Integer chunkIndex,
             @RequestHeader(value = "Chunk-Total", required = false) Integer chunkTotal,
             @RequestHeader(value = "File-Checksum", required = false) String fileChecksum,
+            @RequestHeader(value = CHECKSUM_ALGORITHM, required = false) String checksumAlgorithm,
             RedirectAttributes redirectAttributes) {
         try {
+            ChecksumAlgorithm algorithm = ChecksumAlgorithms.forName(checksumAlgorithm);
             if (chunkIndex != null && chunkTotal != null) {
-                fileManagerService.saveFileChunkWithRetry(file, chunkIndex, chunkTotal, checksum, fileChecksum);
+                fileManagerService.saveFileChunkWithRetry(file, chunkIndex, chunkTotal, checksum, fileChecksum, algorithm);
             } else if (checksum != null && !checksum.isBlank()) {
-                fileManagerService.saveFileTransactionalWithRetry(file, checksum);
+                fileManagerService.saveFileTransactionalWithRetry(file, checksum, algorithm);
             } else {
-                fileManagerService.saveFileWithRetry(file);
+                fileManagerService.saveFileWithRetry(file, checksum, algorithm);
             }
             redirectAttributes.addFlashAttribute(
               "uploadSuccess",
@@ -86,9 +96,10 @@ public class FileController {
     @PostMapping("/upload")
     public ResponseEntity<String> uploadFileApi(
             @RequestParam("file") MultipartFile file,
-            @RequestHeader(value = "Checksum", required = false) String checksumHeader) {
+            @RequestHeader(value = "Checksum", required = false) String checksumHeader,
+            @RequestHeader(value = CHECKSUM_ALGORITHM, required = false) String checksumAlgorithm) {
         try {
-            fileManagerService.saveFileWithRetry(file, checksumHeader);
+            fileManagerService.saveFileWithRetry(file, checksumHeader, ChecksumAlgorithms.forName(checksumAlgorithm));
             return ResponseEntity.ok("Upload successful");
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
@@ -96,53 +107,103 @@ public class FileController {
         }
     }
 
-    @Operation(summary = "Download a file", description = "Downloads a file from the server")
+    @Operation(summary = "Download a file", description = "Downloads a file from the server. "
+            + "Supports Range and If-Range requests, including multiple ranges, for resumable and segmented downloads.")
     @ApiResponse(responseCode = "200", description = "File downloaded successfully")
+    @ApiResponse(responseCode = "206", description = "Requested byte range(s) returned")
     @ApiResponse(responseCode = "400", description = "Error downloading file")
+    @ApiResponse(responseCode = "416", description = "Requested range not satisfiable")
     @GetMapping("/download")
-    public ResponseEntity<byte[]> downloadFile(@RequestParam("file") String fileName) {
+    public ResponseEntity<Resource> downloadFile(
+            @RequestParam("file") String fileName,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+            @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange,
+            @RequestHeader(value = CHECKSUM_ALGORITHM, required = false) String checksumAlgorithm) {
+        StoredFileResource resource = null;
         try {
-            byte[] fileData = fileManagerService.getFile(fileName);
-            String checksum = fileManagerService.calculateChecksum(fileData);
-            return ResponseEntity.ok()
+            ChecksumAlgorithm algorithm = ChecksumAlgorithms.forName(checksumAlgorithm);
+            // Body wordt gestreamd vanaf disk, niet in het geheugen geladen
+            resource = fileManagerService.openFile(fileName);
+            String checksum = fileManagerService.getFileChecksum(resource, algorithm);
+            String etag = "\"" + checksum + "\"";
+            long lastModified = resource.lastModified();
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok()
                     .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"")
                     .header("Checksum", checksum)
-                    .contentLength(fileData.length)
-                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                    .body(fileData);
+                    .header(CHECKSUM_ALGORITHM, algorithm.name())
+                    .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                    .eTag(etag)
+                    .lastModified(lastModified)
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM);
+            if (range == null || ifRange != null && !ifRangeMatches(ifRange, etag, lastModified)) {
+                // Zonder Range, of als het bestand sinds de client begon is gewijzigd: alles sturen.
+                // InputStreamResource wordt door Spring MVC niet in ranges opgeknipt; de stream sluit het bestand.
+                return response.contentLength(resource.contentLength())
+                        .body(new InputStreamResource(resource.getOwningInputStream()));
+            }
+            // Spring MVC zet een Resource-body met Range header om in 206 (ook multipart/byteranges) of 416;
+            // de regio's worden via skip() positioneel gelezen uit het bestand of de .partN chunks.
+            // Elke regio opent een eigen stream, dus het bestand gaat pas dicht als het antwoord weg is.
+            closeWhenCompleted(resource);
+            return response.body(resource);
         } catch (Exception e) {
+            closeQuietly(resource);
             return ResponseEntity.badRequest().body(null);
         }
     }
 
+    /** Closes {@code resource} once the current request has written its response. */
+    private static void closeWhenCompleted(StoredFileResource resource) {
+        RequestContextHolder.currentRequestAttributes().registerDestructionCallback(
+                StoredFileResource.class.getName() + "@" + System.identityHashCode(resource),
+                () -> closeQuietly(resource), RequestAttributes.SCOPE_REQUEST);
+    }
+
+    private static void closeQuietly(StoredFileResource resource) {
+        if (resource == null) {
+            return;
+        }
+        try {
+            resource.close();
+        } catch (IOException e) {
+            logger.warn("Could not close {}: {}", resource.getFilename(), e.getMessage());
+        }
+    }
+
+    /**
+     * Evaluates an If-Range precondition: an entity tag must match strongly, a date
+     * must equal the Last-Modified time of the file.
+     */
+    private boolean ifRangeMatches(String ifRange, String etag, long lastModified) {
+        String value = ifRange.trim();
+        if (value.startsWith("W/")) {
+            return false;
+        }
+        if (value.startsWith("\"")) {
+            return value.equals(etag);
+        }
+        try {
+            long since = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+            return since == lastModified / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
     @Operation(summary = "Download all files as ZIP",
-           description = "Bundles all server files into a single ZIP and returns it")
+           description = "Streams all server files as a single ZIP while it is being built")
     @ApiResponse(responseCode = "200", description = "ZIP downloaded successfully")
     @GetMapping("/downloadAll")
-    public ResponseEntity<byte[]> downloadAllFiles() {
+    public ResponseEntity<StreamingResponseBody> downloadAllFiles() {
         try {
             List<String> filenames = fileManagerService.listFiles();
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            try (ZipOutputStream zos = new ZipOutputStream(baos)) {
-                for (String name : filenames) {
-                    byte[] data = fileManagerService.getFile(name);
-                    if (data == null) {
-                        // Log a warning and skip this file
-                        logger.warn("Warning: File {} could not be found or is empty.", name);
-                        continue;
-                    }
-                    ZipEntry entry = new ZipEntry(name);
-                    zos.putNextEntry(entry);
-                    zos.write(data);
-                    zos.closeEntry();
-                }
-            }
-            byte[] zipBytes = baos.toByteArray();
+            // Het archief wordt tijdens het schrijven opgebouwd; niets ervan staat in het geheugen
+            StreamingResponseBody body = out -> fileManagerService.writeArchive(filenames, out);
             return ResponseEntity.ok()
                 .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"all-files.zip\"")
                 .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .body(zipBytes);
-        } catch (IOException | RuntimeException e) {
+                .body(body);
+        } catch (RuntimeException e) {
             return ResponseEntity
                 .status(HttpStatus.INTERNAL_SERVER_ERROR)
                 .body(null);
@@ -216,39 +277,12 @@ public class FileController {
         }
     }
 
-    private String calculateRequestChecksum(MultipartFile file) throws IOException {
-        MessageDigest md;
-        try {
-            md = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
-            throw new IOException("MD5 algorithm not available", e);
-        }
-        try (InputStream is = file.getInputStream()) {
-            byte[] buffer = new byte[8192];
-            int read;
-            while ((read = is.read(buffer)) != -1) {
-                md.update(buffer, 0, read);
-            }
-        }
-        return bytesToHex(md.digest());
-    }
-
-    private String calculateChecksumBytes(byte[] data) throws IOException {
-        MessageDigest md;
-        try {
-            md = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
-            throw new IOException("MD5 algorithm not available", e);
-        }
-        md.update(data);
-        return bytesToHex(md.digest());
-    }
-
-    private String bytesToHex(byte[] digest) {
-        StringBuilder sb = new StringBuilder();
-        for (byte b : digest) {
-            sb.append(String.format("%02x", b));
-        }
-        return sb.toString();
+    @GetMapping("/syncLocal/status")
+    @Operation(summary = "Progress of the local sync", description = "Files transferred so far by the running or last local sync")
+    @ApiResponse(responseCode = "200", description = "Progress returned")
+    @ApiResponse(responseCode = "204", description = "No local sync has run yet")
+    public ResponseEntity<TransferStatus> syncLocalStatus() {
+        TransferStatus status = fileManagerService.getLocalSyncStatus();
+        return status == null ? ResponseEntity.noContent().build() : ResponseEntity.ok(status);
     }
 }
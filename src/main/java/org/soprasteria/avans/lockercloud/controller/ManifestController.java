@@ -0,0 +1,55 @@
+package org.soprasteria.avans.lockercloud.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.soprasteria.avans.lockercloud.dto.SyncResult;
+import org.soprasteria.avans.lockercloud.model.FileMetadata;
+import org.soprasteria.avans.lockercloud.service.FileManagerService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/sync")
+@Tag(name = "Manifest Sync", description = "Compare Merkle tree hashes and only exchange the subtrees that differ")
+public class ManifestController {
+
+    private final FileManagerService fileManagerService;
+
+    public ManifestController(FileManagerService fileManagerService) {
+        this.fileManagerService = fileManagerService;
+    }
+
+    @Operation(summary = "Manifest node", description = "Returns the hash of a subtree of the server namespace with either the hashes "
+            + "of its 16 children or, for small subtrees, its files. Without prefix the root is returned.")
+    @ApiResponse(responseCode = "200", description = "Node returned")
+    @ApiResponse(responseCode = "400", description = "Invalid prefix")
+    @GetMapping("/manifest")
+    public ResponseEntity<?> node(@RequestParam(value = "prefix", required = false) String prefix) {
+        try {
+            return ResponseEntity.ok(fileManagerService.getManifestNode(prefix));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Error reading manifest: " + e.getMessage());
+        }
+    }
+
+    @Operation(summary = "Synchronize subtrees", description = "Like /sync, but only for the files in the given manifest subtrees")
+    @ApiResponse(responseCode = "200", description = "Sync result returned successfully")
+    @ApiResponse(responseCode = "409", description = "Sync result contains conflicts")
+    @PostMapping("/manifest")
+    public ResponseEntity<?> syncSubtrees(@RequestParam(value = "prefix", required = false) List<String> prefixes,
+                                          @RequestBody List<FileMetadata> clientFiles) {
+        try {
+            SyncResult result = fileManagerService.syncSubtrees(prefixes, clientFiles);
+            if (!result.getConflictFiles().isEmpty()) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(result);
+            }
+            return ResponseEntity.ok(result);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Error syncing files: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.soprasteria.avans.lockercloud.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithms;
+import org.soprasteria.avans.lockercloud.dto.UploadStatus;
+import org.soprasteria.avans.lockercloud.service.FileManagerService;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.InputStream;
+
+@RestController
+@RequestMapping("/uploads")
+@Tag(name = "Upload Sessions", description = "Multi-part uploads whose parts can be sent in any order and in parallel")
+public class UploadSessionController {
+
+    private final FileManagerService fileManagerService;
+
+    public UploadSessionController(FileManagerService fileManagerService) {
+        this.fileManagerService = fileManagerService;
+    }
+
+    @Operation(summary = "Start an upload session", description = "Creates an upload session for a file that will be sent in the given number of parts. "
+            + "partSize is the size of every part except the last; when omitted it is taken from the first non-final part. "
+            + "size, when given, reserves the complete file up front. "
+            + "Checksum-Algorithm selects the algorithm of all part and file checksums of the session.")
+    @ApiResponse(responseCode = "201", description = "Upload session created")
+    @ApiResponse(responseCode = "400", description = "Invalid upload request")
+    @PostMapping
+    public ResponseEntity<?> initiate(@RequestParam("file") String fileName,
+                                      @RequestParam("parts") int totalParts,
+                                      @RequestParam(value = "partSize", defaultValue = "0") long partSize,
+                                      @RequestParam(value = "size", defaultValue = "0") long fileSize,
+                                      @RequestHeader(value = "File-Checksum", required = false) String fileChecksum,
+                                      @RequestHeader(value = FileController.CHECKSUM_ALGORITHM, required = false) String checksumAlgorithm) {
+        try {
+            UploadStatus status = fileManagerService.initiateUpload(fileName, totalParts, partSize, fileSize,
+                    fileChecksum, ChecksumAlgorithms.forName(checksumAlgorithm));
+            return ResponseEntity.status(HttpStatus.CREATED).body(status);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Error starting upload: " + e.getMessage());
+        }
+    }
+
+    @Operation(summary = "Upload a part", description = "Stores one part of an upload session. The request body is the raw part data.")
+    @ApiResponse(responseCode = "200", description = "Part stored")
+    @ApiResponse(responseCode = "400", description = "Error storing part")
+    @PutMapping("/{uploadId}/parts/{index}")
+    public ResponseEntity<?> uploadPart(@PathVariable String uploadId,
+                                        @PathVariable int index,
+                                        @RequestHeader(value = "Checksum", required = false) String checksum,
+                                        @RequestHeader(value = HttpHeaders.CONTENT_LENGTH, required = false) Long contentLength,
+                                        InputStream body) {
+        try {
+            long length = contentLength != null ? contentLength : -1;
+            return ResponseEntity.ok(fileManagerService.uploadPart(uploadId, index, body, length, checksum));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Error uploading part: " + e.getMessage());
+        }
+    }
+
+    @Operation(summary = "Upload session status", description = "Lists the received and missing parts of an upload session")
+    @ApiResponse(responseCode = "200", description = "Status returned")
+    @ApiResponse(responseCode = "404", description = "Unknown upload session")
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<?> status(@PathVariable String uploadId) {
+        try {
+            return ResponseEntity.ok(fileManagerService.getUploadStatus(uploadId));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Error reading upload: " + e.getMessage());
+        }
+    }
+
+    @Operation(summary = "Complete an upload session", description = "Assembles all parts into the final file and validates the File-Checksum")
+    @ApiResponse(responseCode = "200", description = "File committed")
+    @ApiResponse(responseCode = "409", description = "Parts are missing or the checksum does not match")
+    @PostMapping("/{uploadId}/complete")
+    public ResponseEntity<?> complete(@PathVariable String uploadId,
+                                      @RequestHeader(value = "File-Checksum", required = false) String fileChecksum) {
+        try {
+            return ResponseEntity.ok(fileManagerService.completeUpload(uploadId, fileChecksum));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("Error completing upload: " + e.getMessage());
+        }
+    }
+
+    @Operation(summary = "Abort an upload session", description = "Discards an upload session and its parts")
+    @ApiResponse(responseCode = "200", description = "Upload session aborted")
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<String> abort(@PathVariable String uploadId) {
+        fileManagerService.abortUpload(uploadId);
+        return ResponseEntity.ok("Upload aborted");
+    }
+}
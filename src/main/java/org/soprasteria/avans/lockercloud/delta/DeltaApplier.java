@@ -0,0 +1,114 @@
+package org.soprasteria.avans.lockercloud.delta;
+
+import org.soprasteria.avans.lockercloud.checksum.ChecksumHasher;
+import org.soprasteria.avans.lockercloud.exception.FileStorageException;
+import org.soprasteria.avans.lockercloud.storage.IngestPipeline;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Server side of delta sync: rebuilds the new version of a file from a delta and
+ * the old version (the basis). The result is written sequentially and hashed on
+ * the way, so its checksum is known when the last instruction has been applied.
+ */
+public class DeltaApplier {
+
+    /** Size of the rebuilt file and how many of its bytes came from the delta and from the basis. */
+    public record Result(long size, long literalBytes, long copiedBytes) {
+    }
+
+    private final IngestPipeline pipeline;
+
+    public DeltaApplier(IngestPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * Applies a delta. Reading stops right after the END instruction.
+     *
+     * @param basis the old version, or null if there is none (the delta may then only hold literals);
+     *              any seekable channel will do, so a compressed basis can be read through its decoder
+     * @throws FileStorageException if the delta is malformed or refers to blocks the basis does not have
+     */
+    public Result apply(InputStream delta, SeekableByteChannel basis, FileChannel out,
+                        ChecksumHasher... digests) throws IOException {
+        DataInputStream in = new DataInputStream(delta);
+        try {
+            if (in.readInt() != DeltaFormat.MAGIC) {
+                throw new FileStorageException("Not a delta stream");
+            }
+            int blockSize = in.readInt();
+            if (blockSize < DeltaFormat.MIN_BLOCK_SIZE || blockSize > DeltaFormat.MAX_BLOCK_SIZE) {
+                throw new FileStorageException("Invalid delta block size " + blockSize);
+            }
+            long basisSize = basis != null ? basis.size() : 0;
+            long position = 0;
+            long literalBytes = 0;
+            while (true) {
+                byte op = in.readByte();
+                if (op == DeltaFormat.END) {
+                    break;
+                } else if (op == DeltaFormat.LITERAL) {
+                    int length = in.readInt();
+                    if (length < 0) {
+                        throw new FileStorageException("Invalid literal length " + length);
+                    }
+                    pipeline.writeExactly(in, out, position, length, digests);
+                    position += length;
+                    literalBytes += length;
+                } else if (op == DeltaFormat.COPY) {
+                    long offset = (long) in.readInt() * blockSize;
+                    long length = Math.min((long) in.readInt() * blockSize, basisSize - offset);
+                    if (offset < 0 || length <= 0) {
+                        throw new FileStorageException("Delta refers to blocks beyond the old version of the file");
+                    }
+                    copy(basis, offset, length, out, position, digests);
+                    position += length;
+                } else {
+                    throw new FileStorageException("Unknown delta instruction " + op);
+                }
+            }
+            return new Result(position, literalBytes, position - literalBytes);
+        } catch (EOFException e) {
+            throw new FileStorageException("Delta stream ended before its END instruction", e);
+        }
+    }
+
+    private void copy(SeekableByteChannel basis, long offset, long length, FileChannel out, long position,
+                      ChecksumHasher[] digests) throws IOException {
+        byte[] buffer = pipeline.acquire();
+        try {
+            ByteBuffer bb = ByteBuffer.wrap(buffer);
+            long done = 0;
+            while (done < length) {
+                bb.clear().limit((int) Math.min(buffer.length, length - done));
+                while (bb.hasRemaining()) {
+                    if (read(basis, bb, offset + done + bb.position()) == -1) {
+                        throw new FileStorageException("Old version of the file is shorter than expected");
+                    }
+                }
+                int n = bb.position();
+                for (ChecksumHasher digest : digests) {
+                    digest.update(buffer, 0, n);
+                }
+                bb.flip();
+                while (bb.hasRemaining()) {
+                    out.write(bb, position + done + bb.position());
+                }
+                done += n;
+            }
+        } finally {
+            pipeline.release(buffer);
+        }
+    }
+
+    private static int read(SeekableByteChannel basis, ByteBuffer bb, long position) throws IOException {
+        return basis instanceof FileChannel fc ? fc.read(bb, position) : basis.position(position).read(bb);
+    }
+}
@@ -0,0 +1,153 @@
+package org.soprasteria.avans.lockercloud.delta;
+
+import org.soprasteria.avans.lockercloud.dto.BlockSignature;
+import org.soprasteria.avans.lockercloud.dto.FileSignature;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Client side of delta sync: reads the new version of a file once and writes a
+ * delta against the signature of the server's copy. A window of one block slides
+ * over the data; at every offset the rolling checksum is looked up and, on a hit,
+ * confirmed with the strong hash. Matching blocks become COPY instructions,
+ * everything in between is sent as literal data.
+ */
+public class DeltaEncoder {
+
+    private final FileSignature signature;
+    private final int blockSize;
+    private final Map<Integer, List<BlockSignature>> byWeak = new HashMap<>();
+
+    private DataOutputStream out;
+    private final ByteArrayOutputStream literal = new ByteArrayOutputStream();
+    private int copyStart = -1;
+    private int copyCount;
+
+    public DeltaEncoder(FileSignature signature) {
+        this.signature = signature;
+        this.blockSize = signature.getBlockSize();
+        for (BlockSignature block : signature.getBlocks()) {
+            byWeak.computeIfAbsent(block.getWeak(), k -> new ArrayList<>()).add(block);
+        }
+    }
+
+    /** Writes the delta that turns the signed file into {@code newData}. Neither stream is closed. */
+    public void encode(InputStream newData, OutputStream target) throws IOException {
+        InputStream in = newData instanceof BufferedInputStream ? newData : new BufferedInputStream(newData, 64 * 1024);
+        out = new DataOutputStream(target);
+        out.writeInt(DeltaFormat.MAGIC);
+        out.writeInt(blockSize);
+
+        byte[] window = new byte[blockSize];
+        int start = 0;
+        int length = in.readNBytes(window, 0, blockSize);
+        RollingChecksum weak = new RollingChecksum();
+        weak.reset(window, 0, length);
+        boolean eof = length < blockSize;
+
+        while (length > 0) {
+            int match = find(weak.value(), window, start, length);
+            if (match >= 0) {
+                addCopy(match);
+                start = 0;
+                length = in.readNBytes(window, 0, blockSize);
+                eof = length < blockSize;
+                weak.reset(window, 0, length);
+                continue;
+            }
+            byte first = window[start];
+            addLiteral(first);
+            int next = eof ? -1 : in.read();
+            if (next == -1) {
+                eof = true;
+                weak.remove(first);
+                start = (start + 1) % blockSize;
+                length--;
+            } else {
+                weak.roll(first, (byte) next);
+                window[start] = (byte) next;
+                start = (start + 1) % blockSize;
+            }
+        }
+        flushLiteral();
+        flushCopy();
+        out.writeByte(DeltaFormat.END);
+        out.flush();
+    }
+
+    private int find(int weakValue, byte[] window, int start, int length) {
+        List<BlockSignature> candidates = byWeak.get(weakValue);
+        if (candidates == null) {
+            return -1;
+        }
+        long strong = -1;
+        boolean hashed = false;
+        for (BlockSignature block : candidates) {
+            if (blockLength(block.getIndex()) != length) {
+                continue;
+            }
+            if (!hashed) {
+                strong = DeltaSignatures.strong(contiguous(window, start, length), 0, length);
+                hashed = true;
+            }
+            if (block.strongValue() == strong) {
+                return block.getIndex();
+            }
+        }
+        return -1;
+    }
+
+    private long blockLength(int index) {
+        return Math.min(blockSize, signature.getFileSize() - (long) index * blockSize);
+    }
+
+    private static byte[] contiguous(byte[] ring, int start, int length) {
+        byte[] data = new byte[length];
+        int head = Math.min(length, ring.length - start);
+        System.arraycopy(ring, start, data, 0, head);
+        System.arraycopy(ring, 0, data, head, length - head);
+        return data;
+    }
+
+    private void addCopy(int index) throws IOException {
+        flushLiteral();
+        if (copyStart >= 0 && index == copyStart + copyCount) {
+            copyCount++;
+            return;
+        }
+        flushCopy();
+        copyStart = index;
+        copyCount = 1;
+    }
+
+    private void addLiteral(byte b) throws IOException {
+        flushCopy();
+        literal.write(b);
+        if (literal.size() >= DeltaFormat.MAX_LITERAL) {
+            flushLiteral();
+        }
+    }
+
+    private void flushCopy() throws IOException {
+        if (copyStart >= 0) {
+            out.writeByte(DeltaFormat.COPY);
+            out.writeInt(copyStart);
+            out.writeInt(copyCount);
+            copyStart = -1;
+            copyCount = 0;
+        }
+    }
+
+    private void flushLiteral() throws IOException {
+        if (literal.size() > 0) {
+            out.writeByte(DeltaFormat.LITERAL);
+            out.writeInt(literal.size());
+            literal.writeTo(out);
+            literal.reset();
+        }
+    }
+}
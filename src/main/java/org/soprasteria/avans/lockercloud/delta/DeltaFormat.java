@@ -0,0 +1,40 @@
+package org.soprasteria.avans.lockercloud.delta;
+
+/**
+ * Wire format of a delta. All integers are big-endian.
+ * <pre>
+ * header   int magic ("LCD1"), int blockSize
+ * COPY     byte 1, int firstBlock, int blockCount   reuse blocks of the old version
+ * LITERAL  byte 2, int length, length bytes          new data
+ * END      byte 0
+ * </pre>
+ * The format is self-delimiting, so a delta can be read straight off a
+ * connection that carries further commands.
+ */
+public final class DeltaFormat {
+
+    public static final int MAGIC = 0x4C434431; // "LCD1"
+    public static final byte END = 0;
+    public static final byte COPY = 1;
+    public static final byte LITERAL = 2;
+
+    /** Largest literal run the encoder emits in one instruction. */
+    public static final int MAX_LITERAL = 1024 * 1024;
+
+    public static final int MIN_BLOCK_SIZE = 512;
+    public static final int MAX_BLOCK_SIZE = 16 * 1024 * 1024;
+
+    private DeltaFormat() {
+    }
+
+    /**
+     * Block size for a file of the given size: about the square root of the size,
+     * as rsync does, rounded to whole KiB and kept between 2 KiB and 1 MiB. This
+     * balances the signature size against how much data one changed byte costs.
+     */
+    public static int defaultBlockSize(long fileSize) {
+        long root = (long) Math.sqrt((double) fileSize);
+        long rounded = (root + 1023) / 1024 * 1024;
+        return (int) Math.max(2048, Math.min(1024 * 1024, rounded));
+    }
+}
@@ -0,0 +1,61 @@
+package org.soprasteria.avans.lockercloud.delta;
+
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithms;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumHasher;
+import org.soprasteria.avans.lockercloud.dto.BlockSignature;
+import org.soprasteria.avans.lockercloud.dto.FileSignature;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes the block signatures of a file.
+ */
+public final class DeltaSignatures {
+
+    private DeltaSignatures() {
+    }
+
+    public static FileSignature compute(String fileName, Path file, int blockSize, String checksum) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return compute(fileName, channel, blockSize, checksum);
+        }
+    }
+
+    /** Signatures of the content read from {@code channel}, from its start; the channel is not closed. */
+    public static FileSignature compute(String fileName, SeekableByteChannel channel, int blockSize,
+                                        String checksum) throws IOException {
+        List<BlockSignature> blocks = new ArrayList<>();
+        long size = channel.size();
+        channel.position(0);
+        ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+        long position = 0;
+        while (position < size) {
+            buffer.clear();
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                // lees tot het blok vol is of het bestand op is
+            }
+            int n = buffer.position();
+            if (n == 0) {
+                break;
+            }
+            blocks.add(new BlockSignature(blocks.size(), RollingChecksum.of(buffer.array(), 0, n),
+                    strong(buffer.array(), 0, n)));
+            position += n;
+        }
+        return new FileSignature(fileName, size, blockSize, checksum, blocks);
+    }
+
+    /** Strong hash of a block: XXH64 as an unsigned 64-bit value. */
+    public static long strong(byte[] data, int offset, int length) {
+        ChecksumHasher hasher = ChecksumAlgorithms.XXH64.newHasher();
+        hasher.update(data, offset, length);
+        return ByteBuffer.wrap(hasher.digest()).getLong();
+    }
+}
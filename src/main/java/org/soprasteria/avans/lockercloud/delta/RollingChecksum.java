@@ -0,0 +1,57 @@
+package org.soprasteria.avans.lockercloud.delta;
+
+/**
+ * The rsync weak checksum: two 16-bit sums over a window that can slide one byte
+ * at a time in constant time, so every offset of a file can be tested against the
+ * block signatures without rehashing the window.
+ */
+public final class RollingChecksum {
+
+    private int a;
+    private int b;
+    private int length;
+
+    /** Starts a new window over {@code data[offset, offset + length)}. */
+    public void reset(byte[] data, int offset, int length) {
+        a = 0;
+        b = 0;
+        for (int i = 0; i < length; i++) {
+            int x = data[offset + i] & 0xff;
+            a += x;
+            b += (length - i) * x;
+        }
+        a &= 0xffff;
+        b &= 0xffff;
+        this.length = length;
+    }
+
+    /** Slides the window one byte: {@code out} leaves at the front, {@code in} enters at the back. */
+    public void roll(byte out, byte in) {
+        int x = out & 0xff;
+        a = (a - x + (in & 0xff)) & 0xffff;
+        b = (b - length * x + a) & 0xffff;
+    }
+
+    /** Shrinks the window by dropping its first byte; used at the end of a file. */
+    public void remove(byte out) {
+        int x = out & 0xff;
+        a = (a - x) & 0xffff;
+        b = (b - length * x) & 0xffff;
+        length--;
+    }
+
+    public int value() {
+        return (b << 16) | a;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /** Weak checksum of a single block. */
+    public static int of(byte[] data, int offset, int length) {
+        RollingChecksum checksum = new RollingChecksum();
+        checksum.reset(data, offset, length);
+        return checksum.value();
+    }
+}
@@ -0,0 +1,47 @@
+package org.soprasteria.avans.lockercloud.dto;
+
+/**
+ * Signature of one block of a stored file: a rolling weak checksum to find
+ * candidate matches cheaply and a strong XXH64 hash (hex) to confirm them.
+ */
+public class BlockSignature {
+    private int index;
+    private int weak;
+    private long strong;
+
+    public BlockSignature() { }
+
+    public BlockSignature(int index, int weak, long strong) {
+        this.index = index;
+        this.weak = weak;
+        this.strong = strong;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public int getWeak() {
+        return weak;
+    }
+
+    public void setWeak(int weak) {
+        this.weak = weak;
+    }
+
+    public String getStrong() {
+        return String.format("%016x", strong);
+    }
+
+    public void setStrong(String strong) {
+        this.strong = Long.parseUnsignedLong(strong, 16);
+    }
+
+    public long strongValue() {
+        return strong;
+    }
+}
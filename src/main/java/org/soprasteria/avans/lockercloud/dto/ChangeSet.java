@@ -0,0 +1,56 @@
+package org.soprasteria.avans.lockercloud.dto;
+
+import java.util.List;
+
+/**
+ * Changes since a sync cursor. {@code cursor} is passed on the next call. When
+ * {@code resyncRequired} is set the journal no longer covers the given cursor:
+ * the client has to do a full sync and continue from the returned cursor.
+ */
+public class ChangeSet {
+    private String cursor;
+    private List<FileChange> changes;
+    private boolean hasMore;
+    private boolean resyncRequired;
+
+    public ChangeSet() { }
+
+    public ChangeSet(String cursor, List<FileChange> changes, boolean hasMore, boolean resyncRequired) {
+        this.cursor = cursor;
+        this.changes = changes;
+        this.hasMore = hasMore;
+        this.resyncRequired = resyncRequired;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    public List<FileChange> getChanges() {
+        return changes;
+    }
+
+    public void setChanges(List<FileChange> changes) {
+        this.changes = changes;
+    }
+
+    public boolean isHasMore() {
+        return hasMore;
+    }
+
+    public void setHasMore(boolean hasMore) {
+        this.hasMore = hasMore;
+    }
+
+    public boolean isResyncRequired() {
+        return resyncRequired;
+    }
+
+    public void setResyncRequired(boolean resyncRequired) {
+        this.resyncRequired = resyncRequired;
+    }
+}
@@ -0,0 +1,63 @@
+package org.soprasteria.avans.lockercloud.dto;
+
+/**
+ * Outcome of applying a delta: the checksum and size of the rebuilt file and how
+ * many of its bytes were sent by the client versus reused from the old version.
+ */
+public class DeltaResult {
+    private String fileName;
+    private String checksum;
+    private long size;
+    private long literalBytes;
+    private long copiedBytes;
+
+    public DeltaResult() { }
+
+    public DeltaResult(String fileName, String checksum, long size, long literalBytes, long copiedBytes) {
+        this.fileName = fileName;
+        this.checksum = checksum;
+        this.size = size;
+        this.literalBytes = literalBytes;
+        this.copiedBytes = copiedBytes;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getLiteralBytes() {
+        return literalBytes;
+    }
+
+    public void setLiteralBytes(long literalBytes) {
+        this.literalBytes = literalBytes;
+    }
+
+    public long getCopiedBytes() {
+        return copiedBytes;
+    }
+
+    public void setCopiedBytes(long copiedBytes) {
+        this.copiedBytes = copiedBytes;
+    }
+}
@@ -0,0 +1,87 @@
+package org.soprasteria.avans.lockercloud.dto;
+
+/**
+ * One entry of the change journal: the latest state of a file as of sequence
+ * number {@code seq}. For a deleted file only the name is set.
+ */
+public class FileChange {
+
+    public enum Type { UPDATED, DELETED }
+
+    private long seq;
+    private Type type;
+    private String fileName;
+    private long fileSize;
+    private long lastModified;
+    private String checksumAlgorithm;
+    private String checksum;
+
+    public FileChange() { }
+
+    public FileChange(long seq, Type type, String fileName, long fileSize, long lastModified,
+                      String checksumAlgorithm, String checksum) {
+        this.seq = seq;
+        this.type = type;
+        this.fileName = fileName;
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.checksumAlgorithm = checksumAlgorithm;
+        this.checksum = checksum;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(long seq) {
+        this.seq = seq;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public String getChecksumAlgorithm() {
+        return checksumAlgorithm;
+    }
+
+    public void setChecksumAlgorithm(String checksumAlgorithm) {
+        this.checksumAlgorithm = checksumAlgorithm;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
+}
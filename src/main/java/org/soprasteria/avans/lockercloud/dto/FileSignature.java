@@ -0,0 +1,66 @@
+package org.soprasteria.avans.lockercloud.dto;
+
+import java.util.List;
+
+/**
+ * Block signatures of the server's copy of a file, used by a client to compute
+ * a delta against it. {@code checksum} is the MD5 of the whole file and is sent
+ * back as {@code Basis-Checksum} so the server can tell if its copy changed.
+ */
+public class FileSignature {
+    private String fileName;
+    private long fileSize;
+    private int blockSize;
+    private String checksum;
+    private List<BlockSignature> blocks;
+
+    public FileSignature() { }
+
+    public FileSignature(String fileName, long fileSize, int blockSize, String checksum, List<BlockSignature> blocks) {
+        this.fileName = fileName;
+        this.fileSize = fileSize;
+        this.blockSize = blockSize;
+        this.checksum = checksum;
+        this.blocks = blocks;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
+
+    public List<BlockSignature> getBlocks() {
+        return blocks;
+    }
+
+    public void setBlocks(List<BlockSignature> blocks) {
+        this.blocks = blocks;
+    }
+}
@@ -0,0 +1,68 @@
+package org.soprasteria.avans.lockercloud.dto;
+
+import org.soprasteria.avans.lockercloud.model.FileMetadata;
+
+import java.util.List;
+
+/**
+ * One node of the namespace manifest. An inner node lists the hashes of its 16
+ * children; a small node or a bucket at the bottom of the tree lists its files
+ * instead, so the client can compare them directly.
+ */
+public class ManifestNode {
+    private String prefix;
+    private String hash;
+    private int fileCount;
+    private List<String> children;
+    private List<FileMetadata> files;
+
+    public ManifestNode() { }
+
+    public ManifestNode(String prefix, String hash, int fileCount, List<String> children, List<FileMetadata> files) {
+        this.prefix = prefix;
+        this.hash = hash;
+        this.fileCount = fileCount;
+        this.children = children;
+        this.files = files;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public void setPrefix(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    public void setFileCount(int fileCount) {
+        this.fileCount = fileCount;
+    }
+
+    public List<String> getChildren() {
+        return children;
+    }
+
+    public void setChildren(List<String> children) {
+        this.children = children;
+    }
+
+    public List<FileMetadata> getFiles() {
+        return files;
+    }
+
+    public void setFiles(List<FileMetadata> files) {
+        this.files = files;
+    }
+}
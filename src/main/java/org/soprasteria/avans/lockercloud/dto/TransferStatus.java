@@ -0,0 +1,79 @@
+package org.soprasteria.avans.lockercloud.dto;
+
+import java.util.List;
+
+/**
+ * Progress of a transfer job, with the files finished so far.
+ */
+public class TransferStatus {
+    private int done;
+    private int total;
+    private long bytesDone;
+    private long bytesTotal;
+    private List<String> completedFiles;
+    private List<String> failedFiles;
+
+    public TransferStatus() { }
+
+    public TransferStatus(int done, int total, long bytesDone, long bytesTotal,
+                          List<String> completedFiles, List<String> failedFiles) {
+        this.done = done;
+        this.total = total;
+        this.bytesDone = bytesDone;
+        this.bytesTotal = bytesTotal;
+        this.completedFiles = completedFiles;
+        this.failedFiles = failedFiles;
+    }
+
+    public int getDone() {
+        return done;
+    }
+
+    public void setDone(int done) {
+        this.done = done;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    public long getBytesDone() {
+        return bytesDone;
+    }
+
+    public void setBytesDone(long bytesDone) {
+        this.bytesDone = bytesDone;
+    }
+
+    public long getBytesTotal() {
+        return bytesTotal;
+    }
+
+    public void setBytesTotal(long bytesTotal) {
+        this.bytesTotal = bytesTotal;
+    }
+
+    public List<String> getCompletedFiles() {
+        return completedFiles;
+    }
+
+    public void setCompletedFiles(List<String> completedFiles) {
+        this.completedFiles = completedFiles;
+    }
+
+    public List<String> getFailedFiles() {
+        return failedFiles;
+    }
+
+    public void setFailedFiles(List<String> failedFiles) {
+        this.failedFiles = failedFiles;
+    }
+
+    public boolean isFinished() {
+        return done == total;
+    }
+}
@@ -0,0 +1,72 @@
+package org.soprasteria.avans.lockercloud.dto;
+
+import java.util.List;
+
+public class UploadStatus {
+    private String uploadId;
+    private String fileName;
+    private int totalParts;
+    private List<Integer> receivedParts;
+    private List<Integer> missingParts;
+    private boolean completed;
+
+    public UploadStatus() { }
+
+    public UploadStatus(String uploadId, String fileName, int totalParts,
+                        List<Integer> receivedParts, List<Integer> missingParts, boolean completed) {
+        this.uploadId = uploadId;
+        this.fileName = fileName;
+        this.totalParts = totalParts;
+        this.receivedParts = receivedParts;
+        this.missingParts = missingParts;
+        this.completed = completed;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public void setUploadId(String uploadId) {
+        this.uploadId = uploadId;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public int getTotalParts() {
+        return totalParts;
+    }
+
+    public void setTotalParts(int totalParts) {
+        this.totalParts = totalParts;
+    }
+
+    public List<Integer> getReceivedParts() {
+        return receivedParts;
+    }
+
+    public void setReceivedParts(List<Integer> receivedParts) {
+        this.receivedParts = receivedParts;
+    }
+
+    public List<Integer> getMissingParts() {
+        return missingParts;
+    }
+
+    public void setMissingParts(List<Integer> missingParts) {
+        this.missingParts = missingParts;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public void setCompleted(boolean completed) {
+        this.completed = completed;
+    }
+}
@@ -0,0 +1,44 @@
+package org.soprasteria.avans.lockercloud.health;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.soprasteria.avans.lockercloud.service.FileLockManager;
+import org.soprasteria.avans.lockercloud.service.FileManagerService;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes how long requests wait for the per-file locks, by mode, under
+ * {@code /actuator/metrics}. Uncontended acquisitions count as zero wait.
+ */
+@Component
+public class FileLockMetrics implements MeterBinder {
+
+    private final FileManagerService fileManagerService;
+
+    public FileLockMetrics(FileManagerService fileManagerService) {
+        this.fileManagerService = fileManagerService;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (FileLockManager.Mode mode : FileLockManager.Mode.values()) {
+            String tag = mode.name().toLowerCase(Locale.ROOT);
+            FunctionTimer.builder("lockercloud.lock.wait", fileManagerService,
+                            s -> s.getFileLockStats(mode).acquisitions(),
+                            s -> s.getFileLockStats(mode).waitNanos(), TimeUnit.NANOSECONDS)
+                    .tag("mode", tag)
+                    .description("Time spent waiting for a file lock")
+                    .register(registry);
+            FunctionCounter.builder("lockercloud.lock.contended", fileManagerService,
+                            s -> s.getFileLockStats(mode).contended())
+                    .tag("mode", tag)
+                    .description("File lock acquisitions that had to wait")
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.soprasteria.avans.lockercloud.health;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.soprasteria.avans.lockercloud.service.FileManagerService;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes the hot-file read cache under {@code /actuator/metrics}: requests by
+ * result (hit or miss), evictions, and the bytes and entries it holds.
+ */
+@Component
+public class ReadCacheMetrics implements MeterBinder {
+
+    private final FileManagerService fileManagerService;
+
+    public ReadCacheMetrics(FileManagerService fileManagerService) {
+        this.fileManagerService = fileManagerService;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("lockercloud.cache.requests", fileManagerService, s -> s.getReadCacheStats().hits())
+                .tag("result", "hit")
+                .description("Reads served from the read cache")
+                .register(registry);
+        FunctionCounter.builder("lockercloud.cache.requests", fileManagerService, s -> s.getReadCacheStats().misses())
+                .tag("result", "miss")
+                .description("Reads that had to go to disk")
+                .register(registry);
+        FunctionCounter.builder("lockercloud.cache.evictions", fileManagerService, s -> s.getReadCacheStats().evictions())
+                .description("Files dropped from or refused by the read cache to stay within its budget")
+                .register(registry);
+        Gauge.builder("lockercloud.cache.size", fileManagerService, s -> s.getReadCacheStats().bytes())
+                .baseUnit("bytes")
+                .description("Content held by the read cache")
+                .register(registry);
+        Gauge.builder("lockercloud.cache.entries", fileManagerService, s -> s.getReadCacheStats().entries())
+                .description("Files held by the read cache")
+                .register(registry);
+    }
+}
@@ -0,0 +1,163 @@
+package org.soprasteria.avans.lockercloud.manifest;
+
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithms;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumHasher;
+import org.soprasteria.avans.lockercloud.dto.ManifestNode;
+import org.soprasteria.avans.lockercloud.exception.FileStorageException;
+import org.soprasteria.avans.lockercloud.model.FileMetadata;
+import org.soprasteria.avans.lockercloud.storage.StorageLayout;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Merkle tree over a set of files, used to find the files that differ between
+ * client and server without exchanging the full file list.
+ * <p>
+ * A file belongs to the bucket named by the first {@value #DEPTH} hex digits of
+ * {@link StorageLayout#nameHash}, which is also its shard directory. The tree has
+ * a fan-out of 16: a node is identified by a hex prefix, the root by the empty
+ * prefix. All hashes are XXH64 in hex:
+ * <ul>
+ *   <li>bucket: over {@code name\tchecksum\n} of its files, sorted by name</li>
+ *   <li>inner node: over the hashes of its 16 children, in hex digit order</li>
+ *   <li>empty subtree: {@value #EMPTY}</li>
+ * </ul>
+ * Equal hashes mean equal names and checksums, so both sides only descend into
+ * the subtrees whose hashes differ.
+ */
+public final class MerkleManifest {
+
+    public static final int DEPTH = 4;
+    /** A node with at most this many files is returned as a file list instead of children. */
+    public static final int LEAF_LIMIT = 64;
+    public static final String EMPTY = "0000000000000000";
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Map<String, TreeMap<String, FileMetadata>> buckets = new HashMap<>();
+    private final Map<String, String> hashes = new HashMap<>();
+    private final Map<String, Integer> counts = new HashMap<>();
+
+    private MerkleManifest(Collection<FileMetadata> files) {
+        List<Set<String>> levels = new ArrayList<>();
+        for (int depth = 0; depth <= DEPTH; depth++) {
+            levels.add(new HashSet<>());
+        }
+        for (FileMetadata file : files) {
+            String bucket = bucketOf(file.getFileName());
+            if (buckets.computeIfAbsent(bucket, k -> new TreeMap<>()).put(file.getFileName(), file) == null) {
+                for (int depth = 0; depth <= DEPTH; depth++) {
+                    String prefix = bucket.substring(0, depth);
+                    counts.merge(prefix, 1, Integer::sum);
+                    levels.get(depth).add(prefix);
+                }
+            }
+        }
+        buckets.forEach((bucket, entries) -> hashes.put(bucket, bucketHash(entries.values())));
+        for (int depth = DEPTH - 1; depth >= 0; depth--) {
+            for (String prefix : levels.get(depth)) {
+                hashes.put(prefix, innerHash(prefix));
+            }
+        }
+    }
+
+    public static MerkleManifest of(Collection<FileMetadata> files) {
+        return new MerkleManifest(files);
+    }
+
+    public static String bucketOf(String fileName) {
+        return StorageLayout.nameHash(fileName).substring(0, DEPTH);
+    }
+
+    /** True if the file lies in the subtree of one of the prefixes. */
+    public static boolean covers(Collection<String> prefixes, String fileName) {
+        String bucket = bucketOf(fileName);
+        return prefixes.stream().anyMatch(bucket::startsWith);
+    }
+
+    /** @throws FileStorageException if the prefix does not name a node */
+    public static void checkPrefix(String prefix) {
+        if (prefix == null || prefix.length() > DEPTH || !prefix.chars().allMatch(c -> Character.digit(c, 16) >= 0)
+                || !prefix.equals(prefix.toLowerCase(Locale.ROOT))) {
+            throw new FileStorageException("Invalid manifest prefix: " + prefix);
+        }
+    }
+
+    public String rootHash() {
+        return hash("");
+    }
+
+    public String hash(String prefix) {
+        return hashes.getOrDefault(prefix, EMPTY);
+    }
+
+    public int fileCount(String prefix) {
+        return counts.getOrDefault(prefix, 0);
+    }
+
+    public ManifestNode node(String prefix) {
+        checkPrefix(prefix);
+        int count = fileCount(prefix);
+        if (count <= LEAF_LIMIT || prefix.length() == DEPTH) {
+            List<FileMetadata> files = new ArrayList<>(files(List.of(prefix)).values());
+            files.sort(Comparator.comparing(FileMetadata::getFileName));
+            return new ManifestNode(prefix, hash(prefix), count, null, files);
+        }
+        List<String> children = new ArrayList<>(DIGITS.length);
+        for (char digit : DIGITS) {
+            children.add(hash(prefix + digit));
+        }
+        return new ManifestNode(prefix, hash(prefix), count, children, null);
+    }
+
+    /** The files in the subtrees of the given prefixes, by name. */
+    public Map<String, FileMetadata> files(Collection<String> prefixes) {
+        Map<String, FileMetadata> result = new HashMap<>();
+        buckets.forEach((bucket, entries) -> {
+            if (prefixes.stream().anyMatch(bucket::startsWith)) {
+                result.putAll(entries);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns the smallest subtrees in which this manifest and the other differ.
+     * Descending stops at a bucket or at a node small enough to compare file by file.
+     */
+    public List<String> diff(MerkleManifest other) {
+        List<String> differing = new ArrayList<>();
+        diff(other, "", differing);
+        return differing;
+    }
+
+    private void diff(MerkleManifest other, String prefix, List<String> differing) {
+        if (hash(prefix).equals(other.hash(prefix))) {
+            return;
+        }
+        if (prefix.length() == DEPTH || fileCount(prefix) <= LEAF_LIMIT || other.fileCount(prefix) <= LEAF_LIMIT) {
+            differing.add(prefix);
+            return;
+        }
+        for (char digit : DIGITS) {
+            diff(other, prefix + digit, differing);
+        }
+    }
+
+    private String innerHash(String prefix) {
+        ChecksumHasher hasher = ChecksumAlgorithms.XXH64.newHasher();
+        for (char digit : DIGITS) {
+            hasher.update(hash(prefix + digit).getBytes(StandardCharsets.US_ASCII));
+        }
+        return hasher.hexDigest();
+    }
+
+    private static String bucketHash(Collection<FileMetadata> files) {
+        ChecksumHasher hasher = ChecksumAlgorithms.XXH64.newHasher();
+        for (FileMetadata file : files) {
+            String checksum = file.getChecksum() == null ? "" : file.getChecksum();
+            hasher.update((file.getFileName() + "\t" + checksum + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return hasher.hexDigest();
+    }
+}
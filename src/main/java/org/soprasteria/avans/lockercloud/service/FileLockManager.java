@@ -0,0 +1,98 @@
+package org.soprasteria.avans.lockercloud.service;
+
+import org.soprasteria.avans.lockercloud.exception.FileStorageException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Read/write locks per file name, striped so the number of locks stays fixed
+ * however many files are stored. Any number of readers of a file run together;
+ * a writer waits for them and then has the file to itself. Names in different
+ * stripes never contend; two names that share a stripe share a lock, which
+ * costs some concurrency but never correctness.
+ * <p>
+ * Locks are held for one service call and released with try-with-resources.
+ * A thread that holds a read lock must not ask for a write lock: if both names
+ * fall in the same stripe the upgrade would deadlock. Time spent waiting is
+ * counted per mode so contention shows up in the metrics.
+ */
+public class FileLockManager {
+
+    public static final int DEFAULT_STRIPES = 256;
+
+    public enum Mode { READ, WRITE }
+
+    /** Counters of one lock mode; {@code waitNanos} is the total over all acquisitions. */
+    public record Stats(long acquisitions, long contended, long waitNanos) {
+    }
+
+    /** A held lock; closing it releases the lock. */
+    public interface Held extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private final ReentrantReadWriteLock[] stripes;
+    private final Counters reads = new Counters();
+    private final Counters writes = new Counters();
+
+    public FileLockManager() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /** @param stripes number of locks; rounded up to a power of two */
+    public FileLockManager(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new ReentrantReadWriteLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    public Held read(String fileName) {
+        return acquire(stripe(fileName).readLock(), fileName, reads);
+    }
+
+    public Held write(String fileName) {
+        return acquire(stripe(fileName).writeLock(), fileName, writes);
+    }
+
+    public Stats stats(Mode mode) {
+        Counters counters = mode == Mode.READ ? reads : writes;
+        return new Stats(counters.acquisitions.sum(), counters.contended.sum(), counters.waitNanos.sum());
+    }
+
+    private Held acquire(Lock lock, String fileName, Counters counters) {
+        try {
+            // tryLock met timeout respecteert wachtende schrijvers; tryLock() zonder argumenten niet
+            if (!lock.tryLock(0, TimeUnit.NANOSECONDS)) {
+                long start = System.nanoTime();
+                lock.lockInterruptibly();
+                counters.contended.increment();
+                counters.waitNanos.add(System.nanoTime() - start);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FileStorageException("Interrupted while waiting for a lock on " + fileName, e);
+        }
+        counters.acquisitions.increment();
+        return lock::unlock;
+    }
+
+    private ReentrantReadWriteLock stripe(String fileName) {
+        int h = fileName.hashCode();
+        h ^= h >>> 16;
+        h *= 0x45d9f3b;
+        h ^= h >>> 16;
+        return stripes[h & (stripes.length - 1)];
+    }
+
+    private static final class Counters {
+        final LongAdder acquisitions = new LongAdder();
+        final LongAdder contended = new LongAdder();
+        final LongAdder waitNanos = new LongAdder();
+    }
+}
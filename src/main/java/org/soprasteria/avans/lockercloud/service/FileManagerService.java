@@ -1,9 +1,43 @@
 package org.soprasteria.avans.lockercloud.service;
 
 import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
+import jakarta.annotation.PreDestroy;
+import org.soprasteria.avans.lockercloud.archive.ParallelDeflater;
+import org.soprasteria.avans.lockercloud.archive.ZipStreamWriter;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithm;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithms;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumHasher;
+import org.soprasteria.avans.lockercloud.delta.DeltaApplier;
+import org.soprasteria.avans.lockercloud.delta.DeltaFormat;
+import org.soprasteria.avans.lockercloud.delta.DeltaSignatures;
+import org.soprasteria.avans.lockercloud.dto.ChangeSet;
+import org.soprasteria.avans.lockercloud.dto.DeltaResult;
+import org.soprasteria.avans.lockercloud.dto.FileSignature;
+import org.soprasteria.avans.lockercloud.dto.ManifestNode;
 import org.soprasteria.avans.lockercloud.dto.SyncResult;
+import org.soprasteria.avans.lockercloud.dto.TransferStatus;
+import org.soprasteria.avans.lockercloud.dto.UploadStatus;
 import org.soprasteria.avans.lockercloud.exception.FileStorageException;
+import org.soprasteria.avans.lockercloud.manifest.MerkleManifest;
 import org.soprasteria.avans.lockercloud.model.FileMetadata;
+import org.soprasteria.avans.lockercloud.storage.BlockCompressor;
+import org.soprasteria.avans.lockercloud.storage.ChangeJournal;
+import org.soprasteria.avans.lockercloud.storage.ChunkStore;
+import org.soprasteria.avans.lockercloud.storage.ChunkedFile;
+import org.soprasteria.avans.lockercloud.storage.CompressedFile;
+import org.soprasteria.avans.lockercloud.storage.ContentChunker;
+import org.soprasteria.avans.lockercloud.storage.FileReadCache;
+import org.soprasteria.avans.lockercloud.storage.IntentLog;
+import org.soprasteria.avans.lockercloud.storage.FlatLayoutMigration;
+import org.soprasteria.avans.lockercloud.storage.IngestPipeline;
+import org.soprasteria.avans.lockercloud.storage.LiveMetadataView;
+import org.soprasteria.avans.lockercloud.storage.MetadataIndex;
+import org.soprasteria.avans.lockercloud.storage.ParallelScanner;
+import org.soprasteria.avans.lockercloud.storage.StorageLayout;
+import org.soprasteria.avans.lockercloud.storage.StoredFileResource;
+import org.soprasteria.avans.lockercloud.storage.TransferExecutor;
+import org.soprasteria.avans.lockercloud.storage.TransferJob;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.retry.annotation.Backoff;
 import org.springframework.retry.annotation.Recover;
 import org.springframework.retry.annotation.Retryable;
@@ -12,15 +46,23 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.*;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.Deflater;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,18 +70,76 @@ import org.slf4j.LoggerFactory;
 @Service
 public class FileManagerService {
 
-    // Voor grote bestanden groter dan 4GB wordt chunking toegepast
-    private static final long CHUNK_THRESHOLD = 4L * 1024 * 1024 * 1024; // 4 GB
-    private static final long CHUNK_SIZE = 10 * 1024 * 1024; // 10 MB
     private static final Logger logger = LoggerFactory.getLogger(FileManagerService.class);
     // Bestanden groter dan 4GB moeten in chunks worden verwerkt volgens het protocol
     private static final long CHUNK_THRESHOLD = 4L * 1024 * 1024 * 1024; // 4 GB
     private static final long CHUNK_SIZE = 10L * 1024 * 1024; // 10 MB
     private static final long MOD_TIME_THRESHOLD_MS = 1000L;
+    private static final int SCAN_PROGRESS_INTERVAL = 1000;
+    private static final int ARCHIVE_SAMPLE_SIZE = 64 * 1024;
 
     private final Path storageLocation = Paths.get("filestorage");
     // Simuleer de lokale client map (bijvoorbeeld een synchronisatie map op de client)
     private final Path clientLocalLocation = Paths.get("clientSync");
+    // Checksum-index en indeling van de master storage; lazy zodat de storage root pas bij eerste gebruik wordt vastgelegd
+    private MetadataIndex metadataIndex;
+    private StorageLayout layout;
+    // Journaal van wijzigingen voor cursor-gebaseerde sync
+    private ChangeJournal changeJournal;
+    // Write-ahead log van lopende saves, uploads en deletes; bij opstarten worden alleen de open intents hersteld
+    private IntentLog intentLog;
+    // Merkle-samenvatting van de namespace, opnieuw opgebouwd zodra het journaal verder is
+    private final Object manifestLock = new Object();
+    private MerkleManifest manifest;
+    private String manifestCursor;
+    // Aantal bestanden dat tegelijk gehasht wordt bij scans; 0 = aantal cores
+    @Value("${storage.scan.concurrency:0}")
+    private int scanConcurrency;
+    private final Object scannerLock = new Object();
+    private volatile ParallelScanner scanner;
+    // Kopieerwerk van de lokale sync, begrensd per apparaat; de laatste job blijft opvraagbaar voor voortgang
+    @Value("${storage.transfer.concurrency:0}")
+    private int transferConcurrency;
+    @Value("${storage.transfer.per-device:4}")
+    private int transfersPerDevice = 4;
+    private TransferExecutor transferExecutor;
+    private volatile TransferJob localSyncJob;
+    // Opgeslagen bestanden per blok comprimeren als een proef laat zien dat het loont; checksums blijven over de inhoud
+    @Value("${storage.compression.enabled:false}")
+    private boolean compressionEnabled;
+    // Deduplicatie: bestanden worden recepten van chunks die op inhoud en maar één keer worden opgeslagen
+    @Value("${storage.dedup.enabled:false}")
+    private boolean dedupEnabled;
+    @Value("${storage.dedup.gc-interval-ms:60000}")
+    private long dedupGcIntervalMillis;
+    @Value("${storage.dedup.gc-grace-ms:3600000}")
+    private long dedupGcGraceMillis;
+    private ChunkStore chunkStore;
+    // Workers die /downloadAll-archieven comprimeren; 0 = aantal cores
+    @Value("${storage.archive.concurrency:0}")
+    private int archiveConcurrency;
+    private ParallelDeflater archiveDeflater;
+    // Cache van veelgelezen bestanden buiten de heap; 0 bytes = uit
+    @Value("${storage.cache.max-bytes:0}")
+    private long cacheBytes;
+    @Value("${storage.cache.max-file-bytes:16777216}")
+    private long cacheMaxFileBytes = 16L * 1024 * 1024;
+    private final Object cacheLock = new Object();
+    private volatile FileReadCache readCache;
+    // Live metadata van beide mappen, bijgewerkt via WatchService; null zolang er niet gewatcht wordt
+    private volatile LiveMetadataView storageView;
+    private volatile LiveMetadataView clientView;
+    // Lopende multipart uploads, op uploadId; chunk uploads via de Chunk-* headers krijgen een sessie per bestandsnaam
+    private final Map<String, UploadSession> uploadSessions = new ConcurrentHashMap<>();
+    private final Map<String, String> chunkUploadSessions = new ConcurrentHashMap<>();
+    // Sessies waar zo lang niets binnenkomt worden afgebroken, met hun databestand en intent; 0 = nooit
+    @Value("${storage.upload.expiry-ms:86400000}")
+    private long uploadExpiryMillis = 24L * 60 * 60 * 1000;
+    private ScheduledExecutorService uploadSweeper;
+    // Lezers van een bestand gaan samen, een schrijver (commit of delete) heeft het bestand alleen
+    private final FileLockManager fileLocks = new FileLockManager();
+    // Gedeelde schrijfstap voor alle uploads: hashen tijdens het schrijven, met gepoolde buffers
+    private final IngestPipeline ingestPipeline = new IngestPipeline();
 
     public FileManagerService() {
         try {
@@ -50,27 +150,254 @@ public class FileManagerService {
         }
     }
 
+    /**
+     * Returns the persistent checksum index of the master storage, loading or
+     * rebuilding it on first use.
+     */
+    synchronized MetadataIndex metadataIndex() {
+        if (metadataIndex == null) {
+            ParallelScanner scanner = scanner();
+            metadataIndex = new MetadataIndex(layout(), (file, algorithm) -> hashContent(scanner, file, algorithm), scanner);
+        }
+        return metadataIndex;
+    }
+
+    /** Checksum of the content of a stored file; a compressed or deduplicated file is hashed while it is decoded. */
+    private static String hashContent(ParallelScanner scanner, Path file, ChecksumAlgorithm algorithm) throws IOException {
+        if (!CompressedFile.isEncoded(file)) {
+            return scanner.hash(file, algorithm);
+        }
+        try (InputStream in = Channels.newInputStream(CompressedFile.open(file))) {
+            return ChecksumAlgorithms.hash(algorithm, in);
+        }
+    }
+
+    /**
+     * Returns the change journal of the master storage. A journal that is started
+     * for an existing storage directory is seeded with every stored file, so a
+     * client without a cursor receives the complete listing.
+     */
+    synchronized ChangeJournal changeJournal() {
+        if (changeJournal == null) {
+            ChangeJournal journal = new ChangeJournal(storageLocation);
+            if (journal.isNew()) {
+                for (FileMetadata meta : getDirectoryMetadata(storageLocation).values()) {
+                    journal.recordUpdate(meta.getFileName(), meta.getFileSize(), meta.getLastModified(),
+                            ChecksumAlgorithms.DEFAULT.name(), meta.getChecksum());
+                }
+            }
+            changeJournal = journal;
+        }
+        return changeJournal;
+    }
+
+    /**
+     * Returns the changes since a sync cursor.
+     *
+     * @param cursor cursor from the previous call, or null for all files
+     * @param limit  maximum number of changes to return
+     */
+    public ChangeSet getChangesSince(String cursor, int limit) {
+        if (limit < 1) {
+            throw new FileStorageException("Limit must be at least 1.");
+        }
+        return changeJournal().changesSince(cursor, limit);
+    }
+
+    /**
+     * Returns the pool that hashes files in parallel for scans and index rebuilds.
+     * It has its own lock because scan workers use it while a caller may hold the
+     * service lock.
+     */
+    ParallelScanner scanner() {
+        ParallelScanner current = scanner;
+        if (current == null) {
+            synchronized (scannerLock) {
+                current = scanner;
+                if (current == null) {
+                    current = new ParallelScanner(scanConcurrency);
+                    scanner = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Returns the intent log, finishing or rolling back the writes that were
+     * interrupted in the previous run the first time it is used.
+     */
+    synchronized IntentLog intentLog() {
+        if (intentLog == null) {
+            intentLog = new IntentLog(storageLocation);
+            recoverIntents(intentLog);
+        }
+        return intentLog;
+    }
+
+    /**
+     * Resolves the writes that were in flight when the process stopped. Runs on
+     * application startup; it only touches the files named in the intent log.
+     *
+     * @return number of interrupted writes that were resolved
+     */
+    public int recoverInterruptedWrites() {
+        return intentLog().recoveredIntents().size();
+    }
+
+    // Prepared saves en uploads worden afgemaakt, de rest teruggedraaid; deletes worden altijd afgemaakt
+    private void recoverIntents(IntentLog log) {
+        for (IntentLog.Intent intent : log.recoveredIntents()) {
+            try {
+                if (intent.kind() == IntentLog.Kind.DELETE) {
+                    deleteEverywhere(intent.fileName());
+                    log.commit(intent.id());
+                    logger.info("Finished interrupted delete of '{}'", intent.fileName());
+                    continue;
+                }
+                boolean finish = intent.isPrepared();
+                if (finish) {
+                    if (Files.exists(intent.prepared())) {
+                        store(intent.prepared(), intent.fileName());
+                    }
+                    recordStored(intent.fileName(), ChecksumAlgorithms.forName(intent.algorithm()), intent.checksum());
+                }
+                if (intent.path() != null) {
+                    deleteRecursively(intent.path());
+                    Files.deleteIfExists(intent.path().resolveSibling(intent.path().getFileName() + ".lcz"));
+                    Files.deleteIfExists(intent.path().resolveSibling(intent.path().getFileName() + ".lcr"));
+                }
+                if (finish) {
+                    log.commit(intent.id());
+                } else {
+                    log.abort(intent.id());
+                }
+                logger.info("{} interrupted {} of '{}'", finish ? "Finished" : "Rolled back",
+                        intent.kind().name().toLowerCase(), intent.fileName());
+            } catch (IOException | RuntimeException e) {
+                logger.error("Could not recover interrupted {} of '{}': {}", intent.kind(), intent.fileName(), e.getMessage());
+            }
+        }
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(path)) {
+            for (Path p : walk.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    /**
+     * Returns the chunk store of deduplicated files, starting its garbage
+     * collector on first use. Also used with deduplication switched off, to
+     * release the chunks of recipes stored while it was on.
+     */
+    synchronized ChunkStore chunkStore() {
+        if (chunkStore == null) {
+            chunkStore = new ChunkStore(storageLocation);
+            chunkStore.startCollector(dedupGcIntervalMillis, dedupGcGraceMillis);
+        }
+        return chunkStore;
+    }
+
+    synchronized TransferExecutor transferExecutor() {
+        if (transferExecutor == null) {
+            transferExecutor = new TransferExecutor(transferConcurrency, transfersPerDevice);
+        }
+        return transferExecutor;
+    }
+
+    synchronized ParallelDeflater archiveDeflater() {
+        if (archiveDeflater == null) {
+            archiveDeflater = new ParallelDeflater(archiveConcurrency, Deflater.DEFAULT_COMPRESSION);
+        }
+        return archiveDeflater;
+    }
+
+    /** Returns the hot-file read cache, or null if it is switched off. */
+    FileReadCache readCache() {
+        FileReadCache cache = readCache;
+        if (cache == null && cacheBytes > 0) {
+            synchronized (cacheLock) {
+                if (readCache == null) {
+                    readCache = new FileReadCache(cacheBytes, cacheMaxFileBytes);
+                }
+                cache = readCache;
+            }
+        }
+        return cache;
+    }
+
+    /** Hit, miss and eviction counts of the read cache; all zero if it is switched off. */
+    public FileReadCache.Stats getReadCacheStats() {
+        FileReadCache cache = readCache();
+        return cache != null ? cache.stats() : FileReadCache.Stats.EMPTY;
+    }
+
+    /** Acquisitions and wait time of the per-file locks in the given mode. */
+    public FileLockManager.Stats getFileLockStats(FileLockManager.Mode mode) {
+        return fileLocks.stats(mode);
+    }
+
+    synchronized StorageLayout layout() {
+        if (layout == null) {
+            layout = new StorageLayout(storageLocation);
+        }
+        return layout;
+    }
+
+    /**
+     * Moves files left in the old flat storage directory into the sharded layout.
+     * Safe to run while uploads and downloads are being served: each file moves
+     * under its write lock, and names deleted since are left alone.
+     */
+    public FlatLayoutMigration.Result migrateStorageLayout() {
+        FlatLayoutMigration.FileLock locks = name -> {
+            FileLockManager.Held lock = fileLocks.write(name);
+            return lock::close;
+        };
+        try {
+            return new FlatLayoutMigration(layout(), locks, changeJournal()::isDeleted).run();
+        } catch (IOException e) {
+            throw new FileStorageException("Error migrating storage layout", e);
+        }
+    }
+
     // Bestaande methoden (saveFile, getFile, deleteFile, listFiles) blijven grotendeels hetzelfde
 
     public void saveFile(MultipartFile file, String expectedChecksum) {
+        saveFile(file, expectedChecksum, ChecksumAlgorithms.DEFAULT);
+    }
+
+    /**
+     * Saves a file whose expected checksum is given in the algorithm the client
+     * selected with the Checksum-Algorithm header.
+     */
+    public void saveFile(MultipartFile file, String expectedChecksum, ChecksumAlgorithm algorithm) {
         String originalFilename = file.getOriginalFilename();
         if (originalFilename == null || originalFilename.trim().isEmpty()) {
             throw new FileStorageException("File name cannot be null or empty.");
         }
         String normalizedFilename = Paths.get(originalFilename).getFileName().toString();
-        Path targetLocation = storageLocation.resolve(normalizedFilename);
 
         try {
             if (file.getSize() > CHUNK_THRESHOLD) {
                 // Grote bestanden: chunking logica
-                saveLargeFile(file, expectedChecksum);
+                saveLargeFile(file, expectedChecksum, algorithm);
                 return;
             }
 
             // Kleine bestanden: transactionele opslag met checksum-validatie
-            saveFileTransactional(file, expectedChecksum);
-        } catch (IOException e) {
-            throw new FileStorageException("Error saving file " + normalizedFilename, e);
+            saveFileTransactional(file, expectedChecksum, algorithm);
+        } catch (FileStorageException e) {
+            if (e.getCause() instanceof IOException) {
+                throw new FileStorageException("Error saving file " + normalizedFilename, e.getCause());
+            }
+            throw e;
         }
     }
 
@@ -79,30 +406,63 @@ public class FileManagerService {
         saveFile(file, expectedChecksum);
     }
 
+    @Retryable(retryFor = { IOException.class }, maxAttempts = 3, backoff = @Backoff(delay = 2000))
+    public void saveFileWithRetry(MultipartFile file, String expectedChecksum, ChecksumAlgorithm algorithm) {
+        saveFile(file, expectedChecksum, algorithm);
+    }
+
+    @Retryable(retryFor = { IOException.class }, maxAttempts = 3, backoff = @Backoff(delay = 2000))
+    public void saveFileWithRetry(MultipartFile file) {
+        saveFile(file, null);
+    }
+
     /**
      * Save raw data from an InputStream. This simplified method is used by the
      * SSL socket server where uploads are handled without a Multipart request.
      */
     public void saveStream(String fileName, InputStream stream) {
+        saveStream(fileName, stream, -1);
+    }
+
+    /**
+     * Save exactly {@code length} bytes from a stream without closing it, so the
+     * socket server can ingest straight from the connection.
+     *
+     * @param length number of bytes to read, or -1 to read until EOF
+     */
+    public void saveStream(String fileName, InputStream stream, long length) {
+        saveStream(fileName, stream, length, null, ChecksumAlgorithms.DEFAULT);
+    }
+
+    /**
+     * Stores a stream in one pass without buffering it in memory, hashing it while
+     * it is written. The stream is not closed.
+     *
+     * @param length           exact number of bytes to read, or -1 to read until EOF
+     * @param expectedChecksum checksum the content must have, or null
+     * @return the checksum of the stored file in the given algorithm
+     */
+    public String saveStream(String fileName, InputStream stream, long length,
+                             String expectedChecksum, ChecksumAlgorithm algorithm) {
         if (fileName == null || fileName.trim().isEmpty()) {
             throw new FileStorageException("File name cannot be null or empty.");
         }
         String normalized = Paths.get(fileName).getFileName().toString();
-        Path target = storageLocation.resolve(normalized);
         try {
-            Files.copy(stream, target, StandardCopyOption.REPLACE_EXISTING);
+            return ingest(normalized, stream, length, Math.max(length, 0), expectedChecksum, algorithm);
         } catch (IOException e) {
             throw new FileStorageException("Error saving file " + normalized, e);
         }
     }
 
+    @SuppressWarnings("try")
     @Recover
     public void recoverSaveFile(IOException e, MultipartFile file) { // Corrected signature
         String fileName = file.getOriginalFilename();
         if (fileName != null) {
-            deleteFileChunks(fileName); // Also delete the potentially incomplete main file if not chunked
-            try {
-                Files.deleteIfExists(storageLocation.resolve(fileName));
+            try (FileLockManager.Held lock = fileLocks.write(Paths.get(fileName).getFileName().toString())) {
+                deleteFileChunks(fileName); // Also delete the potentially incomplete main file if not chunked
+                deleteStored(Paths.get(fileName).getFileName().toString());
             } catch (IOException ex) {
                 logger.error("Failed to delete main file during recovery: {}", fileName);
             }
@@ -110,66 +470,227 @@ public class FileManagerService {
         throw new FileStorageException("Failed to upload file '" + fileName + "' after retries.", e);
     }
 
-    private void saveLargeFile(MultipartFile file, String expectedChecksum) {
+    /**
+     * Stores a file above the chunk threshold. The upload goes through the same
+     * single-pass ingest as small files; the size is reserved up front so the
+     * staged file does not grow while gigabytes are written into it.
+     */
+    private void saveLargeFile(MultipartFile file, String expectedChecksum, ChecksumAlgorithm algorithm) {
         String originalFileName = Paths.get(file.getOriginalFilename()).getFileName().toString();
         try (InputStream inputStream = file.getInputStream()) {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            byte[] buffer = new byte[(int) CHUNK_SIZE];
-            int bytesRead;
-            int chunkIndex = 1;
-            List<Path> writtenChunks = new ArrayList<>();
-
-            // 1) Schrijf alle chunks
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                md.update(buffer, 0, bytesRead);
-                String chunkName = originalFileName + ".part" + chunkIndex++;
-                Path chunkPath = storageLocation.resolve(chunkName);
-                try (OutputStream os = Files.newOutputStream(chunkPath,
-                        StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
-                    os.write(buffer, 0, bytesRead);
-                }
-                writtenChunks.add(chunkPath);
-            }
-
-            // 2) Assembleer ze meteen in één bestand
-            Path finalPath = storageLocation.resolve(originalFileName);
-            try (OutputStream finalOs = Files.newOutputStream(finalPath,
-                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
-                // sorteren op index zodat de volgorde klopt
-                writtenChunks.stream()
-                        .sorted(Comparator.comparing(p -> {
-                            String s = p.getFileName().toString()
-                                    .replace(originalFileName + ".part", "");
-                            return Integer.parseInt(s);
-                        }))
-                        .forEach(chunkPath -> {
-                            try {
-                                Files.copy(chunkPath, finalOs);
-                            } catch (IOException e) {
-                                throw new UncheckedIOException(e);
-                            }
-                        });
-            }
-
-            String actualChecksum = bytesToHex(md.digest());
-            if (expectedChecksum != null && !expectedChecksum.equalsIgnoreCase(actualChecksum)) {
-                Files.deleteIfExists(finalPath);
-                deleteFileChunks(originalFileName);
-                throw new FileStorageException("Checksum mismatch for file " + originalFileName);
-            }
-
-            // 3) (Optioneel) verwijder de chunk-bestanden
-            // Verwijderen uitgeschakeld voor testondersteuning
-            // for (Path chunk : writtenChunks) {
-            //     Files.deleteIfExists(chunk);
-            // }
-        } catch (IOException | NoSuchAlgorithmException e) {
-            // bestaande cleanup
-            deleteFileChunks(originalFileName);
+            ingest(originalFileName, inputStream, -1, file.getSize(), expectedChecksum, algorithm);
+        } catch (IOException e) {
             throw new FileStorageException("Error saving large file " + originalFileName, e);
         }
     }
 
+    /**
+     * Writes an upload to a staged file in one pass, hashing the buffers as they
+     * are written, verifies the expected checksum and renames the file into place.
+     * The checksum is recorded in the metadata index so it is never computed again,
+     * together with a CRC32 from the same pass for stored archive entries.
+     * The stream is not closed.
+     *
+     * @param length   exact number of bytes to read, or -1 to read until EOF
+     * @param sizeHint expected size used to reserve the staged file, or 0
+     * @return the checksum of the stored file in the given algorithm
+     */
+    private String ingest(String fileName, InputStream in, long length, long sizeHint,
+                          String expectedChecksum, ChecksumAlgorithm algorithm) throws IOException {
+        Path tempPath = stagingFile(fileName);
+        String intent = intentLog().begin(IntentLog.Kind.SAVE, fileName, tempPath);
+        try {
+            ChecksumHasher hasher = algorithm.newHasher();
+            ChecksumHasher crc = algorithm == ChecksumAlgorithms.CRC32 ? null : ChecksumAlgorithms.CRC32.newHasher();
+            ChecksumHasher[] digests = crc == null ? new ChecksumHasher[] {hasher} : new ChecksumHasher[] {hasher, crc};
+            try (FileChannel out = FileChannel.open(tempPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                if (sizeHint > 0) {
+                    // Reserveer de volledige lengte zodat het bestand tijdens het schrijven niet meer groeit
+                    out.write(ByteBuffer.allocate(1), sizeHint - 1);
+                }
+                long written;
+                if (length >= 0) {
+                    ingestPipeline.writeExactly(in, out, 0, length, digests);
+                    written = length;
+                } else {
+                    written = ingestPipeline.write(in, out, 0, -1, digests);
+                }
+                out.truncate(written);
+                out.force(true);
+            }
+            String actualChecksum = hasher.hexDigest();
+            Map<ChecksumAlgorithm, String> checksums = new LinkedHashMap<>();
+            checksums.put(algorithm, actualChecksum);
+            if (crc != null) {
+                checksums.put(ChecksumAlgorithms.CRC32, crc.hexDigest());
+            }
+            commitStaged(intent, tempPath, fileName, expectedChecksum, algorithm, checksums);
+            return actualChecksum;
+        } finally {
+            deleteStaged(tempPath);
+            intentLog().abort(intent); // no-op als de commit gelukt is
+        }
+    }
+
+    /**
+     * Verifies the checksum of a fully written staged file, renames it into place
+     * and records the checksum in the metadata index. The intent is marked prepared
+     * before the rename, so a crash from then on finishes the save on restart.
+     */
+    private void commitStaged(String intent, Path tempPath, String fileName, String expectedChecksum,
+                              ChecksumAlgorithm algorithm, Map<ChecksumAlgorithm, String> checksums) throws IOException {
+        commitStaged(intent, tempPath, fileName, expectedChecksum, algorithm, checksums, () -> { });
+    }
+
+    /**
+     * As above, but first runs {@code precondition} under the write lock of the file,
+     * so a check on the stored version still holds when the staged file replaces it.
+     */
+    private void commitStaged(String intent, Path tempPath, String fileName, String expectedChecksum,
+                              ChecksumAlgorithm algorithm, String actualChecksum,
+                              Precondition precondition) throws IOException {
+        commitStaged(intent, tempPath, fileName, expectedChecksum, algorithm, Map.of(algorithm, actualChecksum),
+                precondition);
+    }
+
+    @SuppressWarnings("try")
+    private void commitStaged(String intent, Path tempPath, String fileName, String expectedChecksum,
+                              ChecksumAlgorithm algorithm, Map<ChecksumAlgorithm, String> checksums,
+                              Precondition precondition) throws IOException {
+        String actualChecksum = checksums.get(algorithm);
+        if (expectedChecksum != null && !expectedChecksum.isBlank()
+                && !actualChecksum.equalsIgnoreCase(expectedChecksum)) {
+            throw new FileStorageException("Checksum mismatch for file " + fileName);
+        }
+        try (FileLockManager.Held lock = fileLocks.write(fileName)) {
+            precondition.check();
+            intentLog().prepare(intent, tempPath, algorithm.name(), actualChecksum);
+            store(tempPath, fileName);
+            recordStored(fileName, algorithm, checksums);
+        }
+        intentLog().commit(intent);
+    }
+
+    @FunctionalInterface
+    private interface Precondition {
+        void check() throws IOException;
+    }
+
+    private void deleteStaged(Path tempPath) {
+        try {
+            Files.deleteIfExists(tempPath);
+        } catch (IOException e) {
+            logger.error("Failed to delete staged file {}: {}", tempPath, e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the block signatures of a stored file for delta sync.
+     *
+     * @param blockSize block size in bytes, or 0 to pick one from the file size
+     */
+    @SuppressWarnings("try")
+    public FileSignature getFileSignature(String fileName, int blockSize) {
+        String normalized = Paths.get(fileName).getFileName().toString();
+        if (blockSize != 0 && (blockSize < DeltaFormat.MIN_BLOCK_SIZE || blockSize > DeltaFormat.MAX_BLOCK_SIZE)) {
+            throw new FileStorageException("Block size must be between " + DeltaFormat.MIN_BLOCK_SIZE
+                    + " and " + DeltaFormat.MAX_BLOCK_SIZE + " bytes.");
+        }
+        try (FileLockManager.Held lock = fileLocks.read(normalized)) {
+            return computeSignature(normalized, blockSize);
+        }
+    }
+
+    private FileSignature computeSignature(String normalized, int blockSize) {
+        Path file = layout().locate(normalized);
+        if (file == null) {
+            throw new FileStorageException("File not found: " + normalized);
+        }
+        try (SeekableByteChannel content = CompressedFile.open(file)) {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            int size = blockSize > 0 ? blockSize : DeltaFormat.defaultBlockSize(content.size());
+            return DeltaSignatures.compute(normalized, content, size, metadataIndex().checksum(file, attrs));
+        } catch (IOException e) {
+            throw new FileStorageException("Error computing signature of " + normalized, e);
+        }
+    }
+
+    /**
+     * Rebuilds a file from a delta against the stored version and commits the result
+     * atomically. Only the literal data in the delta crosses the network; unchanged
+     * blocks are copied from the stored file. The delta stream is not closed.
+     *
+     * @param basisChecksum MD5 of the version the delta was computed against; if
+     *                      given, the delta is rejected when the stored file changed since
+     * @param expectedChecksum checksum of the rebuilt file in the given algorithm, optional
+     */
+    public DeltaResult applyDelta(String fileName, InputStream delta, String basisChecksum,
+                                  String expectedChecksum, ChecksumAlgorithm algorithm) {
+        if (fileName == null || fileName.trim().isEmpty()) {
+            throw new FileStorageException("File name cannot be null or empty.");
+        }
+        String normalized = Paths.get(fileName).getFileName().toString();
+        Path basis = layout().locate(normalized);
+        Path tempPath = null;
+        String intent = null;
+        // Het basisbestand blijft via het open kanaal leesbaar, ook als het intussen wordt vervangen
+        try (SeekableByteChannel basisChannel = basis != null ? CompressedFile.open(basis) : null) {
+            checkBasis(normalized, basis, basisChecksum);
+            tempPath = stagingFile(normalized);
+            intent = intentLog().begin(IntentLog.Kind.SAVE, normalized, tempPath);
+            ChecksumHasher hasher = algorithm.newHasher();
+            DeltaApplier.Result result;
+            try (FileChannel out = FileChannel.open(tempPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                result = new DeltaApplier(ingestPipeline).apply(delta, basisChannel, out, hasher);
+                out.force(true);
+            }
+            String actualChecksum = hasher.hexDigest();
+            // Opnieuw controleren onder de schrijflock: het bestand kan tijdens het toepassen vervangen zijn
+            commitStaged(intent, tempPath, normalized, expectedChecksum, algorithm, actualChecksum,
+                    () -> checkBasis(normalized, layout().locate(normalized), basisChecksum));
+            logger.info("Applied delta to '{}': {} bytes sent, {} bytes reused", normalized,
+                    result.literalBytes(), result.copiedBytes());
+            return new DeltaResult(normalized, actualChecksum, result.size(), result.literalBytes(), result.copiedBytes());
+        } catch (IOException e) {
+            throw new FileStorageException("Error applying delta to " + normalized, e);
+        } finally {
+            if (tempPath != null) {
+                deleteStaged(tempPath);
+            }
+            if (intent != null) {
+                intentLog().abort(intent);
+            }
+        }
+    }
+
+    /**
+     * Rejects a delta when the stored file no longer has the checksum of the version
+     * it was computed against. Does nothing when no basis checksum was given.
+     */
+    private void checkBasis(String normalized, Path basis, String basisChecksum) throws IOException {
+        if (basisChecksum == null || basisChecksum.isBlank()) {
+            return;
+        }
+        String current = basis != null
+                ? metadataIndex().checksum(basis, Files.readAttributes(basis, BasicFileAttributes.class))
+                : null;
+        if (!basisChecksum.equalsIgnoreCase(current)) {
+            throw new FileStorageException("File " + normalized + " changed since its signature was taken");
+        }
+    }
+
+    /**
+     * Returns a fresh staging path for a file that is being written. Staged files
+     * live under the internal directory of the storage root, so listings never see
+     * half-written files and the final rename stays on the same file system.
+     */
+    private Path stagingFile(String fileName) throws IOException {
+        layout().checkName(fileName);
+        Path staging = layout().stagingDir();
+        Files.createDirectories(staging);
+        return staging.resolve(fileName + "." + UUID.randomUUID() + ".tmp");
+    }
+
 
     private void deleteFileChunks(String originalFileName) {
         if (originalFileName == null) return;
@@ -193,43 +714,176 @@ public class FileManagerService {
         return new byte[0]; // of null, of een specifieke error-indicator
     }
 
+    @SuppressWarnings("try")
     @CircuitBreaker(name = "fileService", fallbackMethod = "getFileFallback")
     @Retryable(retryFor = { IOException.class }, maxAttempts = 3, backoff = @Backoff(delay = 2000))
     public byte[] getFile(String fileName) {
-        String normalizedFileName = Paths.get(fileName).getFileName().toString(); // Normalize
-        Path filePath = storageLocation.resolve(normalizedFileName);
-        if (Files.exists(filePath)) {
-            try {
-                return Files.readAllBytes(filePath);
+        // Houd de leeslock vast tot alles gelezen is, zodat chunks niet halverwege verdwijnen
+        try (FileLockManager.Held lock = fileLocks.read(Paths.get(fileName).getFileName().toString())) {
+            StoredFileResource resource = openFile(fileName);
+            try (resource; InputStream in = resource.getInputStream()) {
+                return in.readAllBytes();
             } catch (IOException e) {
-                throw new FileStorageException("Error reading file " + normalizedFileName, e);
+                throw new FileStorageException("Error reading file " + resource.getFilename(), e);
             }
-        } else {
-            // Attempt to reassemble from chunks if main file not found
+        }
+    }
+
+    /**
+     * Opens a stored file for streaming without reading it into memory. When the
+     * file was never assembled the ordered .partN chunks are served in its place.
+     * The file is resolved and its channels are opened under its read lock, so a
+     * file that is replaced afterwards keeps streaming the version that was
+     * opened, with the length and checksum of that version. Close the resource
+     * when it has been read.
+     */
+    @SuppressWarnings("try")
+    public StoredFileResource openFile(String fileName) {
+        String normalizedFileName = Paths.get(fileName).getFileName().toString(); // Normalize
+        try (FileLockManager.Held lock = fileLocks.read(normalizedFileName)) {
+            Path filePath = layout().locate(normalizedFileName);
+            if (filePath != null) {
+                FileReadCache cache = readCache();
+                return cache != null ? openCached(cache, normalizedFileName, filePath)
+                        : new StoredFileResource(normalizedFileName, List.of(filePath));
+            }
+            // Attempt to serve the chunks if main file not found
+            List<Path> chunks;
             try (Stream<Path> stream = Files.list(storageLocation)) {
-                List<Path> chunks = stream
+                chunks = stream
                         .filter(path -> path.getFileName().toString().startsWith(normalizedFileName + ".part"))
                         .sorted(Comparator.comparingInt(p -> extractChunkIndex(p.getFileName().toString(), normalizedFileName)))
                         .collect(Collectors.toList());
-                if (chunks.isEmpty()) {
-                    throw new FileStorageException("File not found: " + normalizedFileName);
+            }
+            if (chunks.isEmpty()) {
+                throw new FileStorageException("File not found: " + normalizedFileName);
+            }
+            return new StoredFileResource(normalizedFileName, chunks);
+        } catch (IOException e) {
+            throw new FileStorageException("Error opening file " + normalizedFileName, e);
+        }
+    }
+
+    /**
+     * Serves a stored file from the read cache, reading it into the cache on a miss
+     * when the cache wants it. A file that changes while it is being read is
+     * served from disk and not cached.
+     */
+    private StoredFileResource openCached(FileReadCache cache, String name, Path file) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        FileReadCache.Version version = FileReadCache.Version.of(attrs);
+        ByteBuffer content = cache.get(name, version);
+        if (content != null) {
+            return new StoredFileResource(name, file, content, attrs);
+        }
+        try (SeekableByteChannel in = CompressedFile.open(file)) {
+            long size = in.size();
+            if (!cache.shouldLoad(name, size)) {
+                return new StoredFileResource(name, List.of(file));
+            }
+            ByteBuffer loaded = ByteBuffer.allocateDirect((int) size);
+            while (loaded.hasRemaining() && in.read(loaded) != -1) {
+                // lees het hele bestand in de buffer
+            }
+            loaded.flip();
+            if (loaded.remaining() != size
+                    || !version.equals(FileReadCache.Version.of(Files.readAttributes(file, BasicFileAttributes.class)))) {
+                return new StoredFileResource(name, List.of(file));
+            }
+            cache.put(name, version, loaded);
+            return new StoredFileResource(name, file, loaded.asReadOnlyBuffer(), attrs);
+        }
+    }
+
+    public String getFileChecksum(StoredFileResource resource) {
+        return getFileChecksum(resource, ChecksumAlgorithms.DEFAULT);
+    }
+
+    /**
+     * Checksum of an opened file in the given algorithm. Assembled files are served
+     * from the metadata index while they are still the version that was opened; a
+     * file replaced since, and a chunk set, are hashed while streaming the opened
+     * content.
+     */
+    @SuppressWarnings("try")
+    public String getFileChecksum(StoredFileResource resource, ChecksumAlgorithm algorithm) {
+        List<Path> segments = resource.getSegments();
+        try {
+            if (segments.size() == 1 && segments.get(0).getFileName().toString().equals(resource.getFilename())) {
+                Path file = segments.get(0);
+                try (FileLockManager.Held lock = fileLocks.read(resource.getFilename())) {
+                    if (resource.isUnchanged()) {
+                        BasicFileAttributes attrs = resource.openedAttributes();
+                        return metadataIndex().checksum(file,
+                                attrs != null ? attrs : Files.readAttributes(file, BasicFileAttributes.class), algorithm);
+                    }
                 }
-                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                for (Path chunk : chunks) {
-                    byte[] chunkData = Files.readAllBytes(chunk);
-                    outputStream.write(chunkData);
+            }
+            try (InputStream in = resource.getInputStream()) {
+                return ChecksumAlgorithms.hash(algorithm, in);
+            }
+        } catch (IOException e) {
+            throw new FileStorageException("Error calculating checksum for " + resource.getFilename(), e);
+        }
+    }
+
+    /**
+     * Streams a ZIP archive of the given files to {@code out} while it is being
+     * built. Compressible files are deflated in parallel; files that are
+     * compressed already, judged by their format or a sample of their first
+     * bytes, are stored with the CRC the upload recorded in the metadata index so
+     * their bytes go out at once. Files that disappeared since they were listed
+     * are skipped. A file is opened under its read lock and the opened version
+     * stays pinned, so the length and CRC in a stored entry's header describe the
+     * bytes that follow; the lock is released before the bytes go out, so a slow
+     * client holds up no commit. The stream is not closed.
+     */
+    @SuppressWarnings("try")
+    public void writeArchive(List<String> fileNames, OutputStream out) throws IOException {
+        ZipStreamWriter zip = new ZipStreamWriter(out, archiveDeflater());
+        for (String name : fileNames) {
+            StoredFileResource resource;
+            try (FileLockManager.Held lock = fileLocks.read(Paths.get(name).getFileName().toString())) {
+                resource = openFile(name);
+            } catch (FileStorageException e) {
+                logger.warn("Warning: File {} could not be found or is empty.", name);
+                continue;
+            }
+            try (resource; InputStream in = resource.getInputStream()) {
+                long lastModified = resource.lastModified();
+                if (storeInArchive(resource)) {
+                    // Zoekt onder de leeslock de CRC van precies de geopende versie op
+                    long crc = Long.parseLong(getFileChecksum(resource, ChecksumAlgorithms.CRC32), 16);
+                    zip.addStored(resource.getFilename(), lastModified, resource.contentLength(), crc, in);
+                } else {
+                    zip.addDeflated(resource.getFilename(), lastModified, in);
                 }
-                return outputStream.toByteArray();
-            } catch (IOException e) {
-                throw new FileStorageException("Error reading file chunks for " + normalizedFileName, e);
             }
         }
+        zip.finish();
     }
 
+    private boolean storeInArchive(StoredFileResource resource) throws IOException {
+        List<Path> segments = resource.getSegments();
+        if (segments.size() == 1 && CompressedFile.isCompressed(segments.get(0))) {
+            return false; // alleen bestanden die de proef doorstonden worden gecomprimeerd opgeslagen
+        }
+        if (ZipStreamWriter.isCompressedFormat(resource.getFilename())) {
+            return true;
+        }
+        byte[] sample = new byte[ARCHIVE_SAMPLE_SIZE];
+        try (InputStream in = resource.getInputStream()) {
+            return !BlockCompressor.isCompressible(sample, in.readNBytes(sample, 0, sample.length));
+        }
+    }
+
+    @SuppressWarnings("try")
     @Recover
     public byte[] recoverGetFile(IOException e, String fileName) {
         // cleanup if needed, log, then throw or return an error sentinel
-        deleteFileChunks(fileName);
+        try (FileLockManager.Held lock = fileLocks.write(Paths.get(fileName).getFileName().toString())) {
+            deleteFileChunks(fileName);
+        }
         throw new FileStorageException("Failed to download '" + fileName + "' after retries", e);
     }
 
@@ -247,30 +901,36 @@ public class FileManagerService {
         return Integer.MAX_VALUE; // Not a valid chunk name for this original file
     }
 
+    @SuppressWarnings("try")
     public void deleteFile(String fileName) {
         if (fileName == null || fileName.trim().isEmpty()) return;
         String normalizedFileName = Paths.get(fileName).getFileName().toString(); // Normalize
         try {
-            Path filePath = storageLocation.resolve(normalizedFileName);
-            Files.deleteIfExists(filePath);
-            deleteFileChunks(normalizedFileName); // Delete any associated chunks
-
-            // Also delete from clientLocalLocation if it exists there to keep them in sync
-            Path clientSyncFilePath = clientLocalLocation.resolve(normalizedFileName);
-            Files.deleteIfExists(clientSyncFilePath);
+            // Een delete die halverwege stopt wordt bij het opstarten afgemaakt
+            String intent = intentLog().begin(IntentLog.Kind.DELETE, normalizedFileName, null);
+            try (FileLockManager.Held lock = fileLocks.write(normalizedFileName)) {
+                deleteEverywhere(normalizedFileName);
+            }
+            intentLog().commit(intent);
             logger.info("Deleted '{}' from master and client sync locations.", normalizedFileName);
         } catch (IOException e) {
             throw new FileStorageException("Error deleting file " + normalizedFileName, e);
         }
     }
 
+    private void deleteEverywhere(String fileName) throws IOException {
+        deleteStored(fileName);
+        deleteFileChunks(fileName); // Delete any associated chunks
+
+        // Also delete from clientLocalLocation if it exists there to keep them in sync
+        Files.deleteIfExists(clientLocalLocation.resolve(fileName));
+    }
+
     public List<String> listFiles() {
-        try (Stream<Path> stream = Files.list(storageLocation)) {
-            return stream.filter(Files::isRegularFile)
-                    .map(path -> path.getFileName().toString())
-                    .filter(name -> !name.contains(".part")) // Exclude chunk files from list
+        try {
+            return layout().files().keySet().stream()
                     .sorted() // Sort for consistent order
-                    .toList()
+                    .toList();
         } catch (IOException e) {
             logger.error("Error listing files from master storage: {}", e.getMessage());
             return Collections.emptyList();
@@ -282,7 +942,46 @@ public class FileManagerService {
             .collect(Collectors.toMap(FileMetadata::getFileName, fm -> fm, (fm1, fm2) -> fm1)); // Handle duplicates if any
 
         Map<String, FileMetadata> serverMasterMap = getDirectoryMetadata(this.storageLocation); // Use helper
+        return compare(clientMap, serverMasterMap);
+    }
+
+    /**
+     * Compares only the files in the given manifest subtrees, typically the ones
+     * whose hashes differed from the client's manifest. Client files outside
+     * those subtrees are ignored; without prefixes the whole namespace is compared.
+     */
+    public SyncResult syncSubtrees(List<String> prefixes, List<FileMetadata> clientProvidedMetadataList) {
+        List<String> scope = prefixes == null || prefixes.isEmpty() ? List.of("") : prefixes;
+        scope.forEach(MerkleManifest::checkPrefix);
+        Map<String, FileMetadata> clientMap = clientProvidedMetadataList.stream()
+            .filter(fm -> MerkleManifest.covers(scope, fm.getFileName()))
+            .collect(Collectors.toMap(FileMetadata::getFileName, fm -> fm, (fm1, fm2) -> fm1));
+        return compare(clientMap, getManifest().files(scope));
+    }
+
+    /**
+     * Returns the Merkle manifest of the master storage. It is rebuilt from the
+     * metadata index only when the change journal, or the watched storage
+     * directory, has changed since the last build.
+     */
+    public MerkleManifest getManifest() {
+        synchronized (manifestLock) {
+            LiveMetadataView view = storageView;
+            String head = changeJournal().head() + (view != null && !view.isDegraded() ? "/" + view.version() : "");
+            if (manifest == null || !head.equals(manifestCursor)) {
+                manifest = MerkleManifest.of(getDirectoryMetadata(storageLocation).values());
+                manifestCursor = head;
+            }
+            return manifest;
+        }
+    }
+
+    public ManifestNode getManifestNode(String prefix) {
+        return getManifest().node(prefix == null ? "" : prefix);
+    }
 
+    // Beslisregels van de sync: gelijke checksum is in sync, anders wint de nieuwste buiten de drempel
+    private SyncResult compare(Map<String, FileMetadata> clientMap, Map<String, FileMetadata> serverMasterMap) {
         Set<String> allFileNames = new HashSet<>();
         allFileNames.addAll(clientMap.keySet());
         allFileNames.addAll(serverMasterMap.keySet());
@@ -321,60 +1020,14 @@ public class FileManagerService {
         return new SyncResult(toUpload, toDownload, conflicts);
     }
 
-    // Helper om MD5-checksum te berekenen
+    // Helper om de checksum te berekenen in het standaard-algoritme van het protocol (MD5)
     private String calculateChecksum(Path filePath) throws IOException {
-        try (InputStream fis = Files.newInputStream(filePath)) {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            byte[] buffer = new byte[1024];
-            int bytesRead;
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                md.update(buffer, 0, bytesRead);
-            }
-            byte[] digest = md.digest();
-            StringBuilder sb = new StringBuilder();
-            for (byte b : digest) {
-                sb.append(String.format("%02x", b));
-            }
-            return sb.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new IOException("MD5 algorithm not found", e);
-        }
-    }
-
-    // Overload voor InputStream
-    private String calculateChecksum(InputStream inputStream) throws IOException {
-        try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            byte[] buffer = new byte[1024];
-            int bytesRead;
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                md.update(buffer, 0, bytesRead);
-            }
-            byte[] digest = md.digest();
-            StringBuilder sb = new StringBuilder();
-            for (byte b : digest) {
-                sb.append(String.format("%02x", b));
-            }
-            return sb.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new IOException("MD5 algorithm not found", e);
-        }
+        return scanner().hash(filePath, ChecksumAlgorithms.DEFAULT);
     }
 
     // Publieke helper voor het berekenen van een MD5-checksum van een bytearray
     public String calculateChecksum(byte[] data) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            md.update(data);
-            byte[] digest = md.digest();
-            StringBuilder sb = new StringBuilder();
-            for (byte b : digest) {
-                sb.append(String.format("%02x", b));
-            }
-            return sb.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("MD5 algorithm not found", e);
-        }
+        return ChecksumAlgorithms.hash(ChecksumAlgorithms.DEFAULT, data);
     }
 
     /**
@@ -382,26 +1035,11 @@ public class FileManagerService {
      * bereken metadata voor elk bestand en roep de bestaande syncFiles-methode aan.
      */
     public SyncResult syncLocalClientFiles() {
-        // Zorg dat de clientSync map bestaat (wordt al aangemaakt in de constructor)
-        List<FileMetadata> clientFiles = new ArrayList<>();
-        try (Stream<Path> stream = Files.list(clientLocalLocation)) {
-            stream.filter(Files::isRegularFile)
-                    .forEach(path -> {
-                        try {
-                            FileMetadata meta = new FileMetadata();
-                            meta.setFileName(path.getFileName().toString());
-                            meta.setFileSize(Files.size(path));
-                            meta.setChecksum(calculateChecksum(path));
-                            meta.setUploadDate(LocalDateTime.now());
-                            clientFiles.add(meta);
-                        } catch (IOException e) {
-                            logger.error("Error reading client file {}", path.getFileName());
-                        }
-                    });
-        } catch (IOException e) {
-            throw new FileStorageException("Error reading client local sync directory", e);
+        if (!Files.isDirectory(clientLocalLocation)) {
+            throw new FileStorageException("Error reading client local sync directory");
         }
-        return syncFiles(clientFiles);
+        // Leest uit de live view als de mappen gewatcht worden, anders een volledige scan
+        return syncFiles(new ArrayList<>(getDirectoryMetadata(clientLocalLocation).values()));
     }
 
     @Async
@@ -411,30 +1049,19 @@ public class FileManagerService {
     }
 
     public void saveFileTransactional(MultipartFile file, String expectedChecksum) {
+        saveFileTransactional(file, expectedChecksum, ChecksumAlgorithms.DEFAULT);
+    }
+
+    public void saveFileTransactional(MultipartFile file, String expectedChecksum, ChecksumAlgorithm algorithm) {
         String originalFileName = file.getOriginalFilename();
         if (originalFileName == null || originalFileName.trim().isEmpty()) {
             throw new FileStorageException("File name is null or empty for transactional save.");
         }
         String normalizedFileName = Paths.get(originalFileName).getFileName().toString(); // Normalize
 
-        Path tempPath = storageLocation.resolve(normalizedFileName + ".tmp");
-        Path finalPath = storageLocation.resolve(normalizedFileName);
-
         try (InputStream in = file.getInputStream()) {
-            Files.copy(in, tempPath, StandardCopyOption.REPLACE_EXISTING);
-            String actualChecksum = calculateChecksum(tempPath);
-
-            if (!actualChecksum.equalsIgnoreCase(expectedChecksum)) {
-                Files.deleteIfExists(tempPath);
-                throw new FileStorageException("Checksum mismatch for file " + normalizedFileName);
-            }
-            Files.move(tempPath, finalPath, StandardCopyOption.REPLACE_EXISTING);
+            ingest(normalizedFileName, in, -1, file.getSize(), expectedChecksum, algorithm);
         } catch (IOException e) {
-            try {
-                Files.deleteIfExists(tempPath);
-            } catch (IOException ignored) {
-                logger.error("Failed to delete temp file {} during transactional save error handling.", tempPath);
-            }
             throw new FileStorageException("Failed transactional save for " + normalizedFileName, e);
         }
     }
@@ -444,13 +1071,19 @@ public class FileManagerService {
         saveFileTransactional(file, expectedChecksum);
     }
 
+    @Retryable(value = { IOException.class }, maxAttempts = 3, backoff = @Backoff(delay = 2000))
+    public void saveFileTransactionalWithRetry(MultipartFile file, String expectedChecksum, ChecksumAlgorithm algorithm) {
+        saveFileTransactional(file, expectedChecksum, algorithm);
+    }
+
+    @SuppressWarnings("try")
     @Recover
     public void recoverSaveFileTransactional(IOException e, MultipartFile file, String expectedChecksum) {
         String fileName = file.getOriginalFilename();
         if (fileName != null) {
-            deleteFileChunks(fileName);
-            try {
-                Files.deleteIfExists(storageLocation.resolve(fileName));
+            try (FileLockManager.Held lock = fileLocks.write(Paths.get(fileName).getFileName().toString())) {
+                deleteFileChunks(fileName);
+                deleteStored(Paths.get(fileName).getFileName().toString());
             } catch (IOException ex) {
                 System.err.println("Failed to delete main file during recovery:" + fileName);
             }
@@ -461,95 +1094,370 @@ public class FileManagerService {
     @Retryable(value = { IOException.class }, maxAttempts = 3, backoff = @Backoff(delay = 2000))
     public void saveFileChunkWithRetry(MultipartFile chunk, int chunkIndex, int chunkTotal,
                                        String chunkChecksum, String finalChecksum) {
-        saveFileChunk(chunk, chunkIndex, chunkTotal, chunkChecksum, finalChecksum);
+        saveFileChunk(chunk, chunkIndex, chunkTotal, chunkChecksum, finalChecksum, ChecksumAlgorithms.DEFAULT);
+    }
+
+    @Retryable(value = { IOException.class }, maxAttempts = 3, backoff = @Backoff(delay = 2000))
+    public void saveFileChunkWithRetry(MultipartFile chunk, int chunkIndex, int chunkTotal,
+                                       String chunkChecksum, String finalChecksum, ChecksumAlgorithm algorithm) {
+        saveFileChunk(chunk, chunkIndex, chunkTotal, chunkChecksum, finalChecksum, algorithm);
     }
 
+    @SuppressWarnings("try")
     @Recover
     public void recoverSaveFileChunk(IOException e, MultipartFile chunk, int chunkIndex, int chunkTotal,
                                      String chunkChecksum, String finalChecksum) {
         String fileName = chunk.getOriginalFilename();
         if (fileName != null) {
-            deleteFileChunks(fileName);
+            String uploadId = chunkUploadSessions.remove(Paths.get(fileName).getFileName().toString());
+            if (uploadId != null) {
+                abortUpload(uploadId);
+            }
+            try (FileLockManager.Held lock = fileLocks.write(Paths.get(fileName).getFileName().toString())) {
+                deleteFileChunks(fileName);
+            }
         }
         throw new FileStorageException("Failed to upload chunk " + chunkIndex + " of '" + fileName + "'", e);
     }
 
+    /**
+     * Stores one chunk sent with the Chunk-Index/Chunk-Total headers. Chunks are
+     * tracked in an upload session per file name, so they may arrive in any order;
+     * the file is assembled as soon as the last missing chunk has been received.
+     */
     private void saveFileChunk(MultipartFile chunk, int index, int total,
-                               String chunkChecksum, String finalChecksum) {
+                               String chunkChecksum, String finalChecksum, ChecksumAlgorithm algorithm) {
         String originalFileName = chunk.getOriginalFilename();
         if (originalFileName == null || originalFileName.trim().isEmpty()) {
             throw new FileStorageException("File name missing for chunk upload.");
         }
         String normalized = Paths.get(originalFileName).getFileName().toString();
-        try {
-            if (chunkChecksum != null) {
-                try (InputStream in = chunk.getInputStream()) {
-                    String actual = calculateChecksum(in);
-                    if (!actual.equalsIgnoreCase(chunkChecksum)) {
-                        throw new FileStorageException("Checksum mismatch for chunk " + index + " of " + normalized);
-                    }
-                }
+        String uploadId = chunkUploadSessions.compute(normalized, (name, existing) -> {
+            UploadSession session = existing == null ? null : uploadSessions.get(existing);
+            if (session != null && session.getTotalParts() == total && session.getAlgorithm() == algorithm) {
+                return existing;
             }
+            return initiateUpload(name, total, 0, 0, null, algorithm).getUploadId();
+        });
+        UploadSession session = requireSession(uploadId);
+        session.setExpectedChecksum(finalChecksum);
+        try (InputStream in = chunk.getInputStream()) {
+            session.writePart(index, in, chunk.getSize(), chunkChecksum);
+        } catch (IOException e) {
+            throw new FileStorageException("Error saving chunk " + index + " of " + normalized, e);
+        }
+        if (session.tryBeginCompletion()) {
+            chunkUploadSessions.remove(normalized, uploadId);
+            commitUpload(session);
+        }
+    }
+
+    /**
+     * Starts a multi-part upload. Parts can afterwards be uploaded in any order and
+     * concurrently with {@link #uploadPart}, and the file is committed with
+     * {@link #completeUpload}.
+     *
+     * @param partSize size of every part except the last, or 0 to take it from the
+     *                 first non-final part that arrives
+     * @param fileSize total file size if known, or 0; used to reserve the file up front
+     */
+    public UploadStatus initiateUpload(String fileName, int totalParts, long partSize, long fileSize,
+                                       String expectedChecksum) {
+        return initiateUpload(fileName, totalParts, partSize, fileSize, expectedChecksum, ChecksumAlgorithms.DEFAULT);
+    }
+
+    /**
+     * Starts a multi-part upload whose part and file checksums use the given
+     * algorithm.
+     */
+    public UploadStatus initiateUpload(String fileName, int totalParts, long partSize, long fileSize,
+                                       String expectedChecksum, ChecksumAlgorithm algorithm) {
+        if (fileName == null || fileName.trim().isEmpty()) {
+            throw new FileStorageException("File name cannot be null or empty.");
+        }
+        if (totalParts < 1) {
+            throw new FileStorageException("An upload needs at least one part.");
+        }
+        if (partSize < 0 || fileSize < 0) {
+            throw new FileStorageException("Part size and file size cannot be negative.");
+        }
+        String normalized = Paths.get(fileName).getFileName().toString();
+        layout().checkName(normalized);
+        String uploadId = UUID.randomUUID().toString();
+        Path directory = layout().uploadsDir().resolve(uploadId);
+        UploadSession session;
+        try {
+            intentLog().begin(uploadId, IntentLog.Kind.UPLOAD, normalized, directory);
+            session = new UploadSession(uploadId, normalized, totalParts, partSize, fileSize, expectedChecksum,
+                    algorithm, directory, ingestPipeline);
+        } catch (IOException e) {
+            intentLog().abort(uploadId);
+            throw new FileStorageException("Could not create upload session for " + normalized, e);
+        }
+        uploadSessions.put(uploadId, session);
+        startUploadSweeper();
+        logger.info("Started upload {} for '{}' in {} parts", uploadId, normalized, totalParts);
+        return toStatus(session, false);
+    }
+
+    /**
+     * Stores one part of an upload session.
+     *
+     * @param length length of the part if known (e.g. from Content-Length), otherwise -1
+     */
+    public UploadStatus uploadPart(String uploadId, int index, InputStream data, long length, String partChecksum) {
+        UploadSession session = requireSession(uploadId);
+        try {
+            session.writePart(index, data, length, partChecksum);
+        } catch (IOException e) {
+            throw new FileStorageException("Error saving part " + index + " of upload " + uploadId, e);
+        }
+        return toStatus(session, false);
+    }
+
+    public UploadStatus getUploadStatus(String uploadId) {
+        return toStatus(requireSession(uploadId), false);
+    }
 
-            Path chunkPath = storageLocation.resolve(normalized + ".part" + index);
-            try (InputStream in = chunk.getInputStream()) {
-                Files.copy(in, chunkPath, StandardCopyOption.REPLACE_EXISTING);
+    public UploadStatus completeUpload(String uploadId, String expectedChecksum) {
+        UploadSession session = requireSession(uploadId);
+        session.setExpectedChecksum(expectedChecksum);
+        if (!session.tryBeginCompletion()) {
+            if (session.isCompleting()) {
+                throw new FileStorageException("Upload " + uploadId + " is already being completed.");
             }
+            throw new FileStorageException("Upload " + uploadId + " is missing parts " + session.missingParts());
+        }
+        commitUpload(session);
+        return toStatus(session, true);
+    }
 
-            if (index == total) {
-                assembleChunks(normalized, total, finalChecksum);
+    public void abortUpload(String uploadId) {
+        UploadSession session = uploadSessions.remove(uploadId);
+        if (session != null) {
+            discardSession(session);
+            intentLog().abort(uploadId);
+            logger.info("Aborted upload {} for '{}'", uploadId, session.getFileName());
+        }
+    }
+
+    /**
+     * Aborts upload sessions that received no part for {@code idleMillis}, so an
+     * abandoned upload does not keep its preallocated data file and open intent
+     * until the next restart. Sessions with a part in flight or being completed
+     * are left alone.
+     *
+     * @return the number of sessions aborted
+     */
+    public int expireUploads(long idleMillis) {
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        int expired = 0;
+        for (UploadSession session : List.copyOf(uploadSessions.values())) {
+            if (session.tryExpire(cutoff)) {
+                chunkUploadSessions.values().remove(session.getUploadId());
+                abortUpload(session.getUploadId());
+                expired++;
             }
-        } catch (IOException e) {
-            throw new FileStorageException("Error saving chunk " + index + " of " + normalized, e);
         }
+        return expired;
     }
 
-    private void assembleChunks(String fileName, int total, String expectedChecksum) throws IOException {
-        Path finalPath = storageLocation.resolve(fileName);
-        try (OutputStream out = Files.newOutputStream(finalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
-            for (int i = 1; i <= total; i++) {
-                Path part = storageLocation.resolve(fileName + ".part" + i);
-                Files.copy(part, out);
+    private synchronized void startUploadSweeper() {
+        if (uploadSweeper != null || uploadExpiryMillis <= 0) {
+            return;
+        }
+        uploadSweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "upload-expiry");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(1000, uploadExpiryMillis / 4);
+        uploadSweeper.scheduleWithFixedDelay(() -> {
+            try {
+                int expired = expireUploads(uploadExpiryMillis);
+                if (expired > 0) {
+                    logger.info("Expired {} idle upload session(s)", expired);
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Could not expire upload sessions: {}", e.getMessage());
             }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private UploadSession requireSession(String uploadId) {
+        UploadSession session = uploadId == null ? null : uploadSessions.get(uploadId);
+        if (session == null) {
+            throw new FileStorageException("Unknown upload session: " + uploadId);
         }
+        return session;
+    }
 
-        if (expectedChecksum != null) {
-            String actual = calculateChecksum(finalPath);
-            if (!actual.equalsIgnoreCase(expectedChecksum)) {
-                Files.deleteIfExists(finalPath);
+    /**
+     * Commits a claimed session. The parts already sit at their offsets in the
+     * session's data file, so this only finishes the running checksum, which may
+     * still read back parts that arrived out of order, and renames the data file
+     * into place; nothing is copied.
+     */
+    @SuppressWarnings("try")
+    private void commitUpload(UploadSession session) {
+        String fileName = session.getFileName();
+        try {
+            String actual = session.finish();
+            String expected = session.getExpectedChecksum();
+            if (expected != null && !expected.isBlank() && !actual.equalsIgnoreCase(expected)) {
+                abortUpload(session.getUploadId());
                 throw new FileStorageException("Final checksum mismatch for " + fileName);
             }
+            try (FileLockManager.Held lock = fileLocks.write(fileName)) {
+                intentLog().prepare(session.getUploadId(), session.getDataFile(), session.getAlgorithm().name(), actual);
+                store(session.getDataFile(), fileName);
+                recordStored(fileName, session.getAlgorithm(), actual);
+            }
+            uploadSessions.remove(session.getUploadId());
+            discardSession(session);
+            intentLog().commit(session.getUploadId());
+            logger.info("Completed upload {} for '{}'", session.getUploadId(), fileName);
+        } catch (IOException e) {
+            // Het databestand is na finish() gesloten; de sessie kan niet opnieuw worden voltooid
+            abortUpload(session.getUploadId());
+            throw new FileStorageException("Error assembling upload " + session.getUploadId() + " for " + fileName, e);
         }
+    }
 
-        for (int i = 1; i <= total; i++) {
-            Files.deleteIfExists(storageLocation.resolve(fileName + ".part" + i));
+    private void discardSession(UploadSession session) {
+        try {
+            session.discard();
+        } catch (IOException e) {
+            logger.error("Failed to delete upload directory {}: {}", session.getDirectory(), e.getMessage());
         }
     }
 
-    public SyncResult analyzeLocalClientDifferences() {
-        List<FileMetadata> clientLocalFilesMetadata = new ArrayList<>();
-        try (Stream<Path> stream = Files.list(clientLocalLocation)) {
-            stream.filter(Files::isRegularFile)
-                  .filter(path -> !path.getFileName().toString().contains(".part"))
-                  .forEach(path -> {
+    /**
+     * Renames a fully written file into its shard and drops a copy of the file
+     * that was still in the flat layout, so the new version is the only one.
+     * With deduplication enabled the file is stored as a {@link ChunkedFile}
+     * recipe; otherwise, with compression enabled, it is first packed into a
+     * {@link CompressedFile} next to the source, if a sample shows it pays off.
+     * The chunks of a recipe that is replaced are released.
+     */
+    private void store(Path source, String fileName) throws IOException {
+        Path target = layout().prepare(fileName);
+        List<String> previous = chunkHashesOf(target);
+        if (dedupEnabled) {
+            Path recipe = source.resolveSibling(source.getFileName() + ".lcr");
+            try {
+                List<String> chunks = new ContentChunker(chunkStore()).write(source, recipe, target.getParent());
                 try {
-                    String fileName = path.getFileName().toString();
-                    long fileSize = Files.size(path);
-                    String checksum = calculateChecksum(path);
-                    LocalDateTime fileTime = LocalDateTime.ofInstant(Files.getLastModifiedTime(path).toInstant(), ZoneId.systemDefault());
-                    long lastMod = Files.getLastModifiedTime(path).toMillis();
-                    
-                    FileMetadata meta = new FileMetadata(fileName, checksum, fileSize, fileTime, lastMod);
-                    clientLocalFilesMetadata.add(meta);
+                    moveIntoPlace(recipe, target);
                 } catch (IOException e) {
-                    logger.error("Error generating metadata for client file '{}': {}", path.getFileName(), e.getMessage());
+                    chunkStore().release(chunks);
+                    throw e;
                 }
-            });
+            } finally {
+                Files.deleteIfExists(recipe);
+            }
+        } else {
+            Path packed = source.resolveSibling(source.getFileName() + ".lcz");
+            try {
+                boolean compressed = new BlockCompressor(compressionEnabled).pack(source, packed);
+                moveIntoPlace(compressed ? packed : source, target);
+            } finally {
+                Files.deleteIfExists(packed);
+            }
+        }
+        if (previous != null) {
+            chunkStore().release(previous);
+        }
+        invalidateCached(fileName);
+        Files.deleteIfExists(layout().legacyPath(fileName));
+    }
+
+    /**
+     * Deletes a stored file from its shard and from the flat layout and journals
+     * the deletion. The chunks of a recipe are released.
+     */
+    private void deleteStored(String fileName) throws IOException {
+        Path sharded = layout().pathFor(fileName);
+        List<String> chunks = chunkHashesOf(sharded);
+        boolean deleted = Files.deleteIfExists(sharded);
+        if (deleted && chunks != null) {
+            chunkStore().release(chunks);
+        }
+        deleted |= Files.deleteIfExists(layout().legacyPath(fileName));
+        metadataIndex().remove(fileName);
+        invalidateCached(fileName);
+        updateView(fileName);
+        if (deleted) {
+            changeJournal().recordDelete(fileName);
+        }
+    }
+
+    // De live view volgt een commit direct; op de watcher wachten zou sync even een oude stand tonen
+    private void updateView(String fileName) {
+        LiveMetadataView view = storageView;
+        if (view != null) {
+            view.update(fileName);
+        }
+    }
+
+    // null als het bestand niet bestaat of geen recept is
+    private static List<String> chunkHashesOf(Path file) throws IOException {
+        return Files.isRegularFile(file) ? ChunkedFile.chunkHashes(file) : null;
+    }
+
+    private void invalidateCached(String fileName) {
+        FileReadCache cache = readCache;
+        if (cache != null) {
+            cache.invalidate(fileName);
+        }
+    }
+
+    /** Records the checksum of a file that was just stored in the index and in the change journal. */
+    private void recordStored(String fileName, ChecksumAlgorithm algorithm, String checksum) {
+        recordStored(fileName, algorithm, Map.of(algorithm, checksum));
+    }
+
+    /** As above, with further checksums of the same content; the journal carries the one in {@code algorithm}. */
+    private void recordStored(String fileName, ChecksumAlgorithm algorithm, Map<ChecksumAlgorithm, String> checksums) {
+        String checksum = checksums.get(algorithm);
+        metadataIndex().record(fileName, checksums);
+        updateView(fileName);
+        Path file = layout().locate(fileName);
+        if (file == null) {
+            return; // intussen alweer verwijderd; die verwijdering staat zelf in het journaal
+        }
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            changeJournal().recordUpdate(fileName, CompressedFile.contentSize(file), attrs.lastModifiedTime().toMillis(),
+                    algorithm.name(), checksum);
         } catch (IOException e) {
-            throw new FileStorageException("Error reading client local sync directory for analysis", e);
+            logger.warn("Could not journal '{}': {}", fileName, e.getMessage());
+        }
+    }
+
+    /**
+     * Renames a fully written file over its target. The rename is atomic where the
+     * file system supports it, so readers see either the old or the new file.
+     */
+    private void moveIntoPlace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private UploadStatus toStatus(UploadSession session, boolean completed) {
+        return new UploadStatus(session.getUploadId(), session.getFileName(), session.getTotalParts(),
+                session.receivedParts(), completed ? List.of() : session.missingParts(), completed);
+    }
+
+    public SyncResult analyzeLocalClientDifferences() {
+        if (!Files.isDirectory(clientLocalLocation)) {
+            throw new FileStorageException("Error reading client local sync directory for analysis");
         }
-        // Compare this clientLocalFilesMetadata with the server's master storage
-        return syncFiles(clientLocalFilesMetadata);
+        // Compare the client's metadata with the server's master storage
+        return syncFiles(new ArrayList<>(getDirectoryMetadata(clientLocalLocation).values()));
     }
 
     @Async
@@ -560,7 +1468,8 @@ public class FileManagerService {
 
     /**
      * Generates a map of FileMetadata for all regular files in a given directory.
-     * Skips .part files.
+     * Skips .part files. Checksums for the master storage are served from the
+     * {@link MetadataIndex}; other directories are hashed on every call.
      * @param directoryPath The path to the directory to scan.
      * @return A map where keys are file names and values are their FileMetadata.
      */
@@ -570,33 +1479,153 @@ public class FileManagerService {
             logger.error("Metadata Scan: Directory does not exist or is not a directory: {}", directoryPath);
             return metadataMap;
         }
-        try (Stream<Path> stream = Files.list(directoryPath)) {
-            stream.filter(Files::isRegularFile)
-                  .filter(path -> !path.getFileName().toString().contains(".part")) // Skip chunk files
-                  .forEach(filePath -> {
-                try {
-                    String name = filePath.getFileName().toString();
-                    long lastModMillis = Files.getLastModifiedTime(filePath).toMillis();
-                    String checksum = calculateChecksum(filePath);
-                    long fileSize = Files.size(filePath);
-                    LocalDateTime fileTimestamp = LocalDateTime.ofInstant(
-                            Files.getLastModifiedTime(filePath).toInstant(), ZoneId.systemDefault()
-                    );
-
-                    // Using the full constructor for FileMetadata
-                    FileMetadata meta = new FileMetadata(name, checksum, fileSize, fileTimestamp, lastModMillis);
-                    metadataMap.put(name, meta);
-                } catch (IOException e) {
-                    logger.error("Error generating metadata for file '{}' in directory '{}': {}",
-                            filePath.getFileName(), directoryPath, e.getMessage());
-                }
-            });
+        boolean indexed = directoryPath.equals(storageLocation);
+        LiveMetadataView view = indexed ? storageView : directoryPath.equals(clientLocalLocation) ? clientView : null;
+        if (view != null && view.isRunning() && !view.isDegraded()) {
+            return view.snapshot();
+        }
+        List<Path> files;
+        try (Stream<Path> stream = indexed ? layout().files().values().stream() : Files.list(directoryPath)) {
+            files = stream.filter(Files::isRegularFile)
+                          .filter(path -> indexed || !path.getFileName().toString().contains(".part")) // Skip chunk files
+                          .toList();
         } catch (IOException e) {
             logger.error("Error listing directory '{}': {}", directoryPath, e.getMessage());
+            return metadataMap;
         }
+        // Bestanden parallel hashen; mislukte bestanden worden na een paar pogingen overgeslagen
+        MetadataIndex index = indexed ? metadataIndex() : null;
+        ParallelScanner.Result<FileMetadata> scan = scanner().scan(files,
+                (filePath, attrs) -> readMetadata(filePath, attrs, index),
+                progress -> {
+                    if (progress.filesDone() % SCAN_PROGRESS_INTERVAL == 0) {
+                        logger.info("Metadata Scan: {}/{} files, {} bytes in '{}'",
+                                progress.filesDone(), progress.filesTotal(), progress.bytesDone(), directoryPath);
+                    }
+                });
+        scan.results().values().forEach(meta -> metadataMap.put(meta.getFileName(), meta));
+        scan.failures().forEach((filePath, e) -> logger.error("Error generating metadata for file '{}' in directory '{}': {}",
+                filePath.getFileName(), directoryPath, e.getMessage()));
         return metadataMap;
     }
 
+    // index is null for directories outside the master storage
+    private FileMetadata readMetadata(Path filePath, BasicFileAttributes attrs, MetadataIndex index) throws IOException {
+        String name = filePath.getFileName().toString();
+        String checksum = index != null ? index.checksum(filePath, attrs) : calculateChecksum(filePath);
+        // Alleen de master storage bevat gecomprimeerde bestanden; de grootte is die van de inhoud
+        long size = index != null ? CompressedFile.contentSize(filePath) : attrs.size();
+        LocalDateTime fileTimestamp = LocalDateTime.ofInstant(
+                attrs.lastModifiedTime().toInstant(), ZoneId.systemDefault()
+        );
+        // Using the full constructor for FileMetadata
+        return new FileMetadata(name, checksum, size, fileTimestamp, attrs.lastModifiedTime().toMillis());
+    }
+
+    /**
+     * Starts watching the master storage and the client sync directory, so sync
+     * operations read their metadata from a live view instead of scanning and
+     * hashing both directories every time.
+     *
+     * @param debounceMillis how long a file has to be quiet before it is rehashed
+     */
+    public synchronized void startWatching(long debounceMillis) {
+        if (storageView != null) {
+            return;
+        }
+        StorageLayout layout = layout();
+        MetadataIndex index = metadataIndex();
+        storageView = new LiveMetadataView(storageLocation, layout::locate, layout::isLayoutDirectory,
+                layout::isStoredFile, (file, attrs) -> readMetadata(file, attrs, index), debounceMillis);
+        clientView = new LiveMetadataView(clientLocalLocation, clientLocalLocation::resolve, clientLocalLocation::equals,
+                file -> !file.getFileName().toString().contains(".part"),
+                (file, attrs) -> readMetadata(file, attrs, null), debounceMillis);
+        try {
+            storageView.start();
+            clientView.start();
+        } catch (IOException e) {
+            stopWatching();
+            throw new FileStorageException("Could not watch the storage directories", e);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        stopWatching();
+        synchronized (scannerLock) {
+            if (scanner != null) {
+                scanner.close();
+                scanner = null;
+            }
+        }
+        if (transferExecutor != null) {
+            transferExecutor.close();
+            transferExecutor = null;
+        }
+        if (archiveDeflater != null) {
+            archiveDeflater.close();
+            archiveDeflater = null;
+        }
+        if (uploadSweeper != null) {
+            uploadSweeper.shutdownNow();
+            uploadSweeper = null;
+        }
+        if (intentLog != null) {
+            intentLog.close();
+        }
+        if (chunkStore != null) {
+            chunkStore.close();
+            chunkStore = null;
+        }
+    }
+
+    public synchronized void stopWatching() {
+        for (LiveMetadataView view : new LiveMetadataView[] {storageView, clientView}) {
+            if (view != null) {
+                try {
+                    view.close();
+                } catch (IOException e) {
+                    logger.warn("Could not stop watching: {}", e.getMessage());
+                }
+            }
+        }
+        storageView = null;
+        clientView = null;
+    }
+
+    /**
+     * Progress of the running or last server-side local sync, with the files
+     * transferred so far; null if no local sync has run yet.
+     */
+    public TransferStatus getLocalSyncStatus() {
+        TransferJob job = localSyncJob;
+        if (job == null) {
+            return null;
+        }
+        TransferJob.Progress progress = job.progress();
+        return new TransferStatus(progress.done(), progress.total(), progress.bytesDone(), progress.bytesTotal(),
+                job.completed().stream().map(TransferJob.Transfer::name).toList(),
+                List.copyOf(job.failures().keySet()));
+    }
+
+    /**
+     * Takes the read lock of a stored file for the time it is copied out, and fails
+     * the copy if the file was replaced by one that needs the other way of copying
+     * since the sync was planned.
+     */
+    private Closeable readGuard(String fileName, Path source, boolean encoded) throws IOException {
+        FileLockManager.Held lock = fileLocks.read(fileName);
+        try {
+            if (CompressedFile.isEncoded(source) != encoded) {
+                throw new IOException("File " + fileName + " changed while it was being synced");
+            }
+        } catch (IOException | RuntimeException e) {
+            lock.close();
+            throw e;
+        }
+        return lock::close;
+    }
+
     /**
      * Performs a server-side synchronization between the primary storageLocation (master)
      * and the clientLocalLocation (local mirror).
@@ -649,34 +1678,63 @@ public class FileManagerService {
             }
         }
 
-        // --- Perform actual file copy operations ---
-        List<String> successfullyCopiedToClient = new ArrayList<>();
+        // --- Perform actual file copy operations, smallest files first on the transfer pool ---
+        List<TransferJob.Transfer> transfers = new ArrayList<>();
         for (String fileName : filesToCopyToClientLocal) {
+            FileMetadata serverMeta = serverMasterFilesMetadata.get(fileName);
+            Path sourcePath = layout().locate(fileName);
+            if (sourcePath == null) {
+                logger.error("SYNC: FAILED to copy '{}' to CLIENT_SYNC_DIR: file disappeared", fileName);
+                conflictFiles.add(fileName + " (copy to clientSync failed)");
+                continue;
+            }
+            // Gecomprimeerde en gededupliceerde bestanden worden onderweg gedecodeerd; de client krijgt altijd de inhoud
+            boolean encoded;
             try {
-                Path sourcePath = storageLocation.resolve(fileName);
-                Path destinationPath = clientLocalLocation.resolve(fileName);
-                Files.copy(sourcePath, destinationPath, StandardCopyOption.REPLACE_EXISTING);
-                successfullyCopiedToClient.add(fileName);
-                logger.info("SYNC: Copied '{}' from MASTER_STORAGE to CLIENT_SYNC_DIR.", fileName);
+                encoded = CompressedFile.isEncoded(sourcePath);
             } catch (IOException e) {
                 logger.error("SYNC: FAILED to copy '{}' to CLIENT_SYNC_DIR: {}", fileName, e.getMessage());
-                conflictFiles.add(fileName + " (copy to clientSync failed)"); // Add to conflicts if copy fails
+                conflictFiles.add(fileName + " (copy to clientSync failed)");
+                continue;
             }
+            transfers.add(new TransferJob.Transfer(fileName, sourcePath, clientLocalLocation.resolve(fileName),
+                    serverMeta.getFileSize(), storageLocation, clientLocalLocation,
+                    t -> logger.info("SYNC: Copied '{}' from MASTER_STORAGE to CLIENT_SYNC_DIR.", t.name()),
+                    encoded ? CompressedFile::decompress : null, () -> readGuard(fileName, sourcePath, encoded)));
+        }
+        Set<String> toServer = new HashSet<>(filesToCopyToServerMaster);
+        for (String fileName : filesToCopyToServerMaster) {
+            FileMetadata clientMeta = clientSyncFilesMetadata.get(fileName);
+            // ingest kopieert via staging, hasht de bytes onderweg en commit onder de schrijflock
+            transfers.add(new TransferJob.Transfer(fileName, clientLocalLocation.resolve(fileName), layout().stagingDir(),
+                    clientMeta.getFileSize(), clientLocalLocation, storageLocation,
+                    t -> logger.info("SYNC: Copied '{}' from CLIENT_SYNC_DIR to MASTER_STORAGE.", t.name()),
+                    (source, staging) -> {
+                        try (InputStream in = Files.newInputStream(source)) {
+                            ingest(fileName, in, -1, clientMeta.getFileSize(), null, ChecksumAlgorithms.DEFAULT);
+                        }
+                    }));
+        }
+
+        TransferJob job = transferExecutor().submit(transfers);
+        localSyncJob = job;
+        try {
+            job.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("SYNC: interrupted, returning the transfers finished so far");
         }
 
+        List<String> successfullyCopiedToClient = new ArrayList<>();
         List<String> successfullyCopiedToServer = new ArrayList<>();
-        for (String fileName : filesToCopyToServerMaster) {
-            try {
-                Path sourcePath = clientLocalLocation.resolve(fileName);
-                Path destinationPath = storageLocation.resolve(fileName);
-                Files.copy(sourcePath, destinationPath, StandardCopyOption.REPLACE_EXISTING);
-                successfullyCopiedToServer.add(fileName);
-                logger.info("SYNC: Copied '{}' from CLIENT_SYNC_DIR to MASTER_STORAGE.", fileName);
-            } catch (IOException e) {
-                logger.error("SYNC: FAILED to copy '{}' to MASTER_STORAGE: {}", fileName, e.getMessage());
-                conflictFiles.add(fileName + " (copy to serverStorage failed)"); // Add to conflicts
-            }
+        for (TransferJob.Transfer transfer : job.completed()) {
+            (toServer.contains(transfer.name()) ? successfullyCopiedToServer : successfullyCopiedToClient).add(transfer.name());
         }
+        job.failures().forEach((fileName, e) -> {
+            boolean server = toServer.contains(fileName);
+            logger.error("SYNC: FAILED to copy '{}' to {}: {}", fileName, server ? "MASTER_STORAGE" : "CLIENT_SYNC_DIR", e.getMessage());
+            conflictFiles.add(fileName + (server ? " (copy to serverStorage failed)" : " (copy to clientSync failed)"));
+        });
 
         logger.info("Server-side local sync completed. Copied to client: {}, Copied to server: {}, Conflicts: {}",
                 successfullyCopiedToClient.size(), successfullyCopiedToServer.size(), conflictFiles.size());
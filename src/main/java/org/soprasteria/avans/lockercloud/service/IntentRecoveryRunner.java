@@ -0,0 +1,36 @@
+package org.soprasteria.avans.lockercloud.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Finishes or rolls back the writes that were interrupted by a crash, before the
+ * layout migration and the directory watcher look at the storage.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class IntentRecoveryRunner implements CommandLineRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(IntentRecoveryRunner.class);
+
+    private final FileManagerService fileManagerService;
+
+    @Autowired
+    public IntentRecoveryRunner(FileManagerService fileManagerService) {
+        this.fileManagerService = fileManagerService;
+    }
+
+    @Override
+    public void run(String... args) {
+        long start = System.nanoTime();
+        int resolved = fileManagerService.recoverInterruptedWrites();
+        if (resolved > 0) {
+            logger.info("Recovered {} interrupted write(s) in {} ms", resolved, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.soprasteria.avans.lockercloud.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.soprasteria.avans.lockercloud.exception.FileStorageException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * Starts watching the storage and client sync directories on application
+ * startup. Without the watcher every sync scans and hashes both directories.
+ */
+@Component
+public class MetadataWatchRunner implements CommandLineRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetadataWatchRunner.class);
+
+    @Value("${storage.watch.enabled:true}")
+    private boolean enabled;
+
+    @Value("${storage.watch.debounce-ms:500}")
+    private long debounceMillis;
+
+    private final FileManagerService fileManagerService;
+
+    @Autowired
+    public MetadataWatchRunner(FileManagerService fileManagerService) {
+        this.fileManagerService = fileManagerService;
+    }
+
+    @Override
+    public void run(String... args) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            fileManagerService.startWatching(debounceMillis);
+        } catch (FileStorageException e) {
+            logger.error("Directory watching unavailable, falling back to full scans: {}", e.getMessage());
+        }
+    }
+}
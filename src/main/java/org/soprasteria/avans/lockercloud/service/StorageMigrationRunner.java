@@ -0,0 +1,44 @@
+package org.soprasteria.avans.lockercloud.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * Migrates the flat storage directory to the sharded layout in the background
+ * on application startup, so requests are served while files are being moved.
+ */
+@Component
+public class StorageMigrationRunner implements CommandLineRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageMigrationRunner.class);
+
+    @Value("${storage.migrate-on-startup:true}")
+    private boolean enabled;
+
+    private final FileManagerService fileManagerService;
+
+    @Autowired
+    public StorageMigrationRunner(FileManagerService fileManagerService) {
+        this.fileManagerService = fileManagerService;
+    }
+
+    @Override
+    public void run(String... args) {
+        if (!enabled) {
+            return;
+        }
+        Thread t = new Thread(() -> {
+            try {
+                fileManagerService.migrateStorageLayout();
+            } catch (RuntimeException e) {
+                logger.error("Storage layout migration failed: {}", e.getMessage());
+            }
+        }, "storage-migration");
+        t.setDaemon(true);
+        t.start();
+    }
+}
@@ -0,0 +1,422 @@
+package org.soprasteria.avans.lockercloud.service;
+
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithm;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumHasher;
+import org.soprasteria.avans.lockercloud.exception.FileStorageException;
+import org.soprasteria.avans.lockercloud.storage.IngestPipeline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Server-side state of a multi-part upload. Received parts are tracked in a
+ * bitmap so progress and completeness are known without listing the staging
+ * directory. Parts may arrive in any order and concurrently.
+ * <p>
+ * Every part is written straight to its offset in one preallocated data file
+ * through positional {@link FileChannel} writes, so the data is written once and
+ * never copied into place afterwards. The whole-file checksum is kept as a running
+ * hash over the contiguous prefix of received parts: a part that continues the
+ * prefix is hashed while it is written, a part that arrives early is read back
+ * from the data file once the gap before it closes. Parts sent in order are
+ * therefore never read again; parts sent out of order or in parallel cost a
+ * second read each. Part and file checksums use the algorithm negotiated when
+ * the session was started.
+ * <p>
+ * A session that receives nothing for a while can be expired with
+ * {@link #tryExpire}, after which it accepts no more parts and cannot complete.
+ */
+final class UploadSession {
+
+    private final String uploadId;
+    private final String fileName;
+    private final int totalParts;
+    private final Path directory;
+    private final Path dataFile;
+    private final FileChannel channel;
+    private final IngestPipeline pipeline;
+    private final BitSet received;
+    private final BitSet inFlight;
+    private final ReentrantLock digestLock = new ReentrantLock();
+    private final ChecksumAlgorithm algorithm;
+    private ChecksumHasher digest;
+    private int hashedParts;
+    // 0 = nog onbekend; wordt dan afgeleid van het eerste deel dat niet het laatste is
+    private long partSize;
+    private long lastPartLength = -1;
+    private Path parkedLastPart;
+    // Het geparkeerde laatste deel wordt op zijn plek gezet; het telt dan al als ontvangen
+    private boolean placingLastPart;
+    private String expectedChecksum;
+    private boolean completing;
+    private boolean expired;
+    private long lastActivity;
+
+    UploadSession(String uploadId, String fileName, int totalParts, long partSize, long fileSize,
+                  String expectedChecksum, ChecksumAlgorithm algorithm, Path directory,
+                  IngestPipeline pipeline) throws IOException {
+        this.uploadId = uploadId;
+        this.fileName = fileName;
+        this.totalParts = totalParts;
+        this.partSize = partSize;
+        this.expectedChecksum = expectedChecksum;
+        this.algorithm = algorithm;
+        this.directory = directory;
+        this.pipeline = pipeline;
+        this.dataFile = directory.resolve("data");
+        this.received = new BitSet(totalParts + 1);
+        this.inFlight = new BitSet(totalParts + 1);
+        this.digest = algorithm.newHasher();
+        this.lastActivity = System.currentTimeMillis();
+        Files.createDirectories(directory);
+        if (fileSize > 0 && Files.getFileStore(directory).getUsableSpace() < fileSize) {
+            throw new FileStorageException("Not enough free space for " + fileName + " (" + fileSize + " bytes)");
+        }
+        this.channel = FileChannel.open(dataFile, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (fileSize > 0) {
+            // Reserveer de volledige lengte zodat het bestand tijdens het schrijven niet meer groeit
+            channel.write(ByteBuffer.allocate(1), fileSize - 1);
+        }
+    }
+
+    String getUploadId() {
+        return uploadId;
+    }
+
+    String getFileName() {
+        return fileName;
+    }
+
+    int getTotalParts() {
+        return totalParts;
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    ChecksumAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    Path getDataFile() {
+        return dataFile;
+    }
+
+    synchronized String getExpectedChecksum() {
+        return expectedChecksum;
+    }
+
+    synchronized void setExpectedChecksum(String expectedChecksum) {
+        if (expectedChecksum != null && !expectedChecksum.isBlank()) {
+            this.expectedChecksum = expectedChecksum;
+        }
+    }
+
+    synchronized boolean isCompleting() {
+        return completing;
+    }
+
+    synchronized boolean isReceived(int index) {
+        return received.get(index);
+    }
+
+    synchronized boolean allReceived() {
+        return received.cardinality() == totalParts;
+    }
+
+    /**
+     * Claims the session for assembly. Returns false when all parts have not
+     * arrived yet or another request is already completing it.
+     */
+    synchronized boolean tryBeginCompletion() {
+        if (completing || expired || !allReceived() || !inFlight.isEmpty()) {
+            return false;
+        }
+        completing = true;
+        return true;
+    }
+
+    /**
+     * Claims an idle session for expiry: no part arrived since {@code cutoff}, none
+     * is being written and it is not being completed. Afterwards the session
+     * rejects parts and completion, so it can be discarded safely.
+     */
+    synchronized boolean tryExpire(long cutoff) {
+        if (completing || expired || !inFlight.isEmpty() || lastActivity >= cutoff) {
+            return false;
+        }
+        expired = true;
+        return true;
+    }
+
+    synchronized List<Integer> receivedParts() {
+        BitSet accepted = accepted();
+        List<Integer> parts = new ArrayList<>(accepted.cardinality());
+        for (int i = accepted.nextSetBit(1); i >= 0; i = accepted.nextSetBit(i + 1)) {
+            parts.add(i);
+        }
+        return parts;
+    }
+
+    synchronized List<Integer> missingParts() {
+        BitSet accepted = accepted();
+        List<Integer> parts = new ArrayList<>(totalParts - accepted.cardinality());
+        for (int i = accepted.nextClearBit(1); i <= totalParts; i = accepted.nextClearBit(i + 1)) {
+            parts.add(i);
+        }
+        return parts;
+    }
+
+    // Een geparkeerd laatste deel is al binnen, ook al staat het nog niet op zijn plek
+    private BitSet accepted() {
+        if (parkedLastPart == null && !placingLastPart) {
+            return received;
+        }
+        BitSet accepted = (BitSet) received.clone();
+        accepted.set(totalParts);
+        return accepted;
+    }
+
+    /**
+     * Writes one part at its offset in the data file. Parts are write-once: a part
+     * that was already received is ignored, so a client may safely retry a request
+     * whose response got lost.
+     *
+     * @param declaredLength length of the part if known up front, otherwise -1
+     * @return false if the part had already been received
+     */
+    boolean writePart(int index, InputStream data, long declaredLength, String partChecksum) throws IOException {
+        if (index < 1 || index > totalParts) {
+            throw new FileStorageException("Part " + index + " is out of range 1-" + totalParts
+                    + " for upload " + uploadId);
+        }
+        boolean placeable;
+        synchronized (this) {
+            if (completing) {
+                throw new FileStorageException("Upload " + uploadId + " is already being completed.");
+            }
+            if (expired) {
+                throw new FileStorageException("Upload " + uploadId + " has expired.");
+            }
+            if (received.get(index) || (index == totalParts && (parkedLastPart != null || placingLastPart))) {
+                return false;
+            }
+            if (inFlight.get(index)) {
+                throw new FileStorageException("Part " + index + " of upload " + uploadId + " is already being uploaded.");
+            }
+            if (partSize == 0 && index < totalParts) {
+                if (declaredLength <= 0) {
+                    throw new FileStorageException("Part size of upload " + uploadId + " is unknown; send Content-Length.");
+                }
+                partSize = declaredLength;
+            }
+            placeable = index == 1 || partSize > 0;
+            inFlight.set(index);
+        }
+        try {
+            if (placeable) {
+                writeAtOffset(index, data, partChecksum);
+            } else {
+                parkLastPart(data, partChecksum);
+            }
+        } finally {
+            synchronized (this) {
+                inFlight.clear(index);
+            }
+        }
+        placeParkedPart();
+        advanceDigest(false);
+        return true;
+    }
+
+    private void writeAtOffset(int index, InputStream data, String partChecksum) throws IOException {
+        long offset = (index - 1) * partSize;
+        // Sluit dit deel direct aan op de gehashte prefix, dan hashen we tijdens het schrijven
+        boolean inline = digestLock.tryLock();
+        if (inline && hashedParts != index - 1) {
+            digestLock.unlock();
+            inline = false;
+        }
+        boolean prefixComplete = false;
+        try {
+            ChecksumHasher partDigest = algorithm.newHasher();
+            ChecksumHasher[] digests = inline
+                    ? new ChecksumHasher[]{partDigest, digest}
+                    : new ChecksumHasher[]{partDigest};
+            long written;
+            try {
+                written = pipeline.write(data, channel, offset, partSize > 0 ? partSize : -1, digests);
+            } catch (FileStorageException e) {
+                throw new FileStorageException("Part " + index + " of upload " + uploadId
+                        + " is larger than the part size of " + partSize + " bytes");
+            }
+            if (index < totalParts && written != partSize) {
+                throw new FileStorageException("Part " + index + " of upload " + uploadId + " has " + written
+                        + " bytes, expected " + partSize);
+            }
+            verifyPartChecksum(index, partDigest, partChecksum);
+            synchronized (this) {
+                if (index == totalParts) {
+                    lastPartLength = written;
+                }
+                received.set(index);
+                lastActivity = System.currentTimeMillis();
+            }
+            if (inline) {
+                hashedParts = index;
+                prefixComplete = true;
+            }
+        } finally {
+            if (inline) {
+                if (!prefixComplete) {
+                    // Half gehashte bytes zitten al in de prefix; opnieuw beginnen vanaf deel 1
+                    digest = algorithm.newHasher();
+                    hashedParts = 0;
+                }
+                digestLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * The last part can arrive before the part size is known (chunk headers carry
+     * no part size). It is kept aside until the offset can be computed.
+     */
+    private void parkLastPart(InputStream data, String partChecksum) throws IOException {
+        Path parked = directory.resolve(totalParts + ".pending");
+        ChecksumHasher partDigest = algorithm.newHasher();
+        try (FileChannel out = FileChannel.open(parked, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            pipeline.write(data, out, 0, -1, partDigest);
+        }
+        verifyPartChecksum(totalParts, partDigest, partChecksum);
+        synchronized (this) {
+            parkedLastPart = parked;
+            lastActivity = System.currentTimeMillis();
+        }
+    }
+
+    private void placeParkedPart() throws IOException {
+        Path parked;
+        long offset;
+        synchronized (this) {
+            if (parkedLastPart == null || partSize == 0) {
+                return;
+            }
+            parked = parkedLastPart;
+            parkedLastPart = null;
+            placingLastPart = true;
+            offset = (totalParts - 1) * partSize;
+        }
+        try (FileChannel in = FileChannel.open(parked, StandardOpenOption.READ)) {
+            long length = in.size();
+            if (length > partSize) {
+                throw new FileStorageException("Part " + totalParts + " of upload " + uploadId
+                        + " is larger than the part size of " + partSize + " bytes");
+            }
+            long pos = 0;
+            while (pos < length) {
+                pos += in.transferTo(pos, length - pos, channel.position(offset + pos));
+            }
+            synchronized (this) {
+                lastPartLength = length;
+                received.set(totalParts);
+            }
+        } finally {
+            synchronized (this) {
+                // Mislukt het plaatsen, dan ontbreekt het deel weer en kan de client het opnieuw sturen
+                placingLastPart = false;
+            }
+            Files.deleteIfExists(parked);
+        }
+    }
+
+    /**
+     * Extends the running digest over parts that are now contiguous with the
+     * hashed prefix. Without {@code wait} the call returns immediately when another
+     * thread is already hashing; that thread or completion will catch up.
+     */
+    private void advanceDigest(boolean wait) throws IOException {
+        if (wait) {
+            digestLock.lock();
+        } else if (!digestLock.tryLock()) {
+            return;
+        }
+        byte[] array = null;
+        try {
+            while (hashedParts < totalParts && isReceived(hashedParts + 1)) {
+                int index = hashedParts + 1;
+                long start = (index - 1) * partSize;
+                long end = index < totalParts ? start + partSize : start + lastPartLength;
+                if (array == null) {
+                    array = pipeline.acquire();
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(array);
+                for (long pos = start; pos < end; ) {
+                    buffer.clear().limit((int) Math.min(array.length, end - pos));
+                    int n = channel.read(buffer, pos);
+                    if (n <= 0) {
+                        throw new IOException("Upload data of " + uploadId + " is shorter than expected");
+                    }
+                    digest.update(array, 0, n);
+                    pos += n;
+                }
+                hashedParts = index;
+            }
+        } finally {
+            if (array != null) {
+                pipeline.release(array);
+            }
+            digestLock.unlock();
+        }
+    }
+
+    /**
+     * Finishes a claimed session: trims the data file to its real length, forces it
+     * to disk and returns the MD5 of the complete file.
+     */
+    String finish() throws IOException {
+        advanceDigest(true);
+        digestLock.lock();
+        try {
+            if (hashedParts != totalParts) {
+                throw new IllegalStateException("Upload " + uploadId + " finished with unhashed parts");
+            }
+            long length = (totalParts - 1) * partSize + lastPartLength;
+            channel.truncate(length);
+            channel.force(true);
+            channel.close();
+            return digest.hexDigest();
+        } finally {
+            digestLock.unlock();
+        }
+    }
+
+    /** Closes the data file and removes everything staged for this session. */
+    void discard() throws IOException {
+        channel.close();
+        Files.deleteIfExists(dataFile);
+        Files.deleteIfExists(directory.resolve(totalParts + ".pending"));
+        Files.deleteIfExists(directory);
+    }
+
+    private void verifyPartChecksum(int index, ChecksumHasher partDigest, String partChecksum) {
+        if (partChecksum != null && !partChecksum.isBlank()) {
+            String actual = partDigest.hexDigest();
+            if (!actual.equalsIgnoreCase(partChecksum)) {
+                throw new FileStorageException("Checksum mismatch for part " + index + " of " + fileName);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.soprasteria.avans.lockercloud.socket;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of equally sized direct buffers for the TLS records of the
+ * {@link NioFileServer}. Connections hold a buffer only while it contains
+ * bytes that are not processed yet, so an idle connection holds none and the
+ * memory in use follows the traffic instead of the number of connections.
+ * Direct buffers are expensive to allocate and are freed only by the garbage
+ * collector, so released buffers are kept for reuse, up to {@code maxPooled}.
+ * <p>
+ * A pool of heap buffers serves code that streams through a {@code byte[]},
+ * such as the payloads of {@link SocketCommands}.
+ */
+public class BufferPool {
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final boolean direct;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final AtomicLong allocated = new AtomicLong();
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        this(bufferSize, maxPooled, true);
+    }
+
+    /** @param direct false for heap buffers, whose {@link ByteBuffer#array()} can be used */
+    public BufferPool(int bufferSize, int maxPooled, boolean direct) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+        this.direct = direct;
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    /** Returns a cleared buffer of {@link #bufferSize()} bytes. */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            allocated.incrementAndGet();
+            return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        }
+        pooled.decrementAndGet();
+        return buffer.clear();
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || buffer.isDirect() != direct) {
+            throw new IllegalArgumentException("Buffer does not belong to this pool");
+        }
+        // Boven de limiet ruimt de garbage collector de buffer op
+        if (pooled.incrementAndGet() <= maxPooled) {
+            free.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    /** Buffers allocated since the pool was created. */
+    public long allocated() {
+        return allocated.get();
+    }
+
+    /** Buffers waiting in the pool for reuse. */
+    public int pooled() {
+        return pooled.get();
+    }
+}
@@ -0,0 +1,93 @@
+package org.soprasteria.avans.lockercloud.socket;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A transport for the {@link SocketCommands} protocol, started and stopped by
+ * the {@link SocketServerRunner}.
+ */
+public interface FileSocketServer {
+
+    /**
+     * Connection limits; timeouts of 0 wait forever.
+     *
+     * @param handshakeTimeoutMillis time a client gets to complete the TLS handshake
+     * @param idleTimeoutMillis      time a read may wait for the client once the handshake is done
+     * @param drainTimeoutMillis     time {@link #stop()} waits for running commands
+     */
+    record Limits(int maxConnections, int handshakeTimeoutMillis, int idleTimeoutMillis,
+                  long drainTimeoutMillis) {
+        public static final Limits DEFAULT = new Limits(256, 10_000, 60_000, 30_000);
+
+        public Limits {
+            if (maxConnections < 1 || handshakeTimeoutMillis < 0 || idleTimeoutMillis < 0 || drainTimeoutMillis < 0) {
+                throw new IllegalArgumentException("Invalid connection limits");
+            }
+        }
+    }
+
+    /** Binds the port and starts accepting connections on background threads. */
+    void start() throws Exception;
+
+    /**
+     * Stops accepting connections, waits up to the drain timeout for the
+     * commands being served and then closes the connections that are left.
+     */
+    void stop();
+
+    boolean isRunning();
+
+    int getPort();
+
+    /** Connections open right now, including those still in the handshake. */
+    int activeConnections();
+
+    /** Connections closed unserved because the connection limit was reached. */
+    long rejectedConnections();
+
+    /** Pool of daemon threads named {@code name-N}; idle threads time out. */
+    static ExecutorService platformExecutor(String name, int threads) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Pool of daemon threads named {@code name-N} that starts a thread whenever
+     * all are busy, for tasks that mostly wait; idle threads time out.
+     */
+    static ExecutorService elasticExecutor(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+            Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * One virtual thread per task, or null if the runtime has no virtual
+     * threads. Looked up at runtime so the build does not depend on Java 21.
+     */
+    static ExecutorService virtualExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+}
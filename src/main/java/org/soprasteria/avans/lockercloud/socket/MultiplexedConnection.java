@@ -0,0 +1,704 @@
+package org.soprasteria.avans.lockercloud.socket;
+
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithm;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithms;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumHasher;
+import org.soprasteria.avans.lockercloud.exception.FileStorageException;
+import org.soprasteria.avans.lockercloud.service.FileManagerService;
+import org.soprasteria.avans.lockercloud.storage.StoredFileResource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Version 2 of the socket protocol: length-prefixed binary frames that carry
+ * several requests at once over one connection. A client switches to it with
+ * {@code HELLO 2} (see {@link SocketCommands}); the connection then speaks
+ * frames until it closes.
+ * <p>
+ * Every frame is a type byte, a flags byte, a 4-byte stream id, a 4-byte
+ * payload length and the payload of at most {@link #MAX_FRAME_PAYLOAD} bytes.
+ * A client opens a stream with {@link #OPEN}, whose payload is the command and
+ * its arguments as fields, so names may contain spaces: a 2-byte field count,
+ * then per field a 2-byte length and the UTF-8 bytes. Stream ids are chosen by
+ * the client and must increase. Uploads send their bytes in {@link #DATA}
+ * frames; the server answers with a {@link #REPLY} of fields ({@code OK ...}
+ * or {@code ERR <message>}), followed for {@code DOWNLOAD} and {@code LIST} by
+ * {@code DATA} frames. The last frame a side sends on a stream carries
+ * {@link #END_STREAM}. {@link #RESET} cancels a stream; a {@code RESET} on
+ * stream 0 reports a protocol error just before the server closes the
+ * connection.
+ * <p>
+ * Each stream has a flow-control window per direction of
+ * {@link #INITIAL_WINDOW} bytes of {@code DATA}; the receiver extends it with
+ * {@link #WINDOW} frames as it consumes the bytes. A slow upload or a reader
+ * that stops reading a download therefore only stalls its own stream, and the
+ * memory a stream holds is bounded by its window. Up to {@link #MAX_STREAMS}
+ * streams run at once per connection, each as a task on the executor the
+ * transport hands in.
+ * <p>
+ * Frames arrive in one of two ways. The blocking transport calls {@link #run}
+ * on the connection's thread, which reads them from the socket. An event-driven
+ * transport feeds the decrypted bytes to {@link #receive} on its event loop and
+ * reports the end of the input with {@link #endOfInput}; nothing then blocks on
+ * the connection between frames, and the transport learns through
+ * {@link #whenFinished} when the last stream is done. The frame handling itself
+ * never writes, so the event loop never waits for a slow reader: replies it
+ * causes are written from the executor.
+ */
+final class MultiplexedConnection {
+
+    static final int VERSION = 2;
+
+    static final int OPEN = 1;
+    static final int DATA = 2;
+    static final int REPLY = 3;
+    static final int WINDOW = 4;
+    static final int RESET = 5;
+
+    static final int END_STREAM = 1;
+
+    static final int MAX_FRAME_PAYLOAD = SocketCommands.STREAM_BUFFER_SIZE;
+    static final int INITIAL_WINDOW = 4 * MAX_FRAME_PAYLOAD;
+    static final int MAX_STREAMS = 16;
+
+    private static final int HEADER_SIZE = 10;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final FileManagerService fileService;
+    private final BufferPool buffers;
+    private final DataOutputStream out;
+    private final SocketCommands.Session session;
+    private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+    private final Executor handlers;
+    private volatile boolean closed;
+
+    // Alleen op de thread die de frames aanlevert
+    private int lastOpened;
+    private final byte[] header = new byte[HEADER_SIZE];
+    private int headerFilled;
+    private int frameType;
+    private int frameFlags;
+    private int frameId;
+    private ByteBuffer payload;
+    private boolean failed;
+
+    // Onder de monitor van de verbinding
+    private boolean ending;
+    private boolean finished;
+    private Runnable onFinished;
+
+    MultiplexedConnection(FileManagerService fileService, BufferPool buffers, DataOutputStream out,
+                          SocketCommands.Session session, Executor handlers) {
+        this.fileService = fileService;
+        this.buffers = buffers;
+        this.out = out;
+        this.session = session;
+        this.handlers = handlers;
+        updateBusy();
+    }
+
+    /**
+     * Reads frames from {@code in} until the client closes the connection or
+     * breaks the protocol, then waits for the streams still running.
+     */
+    void run(DataInputStream in) throws IOException {
+        try {
+            while (readFrame(in)) {
+                // elk frame is al afgehandeld
+            }
+        } catch (ProtocolException e) {
+            closed = true;
+            writeFrame(RESET, END_STREAM, 0, fields(e.getMessage()));
+        } finally {
+            endOfInput();
+            awaitStreams(TimeUnit.MINUTES.toMillis(1));
+        }
+    }
+
+    /**
+     * Decodes the frames in {@code bytes}, which may end anywhere inside a frame;
+     * the rest follows with the next call. Never blocks: for the event loop.
+     */
+    void receive(ByteBuffer bytes) {
+        try {
+            while (bytes.hasRemaining() && !failed) {
+                if (payload == null) {
+                    int n = Math.min(HEADER_SIZE - headerFilled, bytes.remaining());
+                    bytes.get(header, headerFilled, n);
+                    headerFilled += n;
+                    if (headerFilled < HEADER_SIZE) {
+                        return;
+                    }
+                    headerFilled = 0;
+                    ByteBuffer fields = ByteBuffer.wrap(header);
+                    frameType = fields.get() & 0xff;
+                    frameFlags = fields.get() & 0xff;
+                    frameId = fields.getInt();
+                    int length = checkLength(fields.getInt());
+                    payload = frameType == DATA ? buffers.acquire() : ByteBuffer.allocate(length);
+                    payload.limit(length);
+                }
+                int n = Math.min(payload.remaining(), bytes.remaining());
+                int limit = bytes.limit();
+                bytes.limit(bytes.position() + n);
+                payload.put(bytes);
+                bytes.limit(limit);
+                if (!payload.hasRemaining()) {
+                    ByteBuffer complete = payload;
+                    payload = null;
+                    complete.flip();
+                    if (frameType == DATA) {
+                        receiveData(frameId, frameFlags, complete);
+                    } else {
+                        handleFrame(frameType, frameId, complete.array());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * The client sent its last byte or the connection is gone: running streams
+     * are cancelled and no new ones start.
+     */
+    void endOfInput() {
+        closed = true;
+        for (Stream stream : streams.values()) {
+            stream.cancel("connection closed");
+        }
+        if (payload != null && frameType == DATA) {
+            buffers.release(payload);
+            payload = null;
+        }
+        synchronized (this) {
+            ending = true;
+        }
+        finishWhenDone();
+    }
+
+    /** Runs {@code action} once the input has ended and the last stream is done. */
+    void whenFinished(Runnable action) {
+        synchronized (this) {
+            onFinished = action;
+        }
+        finishWhenDone();
+    }
+
+    /** Reports a protocol error to the client; the connection then finishes. */
+    private void fail(String message) {
+        failed = true;
+        closed = true;
+        for (Stream stream : streams.values()) {
+            stream.cancel("connection closed");
+        }
+        try {
+            handlers.execute(() -> {
+                try {
+                    writeFrame(RESET, END_STREAM, 0, fields(message));
+                } catch (IOException e) {
+                    // verbinding is weg
+                }
+                endOfInput();
+            });
+        } catch (RejectedExecutionException e) {
+            // de server stopt; de verbinding gaat zonder melding dicht
+            endOfInput();
+        }
+    }
+
+    private void finishWhenDone() {
+        Runnable action;
+        synchronized (this) {
+            if (!ending || finished || onFinished == null || !streams.isEmpty()) {
+                return;
+            }
+            finished = true;
+            action = onFinished;
+        }
+        action.run();
+    }
+
+    private synchronized void awaitStreams(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            long left;
+            while (!streams.isEmpty() && (left = deadline - System.currentTimeMillis()) > 0) {
+                wait(left);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static int checkLength(int length) throws ProtocolException {
+        if (length < 0 || length > MAX_FRAME_PAYLOAD) {
+            throw new ProtocolException("Frame payload of " + length + " bytes");
+        }
+        return length;
+    }
+
+    private boolean readFrame(DataInputStream in) throws IOException {
+        int type;
+        try {
+            type = in.read();
+        } catch (SocketTimeoutException e) {
+            // Stil tussen frames mag zolang er nog streams lopen
+            if (streams.isEmpty()) {
+                throw e;
+            }
+            return true;
+        }
+        if (type < 0) {
+            return false;
+        }
+        int flags = in.readUnsignedByte();
+        int id = in.readInt();
+        int length = checkLength(in.readInt());
+        if (type == DATA) {
+            ByteBuffer buffer = buffers.acquire();
+            try {
+                in.readFully(buffer.array(), 0, length);
+            } catch (IOException e) {
+                buffers.release(buffer);
+                throw e;
+            }
+            buffer.limit(length);
+            receiveData(id, flags, buffer);
+            return true;
+        }
+        byte[] payload = in.readNBytes(length);
+        if (payload.length < length) {
+            throw new EOFException("Connection ended inside a frame");
+        }
+        handleFrame(type, id, payload);
+        return true;
+    }
+
+    /** Handles a frame other than DATA. */
+    private void handleFrame(int type, int id, byte[] payload) throws IOException {
+        Stream stream = streams.get(id);
+        switch (type) {
+            case OPEN:
+                open(id, parseFields(payload));
+                break;
+            case WINDOW:
+                if (payload.length != 4) {
+                    throw new ProtocolException("WINDOW frame of " + payload.length + " bytes");
+                }
+                int increment = ByteBuffer.wrap(payload).getInt();
+                if (increment <= 0) {
+                    throw new ProtocolException("Window increment " + increment);
+                }
+                // Een stream die net klaar is krijgt nog vensterupdates die onderweg waren
+                if (stream != null) {
+                    stream.extendSendWindow(increment);
+                }
+                break;
+            case RESET:
+                if (stream != null) {
+                    stream.cancel("reset by client");
+                }
+                break;
+            default:
+                throw new ProtocolException("Unknown frame type " + type);
+        }
+    }
+
+    private void open(int id, List<String> request) throws IOException {
+        if (id <= lastOpened) {
+            throw new ProtocolException("Stream id " + id + " is not above " + lastOpened);
+        }
+        lastOpened = id;
+        if (request.isEmpty()) {
+            throw new ProtocolException("OPEN without a command");
+        }
+        if (streams.size() >= MAX_STREAMS) {
+            reset(id, "Too many streams");
+            return;
+        }
+        Stream stream = new Stream(id);
+        streams.put(id, stream);
+        updateBusy();
+        try {
+            handlers.execute(() -> serve(stream, request));
+        } catch (RejectedExecutionException e) {
+            // de server stopt en neemt geen nieuwe streams meer aan
+            streams.remove(id);
+            updateBusy();
+        }
+    }
+
+    /** Resets a stream from the frame handling, which must not write itself. */
+    private void reset(int id, String message) {
+        try {
+            handlers.execute(() -> {
+                try {
+                    writeFrame(RESET, END_STREAM, id, fields(message));
+                } catch (IOException e) {
+                    // verbinding is weg
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // de server stopt
+        }
+    }
+
+    private void receiveData(int id, int flags, ByteBuffer buffer) throws ProtocolException {
+        Stream stream = streams.get(id);
+        if (stream == null) {
+            // De stream is al afgerond of gereset; late data vervalt
+            buffers.release(buffer);
+            return;
+        }
+        stream.received(buffer, (flags & END_STREAM) != 0);
+    }
+
+    private void serve(Stream stream, List<String> request) {
+        try {
+            switch (request.get(0).toUpperCase()) {
+                case "UPLOAD":
+                    upload(stream, request);
+                    break;
+                case "DOWNLOAD":
+                    download(stream, request);
+                    break;
+                case "DELETE":
+                    fileService.deleteFile(argument(request, 1));
+                    reply(stream, END_STREAM, "OK");
+                    break;
+                case "LIST":
+                    list(stream);
+                    break;
+                default:
+                    reply(stream, END_STREAM, "ERR", "Unsupported command " + request.get(0));
+            }
+        } catch (FileStorageException | IllegalArgumentException e) {
+            failQuietly(stream, String.valueOf(e.getMessage()));
+        } catch (IOException e) {
+            // Een gereset stream of verbroken verbinding krijgt geen antwoord meer
+            if (!closed && !stream.isCancelled()) {
+                failQuietly(stream, String.valueOf(e.getMessage()));
+            }
+        } finally {
+            streams.remove(stream.id);
+            stream.cancel("stream finished");
+            updateBusy();
+            finishWhenDone();
+        }
+    }
+
+    /** A connection with open streams must not be closed as idle on shutdown. */
+    private synchronized void updateBusy() {
+        session.setBusy(!streams.isEmpty());
+        notifyAll();
+    }
+
+    /** {@code UPLOAD name length [checksum|- [algorithm]]}, answered with {@code OK <checksum>}. */
+    private void upload(Stream stream, List<String> request) throws IOException {
+        String name = argument(request, 1);
+        long length = Long.parseLong(argument(request, 2));
+        if (length < 0) {
+            throw new IllegalArgumentException("Invalid length " + length);
+        }
+        String expected = request.size() > 3 && !"-".equals(request.get(3)) ? request.get(3) : null;
+        ChecksumAlgorithm algorithm = ChecksumAlgorithms.forName(request.size() > 4 ? request.get(4) : null);
+        String checksum = fileService.saveStream(name, stream.input(), length, expected, algorithm);
+        reply(stream, END_STREAM, "OK", checksum);
+    }
+
+    /**
+     * {@code DOWNLOAD name [algorithm]}, answered with {@code OK <length>} and the
+     * bytes; with an algorithm a last {@code OK <checksum>} reply follows them.
+     */
+    private void download(Stream stream, List<String> request) throws IOException {
+        String name = argument(request, 1);
+        ChecksumHasher hasher = request.size() > 2 ? ChecksumAlgorithms.forName(request.get(2)).newHasher() : null;
+        StoredFileResource resource = fileService.openFile(name);
+        try (resource; InputStream content = resource.getInputStream()) {
+            long length = resource.contentLength();
+            reply(stream, 0, "OK", String.valueOf(length));
+            sendData(stream, content, length, hasher, hasher == null);
+        }
+        if (hasher != null) {
+            reply(stream, END_STREAM, "OK", hasher.hexDigest());
+        }
+    }
+
+    /** {@code LIST}, answered with {@code OK} and the names as fields without a count in the data. */
+    private void list(Stream stream) throws IOException {
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        DataOutputStream entries = new DataOutputStream(names);
+        for (String file : fileService.listFiles()) {
+            writeField(entries, file);
+        }
+        reply(stream, 0, "OK");
+        sendData(stream, new ByteArrayInputStream(names.toByteArray()), names.size(), null, true);
+    }
+
+    /** Sends {@code length} bytes as DATA frames, each no larger than the stream's window allows. */
+    private void sendData(Stream stream, InputStream source, long length, ChecksumHasher hasher, boolean end)
+            throws IOException {
+        if (length == 0) {
+            if (end) {
+                writeFrame(DATA, END_STREAM, stream.id, EMPTY);
+            }
+            return;
+        }
+        ByteBuffer buffer = buffers.acquire();
+        try {
+            byte[] chunk = buffer.array();
+            long remaining = length;
+            while (remaining > 0) {
+                int allowed = stream.takeSendWindow((int) Math.min(chunk.length, remaining));
+                int n = source.readNBytes(chunk, 0, allowed);
+                if (n < allowed) {
+                    throw new EOFException("File ended before its announced length");
+                }
+                if (hasher != null) {
+                    hasher.update(chunk, 0, n);
+                }
+                remaining -= n;
+                writeFrame(DATA, end && remaining == 0 ? END_STREAM : 0, stream.id, chunk, n);
+            }
+        } finally {
+            buffers.release(buffer);
+        }
+    }
+
+    private void reply(Stream stream, int flags, String... values) throws IOException {
+        stream.replied = true;
+        writeFrame(REPLY, flags, stream.id, fields(values));
+    }
+
+    private void failQuietly(Stream stream, String message) {
+        try {
+            // Na een begonnen antwoord kan alleen een reset de client nog waarschuwen
+            if (stream.replied) {
+                writeFrame(RESET, END_STREAM, stream.id, fields(message));
+            } else {
+                reply(stream, END_STREAM, "ERR", message);
+            }
+        } catch (IOException e) {
+            // verbinding is weg
+        }
+    }
+
+    private void writeFrame(int type, int flags, int id, byte[] payload) throws IOException {
+        writeFrame(type, flags, id, payload, payload.length);
+    }
+
+    private void writeFrame(int type, int flags, int id, byte[] payload, int length) throws IOException {
+        // Na het einde van de verbinding gaan er geen streamframes meer uit
+        if (closed && id != 0) {
+            throw new IOException("Connection closed");
+        }
+        synchronized (out) {
+            out.writeByte(type);
+            out.writeByte(flags);
+            out.writeInt(id);
+            out.writeInt(length);
+            out.write(payload, 0, length);
+            out.flush();
+        }
+    }
+
+    private static String argument(List<String> request, int index) {
+        if (request.size() <= index) {
+            throw new IllegalArgumentException(request.get(0) + " misses an argument");
+        }
+        return request.get(index);
+    }
+
+    /** Encodes values as a field list: a 2-byte count, then per field a 2-byte length and UTF-8 bytes. */
+    static byte[] fields(String... values) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        try {
+            data.writeShort(values.length);
+            for (String value : values) {
+                writeField(data, value == null ? "" : value);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static List<String> parseFields(byte[] payload) throws ProtocolException {
+        try {
+            DataInputStream data = new DataInputStream(new ByteArrayInputStream(payload));
+            int count = data.readUnsignedShort();
+            List<String> values = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                values.add(readField(data));
+            }
+            return values;
+        } catch (IOException e) {
+            throw new ProtocolException("Malformed field list");
+        }
+    }
+
+    static void writeField(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xffff) {
+            throw new IllegalArgumentException("Field of " + bytes.length + " bytes");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readField(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * One request on the connection. Its inbound DATA waits here, in pooled
+     * buffers, until the handler reads it; both windows are guarded by the stream.
+     */
+    private final class Stream {
+        final int id;
+        private final ArrayDeque<ByteBuffer> inbound = new ArrayDeque<>();
+        private boolean inboundEnded;
+        private String cancelled;
+        private int receiveWindow = INITIAL_WINDOW;
+        private int sendWindow = INITIAL_WINDOW;
+        private int consumed;
+        volatile boolean replied;
+
+        Stream(int id) {
+            this.id = id;
+        }
+
+        synchronized boolean isCancelled() {
+            return cancelled != null;
+        }
+
+        synchronized void received(ByteBuffer data, boolean end) throws ProtocolException {
+            if (data.remaining() > receiveWindow || inboundEnded) {
+                buffers.release(data);
+                throw new ProtocolException("Stream " + id + " sent data beyond its window");
+            }
+            receiveWindow -= data.remaining();
+            inboundEnded = end;
+            if (cancelled != null) {
+                buffers.release(data);
+                return;
+            }
+            inbound.add(data);
+            notifyAll();
+        }
+
+        synchronized void extendSendWindow(int increment) throws ProtocolException {
+            if (sendWindow > Integer.MAX_VALUE - increment) {
+                throw new ProtocolException("Window of stream " + id + " overflows");
+            }
+            sendWindow += increment;
+            notifyAll();
+        }
+
+        /** Waits for window and takes up to {@code wanted} bytes of it. */
+        synchronized int takeSendWindow(int wanted) throws IOException {
+            while (sendWindow <= 0 && cancelled == null) {
+                await();
+            }
+            checkCancelled();
+            int n = Math.min(wanted, sendWindow);
+            sendWindow -= n;
+            return n;
+        }
+
+        synchronized void cancel(String reason) {
+            if (cancelled == null) {
+                cancelled = reason;
+            }
+            ByteBuffer buffer;
+            while ((buffer = inbound.poll()) != null) {
+                buffers.release(buffer);
+            }
+            notifyAll();
+        }
+
+        private void checkCancelled() throws IOException {
+            if (cancelled != null) {
+                throw new IOException("Stream " + id + ": " + cancelled);
+            }
+        }
+
+        private void await() throws IOException {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting on stream " + id);
+            }
+        }
+
+        /** The uploaded bytes; reading them hands window back to the client. */
+        InputStream input() {
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (len == 0) {
+                        return 0;
+                    }
+                    int n;
+                    int grant = 0;
+                    synchronized (Stream.this) {
+                        while (inbound.isEmpty() && !inboundEnded && cancelled == null) {
+                            await();
+                        }
+                        checkCancelled();
+                        ByteBuffer head = inbound.peek();
+                        if (head == null) {
+                            return -1;
+                        }
+                        n = Math.min(len, head.remaining());
+                        head.get(b, off, n);
+                        if (!head.hasRemaining()) {
+                            buffers.release(inbound.poll());
+                        }
+                        consumed += n;
+                        // Venster in grote stappen teruggeven, niet per gelezen blok
+                        if (consumed >= INITIAL_WINDOW / 2 && !inboundEnded) {
+                            grant = consumed;
+                            consumed = 0;
+                            receiveWindow += grant;
+                        }
+                    }
+                    if (grant > 0) {
+                        writeFrame(WINDOW, 0, id, ByteBuffer.allocate(4).putInt(grant).array());
+                    }
+                    return n;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,652 @@
+package org.soprasteria.avans.lockercloud.socket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * One TLS connection of the {@link NioFileServer}. The channel and the
+ * {@link SSLEngine} are only touched on the thread of the event loop that owns
+ * the connection. The command runs on a worker and exchanges plaintext with
+ * the loop through {@link Input} and {@link Output}, which block the worker
+ * and never the loop:
+ * <ul>
+ * <li>the loop decrypts incoming records into a queue the worker reads from;
+ * above {@link #INBOUND_HIGH_WATER} unread bytes the loop stops reading the
+ * socket until the worker has caught up, so a fast uploader cannot fill the
+ * heap;</li>
+ * <li>the worker queues its answer and the loop encrypts and writes it as the
+ * socket accepts it; above {@link #OUTBOUND_HIGH_WATER} queued bytes the
+ * worker waits for a slow reader.</li>
+ * </ul>
+ * A connection without a command holds no thread and, once its buffers are
+ * empty, no buffer. That includes a kept-alive connection between commands:
+ * the worker is handed back after every batch of pipelined commands.
+ * <p>
+ * After {@code HELLO 2} the loop decodes the frames itself and hands them to
+ * the {@link MultiplexedConnection}, whose streams each take a worker only
+ * while they run; a version 2 connection without open streams holds no thread
+ * either.
+ */
+final class NioConnection {
+
+    static final int INBOUND_HIGH_WATER = 256 * 1024;
+    static final int INBOUND_LOW_WATER = 64 * 1024;
+    static final int OUTBOUND_HIGH_WATER = 256 * 1024;
+    // Eén TLS-record per stuk; grotere writes van de worker worden hierin opgeknipt
+    private static final int OUTBOUND_PIECE = 16 * 1024;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private static final Logger logger = LoggerFactory.getLogger(NioConnection.class);
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    private final NioFileServer.EventLoop loop;
+    private final BufferPool pool;
+    private final Executor workers;
+    private final SocketCommands commands;
+    private final long openedAt = System.currentTimeMillis();
+
+    // Alleen op de worker die het huidige commando draait; commando's van een verbinding lopen na elkaar
+    private final SocketCommands.Session session;
+    private DataInputStream commandIn;
+    private DataOutputStream commandOut;
+
+    // Alleen op de thread van de event loop
+    private SelectionKey key;
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+    private boolean handshaken;
+    private boolean commandStarted;
+    private boolean outboundClosing;
+    private volatile MultiplexedConnection frames;
+    private volatile long lastActivity = openedAt;
+
+    // Gedeeld met de worker, onder de monitor van de verbinding
+    private final ArrayDeque<byte[]> inbound = new ArrayDeque<>();
+    private int inboundOffset;
+    private int inboundBytes;
+    private boolean inputEnded;
+    private boolean readPaused;
+    private boolean resumeScheduled;
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+    private int outboundBytes;
+    private boolean outputClosed;
+    private boolean flushScheduled;
+    private boolean workerWaiting;
+    private volatile boolean closed;
+
+    NioConnection(SocketChannel channel, SSLEngine engine, NioFileServer.EventLoop loop, BufferPool pool,
+                  Executor workers, SocketCommands commands) {
+        this.channel = channel;
+        this.engine = engine;
+        this.loop = loop;
+        this.pool = pool;
+        this.workers = workers;
+        this.commands = commands;
+        this.session = new SocketCommands.Session(workers);
+    }
+
+    void register(Selector selector) throws IOException {
+        key = channel.register(selector, SelectionKey.OP_READ, this);
+        engine.beginHandshake();
+        drive();
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    boolean isBusy() {
+        return frames != null ? session.isBusy() : commandStarted;
+    }
+
+    void onReady(int readyOps) {
+        try {
+            if ((readyOps & SelectionKey.OP_READ) != 0) {
+                read();
+            }
+            if ((readyOps & SelectionKey.OP_WRITE) != 0 && !closed) {
+                drive();
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Connection ended: {}", e.getMessage());
+            close();
+        }
+    }
+
+    /** Runs {@link #drive()} from a loop task, closing the connection if it fails. */
+    private void driveSafely() {
+        if (closed) {
+            return;
+        }
+        try {
+            drive();
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Connection ended: {}", e.getMessage());
+            close();
+        }
+    }
+
+    private void read() throws IOException {
+        if (netIn == null) {
+            netIn = pool.acquire();
+        }
+        int n = channel.read(netIn);
+        if (n < 0) {
+            endOfStream();
+            return;
+        }
+        if (n > 0) {
+            lastActivity = System.currentTimeMillis();
+        }
+        drive();
+    }
+
+    private void endOfStream() throws IOException {
+        try {
+            engine.closeInbound();
+        } catch (SSLException e) {
+            // de client verbrak de verbinding zonder close_notify
+        }
+        endInput();
+        if (!commandStarted || engine.isOutboundDone()) {
+            close();
+        } else {
+            drive();
+        }
+    }
+
+    /**
+     * Moves everything that can move: runs the handshake, decrypts what was
+     * received, encrypts what the worker queued and writes it out.
+     */
+    private void drive() throws IOException {
+        while (!closed) {
+            HandshakeStatus status = engine.getHandshakeStatus();
+            boolean progress;
+            if (status == HandshakeStatus.NEED_TASK) {
+                // Kort rekenwerk van de handshake; direct op de loop is goedkoper dan een overdracht
+                Runnable task;
+                while ((task = engine.getDelegatedTask()) != null) {
+                    task.run();
+                }
+                progress = true;
+            } else if (status == HandshakeStatus.NEED_WRAP) {
+                progress = wrap(EMPTY);
+            } else {
+                progress = unwrap();
+                if (engine.getHandshakeStatus() == HandshakeStatus.NOT_HANDSHAKING) {
+                    handshaken = true;
+                    progress |= wrapOutbound();
+                }
+            }
+            if (!progress) {
+                break;
+            }
+        }
+        if (closed) {
+            return;
+        }
+        if (handshaken && !commandStarted && hasInbound()) {
+            startCommand();
+        }
+        boolean flushed = flushNetwork();
+        if (flushed && engine.isOutboundDone()) {
+            close();
+            return;
+        }
+        updateInterest();
+    }
+
+    private boolean unwrap() throws IOException {
+        if (netIn == null || netIn.position() == 0 || engine.isInboundDone() || isReadPaused()) {
+            return false;
+        }
+        ByteBuffer app = pool.acquire();
+        SSLEngineResult result;
+        try {
+            netIn.flip();
+            try {
+                result = engine.unwrap(netIn, app);
+            } finally {
+                netIn.compact();
+            }
+            if (app.position() > 0) {
+                app.flip();
+                deliver(app);
+            }
+        } finally {
+            pool.release(app);
+        }
+        if (netIn.position() == 0) {
+            pool.release(netIn);
+            netIn = null;
+        }
+        switch (result.getStatus()) {
+            case BUFFER_OVERFLOW:
+                throw new SSLException("TLS record does not fit the application buffer");
+            case BUFFER_UNDERFLOW:
+                return false;
+            case CLOSED:
+                endInput();
+                if (!commandStarted) {
+                    closeOutbound();
+                }
+                return true;
+            default:
+                return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+        }
+    }
+
+    private boolean wrap(ByteBuffer source) throws IOException {
+        if (netOut == null) {
+            netOut = pool.acquire();
+        }
+        SSLEngineResult result = engine.wrap(source, netOut);
+        switch (result.getStatus()) {
+            case BUFFER_OVERFLOW:
+                if (netOut.position() == 0) {
+                    throw new SSLException("TLS record does not fit the network buffer");
+                }
+                // Eerst wegschrijven wat al klaarstaat; lukt dat niet, dan verder bij OP_WRITE
+                return flushNetwork();
+            case CLOSED:
+                return result.bytesProduced() > 0;
+            default:
+                return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+        }
+    }
+
+    private boolean wrapOutbound() throws IOException {
+        boolean progress = false;
+        while (true) {
+            ByteBuffer head;
+            boolean finished;
+            synchronized (this) {
+                head = outbound.peek();
+                finished = head == null && outputClosed;
+            }
+            if (head == null) {
+                if (finished && !outboundClosing) {
+                    closeOutbound();
+                    progress = true;
+                }
+                return progress;
+            }
+            int before = head.remaining();
+            boolean wrapped = wrap(head);
+            int consumed = before - head.remaining();
+            if (consumed > 0) {
+                synchronized (this) {
+                    outboundBytes -= consumed;
+                    if (!head.hasRemaining()) {
+                        outbound.poll();
+                    }
+                    notifyAll();
+                }
+                progress = true;
+            }
+            if (!wrapped) {
+                return progress;
+            }
+        }
+    }
+
+    private void closeOutbound() {
+        outboundClosing = true;
+        engine.closeOutbound();
+    }
+
+    private boolean flushNetwork() throws IOException {
+        if (netOut == null) {
+            return true;
+        }
+        if (netOut.position() > 0) {
+            netOut.flip();
+            int n = channel.write(netOut);
+            netOut.compact();
+            if (n > 0) {
+                lastActivity = System.currentTimeMillis();
+            }
+        }
+        if (netOut.position() > 0) {
+            return false;
+        }
+        pool.release(netOut);
+        netOut = null;
+        return true;
+    }
+
+    private void updateInterest() {
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        int ops = 0;
+        if (!isReadPaused() && !engine.isInboundDone()) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (netOut != null) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(ops);
+    }
+
+    private void startCommand() {
+        commandStarted = true;
+        try {
+            workers.execute(this::runCommand);
+        } catch (RejectedExecutionException e) {
+            // de server stopt
+            close();
+        }
+    }
+
+    /**
+     * Answers the commands the client has sent so far and gives the worker back;
+     * on a kept-alive connection the loop starts the next round when more arrives.
+     */
+    private void runCommand() {
+        boolean open = false;
+        try {
+            if (commandIn == null) {
+                commandIn = new DataInputStream(new Input());
+                commandOut = new DataOutputStream(new BufferedOutputStream(new Output(), 8192));
+            }
+            open = commands.handleAvailable(commandIn, commandOut, session);
+        } catch (IOException e) {
+            logger.debug("Connection ended during a command: {}", e.getMessage());
+        } catch (RuntimeException e) {
+            logger.warn("Socket command failed: {}", e.getMessage());
+        } finally {
+            MultiplexedConnection upgraded = session.upgraded();
+            if (open) {
+                loop.execute(this::commandFinished);
+            } else if (upgraded != null) {
+                loop.execute(() -> startFrames(upgraded));
+            } else {
+                synchronized (this) {
+                    outputClosed = true;
+                }
+                scheduleFlush();
+            }
+        }
+    }
+
+    private void commandFinished() {
+        commandStarted = false;
+        lastActivity = System.currentTimeMillis();
+        driveSafely();
+    }
+
+    /**
+     * Switches to version 2: from now on the loop feeds the frames straight to
+     * {@code upgraded}, starting with what the client sent after its
+     * {@code HELLO 2}. The connection stays marked as running a command, so no
+     * line command starts on it again.
+     */
+    private void startFrames(MultiplexedConnection upgraded) {
+        ArrayDeque<byte[]> pending;
+        int offset;
+        boolean ended;
+        synchronized (this) {
+            pending = new ArrayDeque<>(inbound);
+            offset = inboundOffset;
+            inbound.clear();
+            inboundOffset = 0;
+            inboundBytes = 0;
+            readPaused = false;
+            ended = inputEnded;
+        }
+        frames = upgraded;
+        upgraded.whenFinished(() -> {
+            synchronized (this) {
+                outputClosed = true;
+            }
+            scheduleFlush();
+        });
+        for (byte[] bytes : pending) {
+            upgraded.receive(ByteBuffer.wrap(bytes, offset, bytes.length - offset));
+            offset = 0;
+        }
+        if (ended || closed) {
+            upgraded.endOfInput();
+        }
+        lastActivity = System.currentTimeMillis();
+        driveSafely();
+    }
+
+    /** Closes connections that stalled in the handshake or wait for a client that went quiet. */
+    void checkTimeouts(long now, FileSocketServer.Limits limits) {
+        if (!handshaken) {
+            if (limits.handshakeTimeoutMillis() > 0 && now - openedAt > limits.handshakeTimeoutMillis()) {
+                logger.debug("TLS handshake timed out");
+                close();
+            }
+            return;
+        }
+        boolean waiting;
+        synchronized (this) {
+            waiting = frames != null ? !session.isBusy() : !commandStarted || workerWaiting;
+        }
+        if (waiting && limits.idleTimeoutMillis() > 0 && now - lastActivity > limits.idleTimeoutMillis()) {
+            logger.debug("Connection idle for {} ms, closing", now - lastActivity);
+            close();
+        }
+    }
+
+    void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // al dicht of verbroken
+        }
+        if (netIn != null) {
+            pool.release(netIn);
+            netIn = null;
+        }
+        if (netOut != null) {
+            pool.release(netOut);
+            netOut = null;
+        }
+        if (frames != null) {
+            // Streams die op data van de client wachten krijgen die niet meer
+            frames.endOfInput();
+        }
+        loop.closed(this);
+    }
+
+    private void deliver(ByteBuffer plaintext) {
+        if (frames != null) {
+            // Het venster per stream begrenst wat hier blijft liggen
+            frames.receive(plaintext);
+            return;
+        }
+        byte[] bytes = new byte[plaintext.remaining()];
+        plaintext.get(bytes);
+        synchronized (this) {
+            inbound.add(bytes);
+            inboundBytes += bytes.length;
+            if (inboundBytes > INBOUND_HIGH_WATER) {
+                readPaused = true;
+            }
+            notifyAll();
+        }
+    }
+
+    private synchronized boolean hasInbound() {
+        return inboundBytes > 0;
+    }
+
+    private synchronized boolean isReadPaused() {
+        return readPaused;
+    }
+
+    private void endInput() {
+        synchronized (this) {
+            inputEnded = true;
+            notifyAll();
+        }
+        if (frames != null) {
+            frames.endOfInput();
+        }
+    }
+
+    private void resumeReading() {
+        synchronized (this) {
+            resumeScheduled = false;
+            readPaused = false;
+        }
+        driveSafely();
+    }
+
+    private void scheduleFlush() {
+        synchronized (this) {
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        loop.execute(() -> {
+            synchronized (this) {
+                flushScheduled = false;
+            }
+            driveSafely();
+        });
+    }
+
+    private void awaitChange() throws InterruptedIOException {
+        workerWaiting = true;
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the client");
+        } finally {
+            workerWaiting = false;
+        }
+    }
+
+    /** Plaintext sent by the client, for the worker. */
+    private final class Input extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int n = 0;
+            boolean resume = false;
+            synchronized (NioConnection.this) {
+                while (inboundBytes == 0 && !inputEnded && !closed) {
+                    awaitChange();
+                }
+                if (inboundBytes == 0) {
+                    if (closed && !inputEnded) {
+                        throw new IOException("Connection closed");
+                    }
+                    return -1;
+                }
+                while (n < len && !inbound.isEmpty()) {
+                    byte[] head = inbound.peek();
+                    int count = Math.min(len - n, head.length - inboundOffset);
+                    System.arraycopy(head, inboundOffset, b, off + n, count);
+                    n += count;
+                    inboundOffset += count;
+                    if (inboundOffset == head.length) {
+                        inbound.poll();
+                        inboundOffset = 0;
+                    }
+                }
+                inboundBytes -= n;
+                if (readPaused && !resumeScheduled && inboundBytes < INBOUND_LOW_WATER) {
+                    resumeScheduled = true;
+                    resume = true;
+                }
+            }
+            if (resume) {
+                loop.execute(NioConnection.this::resumeReading);
+            }
+            return n;
+        }
+
+        @Override
+        public int available() {
+            synchronized (NioConnection.this) {
+                return inboundBytes;
+            }
+        }
+    }
+
+    /** Answer of the worker, for the client. */
+    private final class Output extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int count = Math.min(len, OUTBOUND_PIECE);
+                synchronized (NioConnection.this) {
+                    while (outboundBytes > OUTBOUND_HIGH_WATER && !closed) {
+                        awaitChange();
+                    }
+                    if (closed || outputClosed) {
+                        throw new IOException("Connection closed");
+                    }
+                    outbound.add(ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + count)));
+                    outboundBytes += count;
+                }
+                scheduleFlush();
+                off += count;
+                len -= count;
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (NioConnection.this) {
+                outputClosed = true;
+            }
+            scheduleFlush();
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package org.soprasteria.avans.lockercloud.socket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.soprasteria.avans.lockercloud.service.FileManagerService;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Selector based transport for the socket API, for many connections that are
+ * mostly idle. A few event loops, each with its own {@link Selector}, run the
+ * TLS handshakes and all network I/O of their connections through an
+ * {@link SSLEngine}; only a connection that is running a command occupies a
+ * worker thread, for the disk I/O of the command. Holding ten thousand sync
+ * agents therefore costs ten thousand sockets and no threads. TLS records are
+ * read and written through a {@link BufferPool} of direct buffers that idle
+ * connections hand back.
+ * <p>
+ * Serves the same {@link SocketCommands} as {@link SSLFileServer}, with the
+ * same {@link Limits}; the timeouts are checked by the event loops.
+ */
+public class NioFileServer implements FileSocketServer {
+
+    // Hoe vaak de event loops verlopen handshakes en idle verbindingen opruimen
+    private static final long TIMEOUT_CHECK_MILLIS = 250;
+    private static final int MAX_POOLED_BUFFERS = 1024;
+
+    private static final Logger logger = LoggerFactory.getLogger(NioFileServer.class);
+
+    private final int port;
+    private final SocketCommands commands;
+    private final String keyStorePath;
+    private final String keyStorePassword;
+    private final ExecutorService workers;
+    private final Limits limits;
+    private final int loopCount;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private SSLContext context;
+    private BufferPool pool;
+    private ServerSocketChannel serverChannel;
+    private int boundPort = -1;
+    private Thread acceptThread;
+    private EventLoop[] loops;
+    private int nextLoop;
+
+    /**
+     * @param workers    run the commands and are shut down by {@link #stop()}
+     * @param eventLoops number of event loops; 0 or less uses the number of cores
+     */
+    public NioFileServer(int port, FileManagerService fileService, String keyStorePath, String keyStorePassword,
+                         ExecutorService workers, Limits limits, int eventLoops) {
+        this.port = port;
+        this.commands = new SocketCommands(fileService);
+        this.keyStorePath = keyStorePath;
+        this.keyStorePassword = keyStorePassword;
+        this.workers = workers;
+        this.limits = limits;
+        this.loopCount = eventLoops > 0 ? eventLoops : Runtime.getRuntime().availableProcessors();
+    }
+
+    @Override
+    public synchronized void start() throws Exception {
+        if (running.get()) {
+            return;
+        }
+        context = SSLFileServer.createContext(keyStorePath, keyStorePassword);
+        SSLSession session = newEngine().getSession();
+        pool = new BufferPool(Math.max(session.getPacketBufferSize(), session.getApplicationBufferSize()),
+                MAX_POOLED_BUFFERS);
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        boundPort = ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+        loops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new EventLoop(i + 1);
+        }
+        running.set(true);
+        for (EventLoop loop : loops) {
+            loop.thread.start();
+        }
+        acceptThread = new Thread(this::acceptLoop, "nio-file-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    private SSLEngine newEngine() {
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        return engine;
+    }
+
+    private void acceptLoop() {
+        while (running.get()) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                if (running.get()) {
+                    logger.warn("Accepting a socket connection failed: {}", e.getMessage());
+                }
+                continue;
+            }
+            if (connections.incrementAndGet() > limits.maxConnections()) {
+                connections.decrementAndGet();
+                rejected.incrementAndGet();
+                closeQuietly(channel);
+                continue;
+            }
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            } catch (IOException e) {
+                connections.decrementAndGet();
+                closeQuietly(channel);
+                continue;
+            }
+            EventLoop loop = loops[nextLoop++ % loops.length];
+            NioConnection connection = new NioConnection(channel, newEngine(), loop, pool, workers, commands);
+            loop.execute(() -> loop.register(connection));
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!running.getAndSet(false)) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() + limits.drainTimeoutMillis();
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            logger.error("Error closing server channel", e);
+        }
+        try {
+            acceptThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Verbindingen zonder lopend commando hebben niets af te maken
+        for (EventLoop loop : loops) {
+            loop.execute(loop::closeIdle);
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            // De loops schrijven de laatste antwoorden nog weg
+            while (connections.get() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (connections.get() > 0) {
+            logger.warn("Closing {} socket connection(s) that did not finish in time", connections.get());
+        }
+        for (EventLoop loop : loops) {
+            loop.shutdown();
+        }
+        workers.shutdownNow();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    @Override
+    public int getPort() {
+        return boundPort;
+    }
+
+    @Override
+    public int activeConnections() {
+        return connections.get();
+    }
+
+    @Override
+    public long rejectedConnections() {
+        return rejected.get();
+    }
+
+    /** Pool of the TLS buffers, or null before {@link #start()}. */
+    BufferPool bufferPool() {
+        return pool;
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // al dicht of verbroken
+        }
+    }
+
+    /**
+     * Thread with a selector that runs the I/O of its connections. Other threads
+     * hand it work with {@link #execute}; everything else runs on the thread itself.
+     */
+    final class EventLoop implements Runnable {
+
+        private final Selector selector;
+        private final Thread thread;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Set<NioConnection> open = new HashSet<>();
+        private volatile boolean stopping;
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "nio-file-loop-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void register(NioConnection connection) {
+            open.add(connection);
+            try {
+                connection.register(selector);
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Could not register connection: {}", e.getMessage());
+                connection.close();
+            }
+        }
+
+        /** Called by a connection when it closes. */
+        void closed(NioConnection connection) {
+            if (open.remove(connection)) {
+                connections.decrementAndGet();
+            }
+        }
+
+        void closeIdle() {
+            for (NioConnection connection : new ArrayList<>(open)) {
+                if (!connection.isBusy()) {
+                    connection.close();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            long nextCheck = 0;
+            while (!stopping) {
+                try {
+                    selector.select(TIMEOUT_CHECK_MILLIS);
+                } catch (IOException e) {
+                    logger.error("Selector failed: {}", e.getMessage());
+                    break;
+                }
+                runTasks();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid()) {
+                        ((NioConnection) key.attachment()).onReady(key.readyOps());
+                    }
+                }
+                long now = System.currentTimeMillis();
+                if (now >= nextCheck) {
+                    for (NioConnection connection : new ArrayList<>(open)) {
+                        connection.checkTimeouts(now, limits);
+                    }
+                    nextCheck = now + TIMEOUT_CHECK_MILLIS;
+                }
+            }
+            runTasks();
+            for (NioConnection connection : new ArrayList<>(open)) {
+                connection.close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // niets meer aan te doen
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.error("Event loop task failed", e);
+                }
+            }
+        }
+
+        void shutdown() {
+            stopping = true;
+            selector.wakeup();
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
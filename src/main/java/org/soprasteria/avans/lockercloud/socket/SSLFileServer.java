@@ -1,146 +1,218 @@
 package org.soprasteria.avans.lockercloud.socket;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.soprasteria.avans.lockercloud.service.FileManagerService;
 
 import javax.net.ssl.*;
 import java.io.*;
+import java.net.Socket;
 import java.security.KeyStore;
-import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Simple SSL socket based server for file CRUD operations.
+ * Simple SSL socket based server for file CRUD operations, one thread per
+ * connection; see {@link NioFileServer} for many mostly idle connections.
  * This is not intended for production use but demonstrates how the
  * application can expose its file API over raw SSL sockets.
+ * <p>
+ * The accept thread only accepts: the TLS handshake and the commands of every
+ * connection run on the executor, so a slow client or a peer that stalls in
+ * the handshake holds up its own connection and nothing else. At most
+ * {@link Limits#maxConnections()} connections are served at once; further
+ * connections are closed right after they are accepted. A connection that
+ * asked for keep-alive holds its thread between commands until the idle
+ * timeout. {@link #stop()} stops accepting, closes connections that wait for
+ * a command, gives running commands {@link Limits#drainTimeoutMillis()} to
+ * finish and then closes what is left, like {@code SslSyncServer.stop}.
  */
-public class SSLFileServer implements Runnable {
+public class SSLFileServer implements FileSocketServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(SSLFileServer.class);
 
     private final int port;
-    private final FileManagerService fileService;
+    private final SocketCommands commands;
     private final String keyStorePath;
     private final String keyStorePassword;
+    private final ExecutorService executor;
+    private final Limits limits;
+    private final Semaphore permits;
+    private final Map<Socket, SocketCommands.Session> connections = new ConcurrentHashMap<>();
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicLong rejected = new AtomicLong();
+    private SSLServerSocket serverSocket;
+    private Thread acceptThread;
 
     public SSLFileServer(int port, FileManagerService fileService,
                          String keyStorePath, String keyStorePassword) {
+        this(port, fileService, keyStorePath, keyStorePassword,
+                FileSocketServer.platformExecutor("ssl-file", Limits.DEFAULT.maxConnections()), Limits.DEFAULT);
+    }
+
+    /**
+     * @param executor runs the connections, one task per connection; size a pool to
+     *                 the connection limit so an accepted connection never waits for a
+     *                 thread. It is shut down by {@link #stop()}.
+     */
+    public SSLFileServer(int port, FileManagerService fileService, String keyStorePath, String keyStorePassword,
+                         ExecutorService executor, Limits limits) {
         this.port = port;
-        this.fileService = fileService;
+        this.commands = new SocketCommands(fileService);
         this.keyStorePath = keyStorePath;
         this.keyStorePassword = keyStorePassword;
+        this.executor = executor;
+        this.limits = limits;
+        this.permits = new Semaphore(limits.maxConnections());
     }
 
     @Override
-    public void run() {
-        try {
-            SSLContext ctx = createContext();
-            SSLServerSocketFactory factory = ctx.getServerSocketFactory();
-            try (SSLServerSocket serverSocket = (SSLServerSocket) factory.createServerSocket(port)) {
-                while (true) {
-                    SSLSocket socket = (SSLSocket) serverSocket.accept();
-                    handle(socket);
+    public synchronized void start() throws Exception {
+        if (running.get()) {
+            return;
+        }
+        SSLServerSocketFactory factory = createContext(keyStorePath, keyStorePassword).getServerSocketFactory();
+        serverSocket = (SSLServerSocket) factory.createServerSocket(port);
+        running.set(true);
+        acceptThread = new Thread(this::acceptLoop, "ssl-file-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    private void acceptLoop() {
+        while (running.get()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (running.get()) {
+                    logger.warn("Accepting a socket connection failed: {}", e.getMessage());
                 }
+                continue;
+            }
+            if (!permits.tryAcquire()) {
+                rejected.incrementAndGet();
+                logger.debug("Connection limit of {} reached, closing {}", limits.maxConnections(),
+                        socket.getRemoteSocketAddress());
+                closeQuietly(socket);
+                continue;
+            }
+            SocketCommands.Session session = new SocketCommands.Session();
+            connections.put(socket, session);
+            try {
+                executor.execute(() -> serve((SSLSocket) socket, session));
+            } catch (RejectedExecutionException e) {
+                release(socket);
             }
-        } catch (Exception e) {
-            throw new RuntimeException("SSL socket server failed", e);
         }
     }
 
-    private SSLContext createContext() throws Exception {
-        char[] pass = keyStorePassword.toCharArray();
-        KeyStore ks = KeyStore.getInstance("PKCS12");
-        try (InputStream is = new FileInputStream(keyStorePath)) {
-            ks.load(is, pass);
+    private void serve(SSLSocket socket, SocketCommands.Session session) {
+        try {
+            // De handshake krijgt een eigen, korte timeout; daarna geldt de idle timeout per read
+            socket.setSoTimeout(limits.handshakeTimeoutMillis());
+            socket.startHandshake();
+            socket.setSoTimeout(limits.idleTimeoutMillis());
+            commands.handle(socket.getInputStream(), socket.getOutputStream(), session);
+        } catch (IOException e) {
+            logger.debug("Connection from {} ended: {}", socket.getRemoteSocketAddress(), e.getMessage());
+        } catch (RuntimeException e) {
+            logger.warn("Socket command from {} failed: {}", socket.getRemoteSocketAddress(), e.getMessage());
+        } finally {
+            release(socket);
         }
-        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
-        kmf.init(ks, pass);
-        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-        tmf.init(ks);
-        SSLContext ctx = SSLContext.getInstance("TLS");
-        ctx.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
-        return ctx;
     }
 
-    private void handle(SSLSocket socket) {
-        try (DataInputStream in = new DataInputStream(socket.getInputStream());
-             DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
-            String cmd = readLine(in);
-            if (cmd == null) return;
-            String[] parts = cmd.split(" ");
-            switch (parts[0].toUpperCase()) {
-                case "UPLOAD":
-                    handleUpload(parts, in, out);
-                    break;
-                case "DOWNLOAD":
-                    handleDownload(parts, out);
-                    break;
-                case "DELETE":
-                    handleDelete(parts, out);
-                    break;
-                case "LIST":
-                    handleList(out);
-                    break;
-                default:
-                    out.write("ERR\n".getBytes());
-            }
-            out.flush();
-        } catch (IOException e) {
-            // ignore, connection closed
+    private void release(Socket socket) {
+        if (connections.remove(socket) != null) {
+            closeQuietly(socket);
+            permits.release();
         }
     }
 
-    private void handleUpload(String[] parts, DataInputStream in, DataOutputStream out) throws IOException {
-        if (parts.length < 3) {
-            out.write("ERR\n".getBytes());
+    @Override
+    public synchronized void stop() {
+        if (!running.getAndSet(false)) {
             return;
         }
-        String name = parts[1];
-        long len = Long.parseLong(parts[2]);
-        byte[] data = new byte[(int) len];
-        in.readFully(data);
-        try (InputStream dataIn = new ByteArrayInputStream(data)) {
-            fileService.saveStream(name, dataIn);
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            logger.error("Error closing server socket", e);
+        }
+        // Verbindingen die op een commando wachten hebben niets af te maken
+        connections.forEach((socket, session) -> {
+            if (!session.isBusy()) {
+                closeQuietly(socket);
+            }
+        });
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(limits.drainTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                logger.warn("Closing {} socket connection(s) that did not finish in time", connections.size());
+                for (Socket socket : connections.keySet()) {
+                    closeQuietly(socket);
+                }
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        try {
+            acceptThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        out.writeBytes("OK\n");
     }
 
-    private void handleDownload(String[] parts, DataOutputStream out) throws IOException {
-        if (parts.length < 2) {
-            out.writeBytes("ERR\n");
-            return;
-        }
-        String name = parts[1];
-        byte[] data = fileService.getFile(name);
-        out.writeBytes(data.length + "\n");
-        out.write(data);
+    @Override
+    public boolean isRunning() {
+        return running.get();
     }
 
-    private void handleDelete(String[] parts, DataOutputStream out) throws IOException {
-        if (parts.length < 2) {
-            out.writeBytes("ERR\n");
-            return;
-        }
-        fileService.deleteFile(parts[1]);
-        out.writeBytes("OK\n");
+    @Override
+    public int getPort() {
+        return serverSocket != null ? serverSocket.getLocalPort() : -1;
     }
 
-    private void handleList(DataOutputStream out) throws IOException {
-        List<String> files = fileService.listFiles();
-        for (String f : files) {
-            out.writeBytes(f + "\n");
-        }
-        out.writeBytes("END\n");
+    @Override
+    public int activeConnections() {
+        return connections.size();
     }
 
-    private String readLine(DataInputStream in) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        int b;
-        while ((b = in.read()) != -1) {
-            if (b == '\n') {
-                break;
-            }
-            baos.write(b);
+    @Override
+    public long rejectedConnections() {
+        return rejected.get();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // al dicht of verbroken
         }
-        if (baos.size() == 0 && b == -1) {
-            return null;
+    }
+
+    /** TLS context with the key pair of the PKCS#12 (or JKS) keystore at {@code keyStorePath}. */
+    static SSLContext createContext(String keyStorePath, String keyStorePassword) throws Exception {
+        char[] pass = keyStorePassword.toCharArray();
+        KeyStore ks = KeyStore.getInstance("PKCS12");
+        try (InputStream is = new FileInputStream(keyStorePath)) {
+            ks.load(is, pass);
         }
-        return baos.toString("UTF-8");
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(ks, pass);
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(ks);
+        SSLContext ctx = SSLContext.getInstance("TLS");
+        ctx.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+        return ctx;
     }
 }
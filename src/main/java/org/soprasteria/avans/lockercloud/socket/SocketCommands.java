@@ -0,0 +1,454 @@
+package org.soprasteria.avans.lockercloud.socket;
+
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithm;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithms;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumHasher;
+import org.soprasteria.avans.lockercloud.dto.BlockSignature;
+import org.soprasteria.avans.lockercloud.dto.DeltaResult;
+import org.soprasteria.avans.lockercloud.dto.FileSignature;
+import org.soprasteria.avans.lockercloud.exception.FileStorageException;
+import org.soprasteria.avans.lockercloud.service.FileManagerService;
+import org.soprasteria.avans.lockercloud.storage.StoredFileResource;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The line based command protocol of the socket API, independent of the
+ * transport: the blocking {@link SSLFileServer} and the selector based
+ * {@link NioFileServer} both hand it the plaintext streams of a connection.
+ * A command may block on the streams and on disk, so transports run it on a
+ * worker thread.
+ * <p>
+ * Payloads are streamed between the connection and storage through fixed-size
+ * pooled buffers, so the memory a command uses does not depend on the size of
+ * the file.
+ */
+public class SocketCommands {
+
+    static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 64;
+
+    private final FileManagerService fileService;
+    private final BufferPool buffers = new BufferPool(STREAM_BUFFER_SIZE, MAX_POOLED_BUFFERS, false);
+    // Streams van versie 2 op de blokkerende transport, gedeeld door alle verbindingen
+    private final Executor streamWorkers = streamExecutor();
+
+    public SocketCommands(FileManagerService fileService) {
+        this.fileService = fileService;
+    }
+
+    /**
+     * State of one connection across its commands.
+     */
+    public static final class Session {
+        private final Executor frameWorkers;
+        private volatile boolean keepAlive;
+        private volatile boolean busy;
+        private volatile MultiplexedConnection upgraded;
+
+        public Session() {
+            this(null);
+        }
+
+        /**
+         * State for a transport that feeds version 2 frames to the connection
+         * itself, on its event loop, instead of a thread blocking on the input.
+         * The streams run on {@code frameWorkers}.
+         */
+        Session(Executor frameWorkers) {
+            this.frameWorkers = frameWorkers;
+        }
+
+        /** True once the client sent {@code KEEPALIVE}. */
+        public boolean isKeepAlive() {
+            return keepAlive;
+        }
+
+        /** True while a command is answered; a connection that is not busy can be closed without losing work. */
+        public boolean isBusy() {
+            return busy;
+        }
+
+        void setBusy(boolean busy) {
+            this.busy = busy;
+        }
+
+        /** The version 2 connection a {@code HELLO 2} left for the transport to feed, or null. */
+        MultiplexedConnection upgraded() {
+            return upgraded;
+        }
+    }
+
+    private static ExecutorService streamExecutor() {
+        ExecutorService virtual = FileSocketServer.virtualExecutor();
+        return virtual != null ? virtual : FileSocketServer.elasticExecutor("socket-stream");
+    }
+
+    /** Serves the commands of one connection on {@code input} and {@code output} and closes both. */
+    public void handle(InputStream input, OutputStream output) throws IOException {
+        handle(input, output, new Session());
+    }
+
+    public void handle(InputStream input, OutputStream output, Session session) throws IOException {
+        try (DataInputStream in = new DataInputStream(input);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output, 8192))) {
+            boolean open = true;
+            while (open) {
+                open = handleAvailable(in, out, session);
+            }
+        }
+    }
+
+    /**
+     * Answers commands for as long as the client has already sent more of them,
+     * then flushes the answers together: pipelined commands share TLS records and
+     * their answers come back in order.
+     *
+     * @return true if the connection stays open for further commands
+     */
+    public boolean handleAvailable(DataInputStream in, DataOutputStream out, Session session) throws IOException {
+        boolean open;
+        do {
+            open = handleNext(in, out, session);
+        } while (open && in.available() > 0);
+        out.flush();
+        return open;
+    }
+
+    /**
+     * Reads one command and answers it. Without {@code KEEPALIVE} a connection
+     * carries a single command, as it always did; after it the connection stays
+     * open until {@code QUIT}, the end of the stream, or a failed command whose
+     * payload could not be read to its end.
+     *
+     * @return true if the connection stays open for another command
+     */
+    public boolean handleNext(DataInputStream in, DataOutputStream out, Session session) throws IOException {
+        String cmd = readLine(in);
+        if (cmd == null) {
+            return false;
+        }
+        String[] parts = cmd.split(" ");
+        boolean inStep = true;
+        session.busy = true;
+        try {
+            switch (parts[0].toUpperCase()) {
+                case "KEEPALIVE":
+                    session.keepAlive = true;
+                    out.writeBytes("OK\n");
+                    break;
+                case "QUIT":
+                    out.writeBytes("OK\n");
+                    return false;
+                case "HELLO":
+                    return handleHello(parts, in, out, session);
+                case "UPLOAD":
+                    inStep = handleUpload(parts, in, out);
+                    break;
+                case "DOWNLOAD":
+                    handleDownload(parts, out);
+                    break;
+                case "DELETE":
+                    handleDelete(parts, out);
+                    break;
+                case "LIST":
+                    handleList(out);
+                    break;
+                case "SIGNATURE":
+                    handleSignature(parts, out);
+                    break;
+                case "DELTA":
+                    inStep = handleDelta(parts, in, out);
+                    break;
+                default:
+                    out.write("ERR\n".getBytes());
+            }
+        } catch (FileStorageException e) {
+            out.writeBytes(error(e));
+        } finally {
+            session.busy = false;
+        }
+        return session.keepAlive && inStep;
+    }
+
+    /**
+     * {@code HELLO <version>} negotiates the protocol version and is answered with
+     * {@code HELLO <v>}, the highest version both sides speak. Version 1 is this
+     * line protocol; version 2 switches the connection to the binary frames of
+     * {@link MultiplexedConnection} for the rest of its life. Servers from before
+     * the handshake answer {@code ERR}, so a client can fall back to version 1.
+     * The handshake is not a command of its own: the command after it is served.
+     * On a session of an event-driven transport the frames are left to the
+     * transport (see {@link Session#upgraded()}); otherwise this thread reads
+     * them until the connection ends.
+     *
+     * @return true if the connection stays open for another line command
+     */
+    private boolean handleHello(String[] parts, DataInputStream in, DataOutputStream out, Session session)
+            throws IOException {
+        int version;
+        try {
+            version = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+        } catch (NumberFormatException e) {
+            version = 0;
+        }
+        if (version < 1) {
+            out.writeBytes("ERR\n");
+            return session.keepAlive;
+        }
+        if (version < MultiplexedConnection.VERSION) {
+            out.writeBytes("HELLO 1\n");
+            return true;
+        }
+        out.writeBytes("HELLO " + MultiplexedConnection.VERSION + "\n");
+        out.flush();
+        if (session.frameWorkers != null) {
+            session.upgraded = new MultiplexedConnection(fileService, buffers, out, session, session.frameWorkers);
+            return false;
+        }
+        new MultiplexedConnection(fileService, buffers, out, session, streamWorkers).run(in);
+        return false;
+    }
+
+    /**
+     * {@code UPLOAD <name> <length> [checksum|- [algorithm]]} followed by the bytes.
+     * The payload is hashed while it is written to storage; with a checksum
+     * argument the upload is verified against it and answered with
+     * {@code OK <checksum>}, otherwise with {@code OK}.
+     *
+     * @return false if the payload was not read to its end, so the next command cannot be found
+     */
+    private boolean handleUpload(String[] parts, DataInputStream in, DataOutputStream out) throws IOException {
+        long len = -1;
+        if (parts.length >= 3) {
+            try {
+                len = Long.parseLong(parts[2]);
+            } catch (NumberFormatException e) {
+                // len blijft -1
+            }
+        }
+        if (len < 0) {
+            out.write("ERR\n".getBytes());
+            return false;
+        }
+        boolean verify = parts.length > 3;
+        String expected = verify && !"-".equals(parts[3]) ? parts[3] : null;
+        Payload payload = new Payload(in, len);
+        String checksum;
+        try {
+            ChecksumAlgorithm algorithm = ChecksumAlgorithms.forName(parts.length > 4 ? parts[4] : null);
+            // Direct vanaf de verbinding wegschrijven; de payload hoeft niet eerst in het geheugen
+            checksum = fileService.saveStream(parts[1], payload, len, expected, algorithm);
+        } catch (FileStorageException e) {
+            // De rest van de payload overslaan, zodat het volgende commando op de goede plek begint
+            boolean skipped = skipRemaining(payload);
+            out.writeBytes(error(e));
+            return skipped;
+        }
+        if (!skipRemaining(payload)) {
+            throw new EOFException("Upload of " + parts[1] + " ended early");
+        }
+        out.writeBytes(verify ? "OK " + checksum + "\n" : "OK\n");
+        return true;
+    }
+
+    private boolean skipRemaining(Payload payload) throws IOException {
+        ByteBuffer buffer = buffers.acquire();
+        try {
+            return payload.skipRemaining(buffer.array());
+        } finally {
+            buffers.release(buffer);
+        }
+    }
+
+    /**
+     * {@code DOWNLOAD <name> [algorithm]} answers the length on a line and then
+     * the bytes, read from storage one pooled buffer at a time. With an algorithm
+     * the bytes are hashed on their way out and followed by {@code OK <checksum>},
+     * so the client can verify what it received without a second pass.
+     */
+    private void handleDownload(String[] parts, DataOutputStream out) throws IOException {
+        if (parts.length < 2) {
+            out.writeBytes("ERR\n");
+            return;
+        }
+        ChecksumHasher hasher = parts.length > 2 ? ChecksumAlgorithms.forName(parts[2]).newHasher() : null;
+        StoredFileResource resource = fileService.openFile(parts[1]);
+        long remaining = resource.contentLength();
+        out.writeBytes(remaining + "\n");
+        ByteBuffer buffer = buffers.acquire();
+        try (resource; InputStream in = resource.getInputStream()) {
+            byte[] chunk = buffer.array();
+            while (remaining > 0) {
+                int n = in.read(chunk, 0, (int) Math.min(chunk.length, remaining));
+                if (n < 0) {
+                    // De lengte is al verstuurd; alleen de verbinding sluiten laat de client dit merken
+                    throw new EOFException("File " + parts[1] + " ended before its announced length");
+                }
+                if (hasher != null) {
+                    hasher.update(chunk, 0, n);
+                }
+                out.write(chunk, 0, n);
+                remaining -= n;
+            }
+        } finally {
+            buffers.release(buffer);
+        }
+        if (hasher != null) {
+            out.writeBytes("OK " + hasher.hexDigest() + "\n");
+        }
+    }
+
+    private void handleDelete(String[] parts, DataOutputStream out) throws IOException {
+        if (parts.length < 2) {
+            out.writeBytes("ERR\n");
+            return;
+        }
+        fileService.deleteFile(parts[1]);
+        out.writeBytes("OK\n");
+    }
+
+    private void handleList(DataOutputStream out) throws IOException {
+        List<String> files = fileService.listFiles();
+        for (String f : files) {
+            out.writeBytes(f + "\n");
+        }
+        out.writeBytes("END\n");
+    }
+
+    /**
+     * {@code SIGNATURE <name> [blockSize]} answers
+     * {@code OK <fileSize> <blockSize> <blockCount> <md5>} followed by every block
+     * as a 4-byte weak checksum and an 8-byte strong hash.
+     */
+    private void handleSignature(String[] parts, DataOutputStream out) throws IOException {
+        if (parts.length < 2) {
+            out.writeBytes("ERR\n");
+            return;
+        }
+        FileSignature signature;
+        try {
+            signature = fileService.getFileSignature(parts[1], parts.length > 2 ? Integer.parseInt(parts[2]) : 0);
+        } catch (FileStorageException | NumberFormatException e) {
+            out.writeBytes("ERR " + e.getMessage() + "\n");
+            return;
+        }
+        out.writeBytes("OK " + signature.getFileSize() + " " + signature.getBlockSize() + " "
+                + signature.getBlocks().size() + " " + signature.getChecksum() + "\n");
+        for (BlockSignature block : signature.getBlocks()) {
+            out.writeInt(block.getWeak());
+            out.writeLong(block.strongValue());
+        }
+    }
+
+    /**
+     * {@code DELTA <name> [basisChecksum|-] [fileChecksum|-]} followed by a delta
+     * stream; answers {@code OK <md5> <size> <literalBytes> <copiedBytes>}.
+     */
+    private boolean handleDelta(String[] parts, DataInputStream in, DataOutputStream out) throws IOException {
+        if (parts.length < 2) {
+            out.writeBytes("ERR\n");
+            return false;
+        }
+        String basis = parts.length > 2 && !"-".equals(parts[2]) ? parts[2] : null;
+        String expected = parts.length > 3 && !"-".equals(parts[3]) ? parts[3] : null;
+        try {
+            DeltaResult result = fileService.applyDelta(parts[1], in, basis, expected, ChecksumAlgorithms.DEFAULT);
+            out.writeBytes("OK " + result.getChecksum() + " " + result.getSize() + " "
+                    + result.getLiteralBytes() + " " + result.getCopiedBytes() + "\n");
+            return true;
+        } catch (FileStorageException e) {
+            // Het einde van een afgebroken delta is niet te vinden zonder hem te parsen
+            out.writeBytes(error(e));
+            return false;
+        }
+    }
+
+    private String readLine(DataInputStream in) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                break;
+            }
+            baos.write(b);
+        }
+        if (baos.size() == 0 && b == -1) {
+            return null;
+        }
+        return baos.toString("UTF-8");
+    }
+    private static String error(FileStorageException e) {
+        return "ERR " + String.valueOf(e.getMessage()).replace('\n', ' ') + "\n";
+    }
+
+    /** The {@code length} bytes of an upload payload; closing it leaves the connection open. */
+    private static final class Payload extends FilterInputStream {
+        private long remaining;
+
+        Payload(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public void close() {
+            // de verbinding blijft open voor het volgende commando
+        }
+
+        /** @return false if the stream ended before the payload did */
+        boolean skipRemaining(byte[] scratch) throws IOException {
+            while (remaining > 0) {
+                if (read(scratch, 0, scratch.length) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
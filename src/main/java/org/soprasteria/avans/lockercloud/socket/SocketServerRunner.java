@@ -1,17 +1,26 @@
 package org.soprasteria.avans.lockercloud.socket;
 
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.soprasteria.avans.lockercloud.service.FileManagerService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
 
+import java.util.concurrent.ExecutorService;
+
 /**
- * Starts the SSLFileServer on application startup.
+ * Starts the socket API on application startup and drains it on shutdown,
+ * over the blocking {@link SSLFileServer} or the selector based
+ * {@link NioFileServer}.
  */
 @Component
 public class SocketServerRunner implements CommandLineRunner {
 
+    private static final Logger logger = LoggerFactory.getLogger(SocketServerRunner.class);
+
     @Value("${socket.port:9000}")
     private int port;
 
@@ -21,7 +30,34 @@ public class SocketServerRunner implements CommandLineRunner {
     @Value("${server.ssl.key-store-password}")
     private String keyStorePassword;
 
+    // "blocking" voor een thread per verbinding, "nio" voor event loops die veel idle verbindingen aankunnen
+    @Value("${socket.transport:blocking}")
+    private String transport;
+
+    @Value("${socket.event-loops:0}")
+    private int eventLoops;
+
+    @Value("${socket.workers:0}")
+    private int workers;
+
+    // "platform" voor een threadpool, "virtual" voor een virtual thread per verbinding (Java 21+)
+    @Value("${socket.executor:platform}")
+    private String executorType;
+
+    @Value("${socket.max-connections:256}")
+    private int maxConnections;
+
+    @Value("${socket.handshake-timeout-ms:10000}")
+    private int handshakeTimeoutMillis;
+
+    @Value("${socket.idle-timeout-ms:60000}")
+    private int idleTimeoutMillis;
+
+    @Value("${socket.drain-timeout-ms:30000}")
+    private long drainTimeoutMillis;
+
     private final FileManagerService fileManagerService;
+    private FileSocketServer server;
 
     @Autowired
     public SocketServerRunner(FileManagerService fileManagerService) {
@@ -36,10 +72,40 @@ public class SocketServerRunner implements CommandLineRunner {
         } else if (path.startsWith("file:")) {
             path = path.substring("file:".length());
         }
-        SSLFileServer server = new SSLFileServer(port, fileManagerService,
-                path, keyStorePassword);
-        Thread t = new Thread(server);
-        t.setDaemon(true);
-        t.start();
+        FileSocketServer.Limits limits = new FileSocketServer.Limits(maxConnections, handshakeTimeoutMillis,
+                idleTimeoutMillis, drainTimeoutMillis);
+        if ("nio".equalsIgnoreCase(transport)) {
+            int threads = workers > 0 ? workers : 2 * Runtime.getRuntime().availableProcessors();
+            server = new NioFileServer(port, fileManagerService, path, keyStorePassword,
+                    executor("nio-file-worker", threads), limits, eventLoops);
+        } else {
+            server = new SSLFileServer(port, fileManagerService, path, keyStorePassword,
+                    executor("ssl-file", maxConnections), limits);
+        }
+        try {
+            server.start();
+        } catch (Exception e) {
+            // De rest van de applicatie blijft bruikbaar zonder de socket-API
+            logger.error("SSL socket server could not start on port {}: {}", port, e.getMessage());
+            server = null;
+        }
+    }
+
+    private ExecutorService executor(String name, int threads) {
+        if ("virtual".equalsIgnoreCase(executorType)) {
+            ExecutorService virtual = FileSocketServer.virtualExecutor();
+            if (virtual != null) {
+                return virtual;
+            }
+            logger.warn("Virtual threads need Java 21 or later; socket connections use a thread pool");
+        }
+        return FileSocketServer.platformExecutor(name, threads);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (server != null) {
+            server.stop();
+        }
     }
 }
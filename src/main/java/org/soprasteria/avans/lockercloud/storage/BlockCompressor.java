@@ -0,0 +1,196 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Write side of the {@link CompressedFile} container: compresses a fully written
+ * file block by block before it is stored.
+ * <p>
+ * The first blocks are compressed as a sample; if they do not get at least
+ * {@code minSaving} smaller the file is left as it is, so media and archives cost
+ * one sample instead of a full pass. Blocks that do not shrink are kept
+ * uncompressed inside the container. A plain file whose first bytes happen to be
+ * the container magic, or the {@link ChunkedFile} recipe magic, is always
+ * wrapped, uncompressed, so every stored file that starts with one of them really
+ * is a container or a recipe.
+ */
+public class BlockCompressor {
+
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    public static final int DEFAULT_SAMPLE_BLOCKS = 4;
+    public static final double DEFAULT_MIN_SAVING = 0.1;
+    /** Files below this size are never compressed; the saving would not pay for the framing. */
+    public static final long MIN_FILE_SIZE = 4096;
+
+    private final boolean enabled;
+    private final int blockSize;
+    private final int sampleBlocks;
+    private final double minSaving;
+
+    public BlockCompressor(boolean enabled) {
+        this(enabled, DEFAULT_BLOCK_SIZE, DEFAULT_SAMPLE_BLOCKS, DEFAULT_MIN_SAVING);
+    }
+
+    public BlockCompressor(boolean enabled, int blockSize, int sampleBlocks, double minSaving) {
+        if (blockSize < CompressedFile.MIN_BLOCK_SIZE || blockSize > CompressedFile.MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size must be between " + CompressedFile.MIN_BLOCK_SIZE
+                    + " and " + CompressedFile.MAX_BLOCK_SIZE + " bytes");
+        }
+        this.enabled = enabled;
+        this.blockSize = blockSize;
+        this.sampleBlocks = Math.max(1, sampleBlocks);
+        this.minSaving = minSaving;
+    }
+
+    /**
+     * Writes {@code source} as a container to {@code target} if it is worth it.
+     *
+     * @return false if the file should be stored as it is; {@code target} is then not created
+     */
+    public boolean pack(Path source, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            long size = in.size();
+            boolean escape = startsWithMagic(in);
+            if (!(enabled && size >= MIN_FILE_SIZE) && !escape) {
+                return false;
+            }
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                byte[] raw = new byte[blockSize];
+                List<byte[]> sample = new ArrayList<>();
+                List<Integer> sampleLengths = new ArrayList<>();
+                long position = 0;
+                if (enabled && size >= MIN_FILE_SIZE) {
+                    // Proef: comprimeer de eerste blokken en kijk of het genoeg oplevert
+                    long sampledRaw = 0;
+                    long sampledStored = 0;
+                    while (sample.size() < sampleBlocks && position < size) {
+                        int n = readBlock(in, raw, position);
+                        byte[] out = new byte[blockSize];
+                        int length = deflate(deflater, raw, n, out);
+                        if (length < 0) {
+                            System.arraycopy(raw, 0, out, 0, n);
+                            length = n | CompressedFile.RAW_BLOCK;
+                        }
+                        sample.add(out);
+                        sampleLengths.add(length);
+                        sampledRaw += n;
+                        sampledStored += length & ~CompressedFile.RAW_BLOCK;
+                        position += n;
+                    }
+                    if (sampledStored > sampledRaw * (1 - minSaving)) {
+                        if (!escape) {
+                            return false;
+                        }
+                        sample.clear();
+                        sampleLengths.clear();
+                        position = 0;
+                    }
+                }
+                boolean compress = !sample.isEmpty();
+                write(in, target, size, deflater, raw, sample, sampleLengths, position, compress);
+                return true;
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    private void write(FileChannel in, Path target, long size, Deflater deflater, byte[] raw,
+                       List<byte[]> sample, List<Integer> sampleLengths, long position, boolean compress) throws IOException {
+        int blocks = (int) ((size + blockSize - 1) / blockSize);
+        ByteBuffer table = ByteBuffer.allocate(4 * blocks);
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(CompressedFile.HEADER_SIZE)
+                    .putInt(CompressedFile.MAGIC).put(CompressedFile.VERSION).put(CompressedFile.CODEC_DEFLATE)
+                    .putShort((short) 0).putInt(blockSize);
+            writeFully(out, header.flip());
+            for (int i = 0; i < sample.size(); i++) {
+                int length = sampleLengths.get(i);
+                writeFully(out, ByteBuffer.wrap(sample.get(i), 0, length & ~CompressedFile.RAW_BLOCK));
+                table.putInt(length);
+            }
+            byte[] packed = new byte[blockSize];
+            while (position < size) {
+                int n = readBlock(in, raw, position);
+                int length = compress ? deflate(deflater, raw, n, packed) : -1;
+                if (length < 0) {
+                    writeFully(out, ByteBuffer.wrap(raw, 0, n));
+                    table.putInt(n | CompressedFile.RAW_BLOCK);
+                } else {
+                    writeFully(out, ByteBuffer.wrap(packed, 0, length));
+                    table.putInt(length);
+                }
+                position += n;
+            }
+            long tableOffset = out.position();
+            writeFully(out, table.flip());
+            ByteBuffer trailer = ByteBuffer.allocate(CompressedFile.TRAILER_SIZE)
+                    .putLong(size).putInt(blocks).putLong(tableOffset).putInt(CompressedFile.MAGIC);
+            writeFully(out, trailer.flip());
+            out.force(true);
+        }
+    }
+
+    /**
+     * True if a sample of a file gets at least {@link #DEFAULT_MIN_SAVING} smaller
+     * when deflated, with the same fast setting used for storing.
+     */
+    public static boolean isCompressible(byte[] sample, int length) {
+        if (length == 0) {
+            return true;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            int limit = (int) (length * (1 - DEFAULT_MIN_SAVING));
+            int packed = deflate(deflater, sample, length, new byte[Math.max(1, limit)]);
+            return packed >= 0 && packed < limit;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Deflates one block into {@code out}; returns -1 if the block does not get smaller. */
+    private static int deflate(Deflater deflater, byte[] raw, int n, byte[] out) {
+        deflater.reset();
+        deflater.setInput(raw, 0, n);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished() && length < out.length) {
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        return deflater.finished() && length < n ? length : -1;
+    }
+
+    private static boolean startsWithMagic(FileChannel in) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(4);
+        while (head.hasRemaining() && in.read(head, head.position()) != -1) {
+            // lees de eerste vier bytes
+        }
+        return !head.hasRemaining() && (head.getInt(0) == CompressedFile.MAGIC || head.getInt(0) == ChunkedFile.MAGIC);
+    }
+
+    private int readBlock(FileChannel in, byte[] raw, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(raw);
+        while (buffer.hasRemaining() && in.read(buffer, position + buffer.position()) != -1) {
+            // lees tot het blok vol is of het bestand op is
+        }
+        if (buffer.position() == 0) {
+            throw new IOException("File was truncated while compressing");
+        }
+        return buffer.position();
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.soprasteria.avans.lockercloud.dto.ChangeSet;
+import org.soprasteria.avans.lockercloud.dto.FileChange;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.SecureRandom;
+import java.util.*;
+
+/**
+ * Append-only journal of the changes to the master storage. Every write and
+ * delete gets the next sequence number; a client keeps the cursor of the last
+ * change it has seen and asks only for what happened after it, so a sync costs
+ * the number of changes instead of the number of files.
+ * <p>
+ * Only the latest change per file is kept: an older change to the same file is
+ * superseded and dropped. Deletions are kept up to {@code maxTombstones}; when
+ * older ones are dropped the {@code floor} rises, and a client whose cursor lies
+ * below it has to fall back to a full sync. The journal has a random epoch that
+ * is part of every cursor, so cursors from a lost or rebuilt journal are
+ * recognised as well.
+ * <p>
+ * Persisted in the internal {@value MetadataIndex#INTERNAL_DIR} directory and
+ * compacted the same way as the {@link MetadataIndex}.
+ */
+public class ChangeJournal {
+
+    public static final int DEFAULT_MAX_TOMBSTONES = 10_000;
+    private static final String JOURNAL_FILE = "journal.log";
+    private static final int COMPACT_SLACK = 1024;
+
+    private static final Logger logger = LoggerFactory.getLogger(ChangeJournal.class);
+
+    private final Path journalFile;
+    private final int maxTombstones;
+    private final TreeMap<Long, FileChange> bySeq = new TreeMap<>();
+    private final Map<String, Long> latest = new HashMap<>();
+    private int tombstones;
+    private String epoch;
+    private long floor;
+    private long lastSeq;
+    private boolean created;
+    private BufferedWriter log;
+    private int logRecords;
+
+    public ChangeJournal(Path storageRoot) {
+        this(storageRoot, DEFAULT_MAX_TOMBSTONES);
+    }
+
+    public ChangeJournal(Path storageRoot, int maxTombstones) {
+        this.journalFile = storageRoot.resolve(MetadataIndex.INTERNAL_DIR).resolve(JOURNAL_FILE);
+        this.maxTombstones = maxTombstones;
+        load();
+    }
+
+    /** True if no journal existed and this one was started empty. */
+    public boolean isNew() {
+        return created;
+    }
+
+    public synchronized long recordUpdate(String name, long size, long lastModified,
+                                          String algorithm, String checksum) {
+        return put(new FileChange(lastSeq + 1, FileChange.Type.UPDATED, name, size, lastModified, algorithm, checksum));
+    }
+
+    public synchronized long recordDelete(String name) {
+        long seq = put(new FileChange(lastSeq + 1, FileChange.Type.DELETED, name, 0, 0, null, null));
+        if (tombstones > maxTombstones) {
+            dropOldTombstones();
+        }
+        return seq;
+    }
+
+    /**
+     * Returns at most {@code limit} changes after the cursor in sequence order. A
+     * blank cursor asks for everything the journal knows; once tombstones have been
+     * dropped that is the initial listing of {@link #liveFiles()}.
+     */
+    public synchronized ChangeSet changesSince(String cursor, int limit) {
+        if ((cursor == null || cursor.isBlank()) && floor > 0) {
+            return liveFiles();
+        }
+        long since = parse(cursor);
+        if (since < 0 || since < floor || since > lastSeq) {
+            return new ChangeSet(head(), List.of(), false, true);
+        }
+        List<FileChange> changes = new ArrayList<>();
+        long position = since;
+        for (FileChange change : bySeq.tailMap(since, false).values()) {
+            if (changes.size() == limit) {
+                break;
+            }
+            changes.add(change);
+            position = change.getSeq();
+        }
+        boolean hasMore = bySeq.higherKey(position) != null;
+        return new ChangeSet(cursor(position), changes, hasMore, false);
+    }
+
+    /**
+     * Every file that still exists, with the head cursor to continue from. Not paged:
+     * a cursor halfway would lie below the floor and could not be continued.
+     */
+    public synchronized ChangeSet liveFiles() {
+        List<FileChange> changes = new ArrayList<>(bySeq.size() - tombstones);
+        for (FileChange change : bySeq.values()) {
+            if (change.getType() != FileChange.Type.DELETED) {
+                changes.add(change);
+            }
+        }
+        return new ChangeSet(head(), changes, false, false);
+    }
+
+    /** True if the latest change journaled for {@code name} is its deletion. */
+    public synchronized boolean isDeleted(String name) {
+        Long seq = latest.get(name);
+        FileChange change = seq != null ? bySeq.get(seq) : null;
+        return change != null && change.getType() == FileChange.Type.DELETED;
+    }
+
+    /** Cursor of the latest change. */
+    public synchronized String head() {
+        return cursor(lastSeq);
+    }
+
+    public synchronized int size() {
+        return bySeq.size();
+    }
+
+    private long put(FileChange change) {
+        apply(change);
+        append(format(change));
+        return change.getSeq();
+    }
+
+    /** Adds a change and drops the change it supersedes. */
+    private void apply(FileChange change) {
+        Long previous = latest.put(change.getFileName(), change.getSeq());
+        if (previous != null) {
+            FileChange superseded = bySeq.remove(previous);
+            if (superseded != null && superseded.getType() == FileChange.Type.DELETED) {
+                tombstones--;
+            }
+        }
+        bySeq.put(change.getSeq(), change);
+        if (change.getType() == FileChange.Type.DELETED) {
+            tombstones++;
+        }
+        lastSeq = Math.max(lastSeq, change.getSeq());
+    }
+
+    // Verwijder de oudste tombstones tot er ruimte is; clients van voor de floor moeten volledig synchroniseren
+    private void dropOldTombstones() {
+        int target = maxTombstones * 3 / 4;
+        Iterator<FileChange> it = bySeq.values().iterator();
+        while (tombstones > target && it.hasNext()) {
+            FileChange change = it.next();
+            if (change.getType() == FileChange.Type.DELETED) {
+                it.remove();
+                latest.remove(change.getFileName());
+                tombstones--;
+                floor = Math.max(floor, change.getSeq());
+            }
+        }
+        compact();
+    }
+
+    private String cursor(long seq) {
+        return epoch + "." + seq;
+    }
+
+    /** Sequence number of a cursor of this journal, 0 for no cursor, or -1 if it is not valid here. */
+    private long parse(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return 0;
+        }
+        int dot = cursor.indexOf('.');
+        if (dot < 0 || !cursor.substring(0, dot).equals(epoch)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(cursor.substring(dot + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(journalFile)) {
+            start();
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            String[] h = header == null ? new String[0] : header.split("\t");
+            if (h.length != 3 || !"E".equals(h[0])) {
+                throw new IOException("missing journal header");
+            }
+            epoch = h[1];
+            floor = Long.parseLong(h[2]);
+            lastSeq = floor;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] f = line.split("\t");
+                if (f.length != 8 || !"C".equals(f[0])) {
+                    continue; // a torn last line after a crash is simply ignored
+                }
+                FileChange change = new FileChange(Long.parseLong(f[1]),
+                        "D".equals(f[2]) ? FileChange.Type.DELETED : FileChange.Type.UPDATED,
+                        decode(f[3]), Long.parseLong(f[4]), Long.parseLong(f[5]),
+                        "-".equals(f[6]) ? null : f[6], "-".equals(f[7]) ? null : f[7]);
+                apply(change);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Change journal {} is unreadable, starting a new one: {}", journalFile, e.getMessage());
+            bySeq.clear();
+            latest.clear();
+            tombstones = 0;
+            start();
+            return;
+        }
+        compact();
+        logger.info("Loaded change journal with {} entries up to seq {}", bySeq.size(), lastSeq);
+    }
+
+    private void start() {
+        epoch = Long.toHexString(new SecureRandom().nextLong());
+        floor = 0;
+        lastSeq = 0;
+        created = true;
+        compact();
+    }
+
+    private void append(String record) {
+        try {
+            if (log == null) {
+                Files.createDirectories(journalFile.getParent());
+                log = Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            log.write(record);
+            log.newLine();
+            log.flush();
+            if (++logRecords > 2 * bySeq.size() + COMPACT_SLACK) {
+                compact();
+            }
+        } catch (IOException e) {
+            logger.error("Could not append to change journal {}: {}", journalFile, e.getMessage());
+        }
+    }
+
+    /** Rewrites the journal so it holds the header and one record per live entry. */
+    public synchronized void compact() {
+        Path tmp = journalFile.resolveSibling(JOURNAL_FILE + ".tmp");
+        try {
+            if (log != null) {
+                log.close();
+                log = null;
+            }
+            Files.createDirectories(journalFile.getParent());
+            try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                out.write("E\t" + epoch + "\t" + floor);
+                out.newLine();
+                for (FileChange change : bySeq.values()) {
+                    out.write(format(change));
+                    out.newLine();
+                }
+            }
+            Files.move(tmp, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logRecords = bySeq.size();
+        } catch (IOException e) {
+            logger.error("Could not compact change journal {}: {}", journalFile, e.getMessage());
+        }
+    }
+
+    private static String format(FileChange change) {
+        return "C\t" + change.getSeq() + "\t" + (change.getType() == FileChange.Type.DELETED ? "D" : "U")
+                + "\t" + encode(change.getFileName()) + "\t" + change.getFileSize() + "\t" + change.getLastModified()
+                + "\t" + Objects.requireNonNullElse(change.getChecksumAlgorithm(), "-")
+                + "\t" + Objects.requireNonNullElse(change.getChecksum(), "-");
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,370 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed store of the chunks of deduplicated files. A chunk is kept
+ * once, under the SHA-256 of its bytes, however many files contain it:
+ * <pre>
+ * .lockercloud/chunks/ab/cd/&lt;sha-256&gt;   chunk data
+ * .lockercloud/chunks.log                 reference counts
+ * </pre>
+ * Every file that lists a chunk holds one reference to it. References are taken
+ * before a chunk is written and forced to disk before the file that lists it is
+ * committed, so a chunk in use never has a count of zero; a crash in between can
+ * only leave a count too high, which costs space and nothing else. Chunks whose
+ * count drops to zero are deleted by {@link #collectGarbage}, normally from a
+ * background thread, once they have been unused for a grace period: a download
+ * of the old version of a replaced file reads its chunks one by one and needs
+ * them to stay until it is done. The counts are kept in an append-only log that is compacted
+ * like the {@link MetadataIndex}.
+ */
+public class ChunkStore implements AutoCloseable {
+
+    public static final String CHUNKS_DIR = "chunks";
+    private static final String LOG_FILE = "chunks.log";
+    private static final int COMPACT_SLACK = 1024;
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkStore.class);
+
+    private final Path directory;
+    private final Path logFile;
+    private final Map<String, Integer> refs = new HashMap<>();
+    // Chunks zonder referenties, met het moment waarop ze dat werden; oudste eerst
+    private final Map<String, Long> garbage = new LinkedHashMap<>();
+    // Zonder log bij een bestaande chunkmap zijn de tellingen niet te vertrouwen en ruimt de sweep niets op
+    private final boolean countsComplete;
+    private BufferedWriter log;
+    private int logRecords;
+    private ScheduledExecutorService collector;
+
+    public ChunkStore(Path storageRoot) {
+        Path internal = storageRoot.resolve(MetadataIndex.INTERNAL_DIR);
+        this.directory = internal.resolve(CHUNKS_DIR);
+        this.logFile = internal.resolve(LOG_FILE);
+        this.countsComplete = Files.exists(logFile) || !Files.exists(directory);
+        load();
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    /** Location of a chunk, whether or not it exists. */
+    public Path pathFor(String hash) {
+        return directory.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    /**
+     * Takes a reference to a chunk and writes its data if the store does not have
+     * it yet. The reference is in the log but not yet forced; call {@link #sync}
+     * before committing the file that lists the chunk.
+     *
+     * @return true if the data was written, false if the chunk was already stored
+     */
+    public boolean add(String hash, byte[] data, int length) throws IOException {
+        boolean stored;
+        synchronized (this) {
+            retain(hash);
+            stored = Files.exists(pathFor(hash));
+        }
+        if (stored) {
+            return false;
+        }
+        try {
+            write(hash, data, length);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            release(List.of(hash));
+            throw e;
+        }
+    }
+
+    private void write(String hash, byte[] data, int length) throws IOException {
+        Path target = pathFor(hash);
+        Files.createDirectories(target.getParent());
+        Path tmp = target.resolveSibling(hash + "." + UUID.randomUUID() + ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                out.force(true);
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target);
+            } catch (FileAlreadyExistsException e) {
+                // een gelijktijdige upload schreef dezelfde chunk; de inhoud is per definitie gelijk
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** Forces the reference counts to disk. */
+    public synchronized void sync() throws IOException {
+        if (log != null) {
+            log.flush();
+        }
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+            channel.force(false);
+        }
+    }
+
+    /** Drops one reference per listed chunk; chunks nobody refers to any more become garbage. */
+    public synchronized void release(Collection<String> hashes) {
+        for (String hash : hashes) {
+            Integer count = refs.get(hash);
+            if (count == null) {
+                continue;
+            }
+            if (count == 1) {
+                refs.remove(hash);
+                garbage.put(hash, System.currentTimeMillis());
+            } else {
+                refs.put(hash, count - 1);
+            }
+            append(hash, -1);
+        }
+        flush();
+    }
+
+    public synchronized int references(String hash) {
+        return refs.getOrDefault(hash, 0);
+    }
+
+    /** Number of chunks that are referenced. */
+    public synchronized int size() {
+        return refs.size();
+    }
+
+    /**
+     * Deletes the chunks whose last reference was dropped at least
+     * {@code graceMillis} ago. A chunk that was referenced again in the meantime
+     * is kept.
+     *
+     * @return number of chunks deleted
+     */
+    public int collectGarbage(long graceMillis) {
+        long cutoff = System.currentTimeMillis() - graceMillis;
+        List<String> candidates = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Long>> it = garbage.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Long> entry = it.next();
+                if (entry.getValue() > cutoff) {
+                    break;
+                }
+                candidates.add(entry.getKey());
+                it.remove();
+            }
+        }
+        int deleted = 0;
+        for (String hash : candidates) {
+            // Onder de lock: add() kan niet tegelijk een referentie nemen op een chunk die verdwijnt
+            synchronized (this) {
+                if (refs.containsKey(hash)) {
+                    continue;
+                }
+                try {
+                    if (Files.deleteIfExists(pathFor(hash))) {
+                        deleted++;
+                    }
+                } catch (IOException e) {
+                    logger.warn("Could not delete chunk {}: {}", hash, e.getMessage());
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Walks the chunk directory and marks every chunk without references as
+     * garbage, such as chunks of writes that never committed. Meant for a
+     * background thread after startup.
+     *
+     * @return number of chunks marked
+     */
+    public int sweep() throws IOException {
+        if (!countsComplete) {
+            logger.warn("Chunk store {} has no reference log; unreferenced chunks are not swept", directory);
+            return 0;
+        }
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+        List<String> unreferenced = new ArrayList<>();
+        try (Stream<Path> stream = Files.walk(directory, 3)) {
+            for (Path path : (Iterable<Path>) stream.filter(Files::isRegularFile)::iterator) {
+                String name = path.getFileName().toString();
+                if (name.length() == 64 && !name.contains(".")) {
+                    unreferenced.add(name);
+                }
+            }
+        }
+        int marked = 0;
+        synchronized (this) {
+            for (String hash : unreferenced) {
+                if (!refs.containsKey(hash) && garbage.putIfAbsent(hash, System.currentTimeMillis()) == null) {
+                    marked++;
+                }
+            }
+        }
+        return marked;
+    }
+
+    /**
+     * Starts collecting garbage every {@code intervalMillis}, after an initial
+     * sweep, deleting chunks that have been unused for {@code graceMillis}.
+     */
+    public synchronized void startCollector(long intervalMillis, long graceMillis) {
+        if (collector != null || intervalMillis <= 0) {
+            return;
+        }
+        collector = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "chunk-gc");
+            t.setDaemon(true);
+            return t;
+        });
+        collector.execute(() -> {
+            try {
+                sweep();
+            } catch (IOException e) {
+                logger.warn("Could not sweep chunk store {}: {}", directory, e.getMessage());
+            }
+        });
+        collector.scheduleWithFixedDelay(() -> {
+            int deleted = collectGarbage(graceMillis);
+            if (deleted > 0) {
+                logger.info("Deleted {} unreferenced chunk(s)", deleted);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (collector != null) {
+            collector.shutdownNow();
+            collector = null;
+        }
+        try {
+            if (log != null) {
+                log.close();
+                log = null;
+            }
+        } catch (IOException e) {
+            logger.warn("Could not close chunk log {}: {}", logFile, e.getMessage());
+        }
+    }
+
+    private void retain(String hash) {
+        refs.merge(hash, 1, Integer::sum);
+        garbage.remove(hash);
+        append(hash, 1);
+    }
+
+    private void load() {
+        if (Files.exists(logFile)) {
+            try (BufferedReader reader = Files.newBufferedReader(logFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] f = line.split("\t");
+                    if (f.length != 3 || !"R".equals(f[0]) || f[1].length() != 64) {
+                        continue; // a torn last line after a crash is simply ignored
+                    }
+                    try {
+                        refs.merge(f[1], Integer.parseInt(f[2]), Integer::sum);
+                    } catch (NumberFormatException e) {
+                        // idem
+                    }
+                }
+            } catch (IOException e) {
+                // Zonder tellingen zou GC chunks in gebruik weggooien
+                throw new IllegalStateException("Chunk reference log " + logFile + " is unreadable", e);
+            }
+            refs.values().removeIf(count -> count <= 0);
+        }
+        compact();
+    }
+
+    private void append(String hash, int delta) {
+        try {
+            if (log == null) {
+                Files.createDirectories(logFile.getParent());
+                log = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            log.write("R\t" + hash + "\t" + delta);
+            log.newLine();
+            if (++logRecords > 2 * refs.size() + COMPACT_SLACK) {
+                compact();
+            }
+        } catch (IOException e) {
+            logger.error("Could not append to chunk log {}: {}", logFile, e.getMessage());
+        }
+    }
+
+    private void flush() {
+        try {
+            if (log != null) {
+                log.flush();
+            }
+        } catch (IOException e) {
+            logger.error("Could not write chunk log {}: {}", logFile, e.getMessage());
+        }
+    }
+
+    /** Rewrites the log so it holds one record per referenced chunk. */
+    public synchronized void compact() {
+        Path tmp = logFile.resolveSibling(LOG_FILE + ".tmp");
+        try {
+            if (log != null) {
+                log.close();
+                log = null;
+            }
+            Files.createDirectories(logFile.getParent());
+            try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Integer> entry : refs.entrySet()) {
+                    out.write("R\t" + entry.getKey() + "\t" + entry.getValue());
+                    out.newLine();
+                }
+            }
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                channel.force(false);
+            }
+            Files.move(tmp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logRecords = refs.size();
+        } catch (IOException e) {
+            logger.error("Could not compact chunk log {}: {}", logFile, e.getMessage());
+        }
+    }
+}
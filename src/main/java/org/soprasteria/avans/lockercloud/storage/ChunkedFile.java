@@ -0,0 +1,249 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Read side of the recipes written by {@link ContentChunker}: a stored file that
+ * holds no data itself but the ordered list of chunks in the {@link ChunkStore}
+ * that make up its content.
+ * <pre>
+ * header   magic "LCR1", version, reserved (3), length + UTF-8 path of the chunk directory
+ * entries  per chunk: length, SHA-256 (32 bytes)
+ * trailer  content size, chunk count, magic
+ * </pre>
+ * All numbers are big-endian. The chunk directory is stored relative to the
+ * directory of the recipe, so the storage root can be moved as a whole. As with
+ * {@link CompressedFile}, a file only counts as a recipe if header, trailer and
+ * entries agree with each other and with the file size. As a channel the
+ * recipe reads as the original content, one chunk file at a time; it is
+ * read-only.
+ */
+public final class ChunkedFile implements SeekableByteChannel {
+
+    public static final int MAGIC = 0x4C435231; // "LCR1"
+    static final byte VERSION = 1;
+    static final int HASH_SIZE = 32;
+    static final int ENTRY_SIZE = 4 + HASH_SIZE;
+    static final int TRAILER_SIZE = 16;
+    /** Recipes are read whole; this bounds them to files of a few hundred GB at the default chunk size. */
+    static final int MAX_RECIPE_SIZE = 256 * 1024 * 1024;
+
+    private final Recipe recipe;
+    private FileChannel chunk;
+    private int chunkIndex = -1;
+    private long position;
+    private boolean open = true;
+
+    private ChunkedFile(Recipe recipe) {
+        this.recipe = recipe;
+    }
+
+    /** Opens a recipe, or returns null if the file is not one. */
+    static ChunkedFile open(Path file, FileChannel channel) throws IOException {
+        Recipe recipe = Recipe.read(file, channel);
+        return recipe != null ? new ChunkedFile(recipe) : null;
+    }
+
+    /** Content size of a recipe, or -1 if the file is not one. Only header and trailer are read. */
+    static long contentSize(FileChannel channel) throws IOException {
+        ByteBuffer trailer = Recipe.trailer(channel);
+        return trailer != null ? trailer.getLong(0) : -1;
+    }
+
+    /**
+     * Hashes of the chunks a stored file refers to, in order and with repeats,
+     * or null if the file is not a recipe.
+     */
+    public static List<String> chunkHashes(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Recipe recipe = Recipe.read(file, channel);
+            if (recipe == null) {
+                return null;
+            }
+            List<String> hashes = new ArrayList<>(recipe.hashes.length);
+            for (byte[] hash : recipe.hashes) {
+                hashes.add(HexFormat.of().formatHex(hash));
+            }
+            return hashes;
+        }
+    }
+
+    public int chunkCount() {
+        return recipe.hashes.length;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        if (position >= recipe.size) {
+            return -1;
+        }
+        int index = Arrays.binarySearch(recipe.offsets, position);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        FileChannel channel = chunk(index);
+        long offset = position - recipe.offsets[index];
+        int limit = (int) Math.min(dst.remaining(), recipe.offsets[index + 1] - position);
+        ByteBuffer window = dst.duplicate();
+        window.limit(window.position() + limit);
+        int n = channel.read(window, offset);
+        if (n <= 0) {
+            throw new IOException("Chunk " + HexFormat.of().formatHex(recipe.hashes[index]) + " was truncated");
+        }
+        dst.position(dst.position() + n);
+        position += n;
+        return n;
+    }
+
+    private FileChannel chunk(int index) throws IOException {
+        if (index != chunkIndex) {
+            if (chunk != null) {
+                chunk.close();
+                chunk = null;
+            }
+            String hash = HexFormat.of().formatHex(recipe.hashes[index]);
+            Path path = recipe.chunkDir.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+            try {
+                chunk = FileChannel.open(path, StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                throw new IOException("Chunk " + hash + " of " + recipe.file.getFileName() + " is missing", e);
+            }
+            chunkIndex = index;
+        }
+        return chunk;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return recipe.size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long newSize) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            if (chunk != null) {
+                chunk.close();
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /** Parsed recipe; null from {@link #read} if the file is not one. */
+    private record Recipe(Path file, Path chunkDir, long size, long[] offsets, byte[][] hashes) {
+
+        static ByteBuffer trailer(FileChannel channel) throws IOException {
+            long fileSize = channel.size();
+            if (fileSize < 10 + TRAILER_SIZE || fileSize > MAX_RECIPE_SIZE) {
+                return null;
+            }
+            ByteBuffer header = ByteBuffer.allocate(10);
+            readFully(channel, header, 0);
+            if (header.getInt(0) != MAGIC || header.get(4) != VERSION) {
+                return null;
+            }
+            int dirLength = header.getShort(8) & 0xFFFF;
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            readFully(channel, trailer, fileSize - TRAILER_SIZE);
+            long size = trailer.getLong(0);
+            int count = trailer.getInt(8);
+            if (trailer.getInt(12) != MAGIC || size < 0 || count < 0
+                    || 10L + dirLength + (long) count * ENTRY_SIZE + TRAILER_SIZE != fileSize) {
+                return null;
+            }
+            return trailer;
+        }
+
+        static Recipe read(Path file, FileChannel channel) throws IOException {
+            ByteBuffer trailer = trailer(channel);
+            if (trailer == null) {
+                return null;
+            }
+            ByteBuffer body = ByteBuffer.allocate((int) channel.size() - 10 - TRAILER_SIZE + 2);
+            readFully(channel, body, 8);
+            body.flip();
+            byte[] dir = new byte[body.getShort() & 0xFFFF];
+            body.get(dir);
+            long size = trailer.getLong(0);
+            int count = trailer.getInt(8);
+            long[] offsets = new long[count + 1];
+            byte[][] hashes = new byte[count][HASH_SIZE];
+            for (int i = 0; i < count; i++) {
+                int length = body.getInt();
+                if (length <= 0) {
+                    return null;
+                }
+                body.get(hashes[i]);
+                offsets[i + 1] = offsets[i] + length;
+            }
+            if (offsets[count] != size) {
+                return null;
+            }
+            Path parent = file.toAbsolutePath().getParent();
+            Path chunkDir = parent.resolve(new String(dir, StandardCharsets.UTF_8)).normalize();
+            return new Recipe(file, chunkDir, size, offsets, hashes);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long at) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, at + buffer.position()) == -1) {
+                throw new IOException("Recipe was truncated while reading");
+            }
+        }
+    }
+}
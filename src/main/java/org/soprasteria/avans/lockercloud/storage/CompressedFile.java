@@ -0,0 +1,317 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Read side of the block container written by {@link BlockCompressor}.
+ * <p>
+ * The content is cut into blocks of a fixed size that are compressed on their
+ * own, so any position can be reached by decoding a single block:
+ * <pre>
+ * header   magic "LCZ1", version, codec, reserved (2), block size
+ * blocks   stored block data, back to back
+ * table    stored length of every block; the high bit marks a block kept uncompressed
+ * trailer  original size, block count, table offset, magic
+ * </pre>
+ * All numbers are big-endian. A file only counts as a container if header,
+ * trailer and table agree with each other and with the file size, so a plain
+ * file is never mistaken for one. As a channel the container reads as the
+ * original content; it is read-only.
+ */
+public final class CompressedFile implements SeekableByteChannel {
+
+    public static final int MAGIC = 0x4C435A31; // "LCZ1"
+    static final byte VERSION = 1;
+    static final byte CODEC_DEFLATE = 1;
+    static final int HEADER_SIZE = 12;
+    static final int TRAILER_SIZE = 24;
+    static final int RAW_BLOCK = 0x80000000;
+    static final int MIN_BLOCK_SIZE = 4096;
+    static final int MAX_BLOCK_SIZE = 16 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long size;
+    private final int blockSize;
+    private final int[] lengths;
+    private final long[] offsets;
+    private final Inflater inflater = new Inflater();
+    private final byte[] block;
+    private byte[] stored = new byte[0];
+    private int cachedBlock = -1;
+    private int cachedLength;
+    private long position;
+    private boolean open = true;
+
+    private CompressedFile(FileChannel channel, Layout layout) throws IOException {
+        this.channel = channel;
+        this.size = layout.size;
+        this.blockSize = layout.blockSize;
+        this.lengths = new int[layout.blocks];
+        this.offsets = new long[layout.blocks + 1];
+        ByteBuffer table = ByteBuffer.allocate(4 * layout.blocks);
+        readFully(channel, table, layout.tableOffset);
+        table.flip();
+        offsets[0] = HEADER_SIZE;
+        for (int i = 0; i < layout.blocks; i++) {
+            lengths[i] = table.getInt();
+            int length = lengths[i] & ~RAW_BLOCK;
+            int expected = blockLength(i);
+            if ((lengths[i] & RAW_BLOCK) != 0 ? length != expected : length > blockSize) {
+                throw new IOException("Invalid block table");
+            }
+            offsets[i + 1] = offsets[i] + length;
+        }
+        if (offsets[layout.blocks] != layout.tableOffset) {
+            throw new IOException("Invalid block table");
+        }
+        this.block = new byte[blockSize];
+    }
+
+    /**
+     * Opens a stored file for reading its content: a decoding channel for a
+     * container, a {@link ChunkedFile} for a deduplicated file, a plain
+     * {@link FileChannel} for anything else.
+     */
+    public static SeekableByteChannel open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            Layout layout = Layout.read(channel);
+            if (layout != null) {
+                try {
+                    return new CompressedFile(channel, layout);
+                } catch (IOException e) {
+                    // Tabel klopt niet: behandel het als gewoon bestand
+                }
+            }
+            ChunkedFile chunked = ChunkedFile.open(file, channel);
+            if (chunked != null) {
+                channel.close();
+                return chunked;
+            }
+            return channel;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** True if the file is a container. Only header and trailer are read. */
+    public static boolean isCompressed(Path file) throws IOException {
+        return originalSize(file) >= 0;
+    }
+
+    /**
+     * True if the stored file has to be decoded to get its content: a container
+     * or a {@link ChunkedFile} recipe.
+     */
+    public static boolean isEncoded(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return Layout.read(channel) != null || ChunkedFile.contentSize(channel) >= 0;
+        }
+    }
+
+    /** Size of the content of a stored file, whether it is a container, a recipe or neither. */
+    public static long contentSize(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Layout layout = Layout.read(channel);
+            if (layout != null) {
+                return layout.size;
+            }
+            long chunked = ChunkedFile.contentSize(channel);
+            return chunked >= 0 ? chunked : channel.size();
+        }
+    }
+
+    /** Writes the content of a stored file to {@code target}, replacing it; containers are decoded. */
+    public static void decompress(Path source, Path target) throws IOException {
+        try (SeekableByteChannel in = open(source);
+             OutputStream out = Files.newOutputStream(target)) {
+            Channels.newInputStream(in).transferTo(out);
+        }
+    }
+
+    private static long originalSize(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Layout layout = Layout.read(channel);
+            return layout != null ? layout.size : -1;
+        }
+    }
+
+    public int blockSize() {
+        return blockSize;
+    }
+
+    /** Number of bytes the content takes on disk, table and framing included. */
+    public long storedSize() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        if (position >= size) {
+            return -1;
+        }
+        int index = (int) (position / blockSize);
+        load(index);
+        int offset = (int) (position - (long) index * blockSize);
+        int n = Math.min(dst.remaining(), cachedLength - offset);
+        dst.put(block, offset, n);
+        position += n;
+        return n;
+    }
+
+    /** Reads at the given position without moving the channel's own position. */
+    public int read(ByteBuffer dst, long at) throws IOException {
+        long saved = position;
+        position = at;
+        try {
+            return read(dst);
+        } finally {
+            position = saved;
+        }
+    }
+
+    private void load(int index) throws IOException {
+        if (index == cachedBlock) {
+            return;
+        }
+        cachedBlock = -1;
+        int length = lengths[index] & ~RAW_BLOCK;
+        int expected = blockLength(index);
+        if ((lengths[index] & RAW_BLOCK) != 0) {
+            readFully(channel, ByteBuffer.wrap(block, 0, length), offsets[index]);
+        } else {
+            if (stored.length < length) {
+                stored = new byte[blockSize];
+            }
+            readFully(channel, ByteBuffer.wrap(stored, 0, length), offsets[index]);
+            inflater.reset();
+            inflater.setInput(stored, 0, length);
+            try {
+                int n = inflater.inflate(block, 0, expected);
+                if (n != expected || !inflater.finished()) {
+                    throw new IOException("Block " + index + " is corrupt");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Block " + index + " is corrupt", e);
+            }
+        }
+        cachedBlock = index;
+        cachedLength = expected;
+    }
+
+    private int blockLength(int index) {
+        return (int) Math.min(blockSize, size - (long) index * blockSize);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long at) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, at + buffer.position()) == -1) {
+                throw new IOException("Container was truncated while reading");
+            }
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long newSize) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            inflater.end();
+            channel.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /** Header and trailer of a container; null from {@link #read} if the file is not one. */
+    private record Layout(int blockSize, long size, int blocks, long tableOffset) {
+
+        static Layout read(FileChannel channel) throws IOException {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE + TRAILER_SIZE) {
+                return null;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.get() != VERSION || header.get() != CODEC_DEFLATE) {
+                return null;
+            }
+            header.getShort();
+            int blockSize = header.getInt();
+            if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE) {
+                return null;
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            readFully(channel, trailer, fileSize - TRAILER_SIZE);
+            trailer.flip();
+            long size = trailer.getLong();
+            int blocks = trailer.getInt();
+            long tableOffset = trailer.getLong();
+            if (trailer.getInt() != MAGIC || size < 0 || blocks < 0
+                    || blocks != (size + blockSize - 1) / blockSize
+                    || tableOffset < HEADER_SIZE
+                    || tableOffset + 4L * blocks + TRAILER_SIZE != fileSize) {
+                return null;
+            }
+            return new Layout(blockSize, size, blocks, tableOffset);
+        }
+    }
+}
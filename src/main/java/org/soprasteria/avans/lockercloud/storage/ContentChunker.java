@@ -0,0 +1,162 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Write side of the {@link ChunkedFile} recipe: splits a fully written file into
+ * content-defined chunks, adds them to the {@link ChunkStore} and writes the
+ * recipe that lists them.
+ * <p>
+ * Chunk boundaries are chosen with a gear rolling hash over the data, so they
+ * depend on the content around them and not on the offset: an insertion only
+ * changes the chunks it touches, and the same installer uploaded under another
+ * name, or inside a larger image, yields the same chunks. Chunks are between
+ * {@code minSize} and {@code maxSize} bytes and {@code averageSize} on average.
+ */
+public class ContentChunker {
+
+    public static final int DEFAULT_MIN_SIZE = 16 * 1024;
+    public static final int DEFAULT_AVERAGE_SIZE = 64 * 1024;
+    public static final int DEFAULT_MAX_SIZE = 256 * 1024;
+
+    /** Random but fixed per byte value, so boundaries are the same in every run. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x4C43524C);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final ChunkStore store;
+    private final int minSize;
+    private final int maxSize;
+    private final long mask;
+
+    public ContentChunker(ChunkStore store) {
+        this(store, DEFAULT_MIN_SIZE, DEFAULT_AVERAGE_SIZE, DEFAULT_MAX_SIZE);
+    }
+
+    /** @param averageSize rounded down to a power of two */
+    public ContentChunker(ChunkStore store, int minSize, int averageSize, int maxSize) {
+        if (minSize < 1 || averageSize < minSize || maxSize < averageSize) {
+            throw new IllegalArgumentException("Chunk sizes must satisfy 0 < min <= average <= max");
+        }
+        this.store = store;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        // De hoogste bits van de gear hash mengen het meest; een grens valt als ze allemaal nul zijn
+        int bits = 31 - Integer.numberOfLeadingZeros(averageSize);
+        this.mask = bits == 0 ? 0 : -1L << (64 - bits);
+    }
+
+    /**
+     * Adds the chunks of {@code source} to the store and writes a recipe for it to
+     * {@code recipe}. The references are forced to disk before this returns, so the
+     * recipe may be moved into place right away.
+     *
+     * @param finalDir directory the recipe will be moved to; the chunk directory is
+     *                 recorded relative to it
+     * @return hashes of the chunks the recipe refers to
+     */
+    public List<String> write(Path source, Path recipe, Path finalDir) throws IOException {
+        MessageDigest sha = sha256();
+        List<String> hashes = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        long size = 0;
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            byte[] chunk = new byte[maxSize];
+            ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+            int length = 0;
+            long hash = 0;
+            while (in.read(buffer) != -1 || buffer.position() > 0) {
+                buffer.flip();
+                if (!buffer.hasRemaining()) {
+                    break;
+                }
+                byte[] data = buffer.array();
+                int limit = buffer.limit();
+                for (int i = buffer.position(); i < limit; i++) {
+                    byte b = data[i];
+                    chunk[length++] = b;
+                    hash = (hash << 1) + GEAR[b & 0xFF];
+                    if (length >= maxSize || (length >= minSize && (hash & mask) == 0)) {
+                        hashes.add(add(sha, chunk, length));
+                        lengths.add(length);
+                        size += length;
+                        length = 0;
+                        hash = 0;
+                    }
+                }
+                buffer.clear();
+            }
+            if (length > 0) {
+                hashes.add(add(sha, chunk, length));
+                lengths.add(length);
+                size += length;
+            }
+        } catch (IOException | RuntimeException e) {
+            store.release(hashes);
+            throw e;
+        }
+        try {
+            writeRecipe(recipe, finalDir, hashes, lengths, size);
+            store.sync();
+        } catch (IOException | RuntimeException e) {
+            store.release(hashes);
+            throw e;
+        }
+        return hashes;
+    }
+
+    private String add(MessageDigest sha, byte[] chunk, int length) throws IOException {
+        sha.update(chunk, 0, length);
+        String hash = HexFormat.of().formatHex(sha.digest());
+        store.add(hash, chunk, length);
+        return hash;
+    }
+
+    private void writeRecipe(Path recipe, Path finalDir, List<String> hashes, List<Integer> lengths, long size)
+            throws IOException {
+        Path base = finalDir.toAbsolutePath().normalize();
+        byte[] dir = base.relativize(store.directory().toAbsolutePath().normalize()).toString()
+                .getBytes(StandardCharsets.UTF_8);
+        if (dir.length > 0xFFFF) {
+            throw new IOException("Chunk directory path is too long");
+        }
+        ByteBuffer out = ByteBuffer.allocate(10 + dir.length + hashes.size() * ChunkedFile.ENTRY_SIZE
+                + ChunkedFile.TRAILER_SIZE);
+        out.putInt(ChunkedFile.MAGIC).put(ChunkedFile.VERSION).put(new byte[3]).putShort((short) dir.length).put(dir);
+        for (int i = 0; i < hashes.size(); i++) {
+            out.putInt(lengths.get(i)).put(HexFormat.of().parseHex(hashes.get(i)));
+        }
+        out.putLong(size).putInt(hashes.size()).putInt(ChunkedFile.MAGIC);
+        out.flip();
+        try (FileChannel channel = FileChannel.open(recipe, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            channel.force(true);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
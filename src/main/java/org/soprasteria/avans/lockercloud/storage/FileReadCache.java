@@ -0,0 +1,269 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Size-bounded cache of the content of frequently read files, kept in direct
+ * buffers outside the Java heap so a large cache adds no GC work.
+ * <p>
+ * Eviction follows W-TinyLFU: new entries enter a small LRU window; entries that
+ * fall out of it only get into the main area if a frequency sketch says they are
+ * requested more often than the entry they would push out. The main area is a
+ * segmented LRU, where a second hit moves an entry from probation to the
+ * protected segment. A burst of one-off downloads therefore cannot flush the
+ * files that are downloaded all day. All sizes are in bytes of content.
+ * <p>
+ * Every entry carries the {@link Version} of the file it was read from; a lookup
+ * with a different version is a miss and drops the stale entry, so changes made
+ * behind the service's back are never served from the cache. Evicted buffers are
+ * freed by the garbage collector; {@code -XX:MaxDirectMemorySize} must leave room
+ * for the budget.
+ */
+public class FileReadCache {
+
+    /** Identity of the bytes on disk: a changed size, time or inode means other content. */
+    public record Version(long size, long lastModified, Object fileKey) {
+        public static Version of(BasicFileAttributes attrs) {
+            return new Version(attrs.size(), attrs.lastModifiedTime().toMillis(), attrs.fileKey());
+        }
+    }
+
+    public record Stats(long hits, long misses, long evictions, long rejections, long bytes, int entries, long budget) {
+        public static final Stats EMPTY = new Stats(0, 0, 0, 0, 0, 0, 0);
+    }
+
+    private static final double WINDOW_SHARE = 0.01;
+    private static final double PROTECTED_SHARE = 0.8;
+    /** Sketch size is based on this guess of the average cached file. */
+    private static final long TYPICAL_ENTRY = 16 * 1024;
+
+    private final long budget;
+    private final long maxEntry;
+    private final long windowMax;
+    private final long protectedMax;
+    private final FrequencySketch sketch;
+    private final LinkedHashMap<String, Node> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Node> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Node> protectedArea = new LinkedHashMap<>(16, 0.75f, true);
+    private long windowBytes;
+    private long probationBytes;
+    private long protectedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long rejections;
+
+    /**
+     * @param budget   total bytes of content to keep
+     * @param maxEntry largest file that is cached at all
+     */
+    public FileReadCache(long budget, long maxEntry) {
+        this.budget = budget;
+        this.maxEntry = Math.min(maxEntry, budget);
+        this.windowMax = Math.max((long) (budget * WINDOW_SHARE), this.maxEntry);
+        this.protectedMax = (long) ((budget - windowMax) * PROTECTED_SHARE);
+        this.sketch = new FrequencySketch((int) Math.min(1 << 24, Math.max(1024, budget / TYPICAL_ENTRY)));
+    }
+
+    /**
+     * Looks a file up and counts the request towards its frequency.
+     *
+     * @return a read-only view of the content, positioned at 0, or null on a miss
+     */
+    public synchronized ByteBuffer get(String name, Version version) {
+        sketch.increment(name);
+        Node node = window.get(name);
+        if (node == null) {
+            node = probation.remove(name);
+            if (node != null) {
+                probationBytes -= node.weight;
+                // Tweede treffer: van probation naar protected
+                protectedArea.put(name, node);
+                protectedBytes += node.weight;
+                demoteProtected();
+            } else {
+                node = protectedArea.get(name);
+            }
+        }
+        if (node == null || !node.version.equals(version)) {
+            if (node != null) {
+                remove(name);
+            }
+            misses++;
+            return null;
+        }
+        hits++;
+        return node.data.asReadOnlyBuffer();
+    }
+
+    /**
+     * True if reading the file into the cache is worthwhile: it fits, and there is
+     * either free room or it has been requested before.
+     */
+    public synchronized boolean shouldLoad(String name, long size) {
+        if (size > maxEntry) {
+            return false;
+        }
+        return windowBytes + probationBytes + protectedBytes + size <= budget || sketch.frequency(name) > 1;
+    }
+
+    /** Adds a file's content. The buffer must not be changed afterwards. */
+    public synchronized void put(String name, Version version, ByteBuffer data) {
+        int weight = data.remaining();
+        if (weight > maxEntry) {
+            rejections++;
+            return;
+        }
+        remove(name);
+        Node node = new Node(name, version, data, weight);
+        window.put(name, node);
+        windowBytes += weight;
+        while (windowBytes > windowMax) {
+            Iterator<Node> it = window.values().iterator();
+            Node candidate = it.next();
+            it.remove();
+            windowBytes -= candidate.weight;
+            admit(candidate);
+        }
+    }
+
+    public synchronized void invalidate(String name) {
+        remove(name);
+    }
+
+    public synchronized void clear() {
+        window.clear();
+        probation.clear();
+        protectedArea.clear();
+        windowBytes = probationBytes = protectedBytes = 0;
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits, misses, evictions, rejections, windowBytes + probationBytes + protectedBytes,
+                window.size() + probation.size() + protectedArea.size(), budget);
+    }
+
+    /**
+     * Moves an entry from the window into probation. If the main area is full the
+     * candidate has to beat each victim it displaces on frequency; if one victim
+     * is more popular the candidate is dropped instead.
+     */
+    private void admit(Node candidate) {
+        long mainMax = budget - windowMax;
+        int candidateFrequency = sketch.frequency(candidate.name);
+        while (probationBytes + protectedBytes + candidate.weight > mainMax) {
+            Map<String, Node> victims = !probation.isEmpty() ? probation : protectedArea;
+            Node victim = victims.isEmpty() ? null : victims.values().iterator().next();
+            if (victim == null || sketch.frequency(victim.name) >= candidateFrequency) {
+                rejections++;
+                evictions++;
+                return;
+            }
+            remove(victim.name);
+            evictions++;
+        }
+        probation.put(candidate.name, candidate);
+        probationBytes += candidate.weight;
+    }
+
+    // Houd protected binnen zijn deel; de oudste entries krijgen weer een kans in probation
+    private void demoteProtected() {
+        while (protectedBytes > protectedMax) {
+            Iterator<Node> it = protectedArea.values().iterator();
+            Node node = it.next();
+            it.remove();
+            protectedBytes -= node.weight;
+            probation.put(node.name, node);
+            probationBytes += node.weight;
+        }
+    }
+
+    private void remove(String name) {
+        Node node;
+        if ((node = window.remove(name)) != null) {
+            windowBytes -= node.weight;
+        } else if ((node = probation.remove(name)) != null) {
+            probationBytes -= node.weight;
+        } else if ((node = protectedArea.remove(name)) != null) {
+            protectedBytes -= node.weight;
+        }
+    }
+
+    private record Node(String name, Version version, ByteBuffer data, int weight) {
+        Node {
+            Objects.requireNonNull(version);
+        }
+    }
+
+    /**
+     * Count-min sketch with four 4-bit counters per key. When the number of
+     * increments reaches ten times the table size all counters are halved, so
+     * the popularity of the past fades out.
+     */
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int expectedEntries) {
+            int size = Integer.highestOneBit(Math.max(64, expectedEntries) - 1) << 1;
+            table = new long[size];
+            mask = size - 1;
+            sampleSize = 10 * size;
+        }
+
+        int frequency(String key) {
+            int hash = spread(key.hashCode());
+            int frequency = 15;
+            for (int i = 0; i < 4; i++) {
+                frequency = Math.min(frequency, (int) ((table[index(hash, i)] >>> offset(hash, i)) & 0xF));
+            }
+            return frequency;
+        }
+
+        void increment(String key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = index(hash, i);
+                int offset = offset(hash, i);
+                if (((table[index] >>> offset) & 0xF) < 15) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions /= 2;
+            }
+        }
+
+        private int index(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return (int) h & mask;
+        }
+
+        // Elke rij gebruikt een eigen 4-bit teller binnen de long
+        private static int offset(int hash, int i) {
+            return (((hash >>> (i << 3)) & 3) + (i << 2)) << 2;
+        }
+
+        private static int spread(int h) {
+            h = ((h >>> 16) ^ h) * 0x45d9f3b;
+            h = ((h >>> 16) ^ h) * 0x45d9f3b;
+            return (h >>> 16) ^ h;
+        }
+    }
+}
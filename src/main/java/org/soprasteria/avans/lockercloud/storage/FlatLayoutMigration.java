@@ -0,0 +1,161 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Moves the files of the old flat layout into the sharded {@link StorageLayout}
+ * while the server keeps running.
+ * <p>
+ * Each file is hard-linked into its shard and then unlinked from the root, so it
+ * never disappears for a reader and a newer upload that already landed in the
+ * shard is never overwritten; the flat copy is then stale and removed. Each file
+ * is moved under its write lock, so a delete that runs at the same time either
+ * finishes first, and the file is skipped, or waits until the file sits in its
+ * shard. A name the change journal records as deleted is left where it is.
+ * Chunk sets
+ * ({@code name.partN}) next to a file that exists are leftovers of its upload and
+ * are removed. A chunk set without its file is left in place: the old upload code
+ * recorded neither the number of chunks nor a checksum, so a set whose last chunks
+ * never arrived cannot be told apart from a complete one. The migration can be
+ * interrupted and run again at any time.
+ */
+public class FlatLayoutMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(FlatLayoutMigration.class);
+    private static final Pattern CHUNK = Pattern.compile("(.+)\\.part(\\d+)");
+
+    /** Outcome of a run. */
+    public record Result(int moved, int removed, int skipped) {
+    }
+
+    enum Outcome { MOVED, STALE, VANISHED }
+
+    /** Keeps writers of a file out while it moves; the returned handle releases the lock. */
+    @FunctionalInterface
+    public interface FileLock {
+        Closeable lock(String name) throws IOException;
+    }
+
+    private final StorageLayout layout;
+    private final FileLock locks;
+    private final Predicate<String> deleted;
+
+    /** A migration for a storage no one else is writing to. */
+    public FlatLayoutMigration(StorageLayout layout) {
+        this(layout, name -> () -> { }, name -> false);
+    }
+
+    /**
+     * @param locks   the write lock of a file name
+     * @param deleted whether a name was deleted since its flat file was written
+     */
+    public FlatLayoutMigration(StorageLayout layout, FileLock locks, Predicate<String> deleted) {
+        this.layout = layout;
+        this.locks = locks;
+        this.deleted = deleted;
+    }
+
+    @SuppressWarnings("try") // het lock wordt alleen vastgehouden, niet gebruikt
+    public Result run() throws IOException {
+        int moved = 0;
+        int removed = 0;
+        int skipped = 0;
+        for (Path file : layout.legacyFiles()) {
+            String name = file.getFileName().toString();
+            if (layout.isReserved(name)) {
+                logger.warn("Migration: '{}' uses a reserved name and is left in place", name);
+                skipped++;
+                continue;
+            }
+            try (Closeable lock = locks.lock(name)) {
+                if (deleted.test(name)) {
+                    logger.warn("Migration: '{}' is recorded as deleted, flat copy left in place", name);
+                    skipped++;
+                    continue;
+                }
+                switch (relocate(file, layout.prepare(name))) {
+                    case MOVED -> moved++;
+                    case STALE -> removed++;
+                    case VANISHED -> skipped++;
+                }
+            }
+        }
+
+        for (Map.Entry<String, List<Path>> set : chunkSets().entrySet()) {
+            if (layout.locate(set.getKey()) == null) {
+                logger.warn("Migration: chunk set of '{}' has no file and cannot be proven complete, left in place",
+                        set.getKey());
+                continue;
+            }
+            // Chunks van een bestand dat al bestaat zijn restanten van een oude upload
+            for (Path chunk : set.getValue()) {
+                Files.deleteIfExists(chunk);
+            }
+        }
+        if (moved + removed > 0) {
+            logger.info("Migrated storage to sharded layout: {} moved, {} stale removed, {} vanished",
+                    moved, removed, skipped);
+        }
+        return new Result(moved, removed, skipped);
+    }
+
+    /**
+     * Puts {@code source} at {@code target} unless the target already exists.
+     *
+     * @return whether the source was moved, dropped as stale, or was already gone
+     */
+    Outcome relocate(Path source, Path target) throws IOException {
+        boolean placed;
+        try {
+            Files.createLink(target, source);
+            placed = true;
+        } catch (FileAlreadyExistsException e) {
+            placed = false;
+        } catch (NoSuchFileException e) {
+            return vanished(source, e);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            // Geen hard links op dit bestandssysteem: gewone move zonder overschrijven
+            try {
+                Files.move(source, target);
+                return Outcome.MOVED;
+            } catch (FileAlreadyExistsException exists) {
+                placed = false;
+            } catch (NoSuchFileException missing) {
+                return vanished(source, missing);
+            }
+        }
+        Files.deleteIfExists(source);
+        return placed ? Outcome.MOVED : Outcome.STALE;
+    }
+
+    // Een bestand dat tijdens de migratie verwijderd is hoeft niet meer verplaatst te worden
+    private static Outcome vanished(Path source, NoSuchFileException e) throws NoSuchFileException {
+        if (Files.exists(source, LinkOption.NOFOLLOW_LINKS)) {
+            throw e;
+        }
+        return Outcome.VANISHED;
+    }
+
+    private Map<String, List<Path>> chunkSets() throws IOException {
+        Map<String, List<Path>> sets = new TreeMap<>();
+        try (Stream<Path> stream = Files.list(layout.root())) {
+            for (Path path : (Iterable<Path>) stream::iterator) {
+                Matcher m = CHUNK.matcher(path.getFileName().toString());
+                if (m.matches() && Files.isRegularFile(path)) {
+                    sets.computeIfAbsent(m.group(1), k -> new ArrayList<>()).add(path);
+                }
+            }
+        }
+        return sets;
+    }
+}
@@ -0,0 +1,122 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import org.soprasteria.avans.lockercloud.checksum.ChecksumHasher;
+import org.soprasteria.avans.lockercloud.exception.FileStorageException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single write stage for incoming file data. Bytes are read once from the source,
+ * fed to every digest and written with positional writes from the same buffer,
+ * so a checksum never needs a second pass over the stored file.
+ * <p>
+ * Buffers are large and pooled: an upload borrows one buffer for its whole
+ * transfer and returns it afterwards, which keeps per-request allocation out of
+ * the hot path. At most {@code maxPooled} idle buffers are retained.
+ */
+public class IngestPipeline {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024; // 1 MB
+    public static final int DEFAULT_MAX_POOLED = 16;
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final Queue<byte[]> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    public IngestPipeline() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+    }
+
+    public IngestPipeline(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Copies the stream to {@code out} starting at {@code position} until EOF.
+     * The stream is not closed.
+     *
+     * @param limit maximum number of bytes accepted, or -1 for no limit
+     * @return the number of bytes written
+     * @throws FileStorageException if the stream holds more than {@code limit} bytes
+     */
+    public long write(InputStream in, FileChannel out, long position, long limit,
+                      ChecksumHasher... digests) throws IOException {
+        long max = limit < 0 ? Long.MAX_VALUE : limit;
+        long written = transfer(in, out, position, max, digests);
+        if (written == max && limit >= 0 && in.read() != -1) {
+            throw new FileStorageException("Input exceeds the limit of " + limit + " bytes");
+        }
+        return written;
+    }
+
+    /**
+     * Copies exactly {@code length} bytes and leaves the rest of the stream
+     * unread, so it can be used on a connection that carries further data.
+     *
+     * @throws EOFException if the stream ends early
+     */
+    public void writeExactly(InputStream in, FileChannel out, long position, long length,
+                             ChecksumHasher... digests) throws IOException {
+        long written = transfer(in, out, position, length, digests);
+        if (written < length) {
+            throw new EOFException("Stream ended after " + written + " of " + length + " bytes");
+        }
+    }
+
+    private long transfer(InputStream in, FileChannel out, long position, long max,
+                          ChecksumHasher[] digests) throws IOException {
+        byte[] buffer = acquire();
+        try {
+            ByteBuffer bb = ByteBuffer.wrap(buffer);
+            long written = 0;
+            while (written < max) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, max - written));
+                if (n == -1) {
+                    break;
+                }
+                for (ChecksumHasher digest : digests) {
+                    digest.update(buffer, 0, n);
+                }
+                bb.clear().limit(n);
+                while (bb.hasRemaining()) {
+                    written += out.write(bb, position + written);
+                }
+            }
+            return written;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /** Borrows a buffer from the pool; it must be handed back with {@link #release}. */
+    public byte[] acquire() {
+        byte[] buffer = pool.poll();
+        if (buffer == null) {
+            return new byte[bufferSize];
+        }
+        pooled.decrementAndGet();
+        return buffer;
+    }
+
+    public void release(byte[] buffer) {
+        if (buffer.length == bufferSize && pooled.incrementAndGet() <= maxPooled) {
+            pool.offer(buffer);
+        } else if (buffer.length == bufferSize) {
+            pooled.decrementAndGet();
+        }
+    }
+
+    /** Number of idle buffers currently held by the pool. */
+    public int pooledBuffers() {
+        return pooled.get();
+    }
+}
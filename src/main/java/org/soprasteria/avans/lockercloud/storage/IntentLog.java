@@ -0,0 +1,261 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Write-ahead log of the writes that are in flight on the master storage. Every
+ * save, upload session and delete records its intent before it touches the
+ * storage, records when its result is verified and about to be moved into
+ * place, and records how it ended:
+ * <pre>
+ * B  id kind name path         begin; path is the staged file or session directory
+ * P  id source algorithm sum   prepared; source is verified and may be moved into place
+ * C  id                        committed
+ * A  id                        aborted
+ * </pre>
+ * Begin and prepare records are forced to disk before the caller continues;
+ * the end records are not, because replaying a finished intent is harmless.
+ * After a crash only the intents without an end record are read back, so
+ * recovery costs the work that was in flight and never a scan of the store.
+ * The log is compacted to its open intents like the {@link ChangeJournal}.
+ */
+public class IntentLog {
+
+    public enum Kind { SAVE, UPLOAD, DELETE }
+
+    /**
+     * An intent without an end record.
+     *
+     * @param path     staged file or session directory of the intent, or null
+     * @param prepared verified file to move into place, or null if not prepared
+     */
+    public record Intent(String id, Kind kind, String fileName, Path path,
+                         Path prepared, String algorithm, String checksum) {
+        public boolean isPrepared() {
+            return prepared != null;
+        }
+    }
+
+    private static final String LOG_FILE = "intents.log";
+    private static final int COMPACT_SLACK = 1024;
+
+    private static final Logger logger = LoggerFactory.getLogger(IntentLog.class);
+
+    private final Path root;
+    private final Path logFile;
+    private final Map<String, Intent> open = new LinkedHashMap<>();
+    private final List<Intent> recovered;
+    private FileChannel log;
+    private int logRecords;
+
+    public IntentLog(Path storageRoot) {
+        this.root = storageRoot;
+        this.logFile = storageRoot.resolve(MetadataIndex.INTERNAL_DIR).resolve(LOG_FILE);
+        load();
+        this.recovered = List.copyOf(open.values());
+    }
+
+    /** Intents that were still open when the previous run stopped, in the order they began. */
+    public List<Intent> recoveredIntents() {
+        return recovered;
+    }
+
+    public synchronized int openCount() {
+        return open.size();
+    }
+
+    /** Records the start of a write and returns its id. */
+    public String begin(Kind kind, String fileName, Path path) throws IOException {
+        String id = UUID.randomUUID().toString();
+        begin(id, kind, fileName, path);
+        return id;
+    }
+
+    /** Records the start of a write under an id of the caller, such as an upload id. */
+    public synchronized void begin(String id, Kind kind, String fileName, Path path) throws IOException {
+        Intent intent = new Intent(id, kind, fileName, path, null, null, null);
+        // Eerst in de map, zodat een compactie tijdens het schrijven het intent meeneemt
+        open.put(id, intent);
+        try {
+            append(format(intent), true);
+        } catch (IOException e) {
+            open.remove(id);
+            throw e;
+        }
+    }
+
+    /**
+     * Records that {@code source} is verified and is about to be moved into place,
+     * so recovery finishes the write instead of rolling it back.
+     */
+    public synchronized void prepare(String id, Path source, String algorithm, String checksum) throws IOException {
+        Intent intent = open.get(id);
+        if (intent == null) {
+            throw new IOException("Unknown intent " + id);
+        }
+        open.put(id, new Intent(id, intent.kind(), intent.fileName(), intent.path(), source, algorithm, checksum));
+        try {
+            append(prepareRecord(open.get(id)), true);
+        } catch (IOException e) {
+            open.put(id, intent);
+            throw e;
+        }
+    }
+
+    public synchronized void commit(String id) {
+        end("C", id);
+    }
+
+    /** Records that a write was rolled back; ignored for intents that already ended. */
+    public synchronized void abort(String id) {
+        end("A", id);
+    }
+
+    private void end(String type, String id) {
+        if (open.remove(id) == null) {
+            return;
+        }
+        try {
+            append(type + "\t" + id, false);
+        } catch (IOException e) {
+            logger.error("Could not append to intent log {}: {}", logFile, e.getMessage());
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(logFile)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(logFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                logRecords++;
+                String[] f = line.split("\t");
+                try {
+                    if (f.length == 5 && "B".equals(f[0])) {
+                        open.put(f[1], new Intent(f[1], Kind.valueOf(f[2]), decode(f[3]), resolve(f[4]), null, null, null));
+                    } else if (f.length == 5 && "P".equals(f[0]) && open.containsKey(f[1])) {
+                        Intent intent = open.get(f[1]);
+                        open.put(f[1], new Intent(f[1], intent.kind(), intent.fileName(), intent.path(),
+                                resolve(f[2]), f[3], f[4]));
+                    } else if (f.length == 2 && ("C".equals(f[0]) || "A".equals(f[0]))) {
+                        open.remove(f[1]);
+                    }
+                } catch (IllegalArgumentException e) {
+                    // a torn last line after a crash is simply ignored
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Intent log {} is unreadable, interrupted writes are not recovered: {}", logFile, e.getMessage());
+            open.clear();
+        }
+        if (!open.isEmpty()) {
+            logger.info("Intent log holds {} interrupted write(s)", open.size());
+        }
+    }
+
+    private void append(String record, boolean force) throws IOException {
+        if (log == null) {
+            Files.createDirectories(logFile.getParent());
+            log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap((record + "\n").getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            log.write(buffer);
+        }
+        if (force) {
+            log.force(false);
+        }
+        if (++logRecords > 2 * open.size() + COMPACT_SLACK) {
+            compact();
+        }
+    }
+
+    /** Rewrites the log so it holds only the records of the open intents. */
+    public synchronized void compact() {
+        Path tmp = logFile.resolveSibling(LOG_FILE + ".tmp");
+        try {
+            if (log != null) {
+                log.close();
+                log = null;
+            }
+            Files.createDirectories(logFile.getParent());
+            StringBuilder out = new StringBuilder();
+            for (Intent intent : open.values()) {
+                out.append(format(intent)).append('\n');
+                if (intent.isPrepared()) {
+                    out.append(prepareRecord(intent)).append('\n');
+                }
+            }
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(out.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            }
+            Files.move(tmp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logRecords = open.size();
+        } catch (IOException e) {
+            logger.error("Could not compact intent log {}: {}", logFile, e.getMessage());
+        }
+    }
+
+    public synchronized void close() {
+        try {
+            if (log != null) {
+                log.close();
+                log = null;
+            }
+        } catch (IOException e) {
+            logger.warn("Could not close intent log {}: {}", logFile, e.getMessage());
+        }
+    }
+
+    private String format(Intent intent) {
+        return "B\t" + intent.id() + "\t" + intent.kind() + "\t" + encode(intent.fileName())
+                + "\t" + (intent.path() == null ? "-" : encode(relative(intent.path())));
+    }
+
+    private String prepareRecord(Intent intent) {
+        return "P\t" + intent.id() + "\t" + encode(relative(intent.prepared())) + "\t" + intent.algorithm()
+                + "\t" + intent.checksum();
+    }
+
+    // Paden binnen de storage root relatief opslaan, zodat de root verplaatst kan worden
+    private String relative(Path path) {
+        Path absolute = path.toAbsolutePath().normalize();
+        Path base = root.toAbsolutePath().normalize();
+        return absolute.startsWith(base) ? base.relativize(absolute).toString() : absolute.toString();
+    }
+
+    private Path resolve(String value) {
+        return "-".equals(value) ? null : root.resolve(decode(value));
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+}
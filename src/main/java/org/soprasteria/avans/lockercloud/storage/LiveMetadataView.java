@@ -0,0 +1,316 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.soprasteria.avans.lockercloud.model.FileMetadata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Metadata of the files below a directory, kept up to date by a
+ * {@link WatchService} instead of walking and hashing the directory on every sync.
+ * <p>
+ * Events are collected per file name and only processed once the file has been
+ * quiet for the debounce interval, so a burst of writes costs one rehash. A file
+ * is only rehashed when its size, modification time or file key changed. When the
+ * watch service overflows for a directory, that directory is rescanned by
+ * comparing attributes; files whose attributes are unchanged are not read.
+ * <p>
+ * When a directory cannot be watched, for example because the inotify watch limit
+ * is reached, the view marks itself {@linkplain #isDegraded() degraded}: changes in
+ * that directory would go unnoticed, so callers scan the directory instead.
+ * <p>
+ * Files are tracked by name; the {@code locator} decides where a name lives, so a
+ * file that moves between the flat and the sharded layout keeps its entry.
+ * <p>
+ * Changes made through the application are applied with {@link #update} as they
+ * are committed, so a reader sees them at once; the watcher exists for changes
+ * made outside the application.
+ */
+public class LiveMetadataView implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(LiveMetadataView.class);
+
+    /** Reads the metadata of a file that is new or changed. */
+    @FunctionalInterface
+    public interface MetadataReader {
+        FileMetadata read(Path file, BasicFileAttributes attrs) throws IOException;
+    }
+
+    private record Tracked(Path path, FileMetadata meta, long size, FileTime modified, Object fileKey) {
+        boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size() && modified.equals(attrs.lastModifiedTime())
+                    && Objects.equals(fileKey, attrs.fileKey());
+        }
+    }
+
+    private final Path root;
+    private final Function<String, Path> locator;
+    private final Predicate<Path> watchDirectory;
+    private final Predicate<Path> includeFile;
+    private final MetadataReader reader;
+    private final long debounceNanos;
+    private final Map<String, Tracked> files = new ConcurrentHashMap<>();
+    private final Map<String, Long> pending = new HashMap<>();
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicLong rehashes = new AtomicLong();
+    private WatchService watchService;
+    private Thread thread;
+    private volatile boolean running;
+    private volatile boolean degraded;
+
+    /**
+     * @param root           directory to watch
+     * @param locator        current location of a file name, or null if it has none
+     * @param watchDirectory which directories below the root are watched as well
+     * @param includeFile    which files are part of the view
+     * @param reader         computes the metadata, including the checksum, of a file
+     * @param debounceMillis how long a file has to be quiet before it is rehashed
+     */
+    public LiveMetadataView(Path root, Function<String, Path> locator, Predicate<Path> watchDirectory,
+                            Predicate<Path> includeFile, MetadataReader reader, long debounceMillis) {
+        this.root = root;
+        this.locator = locator;
+        this.watchDirectory = watchDirectory;
+        this.includeFile = includeFile;
+        this.reader = reader;
+        this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+    }
+
+    /** Registers the watches, scans the directory once and starts following changes. */
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        watchService = root.getFileSystem().newWatchService();
+        // Eerst registreren en dan scannen, zodat er tussendoor geen wijziging verloren gaat
+        registerTree(root);
+        running = true;
+        thread = new Thread(this::run, "metadata-watch-" + root.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+        logger.info("Watching {} with {} files", root, files.size());
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Whether some directory could not be watched. A degraded view misses changes
+     * there and must not be used in place of a scan.
+     */
+    public boolean isDegraded() {
+        return degraded;
+    }
+
+    /**
+     * Brings the entry of {@code name} up to date right away, without waiting for
+     * the watcher: for a file the caller has just written or deleted.
+     */
+    public synchronized void update(String name) {
+        if (running) {
+            refresh(name);
+        }
+    }
+
+    /** Metadata of every file in the view, by name. */
+    public Map<String, FileMetadata> snapshot() {
+        Map<String, FileMetadata> snapshot = new HashMap<>();
+        files.forEach((name, tracked) -> snapshot.put(name, tracked.meta()));
+        return snapshot;
+    }
+
+    /** Increases with every change to the view. */
+    public long version() {
+        return version.get();
+    }
+
+    /** Number of files read by the {@link MetadataReader} so far. */
+    public long rehashCount() {
+        return rehashes.get();
+    }
+
+    private void run() {
+        long pollMillis = Math.max(10, TimeUnit.NANOSECONDS.toMillis(debounceNanos) / 2);
+        try {
+            while (running) {
+                WatchKey key = watchService.poll(pollMillis, TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    handle(key);
+                    key = watchService.poll();
+                }
+                flush(System.nanoTime());
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // gestopt
+        } catch (RuntimeException e) {
+            logger.error("Watcher for {} stopped: {}", root, e.getMessage());
+            running = false;
+        }
+    }
+
+    private synchronized void handle(WatchKey key) {
+        Path dir = keys.get(key);
+        if (dir == null) {
+            key.cancel();
+            return;
+        }
+        long now = System.nanoTime();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                logger.warn("Watch events for {} overflowed, rescanning the directory", dir);
+                rescan(dir);
+                continue;
+            }
+            Path child = dir.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                if (watchDirectory.test(child)) {
+                    registerTree(child);
+                }
+                continue;
+            }
+            pending.put(child.getFileName().toString(), now);
+        }
+        if (!key.reset()) {
+            // Map is verdwenen: alles wat erin stond opnieuw bekijken
+            keys.remove(key);
+            files.forEach((name, tracked) -> {
+                if (tracked.path().startsWith(dir)) {
+                    pending.put(name, now);
+                }
+            });
+        }
+    }
+
+    // Verwerk alleen namen die de debounce-tijd stil zijn geweest
+    private synchronized void flush(long now) {
+        Iterator<Map.Entry<String, Long>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            if (now - entry.getValue() >= debounceNanos) {
+                it.remove();
+                refresh(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Brings the files directly in {@code dir} up to date by comparing attributes,
+     * and starts watching subdirectories that are not watched yet.
+     */
+    synchronized void rescan(Path dir) {
+        Set<String> names = new HashSet<>();
+        files.forEach((name, tracked) -> {
+            if (dir.equals(tracked.path().getParent())) {
+                names.add(name);
+            }
+        });
+        try (Stream<Path> stream = Files.list(dir)) {
+            for (Path child : (Iterable<Path>) stream::iterator) {
+                if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                    if (watchDirectory.test(child) && !keys.containsValue(child)) {
+                        registerTree(child);
+                    }
+                } else {
+                    names.add(child.getFileName().toString());
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Could not rescan {}: {}", dir, e.getMessage());
+        }
+        names.forEach(this::refresh);
+    }
+
+    private void registerTree(Path dir) {
+        try {
+            try {
+                keys.put(dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+            } catch (NoSuchFileException e) {
+                return; // map is alweer verdwenen
+            } catch (IOException e) {
+                // Bijvoorbeeld de inotify-limiet: deze map wordt niet gevolgd, dus de view is onvolledig
+                degraded = true;
+                logger.warn("Could not watch {}, callers fall back to scanning: {}", dir, e.getMessage());
+                return;
+            }
+            try (Stream<Path> stream = Files.list(dir)) {
+                for (Path child : (Iterable<Path>) stream::iterator) {
+                    if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                        if (watchDirectory.test(child)) {
+                            registerTree(child);
+                        }
+                    } else {
+                        refresh(child.getFileName().toString());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Could not watch {}: {}", dir, e.getMessage());
+        }
+    }
+
+    private void refresh(String name) {
+        Path path = locator.apply(name);
+        Tracked current = files.get(name);
+        try {
+            if (path == null || !Files.isRegularFile(path) || !includeFile.test(path)) {
+                if (files.remove(name) != null) {
+                    version.incrementAndGet();
+                }
+                return;
+            }
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            if (current != null && current.matches(attrs)) {
+                if (!current.path().equals(path)) {
+                    files.put(name, new Tracked(path, current.meta(), current.size(), current.modified(), current.fileKey()));
+                }
+                return;
+            }
+            FileMetadata meta = reader.read(path, attrs);
+            rehashes.incrementAndGet();
+            files.put(name, new Tracked(path, meta, attrs.size(), attrs.lastModifiedTime(), attrs.fileKey()));
+            version.incrementAndGet();
+        } catch (NoSuchFileException e) {
+            if (files.remove(name) != null) {
+                version.incrementAndGet();
+            }
+        } catch (IOException e) {
+            logger.warn("Could not read metadata of '{}': {}", name, e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        Thread t;
+        synchronized (this) {
+            running = false;
+            t = thread;
+            thread = null;
+            if (watchService != null) {
+                watchService.close();
+            }
+        }
+        if (t != null) {
+            try {
+                t.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
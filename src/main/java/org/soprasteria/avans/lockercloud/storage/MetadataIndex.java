@@ -0,0 +1,360 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import org.slf4j.Logger;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithm;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithms;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent checksum index for the files in the storage directory.
+ * Entries are keyed by file name and are only trusted while size, modification
+ * time and file key (inode) still match the file on disk, so a checksum is
+ * computed once when a file is written and served from the index afterwards.
+ * <p>
+ * The index is kept in memory and persisted as an append-only log inside the
+ * internal {@value #INTERNAL_DIR} directory. The log is compacted on load and
+ * whenever it grows well beyond the number of live entries.
+ * <p>
+ * An entry can hold checksums in several algorithms; the algorithm a client
+ * negotiated on upload is recorded directly, others are computed on first request
+ * and added to the entry while the file is unchanged.
+ */
+public class MetadataIndex {
+
+    /** Directory inside the storage root that holds internal bookkeeping files. */
+    public static final String INTERNAL_DIR = ".lockercloud";
+    private static final String INDEX_FILE = "metadata.idx";
+    private static final int COMPACT_SLACK = 1024;
+
+    private static final Logger logger = LoggerFactory.getLogger(MetadataIndex.class);
+
+    /** Computes the checksum of a file when the index has no valid entry for it. */
+    @FunctionalInterface
+    public interface Hasher {
+        String hash(Path file, ChecksumAlgorithm algorithm) throws IOException;
+    }
+
+    private final StorageLayout layout;
+    private final Path indexFile;
+    private final Hasher hasher;
+    private final ParallelScanner scanner;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private BufferedWriter log;
+    private int logRecords;
+
+    public MetadataIndex(Path storageRoot, Hasher hasher) {
+        this(new StorageLayout(storageRoot), hasher);
+    }
+
+    public MetadataIndex(StorageLayout layout, Hasher hasher) {
+        this(layout, hasher, null);
+    }
+
+    /**
+     * @param scanner hashes the files of a rebuild in parallel; null rebuilds one file at a time
+     */
+    public MetadataIndex(StorageLayout layout, Hasher hasher, ParallelScanner scanner) {
+        this.layout = layout;
+        this.indexFile = layout.root().resolve(INTERNAL_DIR).resolve(INDEX_FILE);
+        this.hasher = hasher;
+        this.scanner = scanner;
+        load();
+    }
+
+    /**
+     * Returns the checksum of a stored file, computing and recording it only when
+     * the index has no entry or the entry no longer matches the file attributes.
+     */
+    public String checksum(Path file, BasicFileAttributes attrs) throws IOException {
+        return checksum(file, attrs, ChecksumAlgorithms.DEFAULT);
+    }
+
+    /**
+     * Returns the checksum of a stored file in the given algorithm, computing it only
+     * when the index has no valid entry or the entry lacks that algorithm.
+     */
+    public String checksum(Path file, BasicFileAttributes attrs, ChecksumAlgorithm algorithm) throws IOException {
+        String name = file.getFileName().toString();
+        String key = key(algorithm);
+        Entry entry = entries.get(name);
+        if (entry != null && entry.matches(attrs)) {
+            String checksum = entry.checksums.get(key);
+            if (checksum != null) {
+                return checksum;
+            }
+        } else {
+            entry = null;
+        }
+        String checksum = hasher.hash(file, algorithm);
+        put(name, entry != null ? entry.with(key, checksum) : new Entry(Map.of(key, checksum), attrs));
+        return checksum;
+    }
+
+    /**
+     * Records the MD5 checksum of a file that was just written to the storage directory.
+     */
+    public void record(String name, String checksum) {
+        record(name, ChecksumAlgorithms.DEFAULT, checksum);
+    }
+
+    /**
+     * Records the checksum of a file that was just written to the storage directory,
+     * replacing everything known about the previous version of the file.
+     */
+    public void record(String name, ChecksumAlgorithm algorithm, String checksum) {
+        record(name, Map.of(algorithm, checksum));
+    }
+
+    /**
+     * Records checksums in several algorithms that were computed in the same pass
+     * over a file that was just written, replacing the previous version's entry.
+     */
+    public void record(String name, Map<ChecksumAlgorithm, String> checksums) {
+        Path file = layout.locate(name);
+        try {
+            if (file == null) {
+                throw new NoSuchFileException(name);
+            }
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            Map<String, String> keyed = new LinkedHashMap<>();
+            checksums.forEach((algorithm, checksum) -> keyed.put(key(algorithm), checksum));
+            put(name, new Entry(keyed, attrs));
+        } catch (IOException e) {
+            logger.warn("Could not index '{}': {}", name, e.getMessage());
+            remove(name);
+        }
+    }
+
+    public synchronized void remove(String name) {
+        if (entries.remove(name) != null) {
+            append("D\t" + encode(name));
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Discards all entries and rehashes every file in the storage directory.
+     */
+    public synchronized void rebuild() {
+        entries.clear();
+        try {
+            Collection<Path> files = layout.files().values();
+            if (scanner != null) {
+                scanner.scan(files, (file, attrs) -> new Entry(Map.of(key(ChecksumAlgorithms.DEFAULT),
+                                hasher.hash(file, ChecksumAlgorithms.DEFAULT)), attrs))
+                       .results().forEach((file, entry) -> entries.put(file.getFileName().toString(), entry));
+            } else {
+                for (Path file : files) {
+                    try {
+                        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                        String checksum = hasher.hash(file, ChecksumAlgorithms.DEFAULT);
+                        entries.put(file.getFileName().toString(), new Entry(Map.of(key(ChecksumAlgorithms.DEFAULT), checksum), attrs));
+                    } catch (IOException e) {
+                        logger.error("Index rebuild: could not hash '{}': {}", file.getFileName(), e.getMessage());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Index rebuild: could not list '{}': {}", layout.root(), e.getMessage());
+        }
+        compact();
+        logger.info("Rebuilt metadata index for {} with {} entries", layout.root(), entries.size());
+    }
+
+    /**
+     * Consistency check: drops entries whose file disappeared, rehashes entries whose
+     * attributes changed and indexes files that are missing from the index. Only
+     * changed files are read; unchanged files cost a single stat call.
+     *
+     * @return the number of entries that were corrected
+     */
+    public synchronized int verify() {
+        int corrected = 0;
+        Map<String, Path> paths;
+        Map<String, BasicFileAttributes> onDisk = new HashMap<>();
+        try {
+            paths = layout.files();
+            for (Map.Entry<String, Path> file : paths.entrySet()) {
+                onDisk.put(file.getKey(), Files.readAttributes(file.getValue(), BasicFileAttributes.class));
+            }
+        } catch (IOException e) {
+            logger.error("Index verify: could not list '{}': {}", layout.root(), e.getMessage());
+            return 0;
+        }
+        for (String name : entries.keySet()) {
+            if (!onDisk.containsKey(name)) {
+                remove(name);
+                corrected++;
+            }
+        }
+        for (Map.Entry<String, BasicFileAttributes> file : onDisk.entrySet()) {
+            Entry entry = entries.get(file.getKey());
+            if (entry == null || !entry.matches(file.getValue())) {
+                try {
+                    checksum(paths.get(file.getKey()), file.getValue());
+                    corrected++;
+                } catch (IOException e) {
+                    logger.error("Index verify: could not hash '{}': {}", file.getKey(), e.getMessage());
+                }
+            }
+        }
+        return corrected;
+    }
+
+    private synchronized void put(String name, Entry entry) {
+        entries.put(name, entry);
+        append(format(name, entry));
+    }
+
+    private void load() {
+        if (!Files.exists(indexFile)) {
+            rebuild();
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] f = line.split("\t");
+                if (f.length == 2 && "D".equals(f[0])) {
+                    entries.remove(decode(f[1]));
+                } else if (f.length == 6 && "P".equals(f[0])) {
+                    entries.put(decode(f[1]), new Entry(parseChecksums(f[5]), Long.parseLong(f[2]),
+                            Long.parseLong(f[3]), decode(f[4])));
+                }
+                // a torn last line after a crash is simply ignored
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Metadata index {} is unreadable, rebuilding: {}", indexFile, e.getMessage());
+            rebuild();
+            return;
+        }
+        int corrected = verify();
+        compact();
+        logger.info("Loaded metadata index with {} entries ({} corrected)", entries.size(), corrected);
+    }
+
+    private void append(String record) {
+        try {
+            if (log == null) {
+                Files.createDirectories(indexFile.getParent());
+                log = Files.newBufferedWriter(indexFile, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            log.write(record);
+            log.newLine();
+            log.flush();
+            if (++logRecords > 2 * entries.size() + COMPACT_SLACK) {
+                compact();
+            }
+        } catch (IOException e) {
+            logger.error("Could not append to metadata index {}: {}", indexFile, e.getMessage());
+        }
+    }
+
+    /** Rewrites the log so it holds exactly one record per live entry. */
+    private synchronized void compact() {
+        Path tmp = indexFile.resolveSibling(INDEX_FILE + ".tmp");
+        try {
+            if (log != null) {
+                log.close();
+                log = null;
+            }
+            Files.createDirectories(indexFile.getParent());
+            try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                    out.write(format(e.getKey(), e.getValue()));
+                    out.newLine();
+                }
+            }
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logRecords = entries.size();
+        } catch (IOException e) {
+            logger.error("Could not compact metadata index {}: {}", indexFile, e.getMessage());
+        }
+    }
+
+    private static String format(String name, Entry entry) {
+        StringBuilder checksums = new StringBuilder();
+        for (Map.Entry<String, String> c : entry.checksums.entrySet()) {
+            if (checksums.length() > 0) {
+                checksums.append(',');
+            }
+            checksums.append(c.getKey()).append('=').append(c.getValue());
+        }
+        return "P\t" + encode(name) + "\t" + entry.size + "\t" + entry.lastModified
+                + "\t" + encode(entry.fileKey) + "\t" + checksums;
+    }
+
+    // Oude regels bevatten alleen een MD5 zonder algoritmenaam
+    private static Map<String, String> parseChecksums(String field) {
+        if (field.indexOf('=') < 0) {
+            return Map.of(key(ChecksumAlgorithms.DEFAULT), field);
+        }
+        Map<String, String> checksums = new LinkedHashMap<>();
+        for (String pair : field.split(",")) {
+            int eq = pair.indexOf('=');
+            checksums.put(pair.substring(0, eq), pair.substring(eq + 1));
+        }
+        return checksums;
+    }
+
+    private static String key(ChecksumAlgorithm algorithm) {
+        return algorithm.name().toUpperCase(Locale.ROOT);
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+
+    private static final class Entry {
+        private final Map<String, String> checksums;
+        private final long size;
+        private final long lastModified;
+        private final String fileKey;
+
+        Entry(Map<String, String> checksums, long size, long lastModified, String fileKey) {
+            this.checksums = checksums;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+        }
+
+        Entry(Map<String, String> checksums, BasicFileAttributes attrs) {
+            this(checksums, attrs.size(), attrs.lastModifiedTime().toMillis(), String.valueOf(attrs.fileKey()));
+        }
+
+        Entry with(String algorithm, String checksum) {
+            Map<String, String> merged = new LinkedHashMap<>(checksums);
+            merged.put(algorithm, checksum);
+            return new Entry(merged, size, lastModified, fileKey);
+        }
+
+        boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size()
+                    && lastModified == attrs.lastModifiedTime().toMillis()
+                    && fileKey.equals(String.valueOf(attrs.fileKey()));
+        }
+    }
+}
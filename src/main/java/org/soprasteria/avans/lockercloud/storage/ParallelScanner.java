@@ -0,0 +1,211 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithm;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithms;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumHasher;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Reads and hashes many files at once on a dedicated fork-join pool, so scans
+ * keep several requests in flight on the storage devices instead of one.
+ * <p>
+ * The pool size bounds the number of files processed at the same time. Files
+ * larger than {@link #LARGE_FILE_THRESHOLD} are read as ranges of
+ * {@link #RANGE_SIZE}; up to {@value #READ_AHEAD} ranges are read in parallel
+ * while the previous ones are hashed in order, because the supported checksums
+ * (apart from the tree hash) cannot be computed out of order.
+ * <p>
+ * A file that fails with an I/O error is retried a few times and then skipped and
+ * reported; a file that disappeared during the scan is skipped silently.
+ */
+public class ParallelScanner implements Closeable {
+
+    public static final long LARGE_FILE_THRESHOLD = 64L * 1024 * 1024;
+    public static final int RANGE_SIZE = 8 * 1024 * 1024;
+    static final int READ_AHEAD = 4;
+    private static final int DEFAULT_RETRIES = 2;
+    private static final long RETRY_DELAY_MS = 50;
+
+    private static final Logger logger = LoggerFactory.getLogger(ParallelScanner.class);
+
+    /** Work done for one file. */
+    @FunctionalInterface
+    public interface FileTask<T> {
+        T apply(Path file, BasicFileAttributes attrs) throws IOException;
+    }
+
+    /** Progress of a scan, reported after every file. */
+    public record Progress(int filesDone, int filesTotal, long bytesDone, int failed) {
+    }
+
+    /** Results by file and the files that still failed after retrying. */
+    public record Result<T>(Map<Path, T> results, Map<Path, IOException> failures) {
+    }
+
+    private final ForkJoinPool pool;
+    private final int retries;
+
+    /** @param concurrency number of files processed at once; 0 or less uses the number of cores */
+    public ParallelScanner(int concurrency) {
+        this(concurrency, DEFAULT_RETRIES);
+    }
+
+    public ParallelScanner(int concurrency, int retries) {
+        int parallelism = concurrency > 0 ? concurrency : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threads = new AtomicInteger();
+        this.pool = new ForkJoinPool(parallelism, p -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setName("metadata-scan-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, null, false);
+        this.retries = retries;
+    }
+
+    public int concurrency() {
+        return pool.getParallelism();
+    }
+
+    public <T> Result<T> scan(Collection<Path> files, FileTask<T> task) {
+        return scan(files, task, progress -> { });
+    }
+
+    /**
+     * Runs {@code task} for every file in parallel and waits for all of them.
+     */
+    public <T> Result<T> scan(Collection<Path> files, FileTask<T> task, Consumer<Progress> progress) {
+        Map<Path, T> results = new ConcurrentHashMap<>();
+        Map<Path, IOException> failures = new ConcurrentHashMap<>();
+        AtomicInteger done = new AtomicInteger();
+        AtomicLong bytes = new AtomicLong();
+        int total = files.size();
+
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(total);
+        for (Path file : files) {
+            tasks.add(pool.submit(() -> {
+                try {
+                    BasicFileAttributes attrs = withRetry(file, () -> Files.readAttributes(file, BasicFileAttributes.class));
+                    T result = withRetry(file, () -> task.apply(file, attrs));
+                    if (result != null) {
+                        results.put(file, result);
+                    }
+                    bytes.addAndGet(attrs.size());
+                } catch (NoSuchFileException e) {
+                    // Tijdens de scan verwijderd: overslaan
+                } catch (IOException e) {
+                    logger.warn("Scan: skipping '{}': {}", file, e.getMessage());
+                    failures.put(file, e);
+                }
+                int n = done.incrementAndGet();
+                synchronized (progress) {
+                    progress.accept(new Progress(n, total, bytes.get(), failures.size()));
+                }
+            }));
+        }
+        for (ForkJoinTask<?> t : tasks) {
+            t.join();
+        }
+        return new Result<>(results, failures);
+    }
+
+    /**
+     * Hashes a file, reading large files as parallel ranges that are hashed in order.
+     */
+    public String hash(Path file, ChecksumAlgorithm algorithm) throws IOException {
+        if (Files.size(file) < LARGE_FILE_THRESHOLD) {
+            return ChecksumAlgorithms.hash(algorithm, file);
+        }
+        ChecksumHasher hasher = algorithm.newHasher();
+        Deque<ForkJoinTask<ByteBuffer>> inFlight = new ArrayDeque<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long next = 0;
+            while (next < size || !inFlight.isEmpty()) {
+                while (next < size && inFlight.size() < READ_AHEAD) {
+                    long position = next;
+                    int length = (int) Math.min(RANGE_SIZE, size - position);
+                    inFlight.add(pool.submit(() -> readRange(channel, position, length)));
+                    next += length;
+                }
+                ByteBuffer range = join(inFlight.poll());
+                hasher.update(range.array(), 0, range.limit());
+            }
+        } finally {
+            inFlight.forEach(t -> t.cancel(true));
+        }
+        return hasher.hexDigest();
+    }
+
+    private static ByteBuffer readRange(FileChannel channel, long position, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    break; // bestand is tijdens het lezen ingekort
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static <T> T join(ForkJoinTask<T> task) throws IOException {
+        try {
+            return task.join();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private interface IoCall<T> {
+        T call() throws IOException;
+    }
+
+    private <T> T withRetry(Path file, IoCall<T> call) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return call.call();
+            } catch (NoSuchFileException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt >= retries) {
+                    throw e;
+                }
+                logger.debug("Scan: retrying '{}' after: {}", file, e.getMessage());
+                try {
+                    Thread.sleep(RETRY_DELAY_MS * (attempt + 1));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,170 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithms;
+import org.soprasteria.avans.lockercloud.exception.FileStorageException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * On-disk layout of the storage root.
+ * <pre>
+ * filestorage/
+ *   objects/ab/cd/&lt;name&gt;   stored files, fanned out on a hash of the name
+ *   .lockercloud/tmp/        staged files that are being written
+ *   .lockercloud/uploads/    data of open upload sessions
+ *   &lt;name&gt;                   files of the old flat layout, until migrated
+ * </pre>
+ * A two-level prefix of the XXH64 hash of the file name spreads files over
+ * 65536 directories, so a lookup resolves one path and never scans a large
+ * directory. Files of the flat layout are still found until
+ * {@link FlatLayoutMigration} has moved them. The names of the layout's own
+ * directories are reserved and cannot be used for files.
+ */
+public class StorageLayout {
+
+    public static final String OBJECTS_DIR = "objects";
+
+    private final Path root;
+    private final Path objects;
+    private final Path staging;
+    private final Path uploads;
+
+    public StorageLayout(Path root) {
+        this.root = root;
+        this.objects = root.resolve(OBJECTS_DIR);
+        Path internal = root.resolve(MetadataIndex.INTERNAL_DIR);
+        this.staging = internal.resolve("tmp");
+        this.uploads = internal.resolve("uploads");
+    }
+
+    public Path root() {
+        return root;
+    }
+
+    /** Directory for files that are being written; same file system as the objects. */
+    public Path stagingDir() {
+        return staging;
+    }
+
+    public Path uploadsDir() {
+        return uploads;
+    }
+
+    /**
+     * Sharded location of a file, whether or not it exists.
+     *
+     * @throws FileStorageException if the name is reserved
+     */
+    public Path pathFor(String name) {
+        checkName(name);
+        String hash = nameHash(name);
+        return objects.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(name);
+    }
+
+    /** XXH64 of the UTF-8 file name in hex; its first four digits select the shard. */
+    public static String nameHash(String name) {
+        return ChecksumAlgorithms.hash(ChecksumAlgorithms.XXH64, name.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Location of a file in the old flat layout.
+     *
+     * @throws FileStorageException if the name is reserved
+     */
+    public Path legacyPath(String name) {
+        checkName(name);
+        return root.resolve(name);
+    }
+
+    /** True for the names of the layout's directories in the root, which no file may take. */
+    public boolean isReserved(String name) {
+        return OBJECTS_DIR.equalsIgnoreCase(name) || MetadataIndex.INTERNAL_DIR.equalsIgnoreCase(name);
+    }
+
+    /** Rejects a reserved name before any work is done for it. */
+    public void checkName(String name) {
+        if (isReserved(name)) {
+            throw new FileStorageException("File name '" + name + "' is reserved");
+        }
+    }
+
+    /** Sharded location of a file with its shard directories created. */
+    public Path prepare(String name) throws IOException {
+        Path path = pathFor(name);
+        Files.createDirectories(path.getParent());
+        return path;
+    }
+
+    /**
+     * Returns where a file currently is: its sharded location, or the flat
+     * location if it has not been migrated yet. Returns null if neither exists.
+     */
+    public Path locate(String name) {
+        if (isReserved(name)) {
+            return null;
+        }
+        Path sharded = pathFor(name);
+        if (Files.isRegularFile(sharded)) {
+            return sharded;
+        }
+        Path legacy = legacyPath(name);
+        if (Files.isRegularFile(legacy)) {
+            return legacy;
+        }
+        // De migratie kan het bestand net verplaatst hebben
+        return Files.isRegularFile(sharded) ? sharded : null;
+    }
+
+    /**
+     * All stored files by name. A sharded file wins over a stale flat copy with
+     * the same name; chunk files of the flat layout are left out.
+     */
+    public Map<String, Path> files() throws IOException {
+        Map<String, Path> files = new LinkedHashMap<>();
+        if (Files.isDirectory(objects)) {
+            try (Stream<Path> stream = Files.walk(objects, 3)) {
+                stream.filter(path -> path.getNameCount() - objects.getNameCount() == 3)
+                      .filter(Files::isRegularFile)
+                      .forEach(path -> files.put(path.getFileName().toString(), path));
+            }
+        }
+        for (Path path : legacyFiles()) {
+            files.putIfAbsent(path.getFileName().toString(), path);
+        }
+        return files;
+    }
+
+    /** Regular files left in the flat root, excluding chunk files. */
+    public List<Path> legacyFiles() throws IOException {
+        try (Stream<Path> stream = Files.list(root)) {
+            return stream.filter(Files::isRegularFile)
+                         .filter(path -> !isLegacyChunk(path.getFileName().toString()))
+                         .toList();
+        }
+    }
+
+    /** True for the root, the objects directory and the shard directories below it. */
+    public boolean isLayoutDirectory(Path dir) {
+        return dir.equals(root) || (dir.startsWith(objects) && dir.getNameCount() - objects.getNameCount() <= 2);
+    }
+
+    /** True for a file in a shard directory, or a flat file that is not a chunk. */
+    public boolean isStoredFile(Path file) {
+        Path parent = file.getParent();
+        if (root.equals(parent)) {
+            return !isLegacyChunk(file.getFileName().toString());
+        }
+        return parent != null && parent.startsWith(objects) && parent.getNameCount() - objects.getNameCount() == 2;
+    }
+
+    static boolean isLegacyChunk(String name) {
+        return name.contains(".part");
+    }
+}
@@ -0,0 +1,352 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Read-only {@link org.springframework.core.io.Resource} over a stored file or over
+ * the ordered {@code .partN} chunk set of a file that was never assembled.
+ * <p>
+ * The channels of all segments are opened when the resource is created, so the
+ * resource keeps reading the files it was opened on even if they are replaced or
+ * deleted afterwards; create it under the read lock of the file and length,
+ * checksum and content all describe the same version. Closing the resource
+ * closes the channels; every stream shares them and reads by position.
+ * <p>
+ * The stream reads the segments through {@link FileChannel} positional reads, so
+ * heap use does not depend on the file size. {@code skip} only moves the read
+ * position and {@code transferTo} hands each segment to {@link FileChannel#transferTo}
+ * instead of copying it through a user-space buffer. Segments stored as a
+ * {@link CompressedFile} are decoded while reading; a skip there only decodes the
+ * block it lands in, so Range requests stay cheap. A resource created with the
+ * content from the {@link FileReadCache} is served from that buffer and does not
+ * touch the disk at all.
+ */
+public class StoredFileResource extends AbstractResource implements Closeable {
+
+    private final String fileName;
+    private final List<Path> segments;
+    private final SeekableByteChannel[] channels;
+    private final BasicFileAttributes[] opened;
+    private final long[] offsets;
+    private final long length;
+    private final ByteBuffer cached;
+
+    /** Opens the segments; call it under the read lock of the file. */
+    public StoredFileResource(String fileName, List<Path> segments) throws IOException {
+        this.fileName = fileName;
+        this.segments = List.copyOf(segments);
+        this.channels = new SeekableByteChannel[this.segments.size()];
+        this.opened = new BasicFileAttributes[this.segments.size()];
+        this.offsets = new long[this.segments.size() + 1];
+        try {
+            for (int i = 0; i < this.segments.size(); i++) {
+                channels[i] = CompressedFile.open(this.segments.get(i));
+                opened[i] = Files.readAttributes(this.segments.get(i), BasicFileAttributes.class);
+                offsets[i + 1] = offsets[i] + channels[i].size();
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        this.length = offsets[this.segments.size()];
+        this.cached = null;
+    }
+
+    /** A stored file whose content is already in memory; {@code file} is only used for its metadata. */
+    public StoredFileResource(String fileName, Path file, ByteBuffer content) {
+        this(fileName, file, content, null);
+    }
+
+    /**
+     * A stored file whose content is already in memory.
+     *
+     * @param attrs attributes of {@code file} when the content was read, or null to use the file as it is now
+     */
+    public StoredFileResource(String fileName, Path file, ByteBuffer content, BasicFileAttributes attrs) {
+        this.fileName = fileName;
+        this.segments = List.of(file);
+        this.channels = null;
+        this.opened = attrs != null ? new BasicFileAttributes[] {attrs} : null;
+        this.offsets = new long[] {0, content.remaining()};
+        this.length = content.remaining();
+        this.cached = content;
+    }
+
+    /** True if the content is served from memory. */
+    public boolean isCached() {
+        return cached != null;
+    }
+
+    public List<Path> getSegments() {
+        return segments;
+    }
+
+    @Override
+    public String getFilename() {
+        return fileName;
+    }
+
+    @Override
+    public String getDescription() {
+        return "stored file [" + fileName + "] in " + segments.size() + " segment(s)";
+    }
+
+    @Override
+    public boolean exists() {
+        return segments.stream().allMatch(Files::isRegularFile);
+    }
+
+    @Override
+    public long contentLength() {
+        return length;
+    }
+
+    @Override
+    public long lastModified() throws IOException {
+        long last = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            long modified = opened != null ? opened[i].lastModifiedTime().toMillis()
+                    : Files.getLastModifiedTime(segments.get(i)).toMillis();
+            last = Math.max(last, modified);
+        }
+        return last;
+    }
+
+    /**
+     * Attributes of the single stored file this resource was opened on, or null
+     * for a chunk set or when they are not known.
+     */
+    public BasicFileAttributes openedAttributes() {
+        return opened != null && opened.length == 1 ? opened[0] : null;
+    }
+
+    /** True if every segment on disk is still the version this resource was opened on. */
+    public boolean isUnchanged() throws IOException {
+        if (opened == null) {
+            return true;
+        }
+        for (int i = 0; i < segments.size(); i++) {
+            BasicFileAttributes now;
+            try {
+                now = Files.readAttributes(segments.get(i), BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                return false;
+            }
+            if (now.size() != opened[i].size() || !now.lastModifiedTime().equals(opened[i].lastModifiedTime())
+                    || !Objects.equals(now.fileKey(), opened[i].fileKey())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return cached != null ? new BufferInputStream(cached.duplicate()) : new SegmentInputStream();
+    }
+
+    /** Stream over cached content; every stream reads its own view of the shared buffer. */
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public long transferTo(OutputStream out) throws IOException {
+            int n = buffer.remaining();
+            WritableByteChannel target = Channels.newChannel(out);
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            return n;
+        }
+    }
+
+    /** Closes the channels of the segments; streams of this resource can no longer be read. */
+    @Override
+    public void close() throws IOException {
+        if (channels == null) {
+            return;
+        }
+        IOException failure = null;
+        for (SeekableByteChannel channel : channels) {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * A stream for a resource that is read exactly once: closing the stream
+     * closes the resource as well.
+     */
+    public InputStream getOwningInputStream() {
+        return new FilterInputStream(getInputStream()) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    StoredFileResource.this.close();
+                }
+            }
+        };
+    }
+
+    // Een FileChannel leest positioneel; gedecodeerde kanalen delen hun positie en worden om beurten gelezen
+    private static int readAt(SeekableByteChannel ch, ByteBuffer dst, long at) throws IOException {
+        if (ch instanceof FileChannel fc) {
+            return fc.read(dst, at);
+        }
+        synchronized (ch) {
+            return ch.position(at).read(dst);
+        }
+    }
+
+    /**
+     * Stream that walks the segments in order. The position is global over the
+     * concatenated content; the channels belong to the resource.
+     */
+    private class SegmentInputStream extends InputStream {
+        private long position;
+        private int segment = -1;
+
+        private SeekableByteChannel channelAt(long pos) {
+            segment = segmentIndex(pos);
+            return channels[segment];
+        }
+
+        private int segmentIndex(long pos) {
+            int idx = segment >= 0 ? segment : 0;
+            while (idx < segments.size() - 1 && pos >= offsets[idx + 1]) {
+                idx++;
+            }
+            while (idx > 0 && pos < offsets[idx]) {
+                idx--;
+            }
+            return idx;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= length) {
+                return -1;
+            }
+            SeekableByteChannel ch = channelAt(position);
+            long segmentPos = position - offsets[segment];
+            int max = (int) Math.min(len, offsets[segment + 1] - position);
+            int n = readAt(ch, ByteBuffer.wrap(b, off, max), segmentPos);
+            if (n <= 0) {
+                throw new IOException("Segment " + segments.get(segment) + " was truncated while reading");
+            }
+            position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, length - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, length - position);
+        }
+
+        @Override
+        public long transferTo(OutputStream out) throws IOException {
+            WritableByteChannel target = Channels.newChannel(out);
+            long transferred = 0;
+            byte[] buffer = null;
+            while (position < length) {
+                SeekableByteChannel ch = channelAt(position);
+                long end = offsets[segment + 1];
+                long n;
+                if (ch instanceof FileChannel fc) {
+                    n = fc.transferTo(position - offsets[segment], end - position, target);
+                } else {
+                    // Gecomprimeerd segment: gedecodeerde blokken via een buffer doorgeven
+                    buffer = buffer != null ? buffer : new byte[IngestPipeline.DEFAULT_BUFFER_SIZE];
+                    n = read(buffer, 0, (int) Math.min(buffer.length, end - position));
+                    out.write(buffer, 0, (int) n);
+                    transferred += n;
+                    continue;
+                }
+                if (n <= 0) {
+                    throw new IOException("Segment " + segments.get(segment) + " was truncated while reading");
+                }
+                position += n;
+                transferred += n;
+            }
+            return transferred;
+        }
+    }
+}
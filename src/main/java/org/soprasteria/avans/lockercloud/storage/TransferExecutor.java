@@ -0,0 +1,185 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs file transfers on a bounded pool of workers.
+ * <p>
+ * Besides the pool size, every device (file store) allows a limited number of
+ * transfers at once, so one slow disk does not take all workers. Transfers of a
+ * job start smallest first, which makes most files available early.
+ * <p>
+ * Large files on a file system that supports copy-on-write clones (Btrfs, XFS
+ * with reflink) are cloned instead of copied; the data is then shared until one
+ * side changes it. Support is probed once per device; elsewhere the file is
+ * copied normally.
+ */
+public class TransferExecutor implements Closeable {
+
+    /** Files below this size are always copied; starting a clone costs more than copying them. */
+    public static final long CLONE_THRESHOLD = 1024 * 1024;
+
+    private static final Logger logger = LoggerFactory.getLogger(TransferExecutor.class);
+
+    /** Makes a copy-on-write clone of a file. */
+    @FunctionalInterface
+    public interface Cloner {
+        /** @return false if the file system cannot clone; the file is then copied instead */
+        boolean cloneFile(Path source, Path target) throws IOException;
+    }
+
+    private final ThreadPoolExecutor pool;
+    private final int perDevice;
+    private final Cloner cloner;
+    private final Map<Path, FileStore> stores = new ConcurrentHashMap<>();
+    private final Map<FileStore, Semaphore> permits = new ConcurrentHashMap<>();
+    private final Map<FileStore, Boolean> cloneSupport = new ConcurrentHashMap<>();
+
+    /**
+     * @param concurrency number of workers; 0 or less uses twice the number of cores
+     * @param perDevice   transfers at once per device
+     */
+    public TransferExecutor(int concurrency, int perDevice) {
+        this(concurrency, perDevice, TransferExecutor::reflink);
+    }
+
+    public TransferExecutor(int concurrency, int perDevice, Cloner cloner) {
+        int workers = concurrency > 0 ? concurrency : 2 * Runtime.getRuntime().availableProcessors();
+        AtomicInteger threads = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "transfer-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.pool.allowCoreThreadTimeOut(true);
+        this.perDevice = Math.max(1, perDevice);
+        this.cloner = cloner;
+    }
+
+    /** Starts the transfers and returns immediately. */
+    public TransferJob submit(List<TransferJob.Transfer> transfers) {
+        List<TransferJob.Transfer> ordered = new ArrayList<>(transfers);
+        ordered.sort(Comparator.comparingLong(TransferJob.Transfer::size));
+        TransferJob job = new TransferJob(ordered);
+        for (TransferJob.Transfer transfer : ordered) {
+            pool.execute(() -> run(job, transfer));
+        }
+        return job;
+    }
+
+    @SuppressWarnings("try") // de guard wordt alleen vastgehouden, niet gebruikt
+    private void run(TransferJob job, TransferJob.Transfer transfer) {
+        List<Semaphore> held = new ArrayList<>(2);
+        try {
+            FileStore source = store(transfer.sourceRoot());
+            FileStore target = store(transfer.targetRoot());
+            // Vaste volgorde van aanvragen, zodat twee transfers elkaar niet blokkeren
+            List<FileStore> devices = new ArrayList<>(new LinkedHashSet<>(List.of(source, target)));
+            devices.sort(Comparator.comparing(FileStore::toString));
+            for (FileStore device : devices) {
+                Semaphore semaphore = permits.computeIfAbsent(device, d -> new Semaphore(perDevice, true));
+                semaphore.acquire();
+                held.add(semaphore);
+            }
+            if (transfer.guard() != null) {
+                try (Closeable guard = transfer.guard().acquire()) {
+                    copy(transfer, source.equals(target) ? source : null);
+                }
+            } else {
+                copy(transfer, source.equals(target) ? source : null);
+            }
+            transfer.completion().complete(transfer);
+            job.succeeded(transfer);
+        } catch (IOException e) {
+            job.failed(transfer, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.failed(transfer, new IOException("Transfer interrupted", e));
+        } catch (RuntimeException e) {
+            job.failed(transfer, new IOException(e.getMessage(), e));
+        } finally {
+            held.forEach(Semaphore::release);
+        }
+    }
+
+    private void copy(TransferJob.Transfer transfer, FileStore sharedDevice) throws IOException {
+        if (transfer.copier() != null) {
+            transfer.copier().copy(transfer.source(), transfer.target());
+            return;
+        }
+        // Eerst naast het doel schrijven; een mislukte clone of kopie laat het oude bestand staan
+        Path tmp = transfer.target().resolveSibling(transfer.target().getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            boolean cloned = false;
+            if (sharedDevice != null && transfer.size() >= CLONE_THRESHOLD
+                    && !Boolean.FALSE.equals(cloneSupport.get(sharedDevice))) {
+                cloned = cloner.cloneFile(transfer.source(), tmp);
+                if (cloneSupport.put(sharedDevice, cloned) == null && !cloned) {
+                    logger.info("Device {} does not support clones, copying instead", sharedDevice);
+                }
+            }
+            if (!cloned) {
+                Files.copy(transfer.source(), tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            moveIntoPlace(tmp, transfer.target());
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void moveIntoPlace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private FileStore store(Path root) throws IOException {
+        FileStore store = stores.get(root);
+        if (store == null) {
+            store = Files.getFileStore(root);
+            stores.put(root, store);
+        }
+        return store;
+    }
+
+    /** Clones with {@code cp --reflink=always}; there is no Java API for it. */
+    static boolean reflink(Path source, Path target) throws IOException {
+        if (!System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("linux")) {
+            return false;
+        }
+        Process process = new ProcessBuilder("cp", "--reflink=always", source.toString(), target.toString())
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        try {
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                return false;
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while cloning " + source, e);
+        }
+        if (process.exitValue() != 0) {
+            Files.deleteIfExists(target);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,112 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A set of file transfers submitted to a {@link TransferExecutor}. Progress and the
+ * transfers finished so far can be read while the job runs.
+ */
+public final class TransferJob {
+
+    /**
+     * One file to copy. {@code sourceRoot} and {@code targetRoot} identify the
+     * devices involved; {@code completion} runs after the copy, on the worker.
+     * {@code copier} replaces the plain copy or clone, for a source that has to be
+     * transformed on the way such as a compressed file; null copies the bytes.
+     * {@code guard}, if set, is held while the source is copied, for example a
+     * read lock that keeps the source from being replaced halfway.
+     */
+    public record Transfer(String name, Path source, Path target, long size,
+                           Path sourceRoot, Path targetRoot, Completion completion, Copier copier, Guard guard) {
+
+        public Transfer(String name, Path source, Path target, long size,
+                        Path sourceRoot, Path targetRoot, Completion completion, Copier copier) {
+            this(name, source, target, size, sourceRoot, targetRoot, completion, copier, null);
+        }
+
+        public Transfer(String name, Path source, Path target, long size,
+                        Path sourceRoot, Path targetRoot, Completion completion) {
+            this(name, source, target, size, sourceRoot, targetRoot, completion, null, null);
+        }
+    }
+
+    /** Writes the content of {@code source} to {@code target}, replacing it. */
+    @FunctionalInterface
+    public interface Copier {
+        void copy(Path source, Path target) throws IOException;
+    }
+
+    /** Acquired before the copy; the returned handle is closed when the copy is done. */
+    @FunctionalInterface
+    public interface Guard {
+        Closeable acquire() throws IOException;
+    }
+
+    /** Work after a file has been copied, such as moving it into place. */
+    @FunctionalInterface
+    public interface Completion {
+        void complete(Transfer transfer) throws IOException;
+    }
+
+    public record Progress(int done, int total, long bytesDone, long bytesTotal, int failed) {
+        public boolean finished() {
+            return done == total;
+        }
+    }
+
+    private final int total;
+    private final long bytesTotal;
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicLong bytesDone = new AtomicLong();
+    private final Queue<Transfer> completed = new ConcurrentLinkedQueue<>();
+    private final Map<String, IOException> failures = new ConcurrentHashMap<>();
+    private final CountDownLatch latch;
+
+    TransferJob(List<Transfer> transfers) {
+        this.total = transfers.size();
+        this.bytesTotal = transfers.stream().mapToLong(Transfer::size).sum();
+        this.latch = new CountDownLatch(total);
+    }
+
+    void succeeded(Transfer transfer) {
+        completed.add(transfer);
+        bytesDone.addAndGet(transfer.size());
+        finish();
+    }
+
+    void failed(Transfer transfer, IOException e) {
+        failures.put(transfer.name(), e);
+        finish();
+    }
+
+    private void finish() {
+        done.incrementAndGet();
+        latch.countDown();
+    }
+
+    public Progress progress() {
+        return new Progress(done.get(), total, bytesDone.get(), bytesTotal, failures.size());
+    }
+
+    /** Transfers that finished successfully so far, in completion order. */
+    public List<Transfer> completed() {
+        return new ArrayList<>(completed);
+    }
+
+    /** Transfers that failed so far, by file name. */
+    public Map<String, IOException> failures() {
+        return new HashMap<>(failures);
+    }
+
+    public void await() throws InterruptedException {
+        latch.await();
+    }
+}
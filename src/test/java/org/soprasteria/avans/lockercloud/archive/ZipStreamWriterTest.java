@@ -0,0 +1,119 @@
+package org.soprasteria.avans.lockercloud.archive;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ZipStreamWriterTest {
+
+    @TempDir
+    Path dir;
+
+    private final ParallelDeflater deflater = new ParallelDeflater(4, Deflater.DEFAULT_COMPRESSION);
+
+    @AfterEach
+    void tearDown() {
+        deflater.close();
+    }
+
+    private static byte[] text(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ("record " + (i / 50) + ";").charAt(i % 7);
+        }
+        return data;
+    }
+
+    private static long crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    @Test
+    void entries_shouldBeReadableByZipInputStreamAndZipFile() throws Exception {
+        byte[] big = text(50_000);
+        byte[] random = new byte[10_000];
+        new Random(3).nextBytes(random);
+        Path archive = dir.resolve("all.zip");
+        try (OutputStream out = Files.newOutputStream(archive)) {
+            ZipStreamWriter zip = new ZipStreamWriter(out, deflater, 4096);
+            zip.addDeflated("big.log", 0, new ByteArrayInputStream(big));
+            zip.addStored("photo.jpg", System.currentTimeMillis(), random.length, crc(random), new ByteArrayInputStream(random));
+            zip.addDeflated("empty.txt", 0, InputStream.nullInputStream());
+            zip.addDeflated("café.txt", 0, new ByteArrayInputStream("één".getBytes()));
+            zip.finish();
+        }
+
+        Map<String, byte[]> entries = new HashMap<>();
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(archive))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                entries.put(entry.getName(), in.readAllBytes());
+            }
+        }
+        assertArrayEquals(big, entries.get("big.log"));
+        assertArrayEquals(random, entries.get("photo.jpg"));
+        assertArrayEquals(new byte[0], entries.get("empty.txt"));
+        assertArrayEquals("één".getBytes(), entries.get("café.txt"));
+
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            assertEquals(4, zip.size());
+            assertEquals(ZipEntry.STORED, zip.getEntry("photo.jpg").getMethod());
+            assertEquals(ZipEntry.DEFLATED, zip.getEntry("big.log").getMethod());
+            assertTrue(zip.getEntry("big.log").getCompressedSize() < big.length / 4);
+            assertArrayEquals(big, zip.getInputStream(zip.getEntry("big.log")).readAllBytes());
+        }
+    }
+
+    @Test
+    void manyEntries_shouldUseZip64EndRecord() throws Exception {
+        Path archive = dir.resolve("many.zip");
+        int count = 70_000;
+        try (OutputStream out = Files.newOutputStream(archive)) {
+            ZipStreamWriter zip = new ZipStreamWriter(out, deflater);
+            for (int i = 0; i < count; i++) {
+                zip.addStored("f" + i, 0, 0, 0, InputStream.nullInputStream());
+            }
+            zip.finish();
+        }
+
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            assertEquals(count, zip.size());
+            assertNotNull(zip.getEntry("f69999"));
+        }
+    }
+
+    @Test
+    void addStored_wrongSize_shouldFail() {
+        ZipStreamWriter zip = new ZipStreamWriter(new ByteArrayOutputStream(), deflater);
+        assertThrows(IOException.class,
+                () -> zip.addStored("a", 0, 5, 0, new ByteArrayInputStream(new byte[3])));
+    }
+
+    @Test
+    void isCompressedFormat_shouldGoByExtension() {
+        assertTrue(ZipStreamWriter.isCompressedFormat("holiday.JPG"));
+        assertTrue(ZipStreamWriter.isCompressedFormat("backup.tar.gz"));
+        assertFalse(ZipStreamWriter.isCompressedFormat("notes.txt"));
+        assertFalse(ZipStreamWriter.isCompressedFormat("Makefile"));
+    }
+}
@@ -0,0 +1,112 @@
+package org.soprasteria.avans.lockercloud.checksum;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.soprasteria.avans.lockercloud.exception.FileStorageException;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChecksumAlgorithmsTest {
+
+    @TempDir
+    Path dir;
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    void knownVectors() {
+        assertEquals("900150983cd24fb0d6963f7d28e17f72", ChecksumAlgorithms.hash(ChecksumAlgorithms.MD5, ascii("abc")));
+        assertEquals("e3069283", ChecksumAlgorithms.hash(ChecksumAlgorithms.CRC32C, ascii("123456789")));
+        assertEquals("cbf43926", ChecksumAlgorithms.hash(ChecksumAlgorithms.CRC32, ascii("123456789")));
+        assertEquals("ef46db3751d8e999", ChecksumAlgorithms.hash(ChecksumAlgorithms.XXH64, new byte[0]));
+        assertEquals("44bc2cf5ad770999", ChecksumAlgorithms.hash(ChecksumAlgorithms.XXH64, ascii("abc")));
+        assertEquals("fbcea83c8a378bf1", ChecksumAlgorithms.hash(ChecksumAlgorithms.XXH64,
+                ascii("Nobody inspects the spammish repetition")));
+    }
+
+    @Test
+    void treeHash_singleLeaf_isPlainSha256() throws Exception {
+        byte[] data = ascii("abc");
+        String expected = Hex.encode(MessageDigest.getInstance("SHA-256").digest(data));
+
+        assertEquals(expected, ChecksumAlgorithms.hash(ChecksumAlgorithms.SHA256_TREE, data));
+    }
+
+    @Test
+    void treeHash_shouldCombineLeavesPairwise() throws Exception {
+        int leaf = Sha256TreeHashAlgorithm.LEAF_SIZE;
+        byte[] data = new byte[leaf * 2 + leaf / 2];
+        new Random(1).nextBytes(data);
+        byte[] h0 = sha256(Arrays.copyOfRange(data, 0, leaf));
+        byte[] h1 = sha256(Arrays.copyOfRange(data, leaf, 2 * leaf));
+        byte[] h2 = sha256(Arrays.copyOfRange(data, 2 * leaf, data.length));
+        byte[] root = sha256(concat(sha256(concat(h0, h1)), h2));
+
+        assertEquals(Hex.encode(root), ChecksumAlgorithms.hash(ChecksumAlgorithms.SHA256_TREE, data));
+    }
+
+    @Test
+    void incrementalUpdates_shouldMatchOneShot() throws Exception {
+        byte[] data = new byte[3 * 1024 * 1024 + 77];
+        new Random(2).nextBytes(data);
+        for (String name : ChecksumAlgorithms.names()) {
+            ChecksumAlgorithm algorithm = ChecksumAlgorithms.forName(name);
+            ChecksumHasher hasher = algorithm.newHasher();
+            int offset = 0;
+            int step = 1;
+            while (offset < data.length) {
+                int n = Math.min(step, data.length - offset);
+                hasher.update(data, offset, n);
+                offset += n;
+                step = step * 3 + 1;
+            }
+            assertEquals(ChecksumAlgorithms.hash(algorithm, data), hasher.hexDigest(), name);
+        }
+    }
+
+    @Test
+    void fileAndStream_shouldMatchBytes() throws Exception {
+        byte[] data = new byte[600_000];
+        new Random(3).nextBytes(data);
+        Path file = Files.write(dir.resolve("f"), data);
+
+        String expected = ChecksumAlgorithms.hash(ChecksumAlgorithms.XXH64, data);
+        assertEquals(expected, ChecksumAlgorithms.hash(ChecksumAlgorithms.XXH64, file));
+        assertEquals(expected, ChecksumAlgorithms.hash(ChecksumAlgorithms.XXH64, new ByteArrayInputStream(data)));
+    }
+
+    @Test
+    void forName_shouldDefaultToMd5AndRejectUnknown() {
+        assertSame(ChecksumAlgorithms.MD5, ChecksumAlgorithms.forName(null));
+        assertSame(ChecksumAlgorithms.MD5, ChecksumAlgorithms.forName(" "));
+        assertSame(ChecksumAlgorithms.CRC32C, ChecksumAlgorithms.forName("crc32c"));
+        assertSame(ChecksumAlgorithms.SHA256_TREE, ChecksumAlgorithms.forName("Sha256-Tree"));
+        assertThrows(FileStorageException.class, () -> ChecksumAlgorithms.forName("sha1024"));
+    }
+
+    @Test
+    void hex_shouldEncodeLowercase() {
+        assertEquals("00ff7f80", Hex.encode(new byte[]{0, -1, 127, -128}));
+        assertEquals("", Hex.encode(new byte[0]));
+    }
+
+    private static byte[] sha256(byte[] data) throws Exception {
+        return MessageDigest.getInstance("SHA-256").digest(data);
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] out = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, out, a.length, b.length);
+        return out;
+    }
+}
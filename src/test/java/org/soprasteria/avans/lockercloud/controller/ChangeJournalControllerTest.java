@@ -0,0 +1,47 @@
+package org.soprasteria.avans.lockercloud.controller;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.soprasteria.avans.lockercloud.dto.ChangeSet;
+import org.soprasteria.avans.lockercloud.exception.FileStorageException;
+import org.soprasteria.avans.lockercloud.service.FileManagerService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ChangeJournalControllerTest {
+
+    @Mock
+    private FileManagerService fileManagerService;
+
+    @InjectMocks
+    private ChangeJournalController controller;
+
+    @Test
+    void changes_ShouldReturnChangeSet() {
+        ChangeSet set = new ChangeSet("e.5", List.of(), false, false);
+        when(fileManagerService.getChangesSince("e.3", 100)).thenReturn(set);
+
+        ResponseEntity<?> resp = controller.changes("e.3", 100);
+
+        assertEquals(HttpStatus.OK, resp.getStatusCode());
+        assertSame(set, resp.getBody());
+    }
+
+    @Test
+    void changes_InvalidLimit_ShouldReturnBadRequest() {
+        when(fileManagerService.getChangesSince(null, 0)).thenThrow(new FileStorageException("Limit must be at least 1."));
+
+        ResponseEntity<?> resp = controller.changes(null, 0);
+
+        assertEquals(HttpStatus.BAD_REQUEST, resp.getStatusCode());
+    }
+}
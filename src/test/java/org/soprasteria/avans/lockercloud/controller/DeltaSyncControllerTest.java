@@ -0,0 +1,82 @@
+package org.soprasteria.avans.lockercloud.controller;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithms;
+import org.soprasteria.avans.lockercloud.dto.DeltaResult;
+import org.soprasteria.avans.lockercloud.dto.FileSignature;
+import org.soprasteria.avans.lockercloud.exception.FileStorageException;
+import org.soprasteria.avans.lockercloud.service.FileManagerService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class DeltaSyncControllerTest {
+
+    @Mock
+    private FileManagerService fileManagerService;
+
+    @InjectMocks
+    private DeltaSyncController controller;
+
+    @Test
+    void signature_ShouldReturnSignature() {
+        FileSignature signature = new FileSignature("f.bin", 10, 2048, "abc", List.of());
+        when(fileManagerService.getFileSignature("f.bin", 0)).thenReturn(signature);
+
+        ResponseEntity<?> resp = controller.signature("f.bin", 0);
+
+        assertEquals(HttpStatus.OK, resp.getStatusCode());
+        assertSame(signature, resp.getBody());
+    }
+
+    @Test
+    void signature_UnknownFile_ShouldReturnNotFound() {
+        when(fileManagerService.getFileSignature("nope", 0)).thenThrow(new FileStorageException("File not found: nope"));
+
+        ResponseEntity<?> resp = controller.signature("nope", 0);
+
+        assertEquals(HttpStatus.NOT_FOUND, resp.getStatusCode());
+    }
+
+    @Test
+    void applyDelta_ShouldReturnResult() {
+        InputStream body = new ByteArrayInputStream(new byte[]{1});
+        DeltaResult result = new DeltaResult("f.bin", "abc", 10, 1, 9);
+        when(fileManagerService.applyDelta("f.bin", body, "old", "new", ChecksumAlgorithms.CRC32C)).thenReturn(result);
+
+        ResponseEntity<?> resp = controller.applyDelta("f.bin", "old", "new", "crc32c", body);
+
+        assertEquals(HttpStatus.OK, resp.getStatusCode());
+        assertSame(result, resp.getBody());
+    }
+
+    @Test
+    void applyDelta_WhenBasisChanged_ShouldReturnConflict() {
+        when(fileManagerService.applyDelta(eq("f.bin"), any(), eq("old"), isNull(), eq(ChecksumAlgorithms.MD5)))
+                .thenThrow(new FileStorageException("File f.bin changed since its signature was taken"));
+
+        ResponseEntity<?> resp = controller.applyDelta("f.bin", "old", null, null, new ByteArrayInputStream(new byte[0]));
+
+        assertEquals(HttpStatus.CONFLICT, resp.getStatusCode());
+    }
+
+    @Test
+    void applyDelta_UnknownAlgorithm_ShouldReturnBadRequest() {
+        ResponseEntity<?> resp = controller.applyDelta("f.bin", null, null, "sha1024", new ByteArrayInputStream(new byte[0]));
+
+        assertEquals(HttpStatus.BAD_REQUEST, resp.getStatusCode());
+        verifyNoInteractions(fileManagerService);
+    }
+}
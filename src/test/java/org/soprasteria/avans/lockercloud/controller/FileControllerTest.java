@@ -4,20 +4,32 @@ import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.*;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.*;
+import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 import org.springframework.web.servlet.mvc.support.RedirectAttributesModelMap;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithms;
 import org.soprasteria.avans.lockercloud.dto.SyncResult;
+import org.soprasteria.avans.lockercloud.dto.TransferStatus;
 import org.soprasteria.avans.lockercloud.model.FileMetadata;
 import org.soprasteria.avans.lockercloud.service.FileManagerService;
+import org.soprasteria.avans.lockercloud.storage.StoredFileResource;
 
 import java.io.*;
 import java.util.*;
-import java.util.zip.*;
 
 import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 class FileControllerTest {
 
@@ -42,137 +54,225 @@ class FileControllerTest {
         MultipartFile file = new MockMultipartFile("file", "test.txt", "text/plain", "data".getBytes());
         RedirectAttributes attrs = new RedirectAttributesModelMap();
 
-        String view = controller.uploadFile(file, null, null, null, null, attrs);
+        String view = controller.uploadFile(file, null, null, null, null, null, attrs);
 
         assertEquals("redirect:/", view);
         assertTrue(attrs.getFlashAttributes().containsKey("uploadSuccess"));
         assertEquals("Bestand test.txt succesvol geüpload!", attrs.getFlashAttributes().get("uploadSuccess"));
-        verify(fileManagerService).saveFileWithRetry(eq(file), any());
+        verify(fileManagerService).saveFileWithRetry(eq(file), any(), eq(ChecksumAlgorithms.MD5));
     }
 
     @Test
     void uploadFile_error()  {
         MultipartFile file = new MockMultipartFile("file", "bad.txt", "text/plain", "data".getBytes());
-        doThrow(new RuntimeException("oops")).when(fileManagerService).saveFileWithRetry(eq(file), any());
+        doThrow(new RuntimeException("oops")).when(fileManagerService).saveFileWithRetry(eq(file), any(), eq(ChecksumAlgorithms.MD5));
         RedirectAttributes attrs = new RedirectAttributesModelMap();
 
-        String view = controller.uploadFile(file, null, null, null, null, attrs);
+        String view = controller.uploadFile(file, null, null, null, null, null, attrs);
 
         assertEquals("redirect:/", view);
         assertTrue(attrs.getFlashAttributes().containsKey("uploadError"));
         assertEquals("Fout bij uploaden: oops", attrs.getFlashAttributes().get("uploadError"));
-        verify(fileManagerService).saveFileWithRetry(eq(file), any());
+        verify(fileManagerService).saveFileWithRetry(eq(file), any(), eq(ChecksumAlgorithms.MD5));
     }
 
     @Test
-    void downloadFile_success() {
+    void downloadFile_success() throws Exception {
         byte[] data = {1,2,3};
         String checksum = md5(data);
-        when(fileManagerService.getFile("f.bin")).thenReturn(data);
-        when(fileManagerService.calculateChecksum(data)).thenReturn(checksum);
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("f", ".bin");
+        java.nio.file.Files.write(file, data);
+        StoredFileResource resource = new StoredFileResource("f.bin", List.of(file));
+        when(fileManagerService.openFile("f.bin")).thenReturn(resource);
+        when(fileManagerService.getFileChecksum(resource, ChecksumAlgorithms.MD5)).thenReturn(checksum);
 
-        ResponseEntity<byte[]> resp = controller.downloadFile("f.bin");
+        ResponseEntity<Resource> resp = controller.downloadFile("f.bin", null, null, null);
 
         assertEquals(HttpStatus.OK, resp.getStatusCode());
         assertEquals("attachment; filename=\"f.bin\"", resp.getHeaders().getFirst(HttpHeaders.CONTENT_DISPOSITION));
         assertEquals(checksum, resp.getHeaders().getFirst("Checksum"));
         assertEquals(MediaType.APPLICATION_OCTET_STREAM, resp.getHeaders().getContentType());
         assertEquals(data.length, resp.getHeaders().getContentLength());
-        assertArrayEquals(data, resp.getBody());
+        try (InputStream in = resp.getBody().getInputStream()) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+        verify(fileManagerService, never()).getFile(anyString());
     }
 
     @Test
     void downloadFile_error() {
         // throw unchecked to satisfy Mockito
-        when(fileManagerService.getFile("x")).thenThrow(new RuntimeException("nf"));
+        when(fileManagerService.openFile("x")).thenThrow(new RuntimeException("nf"));
 
-        ResponseEntity<byte[]> resp = controller.downloadFile("x");
+        ResponseEntity<Resource> resp = controller.downloadFile("x", null, null, null);
 
         assertEquals(HttpStatus.BAD_REQUEST, resp.getStatusCode());
         assertNull(resp.getBody());
     }
 
     @Test
-    void downloadAllFiles_noFiles()  {
-        when(fileManagerService.listFiles()).thenReturn(Collections.emptyList());
+    void downloadFile_range_shouldLeaveLengthToRangeHandling() throws Exception {
+        StoredFileResource resource = tempResource("f.bin", new byte[]{1, 2, 3, 4});
+        when(fileManagerService.openFile("f.bin")).thenReturn(resource);
+        when(fileManagerService.getFileChecksum(resource, ChecksumAlgorithms.MD5)).thenReturn("abc");
+
+        ServletRequestAttributes request = new ServletRequestAttributes(new MockHttpServletRequest());
+        RequestContextHolder.setRequestAttributes(request);
+        ResponseEntity<Resource> resp;
+        try {
+            resp = controller.downloadFile("f.bin", "bytes=1-2", "\"abc\"", null);
+        } finally {
+            RequestContextHolder.resetRequestAttributes();
+        }
 
-        ResponseEntity<byte[]> resp = controller.downloadAllFiles();
+        assertSame(resource, resp.getBody(), "Range must be applied to the stored resource");
+        assertEquals(-1, resp.getHeaders().getContentLength());
+        assertEquals("bytes", resp.getHeaders().getFirst(HttpHeaders.ACCEPT_RANGES));
+        assertEquals("\"abc\"", resp.getHeaders().getETag());
+        try (InputStream in = resource.getInputStream()) {
+            assertEquals(1, in.read(), "the resource stays open while the response is written");
+        }
 
-        assertEquals(HttpStatus.OK, resp.getStatusCode());
-        assertEquals("attachment; filename=\"all-files.zip\"", resp.getHeaders().getFirst(HttpHeaders.CONTENT_DISPOSITION));
-        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(resp.getBody()))) {
-            assertNull(zis.getNextEntry());
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        request.requestCompleted();
+        try (InputStream in = resource.getInputStream()) {
+            assertThrows(IOException.class, in::read, "the resource is closed with the request");
+        }
+    }
+
+    @Test
+    void downloadFile_checksumFailure_shouldCloseTheOpenedFile() throws Exception {
+        StoredFileResource resource = tempResource("f.bin", new byte[]{1, 2});
+        when(fileManagerService.openFile("f.bin")).thenReturn(resource);
+        when(fileManagerService.getFileChecksum(resource, ChecksumAlgorithms.MD5)).thenThrow(new RuntimeException("io"));
+
+        ResponseEntity<Resource> resp = controller.downloadFile("f.bin", "bytes=0-0", null, null);
+
+        assertEquals(HttpStatus.BAD_REQUEST, resp.getStatusCode());
+        try (InputStream in = resource.getInputStream()) {
+            assertThrows(IOException.class, in::read);
         }
     }
 
     @Test
-    void downloadAllFiles_multipleFiles() throws Exception {
-        when(fileManagerService.listFiles()).thenReturn(Arrays.asList("a.txt","b.txt"));
-        when(fileManagerService.getFile("a.txt")).thenReturn(new byte[]{10});
-        when(fileManagerService.getFile("b.txt")).thenReturn(new byte[]{20});
+    void downloadFile_ifRangeMismatch_shouldReturnFullBody() throws Exception {
+        byte[] data = {1, 2, 3, 4};
+        StoredFileResource resource = tempResource("f.bin", data);
+        when(fileManagerService.openFile("f.bin")).thenReturn(resource);
+        when(fileManagerService.getFileChecksum(resource, ChecksumAlgorithms.MD5)).thenReturn("abc");
 
-        ResponseEntity<byte[]> resp = controller.downloadAllFiles();
+        ResponseEntity<Resource> resp = controller.downloadFile("f.bin", "bytes=1-2", "\"other\"", null);
 
         assertEquals(HttpStatus.OK, resp.getStatusCode());
-        assertEquals("attachment; filename=\"all-files.zip\"", resp.getHeaders().getFirst(HttpHeaders.CONTENT_DISPOSITION));
+        assertTrue(resp.getBody() instanceof InputStreamResource);
+        assertEquals(data.length, resp.getHeaders().getContentLength());
+        try (InputStream in = resp.getBody().getInputStream()) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+    }
 
-        Map<String, byte[]> entries = readZip(resp.getBody());
-        assertArrayEquals(new byte[]{10}, entries.get("a.txt"));
-        assertArrayEquals(new byte[]{20}, entries.get("b.txt"));
+    @Test
+    void downloadFile_multiRange_shouldServePartsOverHttp() throws Exception {
+        // Elk verzoek sluit het bestand dat het opende
+        when(fileManagerService.openFile("f.bin")).thenAnswer(invocation -> tempResource("f.bin", "0123456789".getBytes()));
+        when(fileManagerService.getFileChecksum(any(StoredFileResource.class), eq(ChecksumAlgorithms.MD5))).thenReturn("abc");
+        MockMvc mvc = MockMvcBuilders.standaloneSetup(controller).build();
+
+        mvc.perform(get("/download").param("file", "f.bin").header(HttpHeaders.RANGE, "bytes=2-4"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 2-4/10"))
+                .andExpect(content().bytes("234".getBytes()));
+
+        String multipart = mvc.perform(get("/download").param("file", "f.bin")
+                        .header(HttpHeaders.RANGE, "bytes=0-1,8-9"))
+                .andExpect(status().isPartialContent())
+                .andReturn().getResponse().getContentAsString();
+        assertTrue(multipart.contains("Content-Range: bytes 0-1/10"));
+        assertTrue(multipart.contains("Content-Range: bytes 8-9/10"));
+        assertTrue(multipart.contains("89"));
+
+        mvc.perform(get("/download").param("file", "f.bin").header(HttpHeaders.RANGE, "bytes=20-30"))
+                .andExpect(status().isRequestedRangeNotSatisfiable());
     }
 
     @Test
-    void downloadAllFiles_skipNull() throws Exception {
-        when(fileManagerService.listFiles()).thenReturn(Arrays.asList("ok","bad","ok2"));
-        when(fileManagerService.getFile("ok")).thenReturn(new byte[]{1});
-        when(fileManagerService.getFile("bad")).thenReturn(null);
-        when(fileManagerService.getFile("ok2")).thenReturn(new byte[]{2});
+    void downloadFile_checksumAlgorithm_shouldBeNegotiated() throws Exception {
+        StoredFileResource resource = tempResource("f.bin", new byte[]{1});
+        when(fileManagerService.openFile("f.bin")).thenReturn(resource);
+        when(fileManagerService.getFileChecksum(resource, ChecksumAlgorithms.CRC32C)).thenReturn("0a0b0c0d");
 
-        ResponseEntity<byte[]> resp = controller.downloadAllFiles();
-        Map<String, byte[]> entries = readZip(resp.getBody());
+        ResponseEntity<Resource> resp = controller.downloadFile("f.bin", null, null, "crc32c");
 
-        assertTrue(entries.containsKey("ok"));
-        assertTrue(entries.containsKey("ok2"));
-        assertFalse(entries.containsKey("bad"));
+        assertEquals("0a0b0c0d", resp.getHeaders().getFirst("Checksum"));
+        assertEquals("CRC32C", resp.getHeaders().getFirst("Checksum-Algorithm"));
     }
 
     @Test
-    void downloadAllFiles_listThrows() {
-        when(fileManagerService.listFiles()).thenThrow(new RuntimeException("nope"));
+    void uploadFileApi_unknownChecksumAlgorithm_shouldBeRejected() {
+        MultipartFile file = new MockMultipartFile("file", "t.txt", "text/plain", "x".getBytes());
 
-        ResponseEntity<byte[]> resp = controller.downloadAllFiles();
+        ResponseEntity<String> resp = controller.uploadFileApi(file, "abc", "sha1024");
 
-        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, resp.getStatusCode());
-        assertNull(resp.getBody());
+        assertEquals(HttpStatus.BAD_REQUEST, resp.getStatusCode());
+        assertTrue(resp.getBody().contains("Unsupported checksum algorithm"));
+        verifyNoInteractions(fileManagerService);
+    }
+
+    private StoredFileResource tempResource(String name, byte[] data) throws IOException {
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("range", ".bin");
+        java.nio.file.Files.write(file, data);
+        return new StoredFileResource(name, List.of(file));
     }
 
     @Test
-    void downloadAllFiles_ioException() {
-        when(fileManagerService.listFiles()).thenReturn(Collections.singletonList("x"));
-        // again throw unchecked
-        when(fileManagerService.getFile("x")).thenThrow(new RuntimeException("ioerr"));
+    void downloadAllFiles_noFiles() throws Exception {
+        when(fileManagerService.listFiles()).thenReturn(Collections.emptyList());
+
+        ResponseEntity<StreamingResponseBody> resp = controller.downloadAllFiles();
 
-        ResponseEntity<byte[]> resp = controller.downloadAllFiles();
+        assertEquals(HttpStatus.OK, resp.getStatusCode());
+        assertEquals("attachment; filename=\"all-files.zip\"", resp.getHeaders().getFirst(HttpHeaders.CONTENT_DISPOSITION));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        resp.getBody().writeTo(out);
+        verify(fileManagerService).writeArchive(eq(Collections.emptyList()), same(out));
+    }
+
+    @Test
+    void downloadAllFiles_shouldStreamArchiveOfListedFiles() throws Exception {
+        when(fileManagerService.listFiles()).thenReturn(Arrays.asList("a.txt", "b.txt"));
+        doAnswer(inv -> {
+            inv.getArgument(1, OutputStream.class).write("zip".getBytes());
+            return null;
+        }).when(fileManagerService).writeArchive(any(), any());
+
+        ResponseEntity<StreamingResponseBody> resp = controller.downloadAllFiles();
+        verify(fileManagerService, never()).writeArchive(any(), any());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        resp.getBody().writeTo(out);
+
+        assertEquals(HttpStatus.OK, resp.getStatusCode());
+        assertArrayEquals("zip".getBytes(), out.toByteArray());
+        verify(fileManagerService).writeArchive(eq(Arrays.asList("a.txt", "b.txt")), any());
+    }
+
+    @Test
+    void downloadAllFiles_listThrows() {
+        when(fileManagerService.listFiles()).thenThrow(new RuntimeException("nope"));
+
+        ResponseEntity<StreamingResponseBody> resp = controller.downloadAllFiles();
 
         assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, resp.getStatusCode());
         assertNull(resp.getBody());
     }
 
+    @Test
+    void downloadAllFiles_ioExceptionWhileStreaming_shouldAbortResponse() throws Exception {
+        when(fileManagerService.listFiles()).thenReturn(Collections.singletonList("x"));
+        doThrow(new IOException("ioerr")).when(fileManagerService).writeArchive(any(), any());
+
+        ResponseEntity<StreamingResponseBody> resp = controller.downloadAllFiles();
 
-    private Map<String, byte[]> readZip(byte[] zipBytes) throws IOException {
-        Map<String, byte[]> map = new HashMap<>();
-        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zipBytes))) {
-            ZipEntry entry;
-            while ((entry = zis.getNextEntry()) != null) {
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                zis.transferTo(bos);
-                map.put(entry.getName(), bos.toByteArray());
-                zis.closeEntry();
-            }
-        }
-        return map;
+        assertEquals(HttpStatus.OK, resp.getStatusCode());
+        assertThrows(IOException.class, () -> resp.getBody().writeTo(new ByteArrayOutputStream()));
     }
 
     @Test
@@ -246,4 +346,22 @@ class FileControllerTest {
         for (byte b : digest) sb.append(String.format("%02x", b));
         return sb.toString();
     }
+
+    @Test
+    void syncLocalStatus_noSyncYet() {
+        when(fileManagerService.getLocalSyncStatus()).thenReturn(null);
+
+        assertEquals(HttpStatus.NO_CONTENT, controller.syncLocalStatus().getStatusCode());
+    }
+
+    @Test
+    void syncLocalStatus_success() {
+        TransferStatus status = new TransferStatus(1, 2, 10, 20, List.of("a.txt"), List.of());
+        when(fileManagerService.getLocalSyncStatus()).thenReturn(status);
+
+        ResponseEntity<TransferStatus> resp = controller.syncLocalStatus();
+
+        assertEquals(HttpStatus.OK, resp.getStatusCode());
+        assertFalse(resp.getBody().isFinished());
+    }
 }
@@ -0,0 +1,71 @@
+package org.soprasteria.avans.lockercloud.controller;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.soprasteria.avans.lockercloud.dto.ManifestNode;
+import org.soprasteria.avans.lockercloud.dto.SyncResult;
+import org.soprasteria.avans.lockercloud.exception.FileStorageException;
+import org.soprasteria.avans.lockercloud.model.FileMetadata;
+import org.soprasteria.avans.lockercloud.service.FileManagerService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ManifestControllerTest {
+
+    @Mock
+    private FileManagerService fileManagerService;
+
+    @InjectMocks
+    private ManifestController controller;
+
+    @Test
+    void node_ShouldReturnNode() {
+        ManifestNode node = new ManifestNode("", "0123456789abcdef", 3, null, List.of());
+        when(fileManagerService.getManifestNode(null)).thenReturn(node);
+
+        ResponseEntity<?> resp = controller.node(null);
+
+        assertEquals(HttpStatus.OK, resp.getStatusCode());
+        assertSame(node, resp.getBody());
+    }
+
+    @Test
+    void node_InvalidPrefix_ShouldReturnBadRequest() {
+        when(fileManagerService.getManifestNode("zz")).thenThrow(new FileStorageException("Invalid manifest prefix: zz"));
+
+        ResponseEntity<?> resp = controller.node("zz");
+
+        assertEquals(HttpStatus.BAD_REQUEST, resp.getStatusCode());
+    }
+
+    @Test
+    void syncSubtrees_WithConflicts_ShouldReturnConflict() {
+        List<FileMetadata> client = List.of(new FileMetadata("a.txt", "x", 1, null, 0));
+        SyncResult result = new SyncResult(List.of(), List.of(), List.of("a.txt"));
+        when(fileManagerService.syncSubtrees(List.of("ab"), client)).thenReturn(result);
+
+        ResponseEntity<?> resp = controller.syncSubtrees(List.of("ab"), client);
+
+        assertEquals(HttpStatus.CONFLICT, resp.getStatusCode());
+        assertSame(result, resp.getBody());
+    }
+
+    @Test
+    void syncSubtrees_NoConflicts_ShouldReturnOk() {
+        SyncResult result = new SyncResult(List.of("a.txt"), List.of(), List.of());
+        when(fileManagerService.syncSubtrees(null, List.of())).thenReturn(result);
+
+        ResponseEntity<?> resp = controller.syncSubtrees(null, List.of());
+
+        assertEquals(HttpStatus.OK, resp.getStatusCode());
+    }
+}
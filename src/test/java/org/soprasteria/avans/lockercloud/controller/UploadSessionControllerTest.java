@@ -0,0 +1,80 @@
+package org.soprasteria.avans.lockercloud.controller;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithms;
+import org.soprasteria.avans.lockercloud.dto.UploadStatus;
+import org.soprasteria.avans.lockercloud.exception.FileStorageException;
+import org.soprasteria.avans.lockercloud.service.FileManagerService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class UploadSessionControllerTest {
+
+    @Mock
+    private FileManagerService fileManagerService;
+
+    @InjectMocks
+    private UploadSessionController controller;
+
+    @Test
+    void initiate_ShouldReturnCreatedStatus() {
+        UploadStatus status = new UploadStatus("id", "f.bin", 2, List.of(), List.of(1, 2), false);
+        when(fileManagerService.initiateUpload("f.bin", 2, 4L, 8L, "abc", ChecksumAlgorithms.XXH64)).thenReturn(status);
+
+        ResponseEntity<?> resp = controller.initiate("f.bin", 2, 4L, 8L, "abc", "xxh64");
+
+        assertEquals(HttpStatus.CREATED, resp.getStatusCode());
+        assertSame(status, resp.getBody());
+    }
+
+    @Test
+    void uploadPart_WhenServiceFails_ShouldReturnBadRequest() {
+        InputStream body = new ByteArrayInputStream(new byte[]{1});
+        when(fileManagerService.uploadPart(eq("id"), eq(5), any(), eq(1L), isNull()))
+                .thenThrow(new FileStorageException("Part 5 is out of range"));
+
+        ResponseEntity<?> resp = controller.uploadPart("id", 5, null, 1L, body);
+
+        assertEquals(HttpStatus.BAD_REQUEST, resp.getStatusCode());
+        assertEquals("Error uploading part: Part 5 is out of range", resp.getBody());
+    }
+
+    @Test
+    void status_UnknownSession_ShouldReturnNotFound() {
+        when(fileManagerService.getUploadStatus("nope")).thenThrow(new FileStorageException("Unknown upload session: nope"));
+
+        ResponseEntity<?> resp = controller.status("nope");
+
+        assertEquals(HttpStatus.NOT_FOUND, resp.getStatusCode());
+    }
+
+    @Test
+    void complete_WithMissingParts_ShouldReturnConflict() {
+        when(fileManagerService.completeUpload("id", null)).thenThrow(new FileStorageException("missing parts [2]"));
+
+        ResponseEntity<?> resp = controller.complete("id", null);
+
+        assertEquals(HttpStatus.CONFLICT, resp.getStatusCode());
+    }
+
+    @Test
+    void abort_ShouldDelegateToService() {
+        ResponseEntity<String> resp = controller.abort("id");
+
+        assertEquals(HttpStatus.OK, resp.getStatusCode());
+        verify(fileManagerService).abortUpload("id");
+    }
+}
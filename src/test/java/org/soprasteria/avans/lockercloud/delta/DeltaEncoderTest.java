@@ -0,0 +1,135 @@
+package org.soprasteria.avans.lockercloud.delta;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithms;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumHasher;
+import org.soprasteria.avans.lockercloud.dto.FileSignature;
+import org.soprasteria.avans.lockercloud.exception.FileStorageException;
+import org.soprasteria.avans.lockercloud.storage.IngestPipeline;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeltaEncoderTest {
+
+    private static final int BLOCK = 1024;
+
+    @TempDir
+    Path dir;
+
+    private final IngestPipeline pipeline = new IngestPipeline(4096, 2);
+
+    private static byte[] random(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    /** Encodes {@code target} against {@code basis}, applies it and checks the result. */
+    private DeltaApplier.Result roundTrip(byte[] basis, byte[] target) throws Exception {
+        Path basisFile = Files.write(dir.resolve("basis"), basis);
+        FileSignature signature = DeltaSignatures.compute("f", basisFile, BLOCK, null);
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        new DeltaEncoder(signature).encode(new ByteArrayInputStream(target), delta);
+
+        Path out = dir.resolve("out");
+        Files.deleteIfExists(out);
+        ChecksumHasher md5 = ChecksumAlgorithms.MD5.newHasher();
+        DeltaApplier.Result result;
+        try (FileChannel in = FileChannel.open(basisFile, StandardOpenOption.READ);
+             FileChannel o = FileChannel.open(out, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            result = new DeltaApplier(pipeline).apply(new ByteArrayInputStream(delta.toByteArray()), in, o, md5);
+        }
+        assertArrayEquals(target, Files.readAllBytes(out));
+        assertEquals(ChecksumAlgorithms.hash(ChecksumAlgorithms.MD5, target), md5.hexDigest());
+        assertEquals(target.length, result.size());
+        return result;
+    }
+
+    @Test
+    void unchangedFile_shouldOnlyCopy() throws Exception {
+        byte[] data = random(10 * BLOCK + 123, 1);
+
+        DeltaApplier.Result result = roundTrip(data, data);
+
+        assertEquals(0, result.literalBytes());
+    }
+
+    @Test
+    void insertedBytes_shouldOnlySendTheInsertion() throws Exception {
+        byte[] basis = random(20 * BLOCK, 2);
+        byte[] target = new byte[basis.length + 7];
+        System.arraycopy(basis, 0, target, 0, 5 * BLOCK + 10);
+        System.arraycopy("INSERT!".getBytes(), 0, target, 5 * BLOCK + 10, 7);
+        System.arraycopy(basis, 5 * BLOCK + 10, target, 5 * BLOCK + 17, basis.length - 5 * BLOCK - 10);
+
+        DeltaApplier.Result result = roundTrip(basis, target);
+
+        assertTrue(result.literalBytes() <= BLOCK + 7, "Only the touched block is resent, was " + result.literalBytes());
+    }
+
+    @Test
+    void changedByte_shouldResendOneBlock() throws Exception {
+        byte[] basis = random(8 * BLOCK + 500, 3);
+        byte[] target = basis.clone();
+        target[3 * BLOCK + 1] ^= 1;
+
+        DeltaApplier.Result result = roundTrip(basis, target);
+
+        assertEquals(BLOCK, result.literalBytes());
+    }
+
+    @Test
+    void truncatedAndAppended_shouldRoundTrip() throws Exception {
+        byte[] basis = random(6 * BLOCK + 300, 4);
+
+        roundTrip(basis, Arrays.copyOf(basis, 2 * BLOCK + 50));
+        byte[] longer = Arrays.copyOf(basis, basis.length + 3 * BLOCK);
+        System.arraycopy(random(3 * BLOCK, 5), 0, longer, basis.length, 3 * BLOCK);
+        DeltaApplier.Result result = roundTrip(basis, longer);
+        assertEquals(6 * BLOCK, result.copiedBytes(), "All full blocks of the old version are reused");
+        roundTrip(basis, new byte[0]);
+        roundTrip(new byte[0], basis);
+    }
+
+    @Test
+    void copyBeyondBasis_shouldBeRejected() throws Exception {
+        Path basisFile = Files.write(dir.resolve("basis"), random(BLOCK, 6));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        var delta = new java.io.DataOutputStream(bytes);
+        delta.writeInt(DeltaFormat.MAGIC);
+        delta.writeInt(BLOCK);
+        delta.writeByte(DeltaFormat.COPY);
+        delta.writeInt(5);
+        delta.writeInt(1);
+        delta.writeByte(DeltaFormat.END);
+
+        try (FileChannel in = FileChannel.open(basisFile, StandardOpenOption.READ);
+             FileChannel o = FileChannel.open(dir.resolve("out"), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            assertThrows(FileStorageException.class,
+                    () -> new DeltaApplier(pipeline).apply(new ByteArrayInputStream(bytes.toByteArray()), in, o));
+        }
+    }
+
+    @Test
+    void rollingChecksum_shouldMatchFreshComputation() {
+        byte[] data = random(3000, 7);
+        RollingChecksum rolling = new RollingChecksum();
+        rolling.reset(data, 0, 700);
+        for (int i = 1; i + 700 <= data.length; i++) {
+            rolling.roll(data[i - 1], data[i + 699]);
+            assertEquals(RollingChecksum.of(data, i, 700), rolling.value());
+        }
+        rolling.remove(data[data.length - 700]);
+        assertEquals(RollingChecksum.of(data, data.length - 699, 699), rolling.value());
+    }
+}
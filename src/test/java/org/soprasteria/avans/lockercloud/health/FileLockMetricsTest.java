@@ -0,0 +1,31 @@
+package org.soprasteria.avans.lockercloud.health;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.soprasteria.avans.lockercloud.service.FileLockManager;
+import org.soprasteria.avans.lockercloud.service.FileManagerService;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class FileLockMetricsTest {
+
+    @Test
+    void bindTo_shouldPublishWaitTimePerMode() {
+        FileManagerService service = mock(FileManagerService.class);
+        when(service.getFileLockStats(FileLockManager.Mode.READ)).thenReturn(new FileLockManager.Stats(10, 2, 4_000_000));
+        when(service.getFileLockStats(FileLockManager.Mode.WRITE)).thenReturn(new FileLockManager.Stats(3, 1, 9_000_000));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+        new FileLockMetrics(service).bindTo(registry);
+
+        var reads = registry.get("lockercloud.lock.wait").tag("mode", "read").functionTimer();
+        assertEquals(10, reads.count());
+        assertEquals(4, reads.totalTime(TimeUnit.MILLISECONDS));
+        assertEquals(9, registry.get("lockercloud.lock.wait").tag("mode", "write").functionTimer().totalTime(TimeUnit.MILLISECONDS));
+        assertEquals(1, registry.get("lockercloud.lock.contended").tag("mode", "write").functionCounter().count());
+    }
+}
@@ -0,0 +1,28 @@
+package org.soprasteria.avans.lockercloud.health;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.soprasteria.avans.lockercloud.service.FileManagerService;
+import org.soprasteria.avans.lockercloud.storage.FileReadCache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ReadCacheMetricsTest {
+
+    @Test
+    void bindTo_shouldPublishCacheStats() {
+        FileManagerService service = mock(FileManagerService.class);
+        when(service.getReadCacheStats()).thenReturn(new FileReadCache.Stats(7, 3, 2, 1, 4096, 5, 1 << 20));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+        new ReadCacheMetrics(service).bindTo(registry);
+
+        assertEquals(7, registry.get("lockercloud.cache.requests").tag("result", "hit").functionCounter().count());
+        assertEquals(3, registry.get("lockercloud.cache.requests").tag("result", "miss").functionCounter().count());
+        assertEquals(2, registry.get("lockercloud.cache.evictions").functionCounter().count());
+        assertEquals(4096, registry.get("lockercloud.cache.size").gauge().value());
+        assertEquals(5, registry.get("lockercloud.cache.entries").gauge().value());
+    }
+}
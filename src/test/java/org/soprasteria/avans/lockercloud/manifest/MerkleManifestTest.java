@@ -0,0 +1,94 @@
+package org.soprasteria.avans.lockercloud.manifest;
+
+import org.junit.jupiter.api.Test;
+import org.soprasteria.avans.lockercloud.dto.ManifestNode;
+import org.soprasteria.avans.lockercloud.exception.FileStorageException;
+import org.soprasteria.avans.lockercloud.model.FileMetadata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MerkleManifestTest {
+
+    private static FileMetadata meta(String name, String checksum) {
+        return new FileMetadata(name, checksum, 1, null, 0);
+    }
+
+    private static List<FileMetadata> files(int count) {
+        List<FileMetadata> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            files.add(meta("file" + i + ".txt", "c" + i));
+        }
+        return files;
+    }
+
+    @Test
+    void sameFiles_shouldHaveSameRootRegardlessOfOrder() {
+        List<FileMetadata> files = files(500);
+        List<FileMetadata> reversed = new ArrayList<>(files);
+        Collections.reverse(reversed);
+
+        MerkleManifest a = MerkleManifest.of(files);
+        MerkleManifest b = MerkleManifest.of(reversed);
+
+        assertEquals(a.rootHash(), b.rootHash());
+        assertTrue(a.diff(b).isEmpty());
+        assertEquals(MerkleManifest.EMPTY, MerkleManifest.of(List.of()).rootHash());
+    }
+
+    @Test
+    void diff_shouldNarrowDownToTheChangedBucket() {
+        List<FileMetadata> server = files(5000);
+        List<FileMetadata> client = new ArrayList<>(server);
+        client.set(1234, meta("file1234.txt", "changed"));
+
+        List<String> differing = MerkleManifest.of(client).diff(MerkleManifest.of(server));
+
+        assertEquals(1, differing.size());
+        String prefix = differing.get(0);
+        assertTrue(MerkleManifest.covers(differing, "file1234.txt"));
+        assertTrue(MerkleManifest.of(server).files(differing).size() <= MerkleManifest.LEAF_LIMIT,
+                "Only a small subtree has to be compared, got prefix '" + prefix + "'");
+    }
+
+    @Test
+    void diff_shouldReportAddedAndRemovedFiles() {
+        List<FileMetadata> server = files(300);
+        List<FileMetadata> client = new ArrayList<>(server.subList(1, 300));
+        client.add(meta("new.txt", "n"));
+
+        List<String> differing = MerkleManifest.of(client).diff(MerkleManifest.of(server));
+
+        assertTrue(MerkleManifest.covers(differing, "file0.txt"));
+        assertTrue(MerkleManifest.covers(differing, "new.txt"));
+        assertFalse(differing.contains(""), "The whole namespace should not be reported");
+    }
+
+    @Test
+    void node_shouldListChildrenForLargeAndFilesForSmallSubtrees() {
+        MerkleManifest manifest = MerkleManifest.of(files(1000));
+
+        ManifestNode root = manifest.node("");
+        assertEquals(1000, root.getFileCount());
+        assertEquals(16, root.getChildren().size());
+        assertNull(root.getFiles());
+
+        String bucket = MerkleManifest.bucketOf("file7.txt");
+        ManifestNode leaf = manifest.node(bucket);
+        assertNull(leaf.getChildren());
+        assertTrue(leaf.getFiles().stream().anyMatch(f -> f.getFileName().equals("file7.txt")));
+        assertEquals(manifest.hash(bucket), leaf.getHash());
+    }
+
+    @Test
+    void node_invalidPrefix_shouldThrow() {
+        MerkleManifest manifest = MerkleManifest.of(files(10));
+
+        assertThrows(FileStorageException.class, () -> manifest.node("xyz"));
+        assertThrows(FileStorageException.class, () -> manifest.node("abcde"));
+        assertThrows(FileStorageException.class, () -> manifest.node("AB"));
+    }
+}
@@ -6,12 +6,19 @@ import org.junit.jupiter.api.io.TempDir;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.web.multipart.MultipartFile;
 import org.soprasteria.avans.lockercloud.exception.FileStorageException;
+import org.soprasteria.avans.lockercloud.storage.StorageLayout;
 
+import java.io.ByteArrayInputStream;
 import java.lang.reflect.Field;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.spy;
@@ -54,17 +61,10 @@ class ConcurrencyFileManagerServiceTest {
             MultipartFile file = spy(new MockMultipartFile(
                     "file", fileName, "text/plain", payload.getBytes(StandardCharsets.UTF_8)));
             when(file.getSize()).thenReturn((long) payload.getBytes().length);
-            try {
-                service.saveFile(file, md5(payload.getBytes(StandardCharsets.UTF_8)));
-            } catch (FileStorageException ignore) {
-                // allow race-related failures
-            }
-            try {
-                byte[] data = service.getFile(fileName);
-                assertNotNull(data, "Reader must get non-null data");
-            } catch (FileStorageException ignore) {
-                //filler code
-            }
+            service.saveFile(file, md5(payload.getBytes(StandardCharsets.UTF_8)));
+            byte[] data = service.getFile(fileName);
+            assertTrue(new String(data, StandardCharsets.UTF_8).matches("pool-\\d+-thread-\\d+"),
+                    "Reader must see one complete version");
             return null;
         };
 
@@ -76,7 +76,7 @@ class ConcurrencyFileManagerServiceTest {
         exec.shutdown();
         assertTrue(exec.awaitTermination(5, TimeUnit.SECONDS), "Executor did not terminate");
 
-        Path target = storageDir.resolve(fileName);
+        Path target = new StorageLayout(storageDir).pathFor(fileName);
         assertTrue(Files.exists(target), "File must exist after concurrent writes");
 
         String content = Files.readString(target, StandardCharsets.UTF_8).trim();
@@ -85,6 +85,90 @@ class ConcurrencyFileManagerServiceTest {
                 "Final file content should match a thread name pattern, was: " + content);
     }
 
+    @Test
+    void readsDuringSavesAndDeletes_shouldNeverSeeTornFiles() throws Exception {
+        String fileName = "stress.bin";
+        byte[] small = new byte[100_000];
+        byte[] large = new byte[300_000];
+        Arrays.fill(small, (byte) 'a');
+        Arrays.fill(large, (byte) 'b');
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger reads = new AtomicInteger();
+        ExecutorService exec = Executors.newFixedThreadPool(6);
+        List<Future<?>> tasks = new ArrayList<>();
+
+        for (int w = 0; w < 2; w++) {
+            int writer = w;
+            tasks.add(exec.submit(() -> {
+                for (int i = 0; running.get(); i++) {
+                    if (writer == 1 && i % 5 == 4) {
+                        service.deleteFile(fileName);
+                    } else {
+                        service.saveStream(fileName, new ByteArrayInputStream(i % 2 == 0 ? small : large));
+                    }
+                }
+                return null;
+            }));
+        }
+        for (int r = 0; r < 4; r++) {
+            tasks.add(exec.submit(() -> {
+                while (running.get()) {
+                    byte[] data;
+                    try {
+                        data = service.getFile(fileName);
+                    } catch (FileStorageException e) {
+                        assertTrue(e.getMessage().startsWith("File not found"), e.getMessage());
+                        continue;
+                    }
+                    assertTrue(Arrays.equals(small, data) || Arrays.equals(large, data),
+                            "Torn read of " + data.length + " bytes");
+                    reads.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+
+        Thread.sleep(1500);
+        running.set(false);
+        for (Future<?> task : tasks) {
+            task.get(10, TimeUnit.SECONDS);
+        }
+        exec.shutdown();
+        assertTrue(reads.get() > 0, "Readers should have read the file");
+    }
+
+    @Test
+    void chunkReadsDuringDelete_shouldSeeAllChunksOrNone() throws Exception {
+        byte[] part = new byte[50_000];
+        Arrays.fill(part, (byte) 'c');
+        ExecutorService exec = Executors.newFixedThreadPool(2);
+        for (int round = 0; round < 50; round++) {
+            String fileName = "chunked" + round + ".bin";
+            for (int i = 0; i < 4; i++) {
+                Files.write(storageDir.resolve(fileName + ".part" + i), part);
+            }
+            CyclicBarrier barrier = new CyclicBarrier(2);
+            Future<byte[]> reader = exec.submit(() -> {
+                barrier.await();
+                try {
+                    return service.getFile(fileName);
+                } catch (FileStorageException e) {
+                    return null;
+                }
+            });
+            Future<?> deleter = exec.submit(() -> {
+                barrier.await();
+                service.deleteFile(fileName);
+                return null;
+            });
+            deleter.get(10, TimeUnit.SECONDS);
+            byte[] data = reader.get(10, TimeUnit.SECONDS);
+            assertTrue(data == null || data.length == 4 * part.length,
+                    "Reader saw a partial chunk set of " + (data == null ? 0 : data.length) + " bytes");
+        }
+        exec.shutdown();
+    }
+
     private String md5(byte[] data) throws Exception {
         var md = MessageDigest.getInstance("MD5");
         md.update(data);
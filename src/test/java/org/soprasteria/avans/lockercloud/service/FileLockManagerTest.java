@@ -0,0 +1,86 @@
+package org.soprasteria.avans.lockercloud.service;
+
+import org.junit.jupiter.api.Test;
+import org.soprasteria.avans.lockercloud.exception.FileStorageException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileLockManagerTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @Test
+    void readers_shouldShareAFile() throws Exception {
+        FileLockManager locks = new FileLockManager(16);
+        try (FileLockManager.Held held = locks.read("a.txt")) {
+            Future<?> other = executor.submit(() -> locks.read("a.txt").close());
+            other.get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(2, locks.stats(FileLockManager.Mode.READ).acquisitions());
+        assertEquals(0, locks.stats(FileLockManager.Mode.READ).contended());
+        executor.shutdown();
+    }
+
+    @Test
+    void writer_shouldWaitForReaderAndRecordWaitTime() throws Exception {
+        FileLockManager locks = new FileLockManager(16);
+        CountDownLatch waiting = new CountDownLatch(1);
+        Future<?> writer;
+        try (FileLockManager.Held held = locks.read("a.txt")) {
+            writer = executor.submit(() -> {
+                waiting.countDown();
+                locks.write("a.txt").close();
+            });
+            waiting.await();
+            assertThrows(TimeoutException.class, () -> writer.get(200, TimeUnit.MILLISECONDS));
+        }
+        writer.get(5, TimeUnit.SECONDS);
+
+        FileLockManager.Stats stats = locks.stats(FileLockManager.Mode.WRITE);
+        assertEquals(1, stats.acquisitions());
+        assertEquals(1, stats.contended());
+        assertTrue(stats.waitNanos() >= TimeUnit.MILLISECONDS.toNanos(200));
+        executor.shutdown();
+    }
+
+    @Test
+    void writers_ofDifferentFiles_shouldNotBlockEachOther() throws Exception {
+        FileLockManager locks = new FileLockManager(1024);
+        try (FileLockManager.Held held = locks.write("a.txt")) {
+            executor.submit(() -> locks.write("b.txt").close()).get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(0, locks.stats(FileLockManager.Mode.WRITE).contended());
+        executor.shutdown();
+    }
+
+    @Test
+    void interruptedWhileWaiting_shouldThrowFileStorageException() throws Exception {
+        FileLockManager locks = new FileLockManager(16);
+        CountDownLatch started = new CountDownLatch(1);
+        Future<Throwable> reader;
+        try (FileLockManager.Held held = locks.write("a.txt")) {
+            reader = executor.submit(() -> {
+                started.countDown();
+                try {
+                    locks.read("a.txt").close();
+                    return null;
+                } catch (RuntimeException e) {
+                    return e;
+                }
+            });
+            started.await();
+            Thread.sleep(100);
+            executor.shutdownNow();
+            Throwable failure = reader.get(5, TimeUnit.SECONDS);
+            assertInstanceOf(FileStorageException.class, failure);
+            assertInstanceOf(InterruptedException.class, failure.getCause());
+        }
+    }
+}
@@ -5,8 +5,17 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.web.multipart.MultipartFile;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithms;
+import org.soprasteria.avans.lockercloud.delta.DeltaEncoder;
+import org.soprasteria.avans.lockercloud.dto.ChangeSet;
+import org.soprasteria.avans.lockercloud.dto.DeltaResult;
+import org.soprasteria.avans.lockercloud.dto.FileChange;
+import org.soprasteria.avans.lockercloud.dto.FileSignature;
 import org.soprasteria.avans.lockercloud.dto.SyncResult;
+import org.soprasteria.avans.lockercloud.dto.TransferStatus;
 import org.soprasteria.avans.lockercloud.exception.FileStorageException;
+import org.soprasteria.avans.lockercloud.manifest.MerkleManifest;
+import org.soprasteria.avans.lockercloud.storage.StorageLayout;
 import org.soprasteria.avans.lockercloud.model.FileMetadata;
 
 import java.io.ByteArrayOutputStream;
@@ -15,7 +24,9 @@ import java.nio.file.*;
 import java.security.MessageDigest;
 import java.time.LocalDateTime;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.spy;
@@ -54,11 +65,135 @@ class FileManagerServiceTest {
 
         service.saveFile(file, md5(content));
 
-        Path written = storageDir.resolve("hello.txt");
+        Path written = stored("hello.txt");
         assertTrue(Files.exists(written), "File should be created");
         assertArrayEquals(content, Files.readAllBytes(written));
     }
 
+    @Test
+    void saveFile_checksumMismatch_shouldLeaveNothingBehind() throws Exception {
+        MultipartFile file = new MockMultipartFile("file", "bad.txt", "text/plain", "hello".getBytes());
+
+        assertThrows(FileStorageException.class, () -> service.saveFile(file, "deadbeef"));
+
+        assertFalse(Files.exists(stored("bad.txt")));
+        try (var staged = Files.list(storageDir.resolve(".lockercloud").resolve("tmp"))) {
+            assertEquals(0, staged.count());
+        }
+    }
+
+    @Test
+    void saveStream_withLength_shouldReadOnlyThePayload() throws Exception {
+        java.io.ByteArrayInputStream in = new java.io.ByteArrayInputStream("payloadLIST\n".getBytes());
+
+        service.saveStream("s.bin", in, 7);
+
+        assertArrayEquals("payload".getBytes(), Files.readAllBytes(stored("s.bin")));
+        assertEquals("LIST\n", new String(in.readAllBytes()));
+        assertEquals(md5("payload".getBytes()), service.getFileChecksum(service.openFile("s.bin")));
+    }
+
+    @Test
+    void saveStream_withChecksum_shouldVerifyTheStreamAndReturnItsChecksum() throws Exception {
+        byte[] payload = "verified payload".getBytes();
+
+        assertEquals(md5(payload), service.saveStream("v.bin", new java.io.ByteArrayInputStream(payload),
+                payload.length, md5(payload), ChecksumAlgorithms.MD5));
+        assertArrayEquals(payload, Files.readAllBytes(stored("v.bin")));
+
+        assertThrows(FileStorageException.class, () -> service.saveStream("w.bin",
+                new java.io.ByteArrayInputStream(payload), payload.length, md5("other".getBytes()), ChecksumAlgorithms.MD5));
+        assertFalse(service.listFiles().contains("w.bin"));
+    }
+
+    @Test
+    void saveStream_reservedName_shouldBeRejectedBeforeAnythingIsWritten() throws Exception {
+        assertThrows(FileStorageException.class, () -> service.saveStream("objects",
+                new java.io.ByteArrayInputStream("x".getBytes()), 1));
+        assertThrows(FileStorageException.class, () -> service.initiateUpload(".lockercloud", 1, 0, 0, null));
+        assertFalse(service.listFiles().contains("objects"));
+    }
+
+    @Test
+    void applyDelta_shouldRebuildFileFromSignature() throws Exception {
+        byte[] old = new byte[8192];
+        new java.util.Random(1).nextBytes(old);
+        Files.write(storageDir.resolve("vm.img"), old);
+        byte[] updated = old.clone();
+        updated[5000] ^= 1;
+
+        FileSignature signature = service.getFileSignature("vm.img", 1024);
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        new DeltaEncoder(signature).encode(new java.io.ByteArrayInputStream(updated), delta);
+        DeltaResult result = service.applyDelta("vm.img", new java.io.ByteArrayInputStream(delta.toByteArray()),
+                signature.getChecksum(), md5(updated), ChecksumAlgorithms.MD5);
+
+        assertEquals(1024, result.getLiteralBytes());
+        assertArrayEquals(updated, service.getFile("vm.img"));
+        assertEquals(md5(updated), service.getFileChecksum(service.openFile("vm.img")));
+    }
+
+    @Test
+    void applyDelta_whenFileChangedSinceSignature_shouldReject() throws Exception {
+        Files.write(storageDir.resolve("a.txt"), "version one".getBytes());
+        FileSignature signature = service.getFileSignature("a.txt", 512);
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        new DeltaEncoder(signature).encode(new java.io.ByteArrayInputStream("version three".getBytes()), delta);
+        service.saveStream("a.txt", new java.io.ByteArrayInputStream("version two".getBytes()));
+
+        assertThrows(FileStorageException.class, () -> service.applyDelta("a.txt",
+                new java.io.ByteArrayInputStream(delta.toByteArray()), signature.getChecksum(), null, ChecksumAlgorithms.MD5));
+        assertArrayEquals("version two".getBytes(), service.getFile("a.txt"));
+    }
+
+    @Test
+    void applyDelta_whenFileChangesWhileApplying_shouldReject() throws Exception {
+        Files.write(storageDir.resolve("a.txt"), "version one".getBytes());
+        FileSignature signature = service.getFileSignature("a.txt", 512);
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        new DeltaEncoder(signature).encode(new java.io.ByteArrayInputStream("version three".getBytes()), delta);
+        // De basis wordt vervangen nadat de eerste controle al geslaagd is
+        java.io.InputStream racing = new java.io.FilterInputStream(new java.io.ByteArrayInputStream(delta.toByteArray())) {
+            private boolean replaced;
+
+            @Override
+            public int read(byte[] b, int off, int len) throws java.io.IOException {
+                if (!replaced) {
+                    replaced = true;
+                    service.saveStream("a.txt", new java.io.ByteArrayInputStream("version two".getBytes()));
+                }
+                return super.read(b, off, len);
+            }
+
+            @Override
+            public int read() throws java.io.IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+        };
+
+        FileStorageException e = assertThrows(FileStorageException.class, () -> service.applyDelta("a.txt",
+                racing, signature.getChecksum(), null, ChecksumAlgorithms.MD5));
+        assertTrue(e.getMessage().contains("changed since its signature was taken"), e.getMessage());
+        assertArrayEquals("version two".getBytes(), service.getFile("a.txt"));
+    }
+
+    @Test
+    void changeJournal_shouldTrackSavesAndDeletes() throws Exception {
+        Files.write(storageDir.resolve("existing.txt"), "old".getBytes());
+        ChangeSet initial = service.getChangesSince(null, 100);
+        assertEquals(1, initial.getChanges().size(), "A new journal is seeded with the stored files");
+
+        service.saveFile(new MockMultipartFile("file", "n.txt", "text/plain", "new".getBytes()), null);
+        service.deleteFile("existing.txt");
+        ChangeSet changes = service.getChangesSince(initial.getCursor(), 100);
+
+        assertEquals(List.of("n.txt", "existing.txt"),
+                changes.getChanges().stream().map(FileChange::getFileName).toList());
+        assertEquals(md5("new".getBytes()), changes.getChanges().get(0).getChecksum());
+        assertEquals(FileChange.Type.DELETED, changes.getChanges().get(1).getType());
+    }
+
     @Test
     void saveFile_ioError_shouldThrowFileStorageException() throws Exception {
         MultipartFile file = spy(new MockMultipartFile("file", "error.txt", "text/plain", new byte[0]));
@@ -69,7 +204,7 @@ class FileManagerServiceTest {
     }
 
     @Test
-    void saveFile_largeFile_shouldWriteChunk() throws Exception {
+    void saveFile_largeFile_shouldWriteDirectlyWithoutChunks() throws Exception {
         byte[] data = "chunk".getBytes();
         MultipartFile raw = new MockMultipartFile("file", "big.bin", "application/octet-stream", data);
         MultipartFile file = spy(raw);
@@ -79,9 +214,11 @@ class FileManagerServiceTest {
 
         service.saveFile(file, md5(data));
 
-        Path chunk = storageDir.resolve("big.bin.part1");
-        assertTrue(Files.exists(chunk), "Chunkbestand moet zijn geschreven");
-        assertArrayEquals(data, Files.readAllBytes(chunk));
+        assertArrayEquals(data, Files.readAllBytes(stored("big.bin")));
+        assertFalse(Files.exists(storageDir.resolve("big.bin.part1")), "Er mogen geen chunkbestanden achterblijven");
+        try (var staged = Files.list(storageDir.resolve(".lockercloud").resolve("tmp"))) {
+            assertEquals(0, staged.count(), "Staging moet leeg zijn na de rename");
+        }
     }
 
     @Test
@@ -106,6 +243,41 @@ class FileManagerServiceTest {
         assertArrayEquals(baos.toByteArray(), result);
     }
 
+    @Test
+    void openFile_chunks_shouldStreamWithoutAssembling() throws Exception {
+        Files.write(storageDir.resolve("file.part2"), "BB".getBytes());
+        Files.write(storageDir.resolve("file.part1"), "A".getBytes());
+
+        var resource = service.openFile("file");
+
+        assertEquals(3, resource.contentLength());
+        try (var in = resource.getInputStream()) {
+            assertArrayEquals("ABB".getBytes(), in.readAllBytes());
+        }
+        assertEquals(md5("ABB".getBytes()), service.getFileChecksum(resource));
+        assertFalse(Files.exists(stored("file")), "Chunks must not be assembled on read");
+    }
+
+    @Test
+    void saveFile_overFlatLayoutCopy_shouldReplaceIt() throws Exception {
+        Files.write(storageDir.resolve("old.txt"), "old".getBytes());
+        byte[] content = "new".getBytes();
+
+        service.saveFile(new MockMultipartFile("file", "old.txt", "text/plain", content), md5(content));
+
+        assertFalse(Files.exists(storageDir.resolve("old.txt")), "Flat copy must not shadow the new version");
+        assertArrayEquals(content, service.getFile("old.txt"));
+        assertEquals(List.of("old.txt"), service.listFiles());
+    }
+
+    @Test
+    void getFileChecksum_storedFile_shouldMatchContent() throws Exception {
+        byte[] data = "data".getBytes();
+        Files.write(storageDir.resolve("f.txt"), data);
+
+        assertEquals(md5(data), service.getFileChecksum(service.openFile("f.txt")));
+    }
+
     @Test
     void getFile_notFound_shouldThrowFileStorageException() {
         FileStorageException ex = assertThrows(FileStorageException.class, () -> service.getFile("nofile"));
@@ -160,6 +332,412 @@ class FileManagerServiceTest {
         assertEquals(List.of("two.txt"), res.getConflictFiles());
     }
 
+    @Test
+    void syncSubtrees_shouldApplySyncRulesToDifferingSubtreesOnly() throws Exception {
+        byte[] c1 = "hello".getBytes(), c2 = "orld".getBytes();
+        service.saveFile(new MockMultipartFile("file", "one.txt", "text/plain", c1), null);
+        service.saveFile(new MockMultipartFile("file", "two.txt", "text/plain", c2), null);
+        long now = System.currentTimeMillis();
+        List<FileMetadata> client = List.of(
+                new FileMetadata("one.txt", md5(c1), c1.length, LocalDateTime.now(), now),
+                new FileMetadata("two.txt", "deadbeef", c2.length, LocalDateTime.now(), now),
+                new FileMetadata("three.txt", "abc", 0, LocalDateTime.now(), now));
+
+        List<String> differing = MerkleManifest.of(client).diff(service.getManifest());
+        SyncResult res = service.syncSubtrees(differing, client);
+
+        assertEquals(List.of("three.txt"), res.getFilesToUpload());
+        assertTrue(res.getFilesToDownload().isEmpty());
+        assertEquals(List.of("two.txt"), res.getConflictFiles());
+        assertTrue(service.syncSubtrees(List.of(MerkleManifest.bucketOf("one.txt")), List.of()).getFilesToDownload()
+                .contains("one.txt"), "Only the files of the requested subtree are compared");
+    }
+
+    @Test
+    void getManifest_shouldFollowChanges() {
+        String empty = service.getManifest().rootHash();
+        service.saveFile(new MockMultipartFile("file", "a.txt", "text/plain", "a".getBytes()), null);
+        String withFile = service.getManifest().rootHash();
+        service.deleteFile("a.txt");
+
+        assertNotEquals(empty, withFile);
+        assertEquals(empty, service.getManifest().rootHash());
+    }
+
+    @Test
+    void startWatching_shouldServeSyncFromLiveView() throws Exception {
+        Files.write(clientDir.resolve("local.txt"), "local".getBytes());
+        service.startWatching(50);
+        try {
+            assertEquals(List.of("local.txt"), service.analyzeLocalClientDifferences().getFilesToUpload());
+
+            Files.write(clientDir.resolve("later.txt"), "later".getBytes());
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (service.analyzeLocalClientDifferences().getFilesToUpload().size() < 2) {
+                assertTrue(System.currentTimeMillis() < deadline, "Watcher did not pick up the new file");
+                Thread.sleep(20);
+            }
+        } finally {
+            service.stopWatching();
+        }
+    }
+
+    @Test
+    void startWatching_syncRightAfterUploadAndDelete_shouldSeeTheCommit() throws Exception {
+        // Een debounce die de test nooit haalt: alleen de commit zelf kan de view bijwerken
+        service.startWatching(60_000);
+        try {
+            service.saveStream("fresh.txt", new java.io.ByteArrayInputStream("fresh".getBytes()));
+            assertEquals(List.of("fresh.txt"), service.syncFiles(List.of()).getFilesToDownload());
+            assertTrue(service.getManifest().files(List.of("")).containsKey("fresh.txt"));
+
+            service.deleteFile("fresh.txt");
+            assertEquals(List.of(), service.syncFiles(List.of()).getFilesToDownload());
+            assertFalse(service.getManifest().files(List.of("")).containsKey("fresh.txt"));
+        } finally {
+            service.stopWatching();
+        }
+    }
+
+    @Test
+    void performServerSideLocalSync_shouldCopyBothWaysAndReportStatus() throws Exception {
+        assertNull(service.getLocalSyncStatus());
+        service.saveFile(new MockMultipartFile("file", "server.txt", "text/plain", "server".getBytes()), null);
+        Files.write(clientDir.resolve("client.txt"), "client".getBytes());
+
+        SyncResult result = service.performServerSideLocalSync();
+
+        assertEquals(List.of("client.txt"), result.getFilesToUpload());
+        assertEquals(List.of("server.txt"), result.getFilesToDownload());
+        assertTrue(result.getConflictFiles().isEmpty());
+        assertArrayEquals("server".getBytes(), Files.readAllBytes(clientDir.resolve("server.txt")));
+        assertArrayEquals("client".getBytes(), Files.readAllBytes(stored("client.txt")));
+        assertEquals(md5("client".getBytes()), service.getChangesSince(null, 100).getChanges().stream()
+                .filter(c -> c.getFileName().equals("client.txt")).findFirst().orElseThrow().getChecksum());
+        TransferStatus status = service.getLocalSyncStatus();
+        assertTrue(status.isFinished());
+        assertEquals(2, status.getCompletedFiles().size());
+    }
+
+    @Test
+    void performServerSideLocalSync_shouldCommitClientFilesUnderTheWriteLock() throws Exception {
+        Files.write(clientDir.resolve("client.txt"), "client".getBytes());
+        Field locks = FileManagerService.class.getDeclaredField("fileLocks");
+        locks.setAccessible(true);
+        FileLockManager fileLocks = (FileLockManager) locks.get(service);
+
+        java.util.concurrent.CompletableFuture<SyncResult> sync;
+        try (FileLockManager.Held reading = fileLocks.read("client.txt")) {
+            sync = java.util.concurrent.CompletableFuture.supplyAsync(service::performServerSideLocalSync);
+            Thread.sleep(300);
+            assertFalse(Files.exists(stored("client.txt")), "A reader of the file must not see it replaced");
+        }
+
+        assertEquals(List.of("client.txt"), sync.get(10, java.util.concurrent.TimeUnit.SECONDS).getFilesToUpload());
+        assertArrayEquals("client".getBytes(), Files.readAllBytes(stored("client.txt")));
+        assertEquals(md5("client".getBytes()), service.getFileChecksum(service.openFile("client.txt")));
+    }
+
+    @Test
+    void compression_shouldStoreBlocksButServeContent() throws Exception {
+        Field compression = FileManagerService.class.getDeclaredField("compressionEnabled");
+        compression.setAccessible(true);
+        compression.set(service, true);
+        byte[] content = "a line of log output\n".repeat(20_000).getBytes();
+        service.saveFile(new MockMultipartFile("file", "app.log", "text/plain", content), md5(content));
+
+        assertTrue(Files.size(stored("app.log")) < content.length / 4, "Stored file should be compressed");
+        assertArrayEquals(content, service.getFile("app.log"));
+        try (var in = service.openFile("app.log").getInputStream()) {
+            assertEquals(300_000, in.skip(300_000));
+            assertArrayEquals(Arrays.copyOfRange(content, 300_000, 300_010), in.readNBytes(10));
+        }
+        assertEquals(md5(content), service.getFileChecksum(service.openFile("app.log")));
+        FileMetadata meta = new FileMetadata("app.log", md5(content), content.length, LocalDateTime.now(), 0);
+        assertTrue(service.syncFiles(List.of(meta)).getConflictFiles().isEmpty());
+
+        byte[] updated = content.clone();
+        updated[1000] = '!';
+        FileSignature signature = service.getFileSignature("app.log", 4096);
+        assertEquals(content.length, signature.getFileSize());
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        new DeltaEncoder(signature).encode(new java.io.ByteArrayInputStream(updated), delta);
+        service.applyDelta("app.log", new java.io.ByteArrayInputStream(delta.toByteArray()),
+                signature.getChecksum(), md5(updated), ChecksumAlgorithms.MD5);
+        assertArrayEquals(updated, service.getFile("app.log"));
+
+        service.performServerSideLocalSync();
+        assertArrayEquals(updated, Files.readAllBytes(clientDir.resolve("app.log")));
+    }
+
+    @Test
+    void writeArchive_shouldDeflateTextAndStoreCompressedData() throws Exception {
+        byte[] text = "archive me\n".repeat(10_000).getBytes();
+        byte[] random = new byte[100_000];
+        new java.util.Random(5).nextBytes(random);
+        service.saveStream("notes.txt", new java.io.ByteArrayInputStream(text));
+        service.saveStream("blob.bin", new java.io.ByteArrayInputStream(random));
+        service.saveStream("photo.jpg", new java.io.ByteArrayInputStream(text));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.writeArchive(List.of("notes.txt", "blob.bin", "gone.txt", "photo.jpg"), out);
+
+        Map<String, Integer> methods = new HashMap<>();
+        try (var zip = new java.util.zip.ZipInputStream(new java.io.ByteArrayInputStream(out.toByteArray()))) {
+            java.util.zip.ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                byte[] data = zip.readAllBytes();
+                assertArrayEquals(entry.getName().equals("blob.bin") ? random : text, data, entry.getName());
+                methods.put(entry.getName(), entry.getMethod());
+            }
+        }
+        assertEquals(Map.of("notes.txt", java.util.zip.ZipEntry.DEFLATED, "blob.bin", java.util.zip.ZipEntry.STORED,
+                "photo.jpg", java.util.zip.ZipEntry.STORED), methods);
+    }
+
+    @Test
+    void saveStream_shouldRecordTheCrc32ForArchivesInTheSamePass() throws Exception {
+        byte[] random = new byte[50_000];
+        new java.util.Random(10).nextBytes(random);
+
+        service.saveStream("blob.bin", new java.io.ByteArrayInputStream(random));
+
+        String index = Files.readString(storageDir.resolve(".lockercloud").resolve("metadata.idx"));
+        assertTrue(index.contains("MD5=" + md5(random)), index);
+        assertTrue(index.contains("CRC32=" + ChecksumAlgorithms.hash(ChecksumAlgorithms.CRC32, random)), index);
+    }
+
+    @Test
+    void writeArchive_shouldNotHoldTheFileLockWhileStreaming() throws Exception {
+        byte[] random = new byte[100_000];
+        new java.util.Random(11).nextBytes(random);
+        service.saveStream("blob.bin", new java.io.ByteArrayInputStream(random));
+        java.util.concurrent.CountDownLatch deleted = new java.util.concurrent.CountDownLatch(1);
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        java.io.OutputStream slowClient = new java.io.OutputStream() {
+            private boolean first = true;
+
+            @Override
+            public void write(int b) {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                if (first) {
+                    first = false;
+                    // Terwijl de client nog leest, moet een verwijdering gewoon door kunnen
+                    new Thread(() -> {
+                        service.deleteFile("blob.bin");
+                        deleted.countDown();
+                    }).start();
+                    try {
+                        assertTrue(deleted.await(5, java.util.concurrent.TimeUnit.SECONDS),
+                                "delete waited for the archive download");
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                received.write(b, off, len);
+            }
+        };
+
+        service.writeArchive(List.of("blob.bin"), slowClient);
+
+        try (var zip = new java.util.zip.ZipInputStream(new java.io.ByteArrayInputStream(received.toByteArray()))) {
+            assertNotNull(zip.getNextEntry());
+            assertArrayEquals(random, zip.readAllBytes());
+        }
+    }
+
+    @Test
+    void writeArchive_whileAStoredEntryIsReplaced_shouldKeepHeaderAndDataTogether() throws Exception {
+        byte[][] versions = {new byte[200_000], new byte[300_000]};
+        new java.util.Random(6).nextBytes(versions[0]);
+        new java.util.Random(7).nextBytes(versions[1]);
+        service.saveStream("photo.jpg", new java.io.ByteArrayInputStream(versions[0]));
+        java.util.concurrent.atomic.AtomicBoolean done = new java.util.concurrent.atomic.AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (int i = 1; !done.get(); i++) {
+                service.saveStream("photo.jpg", new java.io.ByteArrayInputStream(versions[i % 2]));
+            }
+        });
+        writer.start();
+        try {
+            for (int round = 0; round < 50; round++) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                service.writeArchive(List.of("photo.jpg"), out);
+                // ZipInputStream controleert lengte en CRC van een STORED entry tegen de data
+                try (var zip = new java.util.zip.ZipInputStream(new java.io.ByteArrayInputStream(out.toByteArray()))) {
+                    assertNotNull(zip.getNextEntry());
+                    byte[] data = zip.readAllBytes();
+                    assertTrue(Arrays.equals(versions[0], data) || Arrays.equals(versions[1], data));
+                }
+            }
+        } finally {
+            done.set(true);
+            writer.join();
+        }
+    }
+
+    @Test
+    void openFile_savedAfterOpening_shouldKeepServingTheOpenedVersion() throws Exception {
+        byte[] first = "first version".getBytes();
+        service.saveStream("a.bin", new java.io.ByteArrayInputStream(first));
+
+        try (org.soprasteria.avans.lockercloud.storage.StoredFileResource resource = service.openFile("a.bin")) {
+            service.saveStream("a.bin", new java.io.ByteArrayInputStream("second, longer version".getBytes()));
+
+            assertEquals(first.length, resource.contentLength());
+            assertEquals(md5(first), service.getFileChecksum(resource));
+            try (java.io.InputStream in = resource.getInputStream()) {
+                assertArrayEquals(first, in.readAllBytes());
+            }
+        }
+    }
+
+    @Test
+    void openFile_racingSaves_shouldServeLengthChecksumAndBytesOfOneVersion() throws Exception {
+        byte[][] versions = {new byte[100_000], new byte[150_000]};
+        new java.util.Random(8).nextBytes(versions[0]);
+        new java.util.Random(9).nextBytes(versions[1]);
+        service.saveStream("race.bin", new java.io.ByteArrayInputStream(versions[0]));
+        java.util.concurrent.atomic.AtomicBoolean done = new java.util.concurrent.atomic.AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (int i = 1; !done.get(); i++) {
+                service.saveStream("race.bin", new java.io.ByteArrayInputStream(versions[i % 2]));
+            }
+        });
+        writer.start();
+        try {
+            for (int round = 0; round < 200; round++) {
+                try (org.soprasteria.avans.lockercloud.storage.StoredFileResource resource = service.openFile("race.bin")) {
+                    // Tussen openen en lezen slaat de schrijver zijn volgende versie op
+                    Thread.yield();
+                    byte[] data;
+                    try (java.io.InputStream in = resource.getInputStream()) {
+                        data = in.readAllBytes();
+                    }
+                    assertEquals(resource.contentLength(), data.length);
+                    assertEquals(md5(data), service.getFileChecksum(resource));
+                }
+            }
+        } finally {
+            done.set(true);
+            writer.join();
+        }
+    }
+
+    @Test
+    void readCache_shouldServeRepeatedReadsAndDropSavedFiles() throws Exception {
+        Field budget = FileManagerService.class.getDeclaredField("cacheBytes");
+        budget.setAccessible(true);
+        budget.set(service, 1L << 20);
+        byte[] first = "first version".getBytes();
+        service.saveStream("hot.txt", new java.io.ByteArrayInputStream(first));
+
+        assertArrayEquals(first, service.getFile("hot.txt"));
+        assertTrue(service.openFile("hot.txt").isCached());
+        assertArrayEquals(first, service.getFile("hot.txt"));
+        assertTrue(service.getReadCacheStats().hits() >= 2);
+
+        byte[] second = "second version".getBytes();
+        service.saveStream("hot.txt", new java.io.ByteArrayInputStream(second));
+        assertEquals(0, service.getReadCacheStats().entries());
+        assertArrayEquals(second, service.getFile("hot.txt"));
+
+        // Wijziging buiten de service om: andere grootte, dus een andere versie
+        Files.write(stored("hot.txt"), "changed on disk".getBytes());
+        assertArrayEquals("changed on disk".getBytes(), service.getFile("hot.txt"));
+
+        service.deleteFile("hot.txt");
+        assertEquals(0, service.getReadCacheStats().entries());
+    }
+
+    @Test
+    void recoverInterruptedWrites_shouldFinishPreparedAndRollBackTheRest() throws Exception {
+        Path internal = storageDir.resolve(".lockercloud");
+        Path staging = Files.createDirectories(internal.resolve("tmp"));
+        byte[] verified = "verified before the crash".getBytes();
+        Path prepared = Files.write(staging.resolve("done.txt.1.tmp"), verified);
+        Path halfWritten = Files.write(staging.resolve("half.txt.2.tmp"), new byte[100]);
+        Path sessionDir = Files.createDirectories(internal.resolve("uploads").resolve("u1"));
+        Files.write(sessionDir.resolve("data"), new byte[10]);
+        service.saveStream("doomed.txt", new java.io.ByteArrayInputStream("x".getBytes()));
+        Files.write(clientDir.resolve("doomed.txt"), "x".getBytes());
+
+        org.soprasteria.avans.lockercloud.storage.IntentLog log = new org.soprasteria.avans.lockercloud.storage.IntentLog(storageDir);
+        String done = log.begin(org.soprasteria.avans.lockercloud.storage.IntentLog.Kind.SAVE, "done.txt", prepared);
+        log.prepare(done, prepared, "MD5", md5(verified));
+        log.begin(org.soprasteria.avans.lockercloud.storage.IntentLog.Kind.SAVE, "half.txt", halfWritten);
+        log.begin("u1", org.soprasteria.avans.lockercloud.storage.IntentLog.Kind.UPLOAD, "big.iso", sessionDir);
+        log.begin(org.soprasteria.avans.lockercloud.storage.IntentLog.Kind.DELETE, "doomed.txt", null);
+        log.close();
+
+        FileManagerService restarted = new FileManagerService();
+        for (String name : new String[] {"storageLocation", "clientLocalLocation"}) {
+            Field field = FileManagerService.class.getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(restarted, field.get(service));
+        }
+        assertEquals(4, restarted.recoverInterruptedWrites());
+
+        assertArrayEquals(verified, restarted.getFile("done.txt"));
+        assertEquals(List.of("done.txt"), restarted.listFiles());
+        assertFalse(Files.exists(prepared));
+        assertFalse(Files.exists(halfWritten));
+        assertFalse(Files.exists(sessionDir));
+        assertFalse(Files.exists(clientDir.resolve("doomed.txt")));
+        assertEquals(md5(verified), restarted.getFileChecksum(restarted.openFile("done.txt")));
+        assertTrue(new org.soprasteria.avans.lockercloud.storage.IntentLog(storageDir).recoveredIntents().isEmpty());
+    }
+
+    @Test
+    void completedWrites_shouldLeaveNoOpenIntents() throws Exception {
+        service.saveStream("a.txt", new java.io.ByteArrayInputStream("a".getBytes()));
+        byte[] content = "bad".getBytes();
+        assertThrows(FileStorageException.class, () -> service.saveFile(
+                new MockMultipartFile("file", "b.txt", "text/plain", content), "0000"));
+        var upload = service.initiateUpload("c.txt", 1, 0, 0, null);
+        service.uploadPart(upload.getUploadId(), 1, new java.io.ByteArrayInputStream("c".getBytes()), 1, null);
+        service.completeUpload(upload.getUploadId(), null);
+        service.abortUpload(service.initiateUpload("d.txt", 2, 0, 0, null).getUploadId());
+        service.deleteFile("a.txt");
+
+        assertEquals(0, service.intentLog().openCount());
+    }
+
+    @Test
+    void dedup_shouldShareChunksBetweenFilesAndReleaseThemOnDelete() throws Exception {
+        Field dedup = FileManagerService.class.getDeclaredField("dedupEnabled");
+        dedup.setAccessible(true);
+        dedup.set(service, true);
+        byte[] content = new byte[1024 * 1024];
+        new java.util.Random(20).nextBytes(content);
+        service.saveStream("installer.bin", new java.io.ByteArrayInputStream(content));
+        service.saveFile(new MockMultipartFile("file", "copy.bin", "application/octet-stream", content), md5(content));
+
+        var store = service.chunkStore();
+        List<String> chunks = org.soprasteria.avans.lockercloud.storage.ChunkedFile.chunkHashes(stored("copy.bin"));
+        assertEquals(chunks, org.soprasteria.avans.lockercloud.storage.ChunkedFile.chunkHashes(stored("installer.bin")));
+        assertTrue(Files.size(stored("copy.bin")) < 4096, "Stored file should be a recipe");
+        assertEquals(2, store.references(chunks.get(0)));
+        assertArrayEquals(content, service.getFile("copy.bin"));
+        assertEquals(md5(content), service.getFileChecksum(service.openFile("copy.bin")));
+
+        service.deleteFile("installer.bin");
+        assertEquals(1, store.references(chunks.get(0)));
+        byte[] updated = "replaced".getBytes();
+        service.saveStream("copy.bin", new java.io.ByteArrayInputStream(updated));
+        assertEquals(0, store.references(chunks.get(0)));
+        assertEquals(new java.util.HashSet<>(chunks).size(), store.collectGarbage(0));
+        assertFalse(Files.exists(store.pathFor(chunks.get(0))));
+        assertArrayEquals(updated, service.getFile("copy.bin"));
+
+        service.performServerSideLocalSync();
+        assertArrayEquals(updated, Files.readAllBytes(clientDir.resolve("copy.bin")));
+    }
+
     private String md5(byte[] data) throws Exception {
         var md = MessageDigest.getInstance("MD5");
         md.update(data);
@@ -168,4 +746,8 @@ class FileManagerServiceTest {
         for (byte b : digest) sb.append(String.format("%02x", b));
         return sb.toString();
     }
+
+    private Path stored(String name) {
+        return new StorageLayout(storageDir).pathFor(name);
+    }
 }
@@ -5,6 +5,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import org.soprasteria.avans.lockercloud.helper.FaultyMultipartFile;
 import org.soprasteria.avans.lockercloud.helper.LargeInputStream;
+import org.soprasteria.avans.lockercloud.storage.StorageLayout;
 
 import java.lang.reflect.Field;
 import java.nio.file.Files;
@@ -51,7 +52,7 @@ class NetworkFaultIntegrationTest {
         service.saveFileWithRetry(file);
 
         assertEquals(2, file.getAttemptCount(), "Should retry once");
-        Path target = storageDir.resolve("net.txt");
+        Path target = stored("net.txt");
         assertTrue(Files.exists(target));
         assertArrayEquals(data, Files.readAllBytes(target));
     }
@@ -84,7 +85,7 @@ class NetworkFaultIntegrationTest {
         service.saveFileWithRetry(file);
 
         assertEquals(3, file.getAttemptCount());
-        Path target = storageDir.resolve("big.bin");
+        Path target = stored("big.bin");
         assertTrue(Files.exists(target));
         assertEquals(dataSize, Files.size(target));
         // ensure no leftover chunk files
@@ -115,7 +116,10 @@ class NetworkFaultIntegrationTest {
         exec.shutdown();
         assertTrue(exec.awaitTermination(5, TimeUnit.SECONDS));
 
-        long files = Files.list(storageDir).filter(Files::isRegularFile).count();
-        assertEquals(3, files);
+        assertEquals(3, service.listFiles().size());
+    }
+
+    private Path stored(String name) {
+        return new StorageLayout(storageDir).pathFor(name);
     }
 }
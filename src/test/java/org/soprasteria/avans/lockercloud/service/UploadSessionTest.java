@@ -0,0 +1,272 @@
+package org.soprasteria.avans.lockercloud.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithms;
+import org.soprasteria.avans.lockercloud.dto.UploadStatus;
+import org.soprasteria.avans.lockercloud.exception.FileStorageException;
+import org.soprasteria.avans.lockercloud.storage.StorageLayout;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UploadSessionTest {
+
+    @TempDir
+    Path storageDir;
+
+    @TempDir
+    Path clientDir;
+
+    private FileManagerService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        service = new FileManagerService();
+        Field storageField = FileManagerService.class.getDeclaredField("storageLocation");
+        storageField.setAccessible(true);
+        storageField.set(service, storageDir);
+        Field clientField = FileManagerService.class.getDeclaredField("clientLocalLocation");
+        clientField.setAccessible(true);
+        clientField.set(service, clientDir);
+    }
+
+    @Test
+    void partsOutOfOrder_shouldAssembleInIndexOrder() throws Exception {
+        UploadStatus status = service.initiateUpload("f.txt", 3, 0, 0, md5("aaabbbc".getBytes()));
+        String id = status.getUploadId();
+
+        put(id, 3, "c", null);
+        put(id, 1, "aaa", md5("aaa".getBytes()));
+        UploadStatus partial = service.getUploadStatus(id);
+        assertEquals(List.of(1, 3), partial.getReceivedParts());
+        assertEquals(List.of(2), partial.getMissingParts());
+        assertFalse(Files.exists(stored("f.txt")), "Must not assemble before all parts arrived");
+
+        put(id, 2, "bbb", null);
+        UploadStatus done = service.completeUpload(id, null);
+
+        assertTrue(done.isCompleted());
+        assertEquals("aaabbbc", Files.readString(stored("f.txt")));
+        assertThrows(FileStorageException.class, () -> service.getUploadStatus(id));
+    }
+
+    @Test
+    void complete_withMissingParts_shouldFail() {
+        String id = service.initiateUpload("f.txt", 2, 0, 0, null).getUploadId();
+        put(id, 2, "x", null);
+
+        FileStorageException ex = assertThrows(FileStorageException.class, () -> service.completeUpload(id, null));
+        assertTrue(ex.getMessage().contains("[1]"));
+    }
+
+    @Test
+    void complete_checksumMismatch_shouldDiscardUpload() {
+        String id = service.initiateUpload("f.txt", 1, 0, 0, "deadbeef").getUploadId();
+        put(id, 1, "x", null);
+
+        assertThrows(FileStorageException.class, () -> service.completeUpload(id, null));
+        assertFalse(Files.exists(stored("f.txt")));
+        assertThrows(FileStorageException.class, () -> service.getUploadStatus(id));
+    }
+
+    @Test
+    void part_outOfRangeOrBadChecksum_shouldBeRejected() {
+        String id = service.initiateUpload("f.txt", 2, 0, 0, null).getUploadId();
+
+        assertThrows(FileStorageException.class, () -> put(id, 3, "x", null));
+        assertThrows(FileStorageException.class, () -> put(id, 1, "x", "bad"));
+        assertEquals(List.of(1, 2), service.getUploadStatus(id).getMissingParts());
+    }
+
+    @Test
+    void concurrentParts_shouldAllBeRecorded() throws Exception {
+        int parts = 16;
+        String id = service.initiateUpload("big.bin", parts, 4, 0, null).getUploadId();
+        ExecutorService exec = Executors.newFixedThreadPool(8);
+        List<Integer> order = new ArrayList<>();
+        for (int i = 1; i <= parts; i++) order.add(i);
+        Collections.shuffle(order);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i : order) {
+            futures.add(exec.submit(() -> service.uploadPart(id, i, stream(String.format("p%02d;", i)), -1, null)));
+        }
+        for (Future<?> f : futures) f.get(10, TimeUnit.SECONDS);
+        exec.shutdown();
+
+        service.completeUpload(id, null);
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 1; i <= parts; i++) expected.append(String.format("p%02d;", i));
+        assertEquals(expected.toString(), Files.readString(stored("big.bin")));
+    }
+
+    @Test
+    void abort_shouldRemoveStagedParts() {
+        String id = service.initiateUpload("f.txt", 2, 0, 0, null).getUploadId();
+        put(id, 1, "x", null);
+
+        service.abortUpload(id);
+
+        assertThrows(FileStorageException.class, () -> service.getUploadStatus(id));
+        assertFalse(Files.exists(storageDir.resolve(".lockercloud").resolve("uploads").resolve(id)));
+    }
+
+    @Test
+    void parkedLastPart_retryWhilePlaced_shouldBeIgnored() throws Exception {
+        byte[] head = new byte[8 * 1024 * 1024];
+        byte[] last = new byte[head.length];
+        Arrays.fill(head, (byte) 'h');
+        Arrays.fill(last, (byte) 'l');
+        String id = service.initiateUpload("r.bin", 2, 0, 0, null).getUploadId();
+        service.uploadPart(id, 2, new ByteArrayInputStream(last), last.length, null);
+
+        // Blijf het laatste deel opnieuw sturen terwijl deel 1 het geparkeerde deel op zijn plek zet
+        AtomicBoolean placed = new AtomicBoolean();
+        Thread retries = new Thread(() -> {
+            while (!placed.get()) {
+                try {
+                    put(id, 2, "XXXX", null);
+                } catch (FileStorageException e) {
+                    // deel wordt nog geschreven; opnieuw proberen
+                }
+            }
+        });
+        retries.start();
+        service.uploadPart(id, 1, new ByteArrayInputStream(head), head.length, null);
+        placed.set(true);
+        retries.join(10_000);
+
+        service.completeUpload(id, null);
+        byte[] expected = new byte[2 * head.length];
+        System.arraycopy(head, 0, expected, 0, head.length);
+        System.arraycopy(last, 0, expected, head.length, last.length);
+        assertArrayEquals(expected, Files.readAllBytes(stored("r.bin")));
+    }
+
+    @Test
+    void idleSessions_shouldExpireWithTheirStagedData() throws Exception {
+        String idle = service.initiateUpload("f.txt", 2, 0, 100, null).getUploadId();
+        put(idle, 1, "x", null);
+        Thread.sleep(20);
+        String fresh = service.initiateUpload("g.txt", 2, 0, 0, null).getUploadId();
+
+        assertEquals(1, service.expireUploads(10));
+
+        assertThrows(FileStorageException.class, () -> service.getUploadStatus(idle));
+        assertFalse(Files.exists(storageDir.resolve(".lockercloud").resolve("uploads").resolve(idle)));
+        assertEquals(1, service.intentLog().openCount(), "only the fresh upload keeps its intent");
+        put(fresh, 1, "y", null);
+        assertEquals(List.of(1), service.getUploadStatus(fresh).getReceivedParts());
+    }
+
+    @Test
+    void legacyChunks_outOfOrder_shouldAssembleWhenLastMissingChunkArrives() throws Exception {
+        String finalChecksum = md5("AB".getBytes());
+        service.saveFileChunkWithRetry(new MockMultipartFile("file", "c.txt", "text/plain", "B".getBytes()),
+                2, 2, null, finalChecksum);
+        assertFalse(Files.exists(stored("c.txt")), "Last index arriving first must not assemble");
+
+        service.saveFileChunkWithRetry(new MockMultipartFile("file", "c.txt", "text/plain", "A".getBytes()),
+                1, 2, null, null);
+
+        assertEquals("AB", Files.readString(stored("c.txt")));
+    }
+
+    @Test
+    void parts_shouldBeWrittenInPlaceWithoutPartFiles() throws Exception {
+        String id = service.initiateUpload("f.txt", 3, 2, 5, md5("aabbc".getBytes())).getUploadId();
+        put(id, 2, "bb", null);
+        put(id, 1, "aa", null);
+        put(id, 3, "c", null);
+
+        Path sessionDir = storageDir.resolve(".lockercloud").resolve("uploads").resolve(id);
+        try (var files = Files.list(sessionDir)) {
+            assertEquals(List.of(sessionDir.resolve("data")), files.toList());
+        }
+        assertEquals(5, Files.size(sessionDir.resolve("data")));
+
+        service.completeUpload(id, null);
+        assertEquals("aabbc", Files.readString(stored("f.txt")));
+        assertFalse(Files.exists(sessionDir));
+    }
+
+    @Test
+    void preallocatedLength_shouldBeTrimmedToActualSize() throws Exception {
+        String id = service.initiateUpload("f.txt", 2, 3, 100, null).getUploadId();
+        put(id, 1, "abc", null);
+        put(id, 2, "d", null);
+
+        service.completeUpload(id, md5("abcd".getBytes()));
+
+        assertEquals("abcd", Files.readString(stored("f.txt")));
+    }
+
+    @Test
+    void part_withWrongSize_shouldBeRejected() {
+        String id = service.initiateUpload("f.txt", 2, 3, 0, null).getUploadId();
+
+        assertThrows(FileStorageException.class, () -> put(id, 1, "ab", null));
+        assertThrows(FileStorageException.class, () -> put(id, 2, "defg", null));
+        assertEquals(List.of(1, 2), service.getUploadStatus(id).getMissingParts());
+    }
+
+    @Test
+    void receivedPart_retry_shouldBeIgnored() throws Exception {
+        String id = service.initiateUpload("f.txt", 2, 0, 0, null).getUploadId();
+        put(id, 1, "ab", null);
+        put(id, 1, "zz", null);
+        put(id, 2, "c", null);
+
+        service.completeUpload(id, md5("abc".getBytes()));
+
+        assertEquals("abc", Files.readString(stored("f.txt")));
+    }
+
+    @Test
+    void session_withCrc32c_shouldValidatePartsAndFile() throws Exception {
+        String id = service.initiateUpload("f.txt", 2, 0, 0, null, ChecksumAlgorithms.CRC32C).getUploadId();
+        put(id, 2, "cd", ChecksumAlgorithms.hash(ChecksumAlgorithms.CRC32C, "cd".getBytes()));
+        assertThrows(FileStorageException.class, () -> put(id, 1, "ab", md5("ab".getBytes())));
+        put(id, 1, "ab", null);
+
+        service.completeUpload(id, ChecksumAlgorithms.hash(ChecksumAlgorithms.CRC32C, "abcd".getBytes()));
+
+        assertEquals("abcd", Files.readString(stored("f.txt")));
+    }
+
+    private UploadStatus put(String id, int index, String data, String checksum) {
+        return service.uploadPart(id, index, stream(data), data.length(), checksum);
+    }
+
+    private static ByteArrayInputStream stream(String s) {
+        return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String md5(byte[] data) throws Exception {
+        var md = MessageDigest.getInstance("MD5");
+        md.update(data);
+        byte[] digest = md.digest();
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    private Path stored(String name) {
+        return new StorageLayout(storageDir).pathFor(name);
+    }
+}
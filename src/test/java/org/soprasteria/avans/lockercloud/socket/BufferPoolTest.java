@@ -0,0 +1,49 @@
+package org.soprasteria.avans.lockercloud.socket;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BufferPoolTest {
+
+    @Test
+    void releasedBuffers_shouldBeReusedUpToTheLimit() {
+        BufferPool pool = new BufferPool(1024, 1);
+        ByteBuffer first = pool.acquire();
+        ByteBuffer second = pool.acquire();
+        assertTrue(first.isDirect());
+        assertEquals(1024, first.capacity());
+
+        first.put((byte) 1);
+        pool.release(first);
+        pool.release(second);
+        assertEquals(1, pool.pooled());
+
+        ByteBuffer reused = pool.acquire();
+        assertSame(first, reused);
+        assertEquals(0, reused.position());
+        assertEquals(1024, reused.remaining());
+        assertEquals(2, pool.allocated());
+    }
+
+    @Test
+    void release_shouldRefuseForeignBuffers() {
+        BufferPool pool = new BufferPool(1024, 4);
+        assertThrows(IllegalArgumentException.class, () -> pool.release(ByteBuffer.allocate(1024)));
+        assertThrows(IllegalArgumentException.class, () -> pool.release(ByteBuffer.allocateDirect(512)));
+    }
+
+    @Test
+    void heapPool_shouldHandOutArrayBackedBuffers() {
+        BufferPool pool = new BufferPool(256, 4, false);
+        ByteBuffer buffer = pool.acquire();
+        assertFalse(buffer.isDirect());
+        assertEquals(256, buffer.array().length);
+
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire());
+        assertThrows(IllegalArgumentException.class, () -> pool.release(ByteBuffer.allocateDirect(256)));
+    }
+}
@@ -0,0 +1,241 @@
+package org.soprasteria.avans.lockercloud.socket;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithms;
+import org.soprasteria.avans.lockercloud.service.FileManagerService;
+import org.soprasteria.avans.lockercloud.storage.StoredFileResource;
+import org.soprasteria.avans.lockercloud.syncserver.KeyStoreTestUtils;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MultiplexedConnectionTest {
+
+    private static Path keyStore;
+    private static SSLContext clientContext;
+
+    private final FileManagerService fileService = mock(FileManagerService.class);
+    private SSLFileServer server;
+
+    @BeforeAll
+    static void createKeyStore() throws Exception {
+        keyStore = KeyStoreTestUtils.createTempKeyStore("password");
+        KeyStore trusted = KeyStore.getInstance("JKS");
+        try (InputStream in = Files.newInputStream(keyStore)) {
+            trusted.load(in, "password".toCharArray());
+        }
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(trusted);
+        clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, tmf.getTrustManagers(), null);
+    }
+
+    @BeforeEach
+    void startServer() throws Exception {
+        server = new SSLFileServer(0, fileService, keyStore.toString(), "password",
+                FileSocketServer.platformExecutor("ssl-file", 4), FileSocketServer.Limits.DEFAULT);
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop();
+    }
+
+    private static StoredFileResource stored(String name, byte[] content) {
+        return new StoredFileResource(name, Path.of(name), ByteBuffer.wrap(content));
+    }
+
+    @Test
+    void hello_shouldNegotiateTheHighestCommonVersion() throws Exception {
+        when(fileService.listFiles()).thenReturn(List.of("a.txt"));
+
+        try (SSLSocket socket = (SSLSocket) clientContext.getSocketFactory().createSocket("localhost", server.getPort())) {
+            socket.setSoTimeout(5_000);
+            socket.getOutputStream().write("HELLO 1\nLIST\n".getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+
+            assertEquals("HELLO 1\na.txt\nEND\n",
+                    new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8));
+        }
+        try (SSLSocket socket = (SSLSocket) clientContext.getSocketFactory().createSocket("localhost", server.getPort())) {
+            socket.setSoTimeout(5_000);
+            socket.getOutputStream().write("HELLO 7\n".getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+
+            assertEquals("HELLO 2", V2TestClient.readLine(new DataInputStream(socket.getInputStream())));
+        }
+    }
+
+    @Test
+    void streams_shouldInterleaveUploadsDownloadsAndListsOnOneConnection() throws Exception {
+        byte[] upload = new byte[1024 * 1024 + 5];
+        byte[] download = new byte[1024 * 1024 + 7];
+        Random random = new Random(25);
+        random.nextBytes(upload);
+        random.nextBytes(download);
+        ByteArrayOutputStream uploaded = new ByteArrayOutputStream();
+        when(fileService.saveStream(eq("my file.bin"), any(InputStream.class), eq((long) upload.length), isNull(), any()))
+                .thenAnswer(invocation -> {
+                    ((InputStream) invocation.getArgument(1)).transferTo(uploaded);
+                    return "sum";
+                });
+        when(fileService.openFile("big.bin")).thenReturn(stored("big.bin", download));
+        when(fileService.listFiles()).thenReturn(List.of("my file.bin", "big.bin"));
+
+        try (V2TestClient client = new V2TestClient(clientContext, server.getPort())) {
+            Map<Integer, Integer> uploadWindow = new HashMap<>(Map.of(1, MultiplexedConnection.INITIAL_WINDOW));
+            client.open(1, "UPLOAD", "my file.bin", String.valueOf(upload.length));
+            client.open(3, "DOWNLOAD", "big.bin", "md5");
+            client.open(5, "LIST");
+            Thread sender = new Thread(() -> {
+                try {
+                    int sent = 0;
+                    while (sent < upload.length) {
+                        int n;
+                        synchronized (uploadWindow) {
+                            while (uploadWindow.get(1) == 0) {
+                                uploadWindow.wait();
+                            }
+                            n = Math.min(Math.min(uploadWindow.get(1), 16 * 1024), upload.length - sent);
+                            uploadWindow.put(1, uploadWindow.get(1) - n);
+                        }
+                        client.data(1, upload, sent, n, sent + n == upload.length);
+                        sent += n;
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            sender.start();
+
+            Map<Integer, List<List<String>>> replies = new HashMap<>();
+            Map<Integer, ByteArrayOutputStream> data = new HashMap<>();
+            Set<Integer> ended = new HashSet<>();
+            while (ended.size() < 3) {
+                V2TestClient.Frame frame = client.read();
+                assertNotNull(frame, "connection closed early");
+                switch (frame.type()) {
+                    case MultiplexedConnection.REPLY ->
+                            replies.computeIfAbsent(frame.id(), id -> new java.util.ArrayList<>()).add(frame.fields());
+                    case MultiplexedConnection.DATA -> {
+                        data.computeIfAbsent(frame.id(), id -> new ByteArrayOutputStream()).write(frame.payload());
+                        if (frame.payload().length > 0) {
+                            client.window(frame.id(), frame.payload().length);
+                        }
+                    }
+                    case MultiplexedConnection.WINDOW -> {
+                        synchronized (uploadWindow) {
+                            uploadWindow.merge(frame.id(), ByteBuffer.wrap(frame.payload()).getInt(), Integer::sum);
+                            uploadWindow.notifyAll();
+                        }
+                    }
+                    default -> fail("unexpected frame type " + frame.type());
+                }
+                if (frame.ends()) {
+                    ended.add(frame.id());
+                }
+            }
+            sender.join(10_000);
+
+            assertEquals(List.of(List.of("OK", "sum")), replies.get(1));
+            assertArrayEquals(upload, uploaded.toByteArray());
+            assertEquals(List.of(List.of("OK", String.valueOf(download.length)),
+                    List.of("OK", ChecksumAlgorithms.hash(ChecksumAlgorithms.MD5, download))), replies.get(3));
+            assertArrayEquals(download, data.get(3).toByteArray());
+            assertEquals(List.of(List.of("OK")), replies.get(5));
+            assertEquals(List.of("my file.bin", "big.bin"), V2TestClient.names(data.get(5).toByteArray()));
+        }
+    }
+
+    @Test
+    void flowControl_shouldStallOnlyTheStreamWithoutWindow() throws Exception {
+        byte[] download = new byte[3 * MultiplexedConnection.INITIAL_WINDOW];
+        new Random(26).nextBytes(download);
+        when(fileService.openFile("big.bin")).thenReturn(stored("big.bin", download));
+        when(fileService.listFiles()).thenReturn(List.of("a.txt"));
+
+        try (V2TestClient client = new V2TestClient(clientContext, server.getPort())) {
+            client.open(1, "DOWNLOAD", "big.bin");
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            assertEquals(List.of("OK", String.valueOf(download.length)), client.read().fields());
+            while (received.size() < MultiplexedConnection.INITIAL_WINDOW) {
+                V2TestClient.Frame frame = client.read();
+                assertEquals(1, frame.id());
+                received.write(frame.payload());
+            }
+            assertEquals(MultiplexedConnection.INITIAL_WINDOW, received.size());
+
+            // Stream 1 wacht op venster; een LIST op dezelfde verbinding gaat er gewoon langs
+            client.open(3, "LIST");
+            V2TestClient.Frame reply = client.read();
+            assertEquals(3, reply.id());
+            assertEquals(List.of("OK"), reply.fields());
+            V2TestClient.Frame names = client.read();
+            assertEquals(3, names.id());
+            assertTrue(names.ends());
+            assertEquals(List.of("a.txt"), V2TestClient.names(names.payload()));
+
+            client.window(1, download.length - MultiplexedConnection.INITIAL_WINDOW);
+            V2TestClient.Frame frame;
+            do {
+                frame = client.read();
+                assertEquals(1, frame.id());
+                received.write(frame.payload());
+            } while (!frame.ends());
+            assertArrayEquals(download, received.toByteArray());
+        }
+    }
+
+    @Test
+    void dataBeyondTheWindow_shouldResetTheConnection() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        when(fileService.saveStream(eq("slow.bin"), any(InputStream.class), eq(1L << 20), isNull(), any()))
+                .thenAnswer(invocation -> {
+                    release.await(10, TimeUnit.SECONDS);
+                    return "sum";
+                });
+
+        try (V2TestClient client = new V2TestClient(clientContext, server.getPort())) {
+            client.open(1, "UPLOAD", "slow.bin", String.valueOf(1L << 20));
+            byte[] chunk = new byte[MultiplexedConnection.MAX_FRAME_PAYLOAD];
+            for (int sent = 0; sent <= MultiplexedConnection.INITIAL_WINDOW; sent += chunk.length) {
+                client.data(1, chunk, 0, chunk.length, false);
+            }
+
+            V2TestClient.Frame reset = client.read();
+            release.countDown();
+            assertEquals(MultiplexedConnection.RESET, reset.type());
+            assertEquals(0, reset.id());
+            assertTrue(reset.fields().get(0).contains("beyond its window"), reset.fields().toString());
+            assertNull(client.read());
+        }
+    }
+}
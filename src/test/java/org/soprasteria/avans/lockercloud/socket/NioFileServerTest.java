@@ -0,0 +1,361 @@
+package org.soprasteria.avans.lockercloud.socket;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.soprasteria.avans.lockercloud.service.FileManagerService;
+import org.soprasteria.avans.lockercloud.storage.StoredFileResource;
+import org.soprasteria.avans.lockercloud.syncserver.KeyStoreTestUtils;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class NioFileServerTest {
+
+    private static Path keyStore;
+    private static SSLContext clientContext;
+
+    private final FileManagerService fileService = mock(FileManagerService.class);
+    private NioFileServer server;
+
+    @BeforeAll
+    static void createKeyStore() throws Exception {
+        keyStore = KeyStoreTestUtils.createTempKeyStore("password");
+        KeyStore trusted = KeyStore.getInstance("JKS");
+        try (InputStream in = Files.newInputStream(keyStore)) {
+            trusted.load(in, "password".toCharArray());
+        }
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(trusted);
+        clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, tmf.getTrustManagers(), null);
+    }
+
+    @AfterEach
+    void stopServer() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    private void start(FileSocketServer.Limits limits, int workers) throws Exception {
+        server = new NioFileServer(0, fileService, keyStore.toString(), "password",
+                FileSocketServer.platformExecutor("nio-test-worker", workers), limits, 2);
+        server.start();
+    }
+
+    private SSLSocket connect() throws Exception {
+        SSLSocket socket = (SSLSocket) clientContext.getSocketFactory().createSocket("localhost", server.getPort());
+        socket.setSoTimeout(10_000);
+        return socket;
+    }
+
+    /** Sends a command with an optional payload and returns the whole answer. */
+    private byte[] exchange(String command, byte[] payload) throws Exception {
+        try (SSLSocket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            out.write((command + "\n").getBytes(StandardCharsets.UTF_8));
+            if (payload != null) {
+                out.write(payload);
+            }
+            out.flush();
+            ByteArrayOutputStream answer = new ByteArrayOutputStream();
+            socket.getInputStream().transferTo(answer);
+            return answer.toByteArray();
+        }
+    }
+
+    @Test
+    void commands_shouldBeServedOverTheEventLoops() throws Exception {
+        start(FileSocketServer.Limits.DEFAULT, 4);
+        byte[] upload = new byte[3 * 1024 * 1024 + 11];
+        new Random(22).nextBytes(upload);
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        doAnswer(invocation -> {
+            InputStream in = invocation.getArgument(1);
+            long length = invocation.getArgument(2);
+            received.write(in.readNBytes((int) length));
+            return null;
+        }).when(fileService).saveStream(eq("big.bin"), any(InputStream.class), anyLong(), isNull(), any());
+        when(fileService.openFile("big.bin"))
+                .thenReturn(new StoredFileResource("big.bin", Path.of("big.bin"), ByteBuffer.wrap(upload)));
+        when(fileService.listFiles()).thenReturn(List.of("a.txt", "big.bin"));
+
+        assertEquals("OK\n", new String(exchange("UPLOAD big.bin " + upload.length, upload), StandardCharsets.UTF_8));
+        assertArrayEquals(upload, received.toByteArray());
+
+        DataInputStream download = new DataInputStream(new ByteArrayInputStream(exchange("DOWNLOAD big.bin", null)));
+        assertEquals(String.valueOf(upload.length), readLine(download));
+        assertArrayEquals(upload, download.readAllBytes());
+
+        assertEquals("a.txt\nbig.bin\nEND\n", new String(exchange("LIST", null), StandardCharsets.UTF_8));
+        assertEquals("OK\n", new String(exchange("DELETE a.txt", null), StandardCharsets.UTF_8));
+        verify(fileService).deleteFile("a.txt");
+
+        waitFor(() -> server.activeConnections() == 0);
+        assertTrue(server.bufferPool().allocated() <= server.bufferPool().pooled() + 8,
+                "buffers should return to the pool");
+    }
+
+    @Test
+    void idleConnections_shouldNotHoldThreads() throws Exception {
+        start(FileSocketServer.Limits.DEFAULT, 2);
+        when(fileService.listFiles()).thenReturn(List.of("x"));
+        List<SSLSocket> idle = new ArrayList<>();
+        try {
+            for (int i = 0; i < 200; i++) {
+                SSLSocket socket = connect();
+                socket.startHandshake();
+                idle.add(socket);
+            }
+            waitFor(() -> server.activeConnections() == 200);
+
+            long threads = Thread.getAllStackTraces().keySet().stream()
+                    .filter(t -> t.getName().startsWith("nio-")).count();
+            assertTrue(threads <= 2 + 2 + 1, threads + " server threads for 200 connections");
+            assertEquals("x\nEND\n", new String(exchange("LIST", null), StandardCharsets.UTF_8));
+        } finally {
+            for (Socket socket : idle) {
+                socket.close();
+            }
+        }
+        waitFor(() -> server.activeConnections() == 0);
+    }
+
+    @Test
+    void limitsAndTimeouts_shouldCloseStalledConnections() throws Exception {
+        start(new FileSocketServer.Limits(2, 300, 300, 1_000), 2);
+        when(fileService.listFiles()).thenReturn(List.of());
+
+        try (Socket stalled = new Socket("localhost", server.getPort());
+             SSLSocket quiet = connect()) {
+            quiet.startHandshake();
+            waitFor(() -> server.activeConnections() == 2);
+            assertThrows(Exception.class, () -> exchange("LIST", null));
+            assertEquals(1, server.rejectedConnections());
+
+            // De handshake- en idle-timeout ruimen beide op
+            waitFor(() -> server.activeConnections() == 0);
+            assertEquals(-1, quiet.getInputStream().read());
+            assertEquals("END\n", new String(exchange("LIST", null), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void keepAlive_shouldCarryPipelinedCommandsWithoutHoldingAWorker() throws Exception {
+        start(new FileSocketServer.Limits(16, 5_000, 500, 1_000), 1);
+        when(fileService.listFiles()).thenReturn(List.of("a.txt"));
+
+        try (SSLSocket socket = connect()) {
+            StringBuilder batch = new StringBuilder("KEEPALIVE\n");
+            for (int i = 0; i < 100; i++) {
+                batch.append("DELETE f").append(i).append(".txt\n");
+            }
+            socket.getOutputStream().write(batch.append("LIST\n").toString().getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            for (int i = 0; i < 101; i++) {
+                assertEquals("OK", readLine(in));
+            }
+            assertEquals("a.txt", readLine(in));
+            assertEquals("END", readLine(in));
+            verify(fileService).deleteFile("f99.txt");
+
+            // Tussen de commando's is de enige worker vrij voor een andere verbinding
+            assertEquals("a.txt\nEND\n", new String(exchange("LIST", null), StandardCharsets.UTF_8));
+            socket.getOutputStream().write("LIST\n".getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+            assertEquals("a.txt", readLine(in));
+            assertEquals("END", readLine(in));
+
+            // Daarna sluit de idle timeout de verbinding
+            assertEquals(-1, in.read());
+        }
+        waitFor(() -> server.activeConnections() == 0);
+    }
+
+    @Test
+    void quit_shouldCloseAKeptAliveConnection() throws Exception {
+        start(FileSocketServer.Limits.DEFAULT, 2);
+
+        assertEquals("OK\nOK\n", new String(exchange("KEEPALIVE\nQUIT", null), StandardCharsets.UTF_8));
+        waitFor(() -> server.activeConnections() == 0);
+    }
+
+    @Test
+    void version2_shouldMultiplexStreamsOverTheEventLoops() throws Exception {
+        start(FileSocketServer.Limits.DEFAULT, 2);
+        byte[] content = new byte[700 * 1024];
+        new Random(25).nextBytes(content);
+        when(fileService.openFile("big.bin"))
+                .thenReturn(new StoredFileResource("big.bin", Path.of("big.bin"), ByteBuffer.wrap(content)));
+        when(fileService.listFiles()).thenReturn(List.of("big.bin"));
+
+        try (V2TestClient client = new V2TestClient(clientContext, server.getPort())) {
+            client.open(1, "DOWNLOAD", "big.bin");
+            client.open(2, "LIST");
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            List<String> names = null;
+            boolean downloaded = false;
+            while (!downloaded || names == null) {
+                V2TestClient.Frame frame = client.read();
+                assertNotNull(frame, "connection closed early");
+                if (frame.type() != MultiplexedConnection.DATA) {
+                    assertEquals("OK", frame.fields().get(0));
+                } else if (frame.id() == 1) {
+                    received.write(frame.payload());
+                    client.window(1, frame.payload().length);
+                    downloaded = frame.ends();
+                } else {
+                    names = V2TestClient.names(frame.payload());
+                }
+            }
+            assertArrayEquals(content, received.toByteArray());
+            assertEquals(List.of("big.bin"), names);
+        }
+        waitFor(() -> server.activeConnections() == 0);
+    }
+
+    @Test
+    void version2_shouldNotHoldAWorkerBetweenStreams() throws Exception {
+        start(FileSocketServer.Limits.DEFAULT, 1);
+        when(fileService.listFiles()).thenReturn(List.of("a.txt"));
+
+        try (V2TestClient first = new V2TestClient(clientContext, server.getPort());
+             V2TestClient second = new V2TestClient(clientContext, server.getPort())) {
+            // Beide verbindingen staan open zonder stream; de enige worker is vrij
+            assertEquals("a.txt\nEND\n", new String(exchange("LIST", null), StandardCharsets.UTF_8));
+            for (V2TestClient client : List.of(second, first)) {
+                client.open(1, "LIST");
+                assertEquals(List.of("OK"), client.read().fields());
+                V2TestClient.Frame names = client.read();
+                assertTrue(names.ends());
+                assertEquals(List.of("a.txt"), V2TestClient.names(names.payload()));
+            }
+            assertEquals("a.txt\nEND\n", new String(exchange("LIST", null), StandardCharsets.UTF_8));
+        }
+        waitFor(() -> server.activeConnections() == 0);
+    }
+
+    @Test
+    void version2_framesSentWithTheHello_shouldBeServed() throws Exception {
+        start(FileSocketServer.Limits.DEFAULT, 2);
+        when(fileService.listFiles()).thenReturn(List.of("a.txt"));
+
+        try (SSLSocket socket = connect()) {
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            DataOutputStream frames = new DataOutputStream(request);
+            frames.writeBytes("HELLO 2\n");
+            byte[] open = MultiplexedConnection.fields("LIST");
+            frames.writeByte(MultiplexedConnection.OPEN);
+            frames.writeByte(0);
+            frames.writeInt(1);
+            frames.writeInt(open.length);
+            frames.write(open);
+            // De frames komen in hetzelfde TLS-record als de HELLO
+            socket.getOutputStream().write(request.toByteArray());
+            socket.getOutputStream().flush();
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            assertEquals("HELLO 2", readLine(in));
+            assertEquals(MultiplexedConnection.REPLY, in.readUnsignedByte());
+            in.readUnsignedByte();
+            assertEquals(1, in.readInt());
+            assertEquals(List.of("OK"), MultiplexedConnection.parseFields(in.readNBytes(in.readInt())));
+            assertEquals(MultiplexedConnection.DATA, in.readUnsignedByte());
+            assertEquals(MultiplexedConnection.END_STREAM, in.readUnsignedByte());
+            assertEquals(1, in.readInt());
+            assertEquals(List.of("a.txt"), V2TestClient.names(in.readNBytes(in.readInt())));
+
+            socket.shutdownOutput();
+            assertEquals(-1, in.read());
+        }
+        waitFor(() -> server.activeConnections() == 0);
+    }
+
+    @Test
+    void version2_protocolError_shouldResetAndCloseTheConnection() throws Exception {
+        start(FileSocketServer.Limits.DEFAULT, 2);
+
+        try (V2TestClient client = new V2TestClient(clientContext, server.getPort())) {
+            client.send(9, 0, 1, new byte[3]);
+
+            V2TestClient.Frame reset = client.read();
+            assertEquals(MultiplexedConnection.RESET, reset.type());
+            assertEquals(0, reset.id());
+            assertTrue(reset.fields().get(0).contains("Unknown frame type 9"), reset.fields().toString());
+            assertNull(client.read());
+        }
+        waitFor(() -> server.activeConnections() == 0);
+    }
+
+    @Test
+    void stop_shouldFinishRunningCommands() throws Exception {
+        start(FileSocketServer.Limits.DEFAULT, 2);
+        CountDownLatch inCommand = new CountDownLatch(1);
+        when(fileService.listFiles()).thenAnswer(invocation -> {
+            inCommand.countDown();
+            Thread.sleep(300);
+            return List.of("slow.txt");
+        });
+
+        try (SSLSocket socket = connect()) {
+            socket.getOutputStream().write("LIST\n".getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+            assertTrue(inCommand.await(10, TimeUnit.SECONDS));
+            server.stop();
+
+            ByteArrayOutputStream answer = new ByteArrayOutputStream();
+            socket.getInputStream().transferTo(answer);
+            assertEquals("slow.txt\nEND\n", answer.toString(StandardCharsets.UTF_8));
+        }
+        assertFalse(server.isRunning());
+        assertEquals(0, server.activeConnections());
+    }
+
+    private static String readLine(DataInputStream in) throws Exception {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            line.append((char) b);
+        }
+        return line.toString();
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not reached in time");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package org.soprasteria.avans.lockercloud.socket;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.soprasteria.avans.lockercloud.service.FileManagerService;
+import org.soprasteria.avans.lockercloud.syncserver.KeyStoreTestUtils;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SSLFileServerTest {
+
+    private static Path keyStore;
+    private static SSLContext clientContext;
+
+    private final FileManagerService fileService = mock(FileManagerService.class);
+    private SSLFileServer server;
+
+    @BeforeAll
+    static void createKeyStore() throws Exception {
+        keyStore = KeyStoreTestUtils.createTempKeyStore("password");
+        KeyStore trusted = KeyStore.getInstance("JKS");
+        try (InputStream in = Files.newInputStream(keyStore)) {
+            trusted.load(in, "password".toCharArray());
+        }
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(trusted);
+        clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, tmf.getTrustManagers(), null);
+    }
+
+    @AfterEach
+    void stopServer() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    private SSLFileServer start(FileSocketServer.Limits limits) throws Exception {
+        server = new SSLFileServer(0, fileService, keyStore.toString(), "password",
+                FileSocketServer.platformExecutor("ssl-file", limits.maxConnections()), limits);
+        server.start();
+        return server;
+    }
+
+    private String list() throws Exception {
+        try (SSLSocket socket = (SSLSocket) clientContext.getSocketFactory().createSocket("localhost", server.getPort())) {
+            socket.setSoTimeout(5_000);
+            socket.getOutputStream().write("LIST\n".getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            StringBuilder lines = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null && !"END".equals(line)) {
+                lines.append(line).append(',');
+            }
+            return lines + String.valueOf(line);
+        }
+    }
+
+    @Test
+    void stalledHandshake_shouldNotBlockOtherClients() throws Exception {
+        when(fileService.listFiles()).thenReturn(List.of("a.txt"));
+        start(new FileSocketServer.Limits(4, 60_000, 60_000, 1_000));
+
+        try (Socket stalled = new Socket("localhost", server.getPort())) {
+            assertEquals("a.txt,END", list());
+            assertTrue(stalled.isConnected());
+        }
+    }
+
+    @Test
+    void connectionLimit_shouldRejectExtraConnectionsAndHandshakeTimeoutShouldFreeThem() throws Exception {
+        when(fileService.listFiles()).thenReturn(List.of());
+        start(new FileSocketServer.Limits(1, 300, 60_000, 1_000));
+
+        try (Socket stalled = new Socket("localhost", server.getPort())) {
+            waitFor(() -> server.activeConnections() == 1);
+            assertThrows(Exception.class, this::list);
+            assertEquals(1, server.rejectedConnections());
+
+            waitFor(() -> server.activeConnections() == 0);
+            assertEquals("END", list());
+        }
+    }
+
+    @Test
+    void keepAlive_shouldAnswerPipelinedCommandsOnOneConnection() throws Exception {
+        when(fileService.listFiles()).thenReturn(List.of("a.txt"));
+        start(new FileSocketServer.Limits(4, 5_000, 5_000, 1_000));
+
+        try (SSLSocket socket = (SSLSocket) clientContext.getSocketFactory().createSocket("localhost", server.getPort())) {
+            socket.setSoTimeout(5_000);
+            socket.getOutputStream().write("KEEPALIVE\nDELETE a.txt\nLIST\nDELETE b.txt\nQUIT\n"
+                    .getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+
+            assertEquals("OK\nOK\na.txt\nEND\nOK\nOK\n",
+                    new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8));
+        }
+        verify(fileService).deleteFile("b.txt");
+    }
+
+    @Test
+    void stop_shouldLetRunningCommandsFinish() throws Exception {
+        CountDownLatch inCommand = new CountDownLatch(1);
+        when(fileService.listFiles()).thenAnswer(invocation -> {
+            inCommand.countDown();
+            Thread.sleep(300);
+            return List.of("slow.txt");
+        });
+        start(new FileSocketServer.Limits(4, 5_000, 5_000, 5_000));
+
+        Thread client = new Thread(() -> {
+            try {
+                assertEquals("slow.txt,END", list());
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        client.setUncaughtExceptionHandler((t, e) -> failure.set(e));
+        client.start();
+        assertTrue(inCommand.await(5, TimeUnit.SECONDS));
+
+        server.stop();
+        client.join(5_000);
+
+        assertNull(failure.get());
+        assertFalse(server.isRunning());
+        assertEquals(0, server.activeConnections());
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not reached in time");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.soprasteria.avans.lockercloud.socket;
+
+import org.junit.jupiter.api.Test;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithms;
+import org.soprasteria.avans.lockercloud.exception.FileStorageException;
+import org.soprasteria.avans.lockercloud.service.FileManagerService;
+import org.soprasteria.avans.lockercloud.storage.StoredFileResource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SocketCommandsTest {
+
+    private final FileManagerService fileService = mock(FileManagerService.class);
+    private final SocketCommands commands = new SocketCommands(fileService);
+
+    private String serve(String input) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        commands.handle(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static StoredFileResource stored(String name, byte[] content) {
+        return new StoredFileResource(name, Path.of(name), ByteBuffer.wrap(content));
+    }
+
+    @Test
+    void withoutKeepAlive_shouldAnswerOneCommand() throws Exception {
+        when(fileService.listFiles()).thenReturn(List.of("a.txt"));
+
+        assertEquals("a.txt\nEND\n", serve("LIST\nDELETE a.txt\n"));
+        verify(fileService, never()).deleteFile("a.txt");
+    }
+
+    @Test
+    void keepAlive_shouldAnswerPipelinedCommandsInOrderUntilQuit() throws Exception {
+        when(fileService.listFiles()).thenReturn(List.of("a.txt"));
+        when(fileService.openFile("a.txt")).thenReturn(stored("a.txt", "abc".getBytes()));
+        doAnswer(invocation -> {
+            InputStream in = invocation.getArgument(1);
+            assertEquals("hello", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            return null;
+        }).when(fileService).saveStream(eq("b.txt"), any(InputStream.class), eq(5L), isNull(), any());
+
+        String answers = serve("KEEPALIVE\nLIST\nUPLOAD b.txt 5\nhelloDOWNLOAD a.txt\nDELETE a.txt\nQUIT\nLIST\n");
+
+        assertEquals("OK\na.txt\nEND\nOK\n3\nabcOK\nOK\n", answers);
+        verify(fileService).deleteFile("a.txt");
+    }
+
+    @Test
+    void keepAlive_shouldSkipTheRestOfAFailedUpload() throws Exception {
+        doAnswer(invocation -> {
+            ((InputStream) invocation.getArgument(1)).read();
+            throw new FileStorageException("disk full");
+        }).when(fileService).saveStream(eq("big.bin"), any(InputStream.class), anyLong(), isNull(), any());
+        doThrow(new FileStorageException("File not found: gone.txt")).when(fileService).openFile("gone.txt");
+        when(fileService.listFiles()).thenReturn(List.of());
+
+        String answers = serve("KEEPALIVE\nUPLOAD big.bin 10\n0123456789DOWNLOAD gone.txt\nLIST\n");
+
+        assertEquals("OK\nERR disk full\nERR File not found: gone.txt\nEND\n", answers);
+    }
+
+    @Test
+    void keepAlive_shouldCloseAfterAFailedDelta() throws Exception {
+        when(fileService.applyDelta(eq("a.txt"), any(InputStream.class), any(), any(), any()))
+                .thenThrow(new FileStorageException("changed"));
+
+        assertEquals("OK\nERR changed\n", serve("KEEPALIVE\nDELTA a.txt abc\n<delta bytes>LIST\n"));
+        verify(fileService, never()).listFiles();
+    }
+
+    @Test
+    void upload_withChecksum_shouldBeVerifiedAndAnsweredWithTheChecksum() throws Exception {
+        when(fileService.saveStream(eq("c.txt"), any(InputStream.class), eq(3L), eq("abc123"), eq(ChecksumAlgorithms.XXH64)))
+                .thenAnswer(invocation -> {
+                    ((InputStream) invocation.getArgument(1)).readAllBytes();
+                    return "abc123";
+                });
+
+        assertEquals("OK abc123\n", serve("UPLOAD c.txt 3 abc123 xxh64\nxyz"));
+    }
+
+    @Test
+    void download_shouldStreamLargeFilesAndTrailTheChecksum() throws Exception {
+        byte[] content = new byte[5 * SocketCommands.STREAM_BUFFER_SIZE + 17];
+        new Random(24).nextBytes(content);
+        when(fileService.openFile("big.bin")).thenReturn(stored("big.bin", content));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        commands.handle(new ByteArrayInputStream("DOWNLOAD big.bin md5\n".getBytes(StandardCharsets.UTF_8)), out);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(String.valueOf(content.length), readLine(in));
+        byte[] received = new byte[content.length];
+        in.readFully(received);
+        assertArrayEquals(content, received);
+        assertEquals("OK " + ChecksumAlgorithms.hash(ChecksumAlgorithms.MD5, content), readLine(in));
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    void download_withUnknownAlgorithm_shouldAnswerAnError() throws Exception {
+        String answer = serve("DOWNLOAD a.txt nope\n");
+
+        assertTrue(answer.startsWith("ERR Unsupported checksum algorithm: nope"), answer);
+        verify(fileService, never()).openFile(any());
+    }
+
+    private static String readLine(DataInputStream in) throws Exception {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            line.append((char) b);
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,106 @@
+package org.soprasteria.avans.lockercloud.socket;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Minimal client for the version 2 frames of {@link MultiplexedConnection}. Frames
+ * are read one at a time by the test thread; writes may come from any thread.
+ */
+class V2TestClient implements AutoCloseable {
+
+    record Frame(int type, int flags, int id, byte[] payload) {
+        boolean ends() {
+            return (flags & MultiplexedConnection.END_STREAM) != 0;
+        }
+
+        List<String> fields() throws IOException {
+            return MultiplexedConnection.parseFields(payload);
+        }
+    }
+
+    private final SSLSocket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    /** Connects and switches the connection to version 2. */
+    V2TestClient(SSLContext context, int port) throws IOException {
+        socket = (SSLSocket) context.getSocketFactory().createSocket("localhost", port);
+        socket.setSoTimeout(10_000);
+        in = new DataInputStream(socket.getInputStream());
+        out = new DataOutputStream(socket.getOutputStream());
+        out.writeBytes("HELLO 2\n");
+        out.flush();
+        assertEquals("HELLO 2", readLine(in));
+    }
+
+    void open(int id, String... request) throws IOException {
+        send(MultiplexedConnection.OPEN, 0, id, MultiplexedConnection.fields(request));
+    }
+
+    void data(int id, byte[] bytes, int offset, int length, boolean end) throws IOException {
+        byte[] payload = new byte[length];
+        System.arraycopy(bytes, offset, payload, 0, length);
+        send(MultiplexedConnection.DATA, end ? MultiplexedConnection.END_STREAM : 0, id, payload);
+    }
+
+    void window(int id, int increment) throws IOException {
+        send(MultiplexedConnection.WINDOW, 0, id, ByteBuffer.allocate(4).putInt(increment).array());
+    }
+
+    synchronized void send(int type, int flags, int id, byte[] payload) throws IOException {
+        out.writeByte(type);
+        out.writeByte(flags);
+        out.writeInt(id);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.flush();
+    }
+
+    /** The next frame, or null once the server closed the connection. */
+    Frame read() throws IOException {
+        int type = in.read();
+        if (type < 0) {
+            return null;
+        }
+        int flags = in.readUnsignedByte();
+        int id = in.readInt();
+        byte[] payload = new byte[in.readInt()];
+        in.readFully(payload);
+        return new Frame(type, flags, id, payload);
+    }
+
+    static List<String> names(byte[] listData) throws IOException {
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(listData));
+        List<String> names = new ArrayList<>();
+        while (data.available() > 0) {
+            names.add(MultiplexedConnection.readField(data));
+        }
+        return names;
+    }
+
+    static String readLine(DataInputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
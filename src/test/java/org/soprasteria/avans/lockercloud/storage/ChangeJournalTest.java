@@ -0,0 +1,132 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.soprasteria.avans.lockercloud.dto.ChangeSet;
+import org.soprasteria.avans.lockercloud.dto.FileChange;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChangeJournalTest {
+
+    @TempDir
+    Path storageDir;
+
+    private static List<String> names(ChangeSet set) {
+        return set.getChanges().stream().map(FileChange::getFileName).toList();
+    }
+
+    @Test
+    void changesSince_shouldReturnOnlyNewerChanges() {
+        ChangeJournal journal = new ChangeJournal(storageDir);
+        journal.recordUpdate("a.txt", 1, 1, "MD5", "aa");
+        String cursor = journal.head();
+        journal.recordUpdate("b.txt", 2, 2, "MD5", "bb");
+        journal.recordDelete("c.txt");
+
+        ChangeSet set = journal.changesSince(cursor, 100);
+
+        assertFalse(set.isResyncRequired());
+        assertEquals(List.of("b.txt", "c.txt"), names(set));
+        assertEquals(FileChange.Type.DELETED, set.getChanges().get(1).getType());
+        assertEquals(journal.head(), set.getCursor());
+        assertTrue(journal.changesSince(set.getCursor(), 100).getChanges().isEmpty());
+    }
+
+    @Test
+    void changesSince_shouldPageWithLimit() {
+        ChangeJournal journal = new ChangeJournal(storageDir);
+        for (int i = 0; i < 5; i++) {
+            journal.recordUpdate("f" + i, i, i, "MD5", "x");
+        }
+
+        ChangeSet first = journal.changesSince(null, 3);
+        ChangeSet second = journal.changesSince(first.getCursor(), 3);
+
+        assertEquals(List.of("f0", "f1", "f2"), names(first));
+        assertTrue(first.isHasMore());
+        assertEquals(List.of("f3", "f4"), names(second));
+        assertFalse(second.isHasMore());
+    }
+
+    @Test
+    void supersededChanges_shouldBeDropped() {
+        ChangeJournal journal = new ChangeJournal(storageDir);
+        journal.recordUpdate("a.txt", 1, 1, "MD5", "v1");
+        journal.recordUpdate("a.txt", 2, 2, "MD5", "v2");
+        journal.recordDelete("a.txt");
+        journal.recordUpdate("a.txt", 3, 3, "MD5", "v3");
+
+        ChangeSet set = journal.changesSince(null, 100);
+
+        assertEquals(1, journal.size());
+        assertEquals("v3", set.getChanges().get(0).getChecksum());
+    }
+
+    @Test
+    void journal_shouldSurviveRestart() {
+        ChangeJournal journal = new ChangeJournal(storageDir);
+        journal.recordUpdate("a.txt", 1, 1, "XXH64", "aa");
+        String cursor = journal.head();
+        journal.recordDelete("b.txt");
+
+        ChangeJournal reopened = new ChangeJournal(storageDir);
+
+        assertFalse(reopened.isNew());
+        assertEquals(journal.head(), reopened.head());
+        ChangeSet set = reopened.changesSince(cursor, 100);
+        assertEquals(List.of("b.txt"), names(set));
+        assertEquals(journal.head(), reopened.changesSince(null, 100).getCursor());
+    }
+
+    @Test
+    void droppedTombstones_shouldRequireResyncForOldCursors() {
+        ChangeJournal journal = new ChangeJournal(storageDir, 4);
+        String start = journal.head();
+        for (int i = 0; i < 5; i++) {
+            journal.recordDelete("gone" + i);
+        }
+        String recent = journal.head();
+
+        assertTrue(journal.changesSince(start, 100).isResyncRequired());
+        assertFalse(journal.changesSince(recent, 100).isResyncRequired());
+        assertEquals(journal.head(), journal.changesSince(start, 100).getCursor());
+    }
+
+    @Test
+    void changesSince_nullCursorAfterDroppedTombstones_shouldListTheLiveFiles() {
+        ChangeJournal journal = new ChangeJournal(storageDir, 4);
+        journal.recordUpdate("a.txt", 1, 1, "MD5", "aa");
+        for (int i = 0; i < 5; i++) {
+            journal.recordDelete("gone" + i);
+        }
+        journal.recordUpdate("b.txt", 2, 2, "MD5", "bb");
+
+        ChangeSet set = journal.changesSince(null, 1);
+
+        assertFalse(set.isResyncRequired());
+        assertFalse(set.isHasMore());
+        assertEquals(List.of("a.txt", "b.txt"), names(set));
+        assertEquals(journal.head(), set.getCursor());
+        assertEquals(set.getChanges(), journal.changesSince("", 100).getChanges());
+        assertTrue(journal.changesSince(set.getCursor(), 100).getChanges().isEmpty());
+    }
+
+    @Test
+    void cursorOfAnotherJournal_shouldRequireResync() throws Exception {
+        ChangeJournal journal = new ChangeJournal(storageDir);
+        journal.recordUpdate("a.txt", 1, 1, "MD5", "aa");
+        String cursor = journal.head();
+        Files.delete(storageDir.resolve(MetadataIndex.INTERNAL_DIR).resolve("journal.log"));
+
+        ChangeJournal fresh = new ChangeJournal(storageDir);
+
+        assertTrue(fresh.isNew());
+        assertTrue(fresh.changesSince(cursor, 100).isResyncRequired());
+        assertTrue(fresh.changesSince("garbage", 100).isResyncRequired());
+    }
+}
@@ -0,0 +1,93 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkStoreTest {
+
+    private static final String HASH_A = "a".repeat(64);
+    private static final String HASH_B = "b".repeat(64);
+
+    @TempDir
+    Path storageDir;
+
+    @Test
+    void add_shouldStoreDataOnceAndCountReferences() throws Exception {
+        byte[] data = "chunk".getBytes(StandardCharsets.UTF_8);
+        try (ChunkStore store = new ChunkStore(storageDir)) {
+            assertTrue(store.add(HASH_A, data, data.length));
+            assertFalse(store.add(HASH_A, data, data.length));
+
+            assertEquals(2, store.references(HASH_A));
+            assertEquals("chunk", Files.readString(store.pathFor(HASH_A)));
+            assertEquals(storageDir.resolve(".lockercloud/chunks/aa/aa").resolve(HASH_A), store.pathFor(HASH_A));
+        }
+    }
+
+    @Test
+    void collectGarbage_shouldOnlyDeleteChunksUnusedForTheGracePeriod() throws Exception {
+        byte[] data = {1, 2, 3};
+        try (ChunkStore store = new ChunkStore(storageDir)) {
+            store.add(HASH_A, data, data.length);
+            store.add(HASH_A, data, data.length);
+            store.add(HASH_B, data, data.length);
+
+            store.release(List.of(HASH_A, HASH_B));
+            assertEquals(0, store.collectGarbage(60_000));
+            assertEquals(1, store.collectGarbage(0));
+            assertTrue(Files.exists(store.pathFor(HASH_A)));
+            assertFalse(Files.exists(store.pathFor(HASH_B)));
+
+            // opnieuw gebruikt voordat de collector langskwam
+            store.release(List.of(HASH_A));
+            store.add(HASH_A, data, data.length);
+            assertEquals(0, store.collectGarbage(0));
+            assertTrue(Files.exists(store.pathFor(HASH_A)));
+        }
+    }
+
+    @Test
+    void reload_shouldRestoreCountsAndSweepUnreferencedChunks() throws Exception {
+        byte[] data = {1, 2, 3};
+        try (ChunkStore store = new ChunkStore(storageDir)) {
+            store.add(HASH_A, data, data.length);
+            store.add(HASH_B, data, data.length);
+            store.release(List.of(HASH_B));
+            store.sync();
+        }
+        Path logFile = storageDir.resolve(".lockercloud/chunks.log");
+        Files.writeString(logFile, "R\t" + HASH_A, StandardOpenOption.APPEND);
+
+        try (ChunkStore store = new ChunkStore(storageDir)) {
+            assertEquals(1, store.references(HASH_A));
+            assertEquals(0, store.references(HASH_B));
+            assertEquals(1, store.sweep());
+            assertEquals(1, store.collectGarbage(0));
+            assertTrue(Files.exists(store.pathFor(HASH_A)));
+            assertFalse(Files.exists(store.pathFor(HASH_B)));
+        }
+    }
+
+    @Test
+    void sweep_shouldKeepChunksWhenTheReferenceLogIsMissing() throws Exception {
+        byte[] data = {1, 2, 3};
+        try (ChunkStore store = new ChunkStore(storageDir)) {
+            store.add(HASH_A, data, data.length);
+        }
+        Files.delete(storageDir.resolve(".lockercloud/chunks.log"));
+
+        try (ChunkStore store = new ChunkStore(storageDir)) {
+            assertEquals(0, store.sweep());
+            assertEquals(0, store.collectGarbage(0));
+            assertTrue(Files.exists(store.pathFor(HASH_A)));
+        }
+    }
+}
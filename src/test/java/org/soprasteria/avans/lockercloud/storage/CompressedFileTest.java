@@ -0,0 +1,110 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressedFileTest {
+
+    private static final int BLOCK = 4096;
+
+    @TempDir
+    Path dir;
+
+    private final BlockCompressor compressor = new BlockCompressor(true, BLOCK, 2, 0.1);
+
+    /** Text-like content that compresses well, with one random block in the middle. */
+    private byte[] mixedContent() {
+        byte[] data = new byte[BLOCK * 5 + 123];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ("line " + (i / 40) + "\n").charAt(i % 5);
+        }
+        byte[] noise = new byte[BLOCK];
+        new Random(7).nextBytes(noise);
+        System.arraycopy(noise, 0, data, BLOCK * 3, BLOCK);
+        return data;
+    }
+
+    @Test
+    void pack_shouldRoundTripAndShrinkCompressibleFiles() throws Exception {
+        byte[] data = mixedContent();
+        Path source = Files.write(dir.resolve("text.log"), data);
+        Path packed = dir.resolve("text.lcz");
+
+        assertTrue(compressor.pack(source, packed));
+
+        assertTrue(CompressedFile.isCompressed(packed));
+        assertEquals(data.length, CompressedFile.contentSize(packed));
+        assertTrue(Files.size(packed) < data.length / 2);
+        try (InputStream in = Channels.newInputStream(CompressedFile.open(packed))) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void read_shouldDecodeOnlyTheBlockAtAPosition() throws Exception {
+        byte[] data = mixedContent();
+        Path packed = dir.resolve("text.lcz");
+        compressor.pack(Files.write(dir.resolve("text.log"), data), packed);
+
+        try (SeekableByteChannel channel = CompressedFile.open(packed)) {
+            assertInstanceOf(CompressedFile.class, channel);
+            assertEquals(data.length, channel.size());
+            for (long position : List.of(BLOCK * 3L + 10, 5L, BLOCK * 5L + 100)) {
+                ByteBuffer buffer = ByteBuffer.allocate(16);
+                channel.position(position).read(buffer);
+                int n = buffer.position();
+                assertArrayEquals(Arrays.copyOfRange(data, (int) position, (int) position + n),
+                        Arrays.copyOf(buffer.array(), n));
+            }
+            assertEquals(-1, channel.position(data.length).read(ByteBuffer.allocate(1)));
+        }
+    }
+
+    @Test
+    void pack_incompressibleSample_shouldLeaveFileAsIs() throws Exception {
+        byte[] data = new byte[BLOCK * 4];
+        new Random(1).nextBytes(data);
+        Path packed = dir.resolve("random.lcz");
+
+        assertFalse(compressor.pack(Files.write(dir.resolve("random.bin"), data), packed));
+        assertFalse(Files.exists(packed));
+        assertFalse(new BlockCompressor(false).pack(Files.write(dir.resolve("small.txt"), "aaaa".getBytes()), packed));
+    }
+
+    @Test
+    void pack_fileStartingWithMagic_shouldAlwaysBeWrapped() throws Exception {
+        byte[] data = ByteBuffer.allocate(64).putInt(CompressedFile.MAGIC).array();
+        Path packed = dir.resolve("tricky.lcz");
+
+        assertTrue(new BlockCompressor(false).pack(Files.write(dir.resolve("tricky.bin"), data), packed));
+
+        try (SeekableByteChannel channel = CompressedFile.open(packed)) {
+            assertArrayEquals(data, Channels.newInputStream(channel).readAllBytes());
+        }
+    }
+
+    @Test
+    void open_plainFile_shouldReadItUnchanged() throws Exception {
+        byte[] data = ByteBuffer.allocate(100).putInt(CompressedFile.MAGIC).putInt(BLOCK).array();
+        Path plain = Files.write(dir.resolve("plain.bin"), data);
+
+        assertFalse(CompressedFile.isCompressed(plain));
+        assertEquals(100, CompressedFile.contentSize(plain));
+        try (SeekableByteChannel channel = CompressedFile.open(plain)) {
+            assertInstanceOf(FileChannel.class, channel);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentChunkerTest {
+
+    @TempDir
+    Path storageDir;
+
+    private static byte[] random(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] decode(Path recipe) throws Exception {
+        try (InputStream in = Channels.newInputStream(CompressedFile.open(recipe))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            in.transferTo(out);
+            return out.toByteArray();
+        }
+    }
+
+    @Test
+    void write_shouldProduceARecipeThatReadsAsTheOriginal() throws Exception {
+        byte[] data = random(1024 * 1024 + 17, 1);
+        Path source = Files.write(storageDir.resolve("source.bin"), data);
+        Path shard = Files.createDirectories(storageDir.resolve("objects/ab/cd"));
+        Path recipe = shard.resolve("file.bin");
+        try (ChunkStore store = new ChunkStore(storageDir)) {
+            List<String> hashes = new ContentChunker(store).write(source, recipe, shard);
+
+            assertEquals(hashes, ChunkedFile.chunkHashes(recipe));
+            assertTrue(hashes.size() > 4, "expected content-defined chunks, got " + hashes.size());
+            assertTrue(CompressedFile.isEncoded(recipe));
+            assertFalse(CompressedFile.isCompressed(recipe));
+            assertEquals(data.length, CompressedFile.contentSize(recipe));
+            assertArrayEquals(data, decode(recipe));
+        }
+    }
+
+    @Test
+    void recipe_shouldSupportPositionedReads() throws Exception {
+        byte[] data = random(600 * 1024, 2);
+        Path source = Files.write(storageDir.resolve("source.bin"), data);
+        Path recipe = storageDir.resolve("file.bin");
+        try (ChunkStore store = new ChunkStore(storageDir)) {
+            new ContentChunker(store).write(source, recipe, storageDir);
+        }
+
+        try (var channel = CompressedFile.open(recipe)) {
+            int at = 300 * 1024 + 5;
+            ByteBuffer buffer = ByteBuffer.allocate(100 * 1024);
+            channel.position(at);
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                // lees over chunkgrenzen heen
+            }
+            byte[] expected = new byte[buffer.capacity()];
+            System.arraycopy(data, at, expected, 0, expected.length);
+            assertArrayEquals(expected, buffer.array());
+            assertEquals(data.length, channel.size());
+        }
+    }
+
+    @Test
+    void insertion_shouldOnlyChangeTheChunksAroundIt() throws Exception {
+        byte[] data = random(2 * 1024 * 1024, 3);
+        byte[] shifted = new byte[data.length + 7];
+        System.arraycopy(data, 0, shifted, 0, 1000);
+        System.arraycopy(data, 1000, shifted, 1007, data.length - 1000);
+        Path first = Files.write(storageDir.resolve("first.bin"), data);
+        Path second = Files.write(storageDir.resolve("second.bin"), shifted);
+        try (ChunkStore store = new ChunkStore(storageDir)) {
+            ContentChunker chunker = new ContentChunker(store);
+            List<String> a = chunker.write(first, storageDir.resolve("a.lcr"), storageDir);
+            List<String> b = chunker.write(second, storageDir.resolve("b.lcr"), storageDir);
+
+            Set<String> shared = new HashSet<>(a);
+            shared.retainAll(new HashSet<>(b));
+            assertTrue(shared.size() >= a.size() - 2, shared.size() + " of " + a.size() + " chunks shared");
+            assertEquals(2, store.references(a.get(a.size() - 1)));
+            assertArrayEquals(shifted, decode(storageDir.resolve("b.lcr")));
+        }
+    }
+
+    @Test
+    void missingChunk_shouldFailTheRead() throws Exception {
+        Path source = Files.write(storageDir.resolve("source.bin"), random(100 * 1024, 4));
+        Path recipe = storageDir.resolve("file.bin");
+        try (ChunkStore store = new ChunkStore(storageDir)) {
+            List<String> hashes = new ContentChunker(store).write(source, recipe, storageDir);
+            Files.delete(store.pathFor(hashes.get(0)));
+        }
+
+        assertThrows(IOException.class, () -> decode(recipe));
+    }
+}
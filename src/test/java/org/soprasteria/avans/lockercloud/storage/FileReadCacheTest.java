@@ -0,0 +1,96 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileReadCacheTest {
+
+    private static final FileReadCache.Version V1 = new FileReadCache.Version(100, 1, null);
+    private static final FileReadCache.Version V2 = new FileReadCache.Version(100, 2, null);
+
+    private static ByteBuffer content(int size) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        for (int i = 0; i < size; i++) {
+            buffer.put((byte) i);
+        }
+        return buffer.flip();
+    }
+
+    @Test
+    void get_shouldReturnReadOnlyCopyOfSameVersion() {
+        FileReadCache cache = new FileReadCache(10_000, 1000);
+        assertNull(cache.get("a", V1));
+        cache.put("a", V1, content(100));
+
+        ByteBuffer hit = cache.get("a", V1);
+        assertNotNull(hit);
+        assertTrue(hit.isReadOnly());
+        assertEquals(100, hit.remaining());
+        assertEquals(5, hit.get(5));
+        hit.position(50);
+        assertEquals(0, cache.get("a", V1).position(), "Callers must not share a position");
+
+        FileReadCache.Stats stats = cache.stats();
+        assertEquals(2, stats.hits());
+        assertEquals(1, stats.misses());
+        assertEquals(100, stats.bytes());
+    }
+
+    @Test
+    void get_otherVersion_shouldMissAndDropStaleEntry() {
+        FileReadCache cache = new FileReadCache(10_000, 1000);
+        cache.put("a", V1, content(100));
+
+        assertNull(cache.get("a", V2));
+        assertEquals(0, cache.stats().entries());
+        assertNull(cache.get("a", V1));
+    }
+
+    @Test
+    void invalidate_shouldRemoveEntry() {
+        FileReadCache cache = new FileReadCache(10_000, 1000);
+        cache.put("a", V1, content(100));
+        cache.invalidate("a");
+        assertNull(cache.get("a", V1));
+        assertEquals(0, cache.stats().bytes());
+    }
+
+    @Test
+    void put_shouldStayWithinBudgetAndRejectLargeFiles() {
+        FileReadCache cache = new FileReadCache(2000, 500);
+        assertFalse(cache.shouldLoad("big", 501));
+        cache.put("big", V1, content(501));
+        assertEquals(0, cache.stats().entries());
+
+        for (int i = 0; i < 50; i++) {
+            cache.get("f" + i, V1);
+            cache.put("f" + i, V1, content(400));
+            assertTrue(cache.stats().bytes() <= 2000);
+        }
+        assertTrue(cache.stats().evictions() > 0);
+    }
+
+    @Test
+    void popularFiles_shouldSurviveBurstOfOneOffReads() {
+        FileReadCache cache = new FileReadCache(10_000, 1000);
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 8; i++) {
+                if (cache.get("hot" + i, V1) == null) {
+                    cache.put("hot" + i, V1, content(1000));
+                }
+            }
+        }
+        for (int i = 0; i < 200; i++) {
+            String name = "once" + i;
+            if (cache.get(name, V1) == null && cache.shouldLoad(name, 1000)) {
+                cache.put(name, V1, content(1000));
+            }
+        }
+        for (int i = 0; i < 8; i++) {
+            assertNotNull(cache.get("hot" + i, V1), "hot" + i + " should still be cached");
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithms;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlatLayoutMigrationTest {
+
+    @TempDir
+    Path storageDir;
+
+    @Test
+    void run_shouldMoveFlatFilesIntoShards() throws Exception {
+        Files.writeString(storageDir.resolve("a.txt"), "A");
+        Files.writeString(storageDir.resolve("b.txt"), "B");
+        StorageLayout layout = new StorageLayout(storageDir);
+
+        FlatLayoutMigration.Result result = new FlatLayoutMigration(layout).run();
+
+        assertEquals(2, result.moved());
+        assertEquals("A", Files.readString(layout.pathFor("a.txt")));
+        assertEquals("B", Files.readString(layout.pathFor("b.txt")));
+        assertFalse(Files.exists(storageDir.resolve("a.txt")));
+        assertTrue(layout.legacyFiles().isEmpty());
+    }
+
+    @Test
+    void run_shouldNotOverwriteNewerShardedFile() throws Exception {
+        StorageLayout layout = new StorageLayout(storageDir);
+        Files.writeString(layout.prepare("a.txt"), "new");
+        Files.writeString(storageDir.resolve("a.txt"), "old");
+
+        FlatLayoutMigration.Result result = new FlatLayoutMigration(layout).run();
+
+        assertEquals(0, result.moved());
+        assertEquals(1, result.removed());
+        assertEquals("new", Files.readString(layout.pathFor("a.txt")));
+        assertFalse(Files.exists(storageDir.resolve("a.txt")));
+    }
+
+    @Test
+    void run_shouldLeaveChunkSetsWithoutTheirFileInPlace() throws Exception {
+        // Het laatste deel kan ontbreken zonder dat iets dat verraadt
+        Files.writeString(storageDir.resolve("big.bin.part1"), "AA");
+        Files.writeString(storageDir.resolve("big.bin.part2"), "BB");
+        StorageLayout layout = new StorageLayout(storageDir);
+
+        new FlatLayoutMigration(layout).run();
+
+        assertNull(layout.locate("big.bin"));
+        assertTrue(Files.exists(storageDir.resolve("big.bin.part1")));
+        assertTrue(Files.exists(storageDir.resolve("big.bin.part2")));
+    }
+
+    @Test
+    void run_shouldRemoveChunksOfFilesThatExist() throws Exception {
+        Files.writeString(storageDir.resolve("big.bin"), "AABB");
+        Files.writeString(storageDir.resolve("big.bin.part1"), "AA");
+        Files.writeString(storageDir.resolve("big.bin.part2"), "BB");
+        StorageLayout layout = new StorageLayout(storageDir);
+
+        new FlatLayoutMigration(layout).run();
+
+        assertEquals("AABB", Files.readString(layout.pathFor("big.bin")));
+        assertFalse(Files.exists(storageDir.resolve("big.bin.part1")));
+        assertFalse(Files.exists(storageDir.resolve("big.bin.part2")));
+    }
+
+    @Test
+    void relocate_shouldSkipASourceDeletedDuringTheRun() throws Exception {
+        StorageLayout layout = new StorageLayout(storageDir);
+        FlatLayoutMigration migration = new FlatLayoutMigration(layout);
+
+        assertEquals(FlatLayoutMigration.Outcome.VANISHED,
+                migration.relocate(storageDir.resolve("gone.txt"), layout.prepare("gone.txt")));
+        assertNull(layout.locate("gone.txt"));
+    }
+
+    @Test
+    void run_shouldMoveEachFileUnderItsLock() throws Exception {
+        Files.writeString(storageDir.resolve("a.txt"), "A");
+        StorageLayout layout = new StorageLayout(storageDir);
+        List<String> held = new ArrayList<>();
+        FlatLayoutMigration.FileLock locks = name -> {
+            held.add(name);
+            assertTrue(Files.exists(storageDir.resolve(name)), "Lock must be taken before the file moves");
+            return () -> assertTrue(Files.exists(layout.pathFor(name)), "Lock must be held until the move is done");
+        };
+
+        new FlatLayoutMigration(layout, locks, name -> false).run();
+
+        assertEquals(List.of("a.txt"), held);
+    }
+
+    @Test
+    void run_shouldNotResurrectDeletedFiles() throws Exception {
+        Files.writeString(storageDir.resolve("a.txt"), "A");
+        StorageLayout layout = new StorageLayout(storageDir);
+
+        FlatLayoutMigration.Result result = new FlatLayoutMigration(layout, name -> () -> { }, "a.txt"::equals).run();
+
+        assertEquals(0, result.moved());
+        assertEquals(1, result.skipped());
+        assertFalse(Files.exists(layout.pathFor("a.txt")));
+    }
+
+    @Test
+    void run_shouldKeepIndexEntriesValid() throws Exception {
+        Files.writeString(storageDir.resolve("a.txt"), "A");
+        StorageLayout layout = new StorageLayout(storageDir);
+        int[] hashes = {0};
+        MetadataIndex index = new MetadataIndex(layout, (file, algorithm) -> {
+            hashes[0]++;
+            return ChecksumAlgorithms.hash(algorithm, file);
+        });
+        assertEquals(1, hashes[0]);
+
+        new FlatLayoutMigration(layout).run();
+
+        assertEquals(0, index.verify(), "A moved file keeps its inode and modification time");
+        assertEquals(1, hashes[0]);
+    }
+}
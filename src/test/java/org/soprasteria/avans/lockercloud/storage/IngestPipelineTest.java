@@ -0,0 +1,95 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithms;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumHasher;
+import org.soprasteria.avans.lockercloud.exception.FileStorageException;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngestPipelineTest {
+
+    @TempDir
+    Path dir;
+
+    private final IngestPipeline pipeline = new IngestPipeline(4, 2);
+
+    private FileChannel open(Path file) throws Exception {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    @Test
+    void write_shouldHashTheBytesItWrites() throws Exception {
+        byte[] data = "hello pipeline".getBytes();
+        Path file = dir.resolve("f");
+        ChecksumHasher md = ChecksumAlgorithms.MD5.newHasher();
+
+        try (FileChannel out = open(file)) {
+            assertEquals(data.length, pipeline.write(new ByteArrayInputStream(data), out, 0, -1, md));
+        }
+
+        assertArrayEquals(data, Files.readAllBytes(file));
+        assertArrayEquals(MessageDigest.getInstance("MD5").digest(data), md.digest());
+    }
+
+    @Test
+    void write_atPosition_shouldLeaveEarlierBytesAlone() throws Exception {
+        Path file = Files.write(dir.resolve("f"), "aaaa".getBytes());
+
+        try (FileChannel out = open(file)) {
+            pipeline.write(new ByteArrayInputStream("bb".getBytes()), out, 4, -1);
+        }
+
+        assertEquals("aaaabb", Files.readString(file));
+    }
+
+    @Test
+    void write_overLimit_shouldFail() throws Exception {
+        try (FileChannel out = open(dir.resolve("f"))) {
+            assertThrows(FileStorageException.class,
+                    () -> pipeline.write(new ByteArrayInputStream("123456".getBytes()), out, 0, 5));
+        }
+    }
+
+    @Test
+    void writeExactly_shouldLeaveTheRestOfTheStreamUnread() throws Exception {
+        ByteArrayInputStream in = new ByteArrayInputStream("abcdefNEXT".getBytes());
+        try (FileChannel out = open(dir.resolve("f"))) {
+            pipeline.writeExactly(in, out, 0, 6);
+        }
+
+        assertEquals("abcdef", Files.readString(dir.resolve("f")));
+        assertEquals("NEXT", new String(in.readAllBytes()));
+    }
+
+    @Test
+    void writeExactly_shortStream_shouldThrowEof() throws Exception {
+        try (FileChannel out = open(dir.resolve("f"))) {
+            assertThrows(EOFException.class,
+                    () -> pipeline.writeExactly(new ByteArrayInputStream("ab".getBytes()), out, 0, 3));
+        }
+    }
+
+    @Test
+    void buffers_shouldBeReusedAndPoolBounded() {
+        byte[] a = pipeline.acquire();
+        byte[] b = pipeline.acquire();
+        byte[] c = pipeline.acquire();
+        pipeline.release(a);
+        pipeline.release(b);
+        pipeline.release(c);
+
+        assertEquals(2, pipeline.pooledBuffers());
+        assertSame(a, pipeline.acquire());
+        assertEquals(1, pipeline.pooledBuffers());
+    }
+}
@@ -0,0 +1,81 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntentLogTest {
+
+    @TempDir
+    Path storageDir;
+
+    private Path logFile() {
+        return storageDir.resolve(MetadataIndex.INTERNAL_DIR).resolve("intents.log");
+    }
+
+    @Test
+    void reload_shouldReturnOnlyOpenIntents() throws Exception {
+        Path staged = storageDir.resolve(MetadataIndex.INTERNAL_DIR).resolve("tmp").resolve("a.txt.1.tmp");
+        IntentLog log = new IntentLog(storageDir);
+        String done = log.begin(IntentLog.Kind.SAVE, "done.txt", staged);
+        log.prepare(done, staged, "MD5", "abc");
+        log.commit(done);
+        String aborted = log.begin(IntentLog.Kind.SAVE, "aborted.txt", staged);
+        log.abort(aborted);
+        String prepared = log.begin(IntentLog.Kind.SAVE, "a txt%.bin", staged);
+        log.prepare(prepared, staged, "XXH64", "0123");
+        log.begin("upload-1", IntentLog.Kind.UPLOAD, "big.iso", storageDir.resolve(".lockercloud/uploads/upload-1"));
+        log.begin(IntentLog.Kind.DELETE, "old.txt", null);
+        assertEquals(3, log.openCount());
+        log.close();
+
+        List<IntentLog.Intent> open = new IntentLog(storageDir).recoveredIntents();
+
+        assertEquals(List.of("a txt%.bin", "big.iso", "old.txt"), open.stream().map(IntentLog.Intent::fileName).toList());
+        IntentLog.Intent save = open.get(0);
+        assertTrue(save.isPrepared());
+        assertEquals(staged, save.prepared());
+        assertEquals("XXH64", save.algorithm());
+        assertEquals("0123", save.checksum());
+        assertEquals("upload-1", open.get(1).id());
+        assertFalse(open.get(1).isPrepared());
+        assertEquals(storageDir.resolve(".lockercloud/uploads/upload-1"), open.get(1).path());
+        assertEquals(IntentLog.Kind.DELETE, open.get(2).kind());
+        assertNull(open.get(2).path());
+    }
+
+    @Test
+    void tornLastLine_shouldBeIgnored() throws Exception {
+        IntentLog log = new IntentLog(storageDir);
+        log.begin(IntentLog.Kind.DELETE, "a.txt", null);
+        log.close();
+        Files.writeString(logFile(), "B\tx\tSA", StandardOpenOption.APPEND);
+
+        List<IntentLog.Intent> open = new IntentLog(storageDir).recoveredIntents();
+
+        assertEquals(1, open.size());
+        assertEquals("a.txt", open.get(0).fileName());
+    }
+
+    @Test
+    void compact_shouldKeepOpenIntentsOnly() throws Exception {
+        IntentLog log = new IntentLog(storageDir);
+        String open = log.begin(IntentLog.Kind.SAVE, "keep.txt", storageDir.resolve("keep.tmp"));
+        log.prepare(open, storageDir.resolve("keep.tmp"), "MD5", "ff");
+        for (int i = 0; i < 3000; i++) {
+            log.commit(log.begin(IntentLog.Kind.DELETE, "f" + i, null));
+        }
+        log.close();
+
+        assertTrue(Files.readAllLines(logFile()).size() < 2100, "Log should have been compacted");
+        List<IntentLog.Intent> recovered = new IntentLog(storageDir).recoveredIntents();
+        assertEquals(1, recovered.size());
+        assertTrue(recovered.get(0).isPrepared());
+    }
+}
@@ -0,0 +1,142 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithms;
+import org.soprasteria.avans.lockercloud.model.FileMetadata;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LiveMetadataViewTest {
+
+    private static final long DEBOUNCE_MS = 200;
+
+    @TempDir
+    Path dir;
+
+    private LiveMetadataView view;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (view != null) {
+            view.close();
+        }
+    }
+
+    private LiveMetadataView flatView() {
+        return new LiveMetadataView(dir, dir::resolve, dir::equals,
+                file -> !file.getFileName().toString().contains(".part"),
+                (file, attrs) -> new FileMetadata(file.getFileName().toString(),
+                        ChecksumAlgorithms.hash(ChecksumAlgorithms.MD5, file), attrs.size(), null,
+                        attrs.lastModifiedTime().toMillis()),
+                DEBOUNCE_MS);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the watcher");
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    void start_shouldScanExistingFiles() throws Exception {
+        Files.writeString(dir.resolve("a.txt"), "a");
+        Files.writeString(dir.resolve("a.txt.part1"), "chunk");
+        view = flatView();
+
+        view.start();
+
+        assertFalse(view.isDegraded());
+        assertEquals(1, view.snapshot().size());
+        assertEquals(ChecksumAlgorithms.hash(ChecksumAlgorithms.MD5, "a".getBytes()),
+                view.snapshot().get("a.txt").getChecksum());
+    }
+
+    @Test
+    void start_whenADirectoryCannotBeWatched_shouldMarkTheViewDegraded() throws Exception {
+        Path sub = Files.createDirectory(dir.resolve("sub"));
+        // Net voor het registreren wordt de map een gewoon bestand, zodat register faalt
+        view = new LiveMetadataView(dir, dir::resolve, d -> {
+            if (d.equals(sub)) {
+                try {
+                    Files.delete(sub);
+                    Files.writeString(sub, "not a directory");
+                } catch (java.io.IOException e) {
+                    throw new java.io.UncheckedIOException(e);
+                }
+            }
+            return true;
+        }, file -> true, (file, attrs) -> new FileMetadata(file.getFileName().toString(), "x", attrs.size(), null,
+                attrs.lastModifiedTime().toMillis()), DEBOUNCE_MS);
+
+        view.start();
+
+        assertTrue(view.isRunning());
+        assertTrue(view.isDegraded());
+    }
+
+    @Test
+    void changes_shouldBePickedUpWithOneRehashPerBurst() throws Exception {
+        view = flatView();
+        view.start();
+        long before = view.rehashCount();
+
+        Path file = dir.resolve("burst.txt");
+        for (int i = 0; i < 50; i++) {
+            Files.writeString(file, "version " + i);
+        }
+        String expected = ChecksumAlgorithms.hash(ChecksumAlgorithms.MD5, "version 49".getBytes());
+        await(() -> view.snapshot().containsKey("burst.txt")
+                && expected.equals(view.snapshot().get("burst.txt").getChecksum()));
+        Thread.sleep(2 * DEBOUNCE_MS);
+
+        assertTrue(view.rehashCount() - before <= 2, "Burst caused " + (view.rehashCount() - before) + " rehashes");
+
+        Files.delete(file);
+        await(() -> !view.snapshot().containsKey("burst.txt"));
+    }
+
+    @Test
+    void rescan_shouldOnlyRehashChangedFiles() throws Exception {
+        Files.writeString(dir.resolve("same.txt"), "same");
+        Files.writeString(dir.resolve("gone.txt"), "gone");
+        view = flatView();
+        view.start();
+        long before = view.rehashCount();
+
+        Files.writeString(dir.resolve("new.txt"), "new");
+        Files.delete(dir.resolve("gone.txt"));
+        view.rescan(dir);
+
+        assertEquals(2, view.snapshot().size());
+        assertTrue(view.snapshot().containsKey("new.txt"));
+        assertEquals(1, view.rehashCount() - before, "Only the new file should be read");
+        Thread.sleep(3 * DEBOUNCE_MS);
+        assertEquals(1, view.rehashCount() - before, "Events for files the rescan already saw are no-ops");
+    }
+
+    @Test
+    void shardedLayout_shouldFollowNewShardsAndMigratedFiles() throws Exception {
+        StorageLayout layout = new StorageLayout(dir);
+        Files.writeString(layout.legacyPath("old.txt"), "old");
+        view = new LiveMetadataView(dir, layout::locate, layout::isLayoutDirectory, layout::isStoredFile,
+                (file, attrs) -> new FileMetadata(file.getFileName().toString(), "x", attrs.size(), null, 0),
+                DEBOUNCE_MS);
+        view.start();
+
+        Files.writeString(layout.prepare("new.txt"), "new");
+        new FlatLayoutMigration(layout).run();
+
+        await(() -> view.snapshot().containsKey("new.txt"));
+        Thread.sleep(2 * DEBOUNCE_MS);
+        assertEquals(2, view.snapshot().size());
+        assertTrue(view.snapshot().containsKey("old.txt"), "A migrated file keeps its entry");
+    }
+}
@@ -0,0 +1,190 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithm;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithms;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetadataIndexTest {
+
+    @TempDir
+    Path storageDir;
+
+    private final AtomicInteger hashCalls = new AtomicInteger();
+
+    private String countingHash(Path file, ChecksumAlgorithm algorithm) throws java.io.IOException {
+        hashCalls.incrementAndGet();
+        return "h" + Files.size(file);
+    }
+
+    @Test
+    void coldStart_shouldRebuildAndPersist() throws Exception {
+        Files.write(storageDir.resolve("a.txt"), "abc".getBytes());
+        Files.write(storageDir.resolve("a.txt.part1"), "x".getBytes());
+
+        MetadataIndex index = new MetadataIndex(storageDir, this::countingHash);
+
+        assertEquals(1, index.size(), "Chunk files must not be indexed");
+        assertEquals(1, hashCalls.get());
+        assertTrue(Files.exists(storageDir.resolve(MetadataIndex.INTERNAL_DIR).resolve("metadata.idx")));
+    }
+
+    @Test
+    void coldStart_withScanner_shouldRebuildInParallel() throws Exception {
+        StorageLayout layout = new StorageLayout(storageDir);
+        for (int i = 0; i < 30; i++) {
+            Files.write(layout.prepare("f" + i + ".txt"), new byte[i]);
+        }
+
+        try (ParallelScanner scanner = new ParallelScanner(4)) {
+            MetadataIndex index = new MetadataIndex(layout, this::countingHash, scanner);
+
+            assertEquals(30, index.size());
+            assertEquals(30, hashCalls.get());
+            Path file = layout.pathFor("f7.txt");
+            assertEquals("h7", index.checksum(file, Files.readAttributes(file, BasicFileAttributes.class)));
+            assertEquals(30, hashCalls.get(), "Rebuilt entries must be served from the index");
+        }
+    }
+
+    @Test
+    void checksum_unchangedFile_shouldNotRehash() throws Exception {
+        Path file = storageDir.resolve("a.txt");
+        Files.write(file, "abc".getBytes());
+        MetadataIndex index = new MetadataIndex(storageDir, this::countingHash);
+        hashCalls.set(0);
+
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        assertEquals("h3", index.checksum(file, attrs));
+        assertEquals("h3", index.checksum(file, attrs));
+        assertEquals(0, hashCalls.get());
+    }
+
+    @Test
+    void checksum_modifiedFile_shouldRehash() throws Exception {
+        Path file = storageDir.resolve("a.txt");
+        Files.write(file, "abc".getBytes());
+        MetadataIndex index = new MetadataIndex(storageDir, this::countingHash);
+        hashCalls.set(0);
+
+        Files.write(file, "abcdef".getBytes());
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+
+        assertEquals("h6", index.checksum(file, attrs));
+        assertEquals(1, hashCalls.get());
+    }
+
+    @Test
+    void reload_shouldServeRecordedChecksumsWithoutHashing() throws Exception {
+        Path file = storageDir.resolve("a.txt");
+        Files.write(file, "abc".getBytes());
+        MetadataIndex index = new MetadataIndex(storageDir, this::countingHash);
+        index.record("a.txt", "recorded");
+        hashCalls.set(0);
+
+        MetadataIndex reloaded = new MetadataIndex(storageDir, this::countingHash);
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+
+        assertEquals("recorded", reloaded.checksum(file, attrs));
+        assertEquals(0, hashCalls.get());
+    }
+
+    @Test
+    void reload_shouldDropDeletedFilesAndIndexNewOnes() throws Exception {
+        Files.write(storageDir.resolve("old.txt"), "abc".getBytes());
+        MetadataIndex index = new MetadataIndex(storageDir, this::countingHash);
+        assertEquals(1, index.size());
+
+        Files.delete(storageDir.resolve("old.txt"));
+        Files.write(storageDir.resolve("new.txt"), "abcd".getBytes());
+
+        MetadataIndex reloaded = new MetadataIndex(storageDir, this::countingHash);
+        assertEquals(1, reloaded.size());
+        Path file = storageDir.resolve("new.txt");
+        assertEquals("h4", reloaded.checksum(file, Files.readAttributes(file, BasicFileAttributes.class)));
+    }
+
+    @Test
+    void remove_shouldSurviveReload() throws Exception {
+        Files.write(storageDir.resolve("a.txt"), "abc".getBytes());
+        MetadataIndex index = new MetadataIndex(storageDir, this::countingHash);
+        index.remove("a.txt");
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    void corruptIndex_shouldRebuild() throws Exception {
+        Files.write(storageDir.resolve("a.txt"), "abc".getBytes());
+        Path idx = storageDir.resolve(MetadataIndex.INTERNAL_DIR).resolve("metadata.idx");
+        Files.createDirectories(idx.getParent());
+        Files.writeString(idx, "P\ta.txt\tnot-a-number\t1\tk\tx\n");
+
+        MetadataIndex index = new MetadataIndex(storageDir, this::countingHash);
+
+        assertEquals(1, index.size());
+        Path file = storageDir.resolve("a.txt");
+        assertEquals("h3", index.checksum(file, Files.readAttributes(file, BasicFileAttributes.class)));
+    }
+
+    @Test
+    void checksum_otherAlgorithm_shouldBeAddedToEntryAndPersisted() throws Exception {
+        Path file = Files.write(storageDir.resolve("a.txt"), "abc".getBytes());
+        MetadataIndex index = new MetadataIndex(storageDir, this::countingHash);
+        index.record("a.txt", ChecksumAlgorithms.CRC32C, "crc");
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        hashCalls.set(0);
+
+        assertEquals("crc", index.checksum(file, attrs, ChecksumAlgorithms.CRC32C));
+        assertEquals("h3", index.checksum(file, attrs));
+        assertEquals(1, hashCalls.get(), "Only the missing algorithm is computed");
+
+        MetadataIndex reloaded = new MetadataIndex(storageDir, this::countingHash);
+        assertEquals("crc", reloaded.checksum(file, attrs, ChecksumAlgorithms.CRC32C));
+        assertEquals("h3", reloaded.checksum(file, attrs));
+        assertEquals(1, hashCalls.get());
+    }
+
+    @Test
+    void record_severalAlgorithms_shouldServeAllWithoutHashing() throws Exception {
+        Path file = Files.write(storageDir.resolve("a.txt"), "abc".getBytes());
+        MetadataIndex index = new MetadataIndex(storageDir, this::countingHash);
+        Map<ChecksumAlgorithm, String> checksums = new LinkedHashMap<>();
+        checksums.put(ChecksumAlgorithms.MD5, "md5");
+        checksums.put(ChecksumAlgorithms.CRC32, "crc");
+        index.record("a.txt", checksums);
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        hashCalls.set(0);
+
+        MetadataIndex reloaded = new MetadataIndex(storageDir, this::countingHash);
+        assertEquals("md5", reloaded.checksum(file, attrs));
+        assertEquals("crc", reloaded.checksum(file, attrs, ChecksumAlgorithms.CRC32));
+        assertEquals(0, hashCalls.get());
+    }
+
+    @Test
+    void legacyRecord_withoutAlgorithm_shouldBeReadAsMd5() throws Exception {
+        Path file = Files.write(storageDir.resolve("a.txt"), "abc".getBytes());
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        Path idx = storageDir.resolve(MetadataIndex.INTERNAL_DIR).resolve("metadata.idx");
+        Files.createDirectories(idx.getParent());
+        Files.writeString(idx, "P\ta.txt\t3\t" + attrs.lastModifiedTime().toMillis() + "\t"
+                + java.net.URLEncoder.encode(String.valueOf(attrs.fileKey()), java.nio.charset.StandardCharsets.UTF_8)
+                + "\tlegacy\n");
+
+        MetadataIndex index = new MetadataIndex(storageDir, this::countingHash);
+
+        assertEquals("legacy", index.checksum(file, attrs));
+        assertEquals(0, hashCalls.get());
+    }
+}
@@ -0,0 +1,127 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.soprasteria.avans.lockercloud.checksum.ChecksumAlgorithms;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelScannerTest {
+
+    @TempDir
+    Path dir;
+
+    private final ParallelScanner scanner = new ParallelScanner(4, 2);
+
+    @AfterEach
+    void tearDown() {
+        scanner.close();
+    }
+
+    private List<Path> files(int count) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Path file = dir.resolve("f" + i);
+            Files.writeString(file, "content " + i);
+            files.add(file);
+        }
+        return files;
+    }
+
+    @Test
+    void scan_shouldHashAllFilesAndReportProgress() throws Exception {
+        List<Path> files = files(40);
+        List<ParallelScanner.Progress> progress = new ArrayList<>();
+
+        ParallelScanner.Result<String> result = scanner.scan(files,
+                (file, attrs) -> ChecksumAlgorithms.hash(ChecksumAlgorithms.MD5, file), progress::add);
+
+        assertEquals(40, result.results().size());
+        assertTrue(result.failures().isEmpty());
+        assertEquals(ChecksumAlgorithms.hash(ChecksumAlgorithms.MD5, "content 7".getBytes()),
+                result.results().get(dir.resolve("f7")));
+        assertEquals(40, progress.size());
+        assertEquals(40, progress.get(39).filesDone());
+        assertEquals(40, progress.get(39).filesTotal());
+    }
+
+    @Test
+    void scan_shouldRunFilesConcurrentlyWithinTheLimit() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+
+        scanner.scan(files(20), (file, attrs) -> {
+            peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            return file;
+        });
+
+        assertTrue(peak.get() > 1, "Files should be processed in parallel");
+        assertTrue(peak.get() <= 4, "Concurrency limit exceeded: " + peak.get());
+    }
+
+    @Test
+    void scan_shouldRetryAndThenSkipFailingFiles() throws Exception {
+        List<Path> files = files(3);
+        Path flaky = files.get(0);
+        Path broken = files.get(1);
+        AtomicInteger flakyAttempts = new AtomicInteger();
+
+        ParallelScanner.Result<String> result = scanner.scan(files, (file, attrs) -> {
+            if (file.equals(flaky) && flakyAttempts.incrementAndGet() < 2) {
+                throw new IOException("transient");
+            }
+            if (file.equals(broken)) {
+                throw new IOException("permanent");
+            }
+            return "ok";
+        });
+
+        assertEquals(2, result.results().size());
+        assertTrue(result.results().containsKey(flaky));
+        assertEquals("permanent", result.failures().get(broken).getMessage());
+    }
+
+    @Test
+    void scan_shouldSkipVanishedFiles() throws Exception {
+        List<Path> files = files(2);
+        files.add(dir.resolve("missing"));
+
+        ParallelScanner.Result<Long> result = scanner.scan(files, (file, attrs) -> attrs.size());
+
+        assertEquals(2, result.results().size());
+        assertTrue(result.failures().isEmpty());
+    }
+
+    @Test
+    void hash_largeFile_shouldMatchSequentialHash() throws Exception {
+        Path large = dir.resolve("large.bin");
+        byte[] block = new byte[1024 * 1024];
+        new Random(42).nextBytes(block);
+        try (OutputStream out = Files.newOutputStream(large)) {
+            long size = ParallelScanner.LARGE_FILE_THRESHOLD + ParallelScanner.RANGE_SIZE / 2 + 123;
+            for (long written = 0; written < size; written += block.length) {
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+
+        assertEquals(ChecksumAlgorithms.hash(ChecksumAlgorithms.MD5, large), scanner.hash(large, ChecksumAlgorithms.MD5));
+        assertEquals(ChecksumAlgorithms.hash(ChecksumAlgorithms.SHA256_TREE, large),
+                scanner.hash(large, ChecksumAlgorithms.SHA256_TREE));
+    }
+}
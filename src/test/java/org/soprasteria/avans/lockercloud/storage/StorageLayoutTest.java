@@ -0,0 +1,69 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.soprasteria.avans.lockercloud.exception.FileStorageException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StorageLayoutTest {
+
+    @TempDir
+    Path storageDir;
+
+    @Test
+    void pathFor_shouldFanOutOverTwoHashLevels() {
+        StorageLayout layout = new StorageLayout(storageDir);
+
+        Path path = layout.pathFor("report.pdf");
+
+        Path relative = storageDir.resolve(StorageLayout.OBJECTS_DIR).relativize(path);
+        assertEquals(3, relative.getNameCount());
+        assertTrue(relative.getName(0).toString().matches("[0-9a-f]{2}"));
+        assertTrue(relative.getName(1).toString().matches("[0-9a-f]{2}"));
+        assertEquals("report.pdf", relative.getFileName().toString());
+        assertEquals(path, layout.pathFor("report.pdf"), "Same name must always map to the same shard");
+    }
+
+    @Test
+    void pathFor_shouldRejectTheLayoutDirectoryNames() {
+        StorageLayout layout = new StorageLayout(storageDir);
+
+        assertThrows(FileStorageException.class, () -> layout.pathFor(StorageLayout.OBJECTS_DIR));
+        assertThrows(FileStorageException.class, () -> layout.legacyPath(".LockerCloud"));
+        assertNull(layout.locate(MetadataIndex.INTERNAL_DIR));
+    }
+
+    @Test
+    void locate_shouldPreferShardOverFlatCopy() throws Exception {
+        StorageLayout layout = new StorageLayout(storageDir);
+        assertNull(layout.locate("a.txt"));
+
+        Files.writeString(storageDir.resolve("a.txt"), "old");
+        assertEquals(storageDir.resolve("a.txt"), layout.locate("a.txt"));
+
+        Files.writeString(layout.prepare("a.txt"), "new");
+        assertEquals(layout.pathFor("a.txt"), layout.locate("a.txt"));
+    }
+
+    @Test
+    void files_shouldMergeShardsAndFlatFilesWithoutChunks() throws Exception {
+        StorageLayout layout = new StorageLayout(storageDir);
+        Files.writeString(layout.prepare("a.txt"), "new");
+        Files.writeString(storageDir.resolve("a.txt"), "stale");
+        Files.writeString(storageDir.resolve("b.txt"), "flat");
+        Files.writeString(storageDir.resolve("c.txt.part0"), "chunk");
+        Files.createDirectories(layout.stagingDir());
+        Files.writeString(layout.stagingDir().resolve("d.txt.tmp"), "staged");
+
+        Map<String, Path> files = layout.files();
+
+        assertEquals(2, files.size());
+        assertEquals(layout.pathFor("a.txt"), files.get("a.txt"));
+        assertEquals(storageDir.resolve("b.txt"), files.get("b.txt"));
+    }
+}
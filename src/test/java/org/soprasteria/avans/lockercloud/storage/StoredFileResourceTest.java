@@ -0,0 +1,80 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StoredFileResourceTest {
+
+    @TempDir
+    Path dir;
+
+    private StoredFileResource threeParts() throws Exception {
+        Path p1 = Files.write(dir.resolve("f.part1"), "abc".getBytes());
+        Path p2 = Files.write(dir.resolve("f.part2"), new byte[0]);
+        Path p3 = Files.write(dir.resolve("f.part3"), "defgh".getBytes());
+        return new StoredFileResource("f", List.of(p1, p2, p3));
+    }
+
+    @Test
+    void contentLength_shouldSumSegments() throws Exception {
+        assertEquals(8, threeParts().contentLength());
+    }
+
+    @Test
+    void read_shouldConcatenateSegmentsInOrder() throws Exception {
+        try (InputStream in = threeParts().getInputStream()) {
+            assertArrayEquals("abcdefgh".getBytes(), in.readAllBytes());
+        }
+    }
+
+    @Test
+    void transferTo_shouldStreamAllSegments() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = threeParts().getInputStream()) {
+            assertEquals(8, in.transferTo(out));
+        }
+        assertArrayEquals("abcdefgh".getBytes(), out.toByteArray());
+    }
+
+    @Test
+    void skip_shouldCrossSegmentBoundaries() throws Exception {
+        try (InputStream in = threeParts().getInputStream()) {
+            assertEquals(4, in.skip(4));
+            assertEquals('e', in.read());
+            assertEquals(3, in.skip(10));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void compressedSegment_shouldBeDecodedAndSkippable() throws Exception {
+        byte[] data = "0123456789".repeat(2000).getBytes();
+        Path packed = dir.resolve("c");
+        assertTrue(new BlockCompressor(true, 4096, 1, 0.1).pack(Files.write(dir.resolve("c.src"), data), packed));
+        StoredFileResource resource = new StoredFileResource("c", List.of(packed));
+
+        assertEquals(data.length, resource.contentLength());
+        try (InputStream in = resource.getInputStream()) {
+            assertEquals(15000, in.skip(15000));
+            assertEquals('0', in.read());
+            assertEquals(data.length - 15001, in.transferTo(new ByteArrayOutputStream()));
+        }
+    }
+
+    @Test
+    void read_truncatedSegment_shouldFail() throws Exception {
+        StoredFileResource resource = threeParts();
+        Files.write(dir.resolve("f.part3"), "d".getBytes());
+        try (InputStream in = resource.getInputStream()) {
+            assertThrows(java.io.IOException.class, in::readAllBytes);
+        }
+    }
+}
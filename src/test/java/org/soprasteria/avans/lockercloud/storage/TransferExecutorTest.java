@@ -0,0 +1,150 @@
+package org.soprasteria.avans.lockercloud.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransferExecutorTest {
+
+    @TempDir
+    Path source;
+
+    @TempDir
+    Path target;
+
+    private TransferExecutor executor;
+
+    @AfterEach
+    void tearDown() {
+        if (executor != null) {
+            executor.close();
+        }
+    }
+
+    private TransferJob.Transfer transfer(String name, int size, TransferJob.Completion completion) throws IOException {
+        Path file = source.resolve(name);
+        Files.write(file, new byte[size]);
+        return new TransferJob.Transfer(name, file, target.resolve(name), size, source, target, completion);
+    }
+
+    @Test
+    void submit_shouldCopyAllFilesSmallestFirst() throws Exception {
+        executor = new TransferExecutor(1, 1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        List<TransferJob.Transfer> transfers = new ArrayList<>();
+        for (int size : new int[] {3000, 10, 500, 0}) {
+            transfers.add(transfer("f" + size, size, t -> order.add(t.name())));
+        }
+
+        TransferJob job = executor.submit(transfers);
+        job.await();
+
+        assertEquals(List.of("f0", "f10", "f500", "f3000"), order);
+        assertEquals(3000, Files.size(target.resolve("f3000")));
+        TransferJob.Progress progress = job.progress();
+        assertTrue(progress.finished());
+        assertEquals(3510, progress.bytesDone());
+        assertEquals(progress.bytesTotal(), progress.bytesDone());
+    }
+
+    @Test
+    void submit_shouldRespectPerDeviceLimit() throws Exception {
+        executor = new TransferExecutor(8, 2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        List<TransferJob.Transfer> transfers = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            transfers.add(transfer("f" + i, 10, t -> {
+                peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+            }));
+        }
+
+        executor.submit(transfers).await();
+
+        assertTrue(peak.get() <= 2, "Device limit exceeded: " + peak.get());
+        assertTrue(peak.get() > 1, "Transfers should run in parallel");
+    }
+
+    @Test
+    void failures_shouldBeReportedNextToPartialResults() throws Exception {
+        executor = new TransferExecutor(2, 2);
+        TransferJob.Transfer ok = transfer("ok", 5, t -> { });
+        TransferJob.Transfer missing = new TransferJob.Transfer("missing", source.resolve("missing"),
+                target.resolve("missing"), 5, source, target, t -> { });
+
+        TransferJob job = executor.submit(List.of(ok, missing));
+        job.await();
+
+        assertEquals(List.of("ok"), job.completed().stream().map(TransferJob.Transfer::name).toList());
+        assertTrue(job.failures().containsKey("missing"));
+        assertEquals(1, job.progress().failed());
+    }
+
+    @Test
+    void largeFiles_shouldBeClonedOnTheSameDevice() throws Exception {
+        AtomicInteger clones = new AtomicInteger();
+        executor = new TransferExecutor(1, 1, (src, dst) -> {
+            clones.incrementAndGet();
+            Files.copy(src, dst);
+            return true;
+        });
+        int large = (int) TransferExecutor.CLONE_THRESHOLD;
+
+        executor.submit(List.of(transfer("small", 10, t -> { }), transfer("large", large, t -> { }))).await();
+
+        assertEquals(1, clones.get(), "Only the large file should be cloned");
+        assertEquals(large, Files.size(target.resolve("large")));
+    }
+
+    @Test
+    void unsupportedClone_shouldFallBackToCopyAndNotBeRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        executor = new TransferExecutor(1, 1, (src, dst) -> {
+            attempts.incrementAndGet();
+            return false;
+        });
+        int large = (int) TransferExecutor.CLONE_THRESHOLD;
+
+        executor.submit(List.of(transfer("a", large, t -> { }), transfer("b", large + 1, t -> { }))).await();
+
+        assertEquals(1, attempts.get());
+        assertEquals(large + 1, Files.size(target.resolve("b")));
+    }
+
+    @Test
+    void failedCloneAndCopy_shouldKeepTheExistingTarget() throws Exception {
+        executor = new TransferExecutor(1, 1, (src, dst) -> {
+            Files.write(dst, new byte[1]);
+            return false;
+        });
+        int large = (int) TransferExecutor.CLONE_THRESHOLD;
+        Files.writeString(target.resolve("gone"), "previous");
+        TransferJob.Transfer gone = new TransferJob.Transfer("gone", source.resolve("gone"),
+                target.resolve("gone"), large, source, target, t -> { });
+
+        TransferJob job = executor.submit(List.of(gone));
+        job.await();
+
+        assertTrue(job.failures().containsKey("gone"));
+        assertEquals("previous", Files.readString(target.resolve("gone")));
+        try (var files = Files.list(target)) {
+            assertEquals(List.of(target.resolve("gone")), files.toList(), "No temporary copy may be left behind");
+        }
+    }
+}
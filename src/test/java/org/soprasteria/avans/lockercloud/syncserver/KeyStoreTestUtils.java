@@ -1,16 +1,11 @@
 package org.soprasteria.avans.lockercloud.syncserver;
 
-import sun.security.tools.keytool.CertAndKeyGen;
-import sun.security.x509.X500Name;
-
-import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.security.KeyStore;
-import java.security.cert.Certificate;
-import java.security.cert.X509Certificate;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
 
-/** Utility class for generating an in-memory keystore for SSL tests. */
+/** Utility class for generating a temporary keystore for SSL tests. */
 public final class KeyStoreTestUtils {
     private KeyStoreTestUtils() {}
 
@@ -22,17 +17,27 @@ public final class KeyStoreTestUtils {
      */
     public static Path createTempKeyStore(String password) throws Exception {
         Path file = Files.createTempFile("test-keystore", ".jks");
+        Files.delete(file);
 
-        CertAndKeyGen gen = new CertAndKeyGen("RSA", "SHA256withRSA");
-        gen.generate(2048);
-        X509Certificate cert = gen.getSelfCertificate(new X500Name("CN=Test"), 365 * 24L * 60L * 60L);
-
-        KeyStore ks = KeyStore.getInstance("JKS");
-        ks.load(null, null);
-        ks.setKeyEntry("alias", gen.getPrivateKey(), password.toCharArray(), new Certificate[]{cert});
-
-        try (OutputStream out = Files.newOutputStream(file)) {
-            ks.store(out, password.toCharArray());
+        Path keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool");
+        Process process = new ProcessBuilder(
+                keytool.toString(),
+                "-genkeypair",
+                "-alias", "alias",
+                "-keyalg", "RSA",
+                "-keysize", "2048",
+                "-sigalg", "SHA256withRSA",
+                "-dname", "CN=Test",
+                "-validity", "365",
+                "-storetype", "JKS",
+                "-keystore", file.toAbsolutePath().toString(),
+                "-storepass", password,
+                "-keypass", password)
+                .redirectErrorStream(true)
+                .start();
+        process.getInputStream().transferTo(java.io.OutputStream.nullOutputStream());
+        if (!process.waitFor(60, TimeUnit.SECONDS) || process.exitValue() != 0) {
+            throw new IllegalStateException("keytool failed to create test keystore");
         }
         return file;
     }